@@ -123,6 +123,14 @@ public interface Authenticator {
 	 * 
 	 * @return 
 	 * 		true, if the password is correct for the specified user
+	 * 
+	 * @throws org.owasp.esapi.errors.EnterpriseSecurityRuntimeException
+	 * 		if the password could not be checked, e.g., because too many passwords are already
+	 * 		waiting to be hashed. Its cause is an {@link EncryptionException} caused by an
+	 * 		{@link org.owasp.esapi.errors.AvailabilityException}. This is not a wrong password,
+	 * 		so callers should not count it as a failed login, but ask the user to try again later.
+	 * 		{@link #login(HttpServletRequest, HttpServletResponse)} reports it as an
+	 * 		{@link AuthenticationException}.
 	 */
 	boolean verifyPassword(User user, String password);
 	
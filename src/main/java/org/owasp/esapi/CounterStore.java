@@ -0,0 +1,89 @@
+/**
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ *
+ * The ESAPI is published by OWASP under the BSD license. You should read and accept the
+ * LICENSE before you use, modify, and/or redistribute this software.
+ *
+ * @created 2014
+ */
+package org.owasp.esapi;
+
+/**
+ * The CounterStore interface defines where ESAPI keeps the sliding window
+ * event counts it needs to enforce thresholds, such as the intrusion
+ * detector's quotas and request rate limits. Keeping them behind an interface
+ * lets an application share them between processes, so that an attacker can
+ * not get around a threshold by having their requests spread over several
+ * JVMs behind a load balancer.
+ * <p>
+ * Implementations count how many events there have been for a key within the
+ * last interval. They may approximate the count, e.g., by weighting the count
+ * of the previous fixed window, and may forget keys that have not been used
+ * for a while, but they must be safe to use from many threads at once. Where
+ * an over count would do harm, e.g., before disabling a user, check the
+ * {@link #getMinimumCount minimum count} too, which is never more than the
+ * number of events there really were.
+ * <p>
+ * The implementation is selected with {@code ESAPI.CounterStore} in
+ * {@code ESAPI.properties}.
+ *
+ * @since 2.1.1
+ * @see org.owasp.esapi.reference.InMemoryCounterStore
+ * @see org.owasp.esapi.reference.MappedFileCounterStore
+ */
+public interface CounterStore {
+
+    /**
+     * Records an event for a key and returns the number of events for that
+     * key within the interval, including this one.
+     *
+     * @param key
+     *      the key to count the event against, e.g., an event name and the
+     *      user or IP address that caused it
+     * @param intervalMillis
+     *      the length of the sliding window, in milliseconds; implementations
+     *      may require it to be at least a second
+     * @param now
+     *      the time of the event, in milliseconds
+     *
+     * @return the number of events within the interval
+     */
+    int increment(String key, long intervalMillis, long now);
+
+    /**
+     * Returns the number of events for a key within the interval, without
+     * recording one.
+     *
+     * @param key
+     *      the key the events were counted against
+     * @param intervalMillis
+     *      the length of the sliding window, in milliseconds
+     * @param now
+     *      the current time, in milliseconds
+     *
+     * @return the number of events within the interval, or 0 if the key is unknown
+     */
+    int getCount(String key, long intervalMillis, long now);
+
+    /**
+     * Returns a number of events for a key that certainly happened within the
+     * interval. It is at most the number returned by {@link #getCount}, and
+     * may be considerably less for an approximating implementation.
+     *
+     * @param key
+     *      the key the events were counted against
+     * @param intervalMillis
+     *      the length of the sliding window, in milliseconds
+     * @param now
+     *      the current time, in milliseconds
+     *
+     * @return the number of events known to be within the interval, or 0 if the key is unknown
+     */
+    int getMinimumCount(String key, long intervalMillis, long now);
+}
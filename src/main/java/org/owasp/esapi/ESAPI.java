@@ -121,6 +121,13 @@ public final class ESAPI {
         return ObjFactory.make( securityConfiguration().getHTTPUtilitiesImplementation(), "HTTPUtilities" );
 	}
 
+	/**
+	 * @return the current ESAPI CounterStore being used to count events against thresholds.
+	 */
+	public static CounterStore counterStore() {
+        return ObjFactory.make( securityConfiguration().getCounterStoreImplementation(), "CounterStore" );
+	}
+
 	/**
 	 * @return the current ESAPI IntrusionDetector being used to monitor for intrusions in this application. 
 	 */
@@ -134,8 +141,29 @@ public final class ESAPI {
 	 * @return The current LogFactory being used by ESAPI.
 	 */
 	private static LogFactory logFactory() {
-        return ObjFactory.make( securityConfiguration().getLogImplementation(), "LogFactory" );
+		// Loggers are fetched far more often than any other ESAPI object, so remember
+		// the factory rather than resolving it via reflection on every call.
+		String className = securityConfiguration().getLogImplementation();
+		CachedLogFactory cached = cachedLogFactory;
+		if ( cached == null || ! cached.className.equals(className) ) {
+			cached = new CachedLogFactory(className, ObjFactory.<LogFactory>make( className, "LogFactory" ));
+			cachedLogFactory = cached;
+		}
+		return cached.factory;
 	}
+
+	/** The most recently used LogFactory, together with the class name it was created from. */
+	private static final class CachedLogFactory {
+		final String className;
+		final LogFactory factory;
+
+		CachedLogFactory(String className, LogFactory factory) {
+			this.className = className;
+			this.factory = factory;
+		}
+	}
+
+	private static volatile CachedLogFactory cachedLogFactory;
 	
 	/**
 	 * @param clazz The class to associate the logger with.
@@ -159,6 +159,19 @@ public interface Logger {
 			return this.type;
 		}
 	}
+
+	/**
+	 * Supplies a log message on demand. Used with the deferred logging methods, such as
+	 * {@link Logger#debug(EventType, MessageSupplier)}, so that the cost of building the
+	 * message is only paid when the event will actually be logged. On Java 8 and later
+	 * a lambda expression may be used, e.g., {@code () -> "Loaded " + describe(config)}.
+	 */
+	public interface MessageSupplier {
+		/**
+		 * @return The message to log.
+		 */
+		String get();
+	}
 	
 	/*
      * The Logger interface defines 6 logging levels: FATAL, ERROR, WARNING, INFO, DEBUG, TRACE. It also 
@@ -420,4 +433,244 @@ public interface Logger {
      * 		the exception to be logged
      */
 	void always(EventType type, String message, Throwable throwable);
+
+	/*
+	 * Parameterized and deferred messages. These only do the work of building the
+	 * message if the level is enabled. In a parameterized message each "{}" is
+	 * replaced by the string value of the next argument, e.g.,
+	 *
+	 *     logger.debug(Logger.EVENT_SUCCESS, "Encrypting with {}", cipherSpec);
+	 *
+	 * Note that a single argument that is a Throwable selects the
+	 * (EventType, String, Throwable) method instead, which logs the format
+	 * string as is along with the stack trace.
+	 */
+
+	/**
+     * Log a fatal level event with a parameterized message if 'fatal' level logging is enabled.
+     * 
+     * @param type 
+     * 		the type of event
+     * @param format 
+     * 		the message, with a "{}" placeholder for each argument
+     * @param arg 
+     * 		the first argument
+     * @param moreArgs 
+     * 		any further arguments
+     */
+	void fatal(EventType type, String format, Object arg, Object... moreArgs);
+
+	/**
+     * Log a fatal level event if 'fatal' level logging is enabled, only building
+     * the message if it is.
+     * 
+     * @param type 
+     * 		the type of event
+     * @param message 
+     * 		supplies the message to log
+     */
+	void fatal(EventType type, MessageSupplier message);
+
+	/**
+     * Log a fatal level event if 'fatal' level logging is enabled, only building
+     * the message if it is, and also record the stack trace associated with the event.
+     * 
+     * @param type 
+     * 		the type of event
+     * @param message 
+     * 		supplies the message to log
+     * @param throwable 
+     * 		the exception to be logged
+     */
+	void fatal(EventType type, MessageSupplier message, Throwable throwable);
+
+	/**
+     * Log an error level event with a parameterized message if 'error' level logging is enabled.
+     * 
+     * @param type 
+     * 		the type of event
+     * @param format 
+     * 		the message, with a "{}" placeholder for each argument
+     * @param arg 
+     * 		the first argument
+     * @param moreArgs 
+     * 		any further arguments
+     */
+	void error(EventType type, String format, Object arg, Object... moreArgs);
+
+	/**
+     * Log an error level event if 'error' level logging is enabled, only building
+     * the message if it is.
+     * 
+     * @param type 
+     * 		the type of event
+     * @param message 
+     * 		supplies the message to log
+     */
+	void error(EventType type, MessageSupplier message);
+
+	/**
+     * Log an error level event if 'error' level logging is enabled, only building
+     * the message if it is, and also record the stack trace associated with the event.
+     * 
+     * @param type 
+     * 		the type of event
+     * @param message 
+     * 		supplies the message to log
+     * @param throwable 
+     * 		the exception to be logged
+     */
+	void error(EventType type, MessageSupplier message, Throwable throwable);
+
+	/**
+     * Log a warning level event with a parameterized message if 'warning' level logging is enabled.
+     * 
+     * @param type 
+     * 		the type of event
+     * @param format 
+     * 		the message, with a "{}" placeholder for each argument
+     * @param arg 
+     * 		the first argument
+     * @param moreArgs 
+     * 		any further arguments
+     */
+	void warning(EventType type, String format, Object arg, Object... moreArgs);
+
+	/**
+     * Log a warning level event if 'warning' level logging is enabled, only building
+     * the message if it is.
+     * 
+     * @param type 
+     * 		the type of event
+     * @param message 
+     * 		supplies the message to log
+     */
+	void warning(EventType type, MessageSupplier message);
+
+	/**
+     * Log a warning level event if 'warning' level logging is enabled, only building
+     * the message if it is, and also record the stack trace associated with the event.
+     * 
+     * @param type 
+     * 		the type of event
+     * @param message 
+     * 		supplies the message to log
+     * @param throwable 
+     * 		the exception to be logged
+     */
+	void warning(EventType type, MessageSupplier message, Throwable throwable);
+
+	/**
+     * Log an info level event with a parameterized message if 'info' level logging is enabled.
+     * 
+     * @param type 
+     * 		the type of event
+     * @param format 
+     * 		the message, with a "{}" placeholder for each argument
+     * @param arg 
+     * 		the first argument
+     * @param moreArgs 
+     * 		any further arguments
+     */
+	void info(EventType type, String format, Object arg, Object... moreArgs);
+
+	/**
+     * Log an info level event if 'info' level logging is enabled, only building
+     * the message if it is.
+     * 
+     * @param type 
+     * 		the type of event
+     * @param message 
+     * 		supplies the message to log
+     */
+	void info(EventType type, MessageSupplier message);
+
+	/**
+     * Log an info level event if 'info' level logging is enabled, only building
+     * the message if it is, and also record the stack trace associated with the event.
+     * 
+     * @param type 
+     * 		the type of event
+     * @param message 
+     * 		supplies the message to log
+     * @param throwable 
+     * 		the exception to be logged
+     */
+	void info(EventType type, MessageSupplier message, Throwable throwable);
+
+	/**
+     * Log a debug level event with a parameterized message if 'debug' level logging is enabled.
+     * 
+     * @param type 
+     * 		the type of event
+     * @param format 
+     * 		the message, with a "{}" placeholder for each argument
+     * @param arg 
+     * 		the first argument
+     * @param moreArgs 
+     * 		any further arguments
+     */
+	void debug(EventType type, String format, Object arg, Object... moreArgs);
+
+	/**
+     * Log a debug level event if 'debug' level logging is enabled, only building
+     * the message if it is.
+     * 
+     * @param type 
+     * 		the type of event
+     * @param message 
+     * 		supplies the message to log
+     */
+	void debug(EventType type, MessageSupplier message);
+
+	/**
+     * Log a debug level event if 'debug' level logging is enabled, only building
+     * the message if it is, and also record the stack trace associated with the event.
+     * 
+     * @param type 
+     * 		the type of event
+     * @param message 
+     * 		supplies the message to log
+     * @param throwable 
+     * 		the exception to be logged
+     */
+	void debug(EventType type, MessageSupplier message, Throwable throwable);
+
+	/**
+     * Log a trace level event with a parameterized message if 'trace' level logging is enabled.
+     * 
+     * @param type 
+     * 		the type of event
+     * @param format 
+     * 		the message, with a "{}" placeholder for each argument
+     * @param arg 
+     * 		the first argument
+     * @param moreArgs 
+     * 		any further arguments
+     */
+	void trace(EventType type, String format, Object arg, Object... moreArgs);
+
+	/**
+     * Log a trace level event if 'trace' level logging is enabled, only building
+     * the message if it is.
+     * 
+     * @param type 
+     * 		the type of event
+     * @param message 
+     * 		supplies the message to log
+     */
+	void trace(EventType type, MessageSupplier message);
+
+	/**
+     * Log a trace level event if 'trace' level logging is enabled, only building
+     * the message if it is, and also record the stack trace associated with the event.
+     * 
+     * @param type 
+     * 		the type of event
+     * @param message 
+     * 		supplies the message to log
+     * @param throwable 
+     * 		the exception to be logged
+     */
+	void trace(EventType type, MessageSupplier message, Throwable throwable);
 }
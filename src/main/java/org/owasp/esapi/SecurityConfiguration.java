@@ -125,6 +125,11 @@ public interface SecurityConfiguration {
 	 */
 	public String getHTTPUtilitiesImplementation();
 	
+	/**
+	 * Returns the fully qualified classname of the ESAPI CounterStore implementation.
+	 */
+	public String getCounterStoreImplementation();
+	
 	/**
 	 * Gets the master key. This password is used to encrypt/decrypt other files or types
 	 * of data that need to be protected by your application.
@@ -402,6 +407,42 @@ public interface SecurityConfiguration {
 	 * @return	The KDF PRF algorithm name.
 	 */
 	public String getKDFPseudoRandomFunction();
+
+	/**
+	 * Retrieve the maximum number of keys the {@code Encryptor} keeps after deriving
+	 * them with the Key Derivation Function (KDF), so that it need not derive them
+	 * again for each encryption or decryption with the same key.
+	 * 
+	 * @return	The number of derived keys to cache, or 0 not to cache them.
+	 */
+	public int getKDFCacheSize();
+
+	/**
+	 * Retrieve how long a cached derived key may be used before it is derived again.
+	 * 
+	 * @return	The time to live of a cached derived key in seconds, or 0 for no limit.
+	 */
+	public int getKDFCacheTTL();
+
+	/**
+	 * Retrieve the smallest batch that {@code JavaEncryptor.encryptAll()} and
+	 * {@code decryptAll()} split across the available processors.
+	 * 
+	 * @return	The number of values from which a batch is processed in parallel,
+	 * 			or 0 always to process batches on the calling thread.
+	 */
+	public int getBatchParallelThreshold();
+
+	/**
+	 * Retrieve the format version of the seals that {@code Encryptor.seal()} creates.
+	 * Version 1 is the original format, signed with the digital signature key pair.
+	 * Version 2 is a compact binary format authenticated with an HMAC under a key
+	 * derived from the master key, which is much faster to create and check.
+	 * {@code Encryptor.unseal()} accepts seals of either version.
+	 * 
+	 * @return	The seal format version, 1 or 2.
+	 */
+	public int getSealVersion();
 	
 	/**
 	 * Gets the character encoding scheme supported by this application. This is used to set the
@@ -450,6 +491,43 @@ public interface SecurityConfiguration {
 	 * @return the current digital signature key length
 	 */
 	public int getDigitalSignatureKeyLength();
+
+	/**
+	 * Gets the path of the key store holding the key pair used by ESAPI to generate and
+	 * verify signatures. If set, it takes precedence over {@link #getDigitalSignatureKeyPairFile()}.
+	 * 
+	 * @return the key store path, or an empty string if no key store is used
+	 */
+	public String getDigitalSignatureKeyStore();
+
+	/**
+	 * Gets the type of the digital signature key store, such as "JKS" or "PKCS12".
+	 * 
+	 * @return the key store type
+	 */
+	public String getDigitalSignatureKeyStoreType();
+
+	/**
+	 * Gets the password of the digital signature key store and of its key entry.
+	 * 
+	 * @return the key store password, or an empty string if there is none
+	 */
+	public String getDigitalSignatureKeyStorePassword();
+
+	/**
+	 * Gets the alias of the key entry in the digital signature key store.
+	 * 
+	 * @return the key alias
+	 */
+	public String getDigitalSignatureKeyAlias();
+
+	/**
+	 * Gets the path of the file, as written by {@code JavaEncryptor -genkeypair}, holding
+	 * the encoded key pair used by ESAPI to generate and verify signatures.
+	 * 
+	 * @return the key pair file path, or an empty string if no key pair file is used
+	 */
+	public String getDigitalSignatureKeyPairFile();
 		   
 	/**
 	 * Gets the random number generation algorithm used to generate random numbers where needed.
@@ -475,12 +553,126 @@ public interface SecurityConfiguration {
 	 */
 	public int getMaxOldPasswordHashes();
 
+	/**
+	 * Determines whether the FileBasedAuthenticator appends changes to users to a journal, which
+	 * is regularly compacted into the user file, instead of rewriting the user file for each change.
+	 * 
+	 * @return true if changes to users are journaled
+	 */
+	public boolean getAuthenticatorJournal();
+
+	/**
+	 * Gets the number of journaled changes to users after which the user file is rewritten and
+	 * the journal is started over.
+	 * 
+	 * @return the number of journaled changes that trigger a compaction
+	 */
+	public int getAuthenticatorJournalCompactionThreshold();
+
+	/**
+	 * Gets the data file of the user store used by the DiskBasedAuthenticator. Its indexes are
+	 * kept in files next to it.
+	 * 
+	 * @return the path of the user store
+	 */
+	public String getAuthenticatorUserStoreFile();
+
+	/**
+	 * Gets the maximum number of users the DiskBasedAuthenticator keeps in memory.
+	 * 
+	 * @return the number of most recently used users to cache
+	 */
+	public int getAuthenticatorUserStoreCacheSize();
+
+	/**
+	 * Gets the number of threads dedicated to hashing passwords. With 0, passwords are
+	 * hashed on the thread that authenticates the user.
+	 * 
+	 * @return the number of password hashing threads
+	 */
+	public int getPasswordHashThreads();
+
+	/**
+	 * Gets the number of passwords that may wait for a password hashing thread before
+	 * further logins are refused as unavailable.
+	 * 
+	 * @return the maximum number of waiting passwords
+	 */
+	public int getPasswordHashQueueSize();
+
 	/**
 	 * Allows for complete disabling of all intrusion detection mechanisms
 	 * 
 	 * @return true if intrusion detection should be disabled
 	 */
 	public boolean getDisableIntrusionDetection();
+
+	/**
+	 * Gets what the intrusion detector counts events caused by anonymous users against, since
+	 * there is no user to count them against. One of "none" (anonymous events are not counted),
+	 * "remote-address" (the client's IP address), "session" (the session ID) or "header:name"
+	 * (the value of the named request header, e.g., an API key).
+	 * 
+	 * @return the principal anonymous intrusion events are counted against
+	 */
+	public String getIntrusionDetectionAnonymousKey();
+
+	/**
+	 * Gets the maximum number of (principal, event) counters the intrusion detector keeps for
+	 * anonymous users. When there are more, the least recently used counters are discarded.
+	 * 
+	 * @return the maximum number of anonymous intrusion event counters
+	 */
+	public int getIntrusionDetectionMaxPrincipals();
+
+	/**
+	 * Gets how long a counter for an anonymous principal is kept after its last event. Should
+	 * be at least as long as the longest quota interval.
+	 * 
+	 * @return the idle time, in seconds, after which anonymous intrusion event counters are discarded
+	 */
+	public int getIntrusionDetectionPrincipalIdleSeconds();
+
+	/**
+	 * Gets whether security events are counted, logged and acted upon by a background thread
+	 * rather than by the thread that reported them. Logout actions always run on the thread of
+	 * the user's next request, since they need the current request and response.
+	 * 
+	 * @return true if intrusion events should be processed asynchronously
+	 */
+	public boolean getIntrusionDetectionAsynchronously();
+
+	/**
+	 * Gets the maximum number of security events waiting to be processed asynchronously. When
+	 * the queue is full, events are processed by the thread that reported them.
+	 * 
+	 * @return the size of the asynchronous intrusion event queue
+	 */
+	public int getIntrusionDetectionAsyncQueueSize();
+
+	/**
+	 * Gets whether the intrusion detector counts events in the {@link CounterStore} rather than
+	 * in each user's event map, so that the counts can be shared with other processes.
+	 * 
+	 * @return true if intrusion events should be counted in the CounterStore
+	 */
+	public boolean getIntrusionDetectionSharedCounters();
+
+	/**
+	 * Gets the number of keys the CounterStore can count at once. When it is full, the least
+	 * recently used keys are forgotten.
+	 * 
+	 * @return the number of counter slots
+	 */
+	public int getCounterStoreSlots();
+
+	/**
+	 * Gets the file that counters are kept in by CounterStore implementations that share them
+	 * between processes through the file system, such as MappedFileCounterStore.
+	 * 
+	 * @return the path of the counter store file
+	 */
+	public String getCounterStoreFile();
 	
 	/**
 	 * Gets the intrusion detection quota for the specified event.
@@ -631,6 +823,58 @@ public interface SecurityConfiguration {
      */
     public int getMaxLogFileSize();
 
+    /**
+     * Returns whether log events should be written asynchronously. When true, the
+     * reference loggers capture each event on the calling thread and hand it off to a
+     * background thread which formats it and writes it to the underlying log.
+     * 
+     * @return True if log events are written by a background thread, False otherwise.
+     */
+    public boolean getLogAsynchronously();
+
+    /**
+     * Returns the maximum number of log events that may be waiting to be written when
+     * asynchronous logging is enabled. Rounded up to a power of 2.
+     * 
+     * @return the capacity of the asynchronous log event buffer.
+     */
+    public int getLogAsyncBufferSize();
+
+    /**
+     * Returns what to do with a log event when the asynchronous log event buffer is full.
+     * One of "block" (the caller waits for room), "drop-debug" (DEBUG and TRACE events are
+     * discarded, others wait) or "sample" (only one in every 10 DEBUG and TRACE events is
+     * kept, others wait). Events at INFO and above are never discarded.
+     * 
+     * @return the asynchronous log buffer overflow policy.
+     */
+    public String getLogAsyncOverflowPolicy();
+
+    /**
+     * Returns whether floods of the same log event should be suppressed. When true, only the
+     * first {@link #getLogSuppressionMaxPerWindow()} events with the same level, event type and
+     * message template are logged per {@link #getLogSuppressionWindowSeconds()}, and the rest
+     * are reported in a "Suppressed n occurrences" summary.
+     * 
+     * @return True if repeated log events are suppressed, False otherwise.
+     */
+    public boolean getLogSuppression();
+
+    /**
+     * Returns how many events with the same level, event type and message template are
+     * logged per window when log suppression is enabled.
+     * 
+     * @return the number of identical log events logged per window.
+     */
+    public int getLogSuppressionMaxPerWindow();
+
+    /**
+     * Returns the length of the log suppression window.
+     * 
+     * @return the log suppression window, in seconds.
+     */
+    public int getLogSuppressionWindowSeconds();
+
 	/**
 	 * Models a simple threshold as a count and an interval, along with a set of actions to take if 
 	 * the threshold is exceeded. These thresholds are used to define when the accumulation of a particular event
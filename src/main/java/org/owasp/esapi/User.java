@@ -374,6 +374,8 @@ public interface User extends Principal, Serializable {
 	 * @return true, if the password passed in matches the account's password
 	 * 
 	 * @throws EncryptionException 
+	 * @throws org.owasp.esapi.errors.EnterpriseSecurityRuntimeException
+	 * 		if the password could not be checked; see {@link Authenticator#verifyPassword(User, String)}
 	 */
 	public boolean verifyPassword(String password) throws EncryptionException;
 
@@ -0,0 +1,388 @@
+/*
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ */
+package org.owasp.esapi.crypto;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.owasp.esapi.ESAPI;
+import org.owasp.esapi.codecs.Hex;
+import org.owasp.esapi.errors.EncryptionException;
+import org.owasp.esapi.util.ByteConversionUtil;
+
+/**
+ * The chunked format used to encrypt data too large to hold in memory, by
+ * {@link StreamEncryptor} and {@link FileEncryptor}. The data is split into chunks of a fixed size,
+ * except for the last one, and each chunk is encrypted and authenticated on
+ * its own, so a chunk can be decrypted and checked without any other.
+ * <p>
+ * The encrypted data starts with a header:
+ * <pre>
+ *   magic "ESCS" | version (1 byte) | KDF version (int) | KDF PRF (1 byte) |
+ *   key size in bits (int) | chunk size (int) | cipher transformation (UTF) |
+ *   nonce (16 bytes) | HMAC of all of the above (32 bytes)
+ * </pre>
+ * which is followed by one frame for each chunk:
+ * <pre>
+ *   flags (1 byte, LAST for the last chunk) | ciphertext length (int) |
+ *   IV | ciphertext | HMAC (32 bytes)
+ * </pre>
+ * The keys for encryption and authenticity are derived from the key with
+ * {@link KeyDerivationFunction}, using the random nonce as context, so each
+ * encrypted stream has keys of its own. The HMAC of a frame covers its
+ * sequence number, flags, length, IV and ciphertext, so chunks cannot be
+ * reordered, dropped or swapped between streams, and the LAST flag reveals
+ * truncation. The HmacSHA256 of the header reveals a wrong key before
+ * anything is decrypted. The frames of all but the last chunk have the same
+ * length, so the frame of any chunk can be found without reading the others.
+ * <p>
+ * Instances are immutable and thread-safe; the {@code Cipher} and {@code Mac}
+ * for a chunk come from {@link CryptoPool}.
+ *
+ * @since 2.1.1
+ */
+final class ChunkCipher {
+
+	static final byte[] MAGIC = { 'E', 'S', 'C', 'S' };
+	static final int VERSION = 1;
+	static final String MAC_ALGORITHM = "HmacSHA256";
+	static final int MAC_LENGTH = 32;
+	static final int NONCE_LENGTH = 16;
+	static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+	/** Flag of the last frame. */
+	static final byte LAST = 1;
+	/** Length of the flags and ciphertext length that start each frame. */
+	static final int FRAME_HEADER_LENGTH = 5;
+
+	private static final String DECRYPTION_FAILED = "Decryption failed; see logs for details.";
+
+	private final String xform;
+	private final int keySize;
+	private final int chunkSize;
+	private final int ivLength;
+	private final int maxCiphertextLength;
+	private final SecretKey encKey;
+	private final SecretKey macKey;
+	private final byte[] header;
+	private volatile int fullFrameLength;
+
+	private ChunkCipher(SecretKey key, String xform, int keySize, int chunkSize, int kdfVersion,
+						KeyDerivationFunction.PRF_ALGORITHMS prf, byte[] nonce) throws EncryptionException {
+		if ( chunkSize < 1 || chunkSize > MAX_CHUNK_SIZE ) {
+			throw new EncryptionException("Invalid chunk size", "Chunk size must be between 1 and " +
+										  MAX_CHUNK_SIZE + ", was: " + chunkSize);
+		}
+		this.xform = xform;
+		this.keySize = keySize;
+		this.chunkSize = chunkSize;
+		Cipher cipher = null;
+		try {
+			cipher = CryptoPool.getCipher(xform);
+			int blockSize = Math.max(cipher.getBlockSize(), 1);
+			this.ivLength = new CipherSpec(xform, keySize).requiresIV() ? cipher.getBlockSize() : 0;
+			// Room for padding, or an authentication tag
+			this.maxCiphertextLength = chunkSize + Math.max(blockSize, 16) * 2;
+
+			KeyDerivationFunction kdf = new KeyDerivationFunction(prf);
+			kdf.setVersion(kdfVersion);
+			kdf.setContext(Hex.toHex(nonce, false));
+			this.encKey = kdf.computeDerivedKey(key, keySize, "encryption");
+			SecretKey authKey = kdf.computeDerivedKey(key, keySize, "authenticity");
+			this.macKey = new SecretKeySpec(authKey.getEncoded(), MAC_ALGORITHM);
+		} catch (EncryptionException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new EncryptionException("Encryption failure", "Cannot set up " + xform + " for chunked encryption: " +
+										  e.getMessage(), e);
+		} finally {
+			CryptoPool.release(cipher);
+		}
+
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.write(MAGIC);
+			out.writeByte(VERSION);
+			out.writeInt(kdfVersion);
+			out.writeByte(prf.getValue());
+			out.writeInt(keySize);
+			out.writeInt(chunkSize);
+			out.writeUTF(xform);
+			out.write(nonce);
+			out.write(mac(bytes.toByteArray()));
+			out.flush();
+			this.header = bytes.toByteArray();
+		} catch (IOException e) {
+			throw new EncryptionException("Encryption failure", "Cannot write chunked encryption header", e);
+		}
+	}
+
+	/**
+	 * Set up to encrypt with new keys derived from a key.
+	 *
+	 * @param key	The key to derive the keys from.
+	 * @param xform	The cipher transformation.
+	 * @param chunkSize	The number of bytes in a chunk.
+	 * @return	The chunk cipher.
+	 * @throws EncryptionException	if the transformation or chunk size is not valid.
+	 */
+	static ChunkCipher create(SecretKey key, String xform, int chunkSize) throws EncryptionException {
+		String[] parts = xform.split("/");
+		if ( parts.length != 3 || !CryptoHelper.isAllowedCipherMode(parts[1]) ) {
+			throw new EncryptionException("Encryption failure: invalid cipher transformation",
+										  "Cipher transformation " + xform + " is malformed or its mode is not allowed");
+		}
+		KeyDerivationFunction.PRF_ALGORITHMS prf =
+			KeyDerivationFunction.convertNameToPRF(ESAPI.securityConfiguration().getKDFPseudoRandomFunction());
+		return new ChunkCipher(key, xform, key.getEncoded().length * 8, chunkSize, KeyDerivationFunction.kdfVersion,
+							   prf, ESAPI.randomizer().getRandomBytes(NONCE_LENGTH));
+	}
+
+	/**
+	 * Read and verify the header of encrypted data, and set up to decrypt it.
+	 *
+	 * @param key	The key the data was encrypted with.
+	 * @param in	The encrypted data, positioned at its start.
+	 * @return	The chunk cipher, with {@code in} positioned at the first frame.
+	 * @throws EncryptionException	if the header is not valid, or the key is wrong.
+	 * @throws IOException	if reading fails.
+	 */
+	static ChunkCipher read(SecretKey key, DataInputStream in) throws EncryptionException, IOException {
+		byte[] magic = new byte[MAGIC.length];
+		in.readFully(magic);
+		if ( !Arrays.equals(MAGIC, magic) ) {
+			throw new EncryptionException(DECRYPTION_FAILED, "Not chunked encrypted data");
+		}
+		int version = in.readUnsignedByte();
+		if ( version != VERSION ) {
+			throw new EncryptionException(DECRYPTION_FAILED, "Unsupported chunked encryption version: " + version);
+		}
+		int kdfVersion = in.readInt();
+		int prfValue = in.readUnsignedByte();
+		int keySize = in.readInt();
+		int chunkSize = in.readInt();
+		String xform = in.readUTF();
+		byte[] nonce = new byte[NONCE_LENGTH];
+		in.readFully(nonce);
+		byte[] mac = new byte[MAC_LENGTH];
+		in.readFully(mac);
+
+		if ( !CryptoHelper.isValidKDFVersion(kdfVersion, false, false) ) {
+			throw new EncryptionException(DECRYPTION_FAILED, "Invalid KDF version in chunked encryption header: " + kdfVersion);
+		}
+		if ( keySize != key.getEncoded().length * 8 ) {
+			throw new EncryptionException(DECRYPTION_FAILED, "Data was encrypted with a " + keySize +
+										  "-bit key, not the " + key.getEncoded().length * 8 + "-bit key given");
+		}
+		KeyDerivationFunction.PRF_ALGORITHMS prf;
+		try {
+			prf = KeyDerivationFunction.convertIntToPRF(prfValue);
+		} catch (IllegalArgumentException e) {
+			throw new EncryptionException(DECRYPTION_FAILED, "Invalid KDF PRF in chunked encryption header: " + prfValue, e);
+		}
+		ChunkCipher chunks = new ChunkCipher(key, xform, keySize, chunkSize, kdfVersion, prf, nonce);
+		byte[] expected = Arrays.copyOfRange(chunks.header, chunks.header.length - MAC_LENGTH, chunks.header.length);
+		if ( !CryptoHelper.arrayCompare(expected, mac) ) {
+			throw new EncryptionException(DECRYPTION_FAILED, "Chunked encryption header was altered, or the key is wrong");
+		}
+		return chunks;
+	}
+
+	/**
+	 * @return	A copy of the header to write before the frames.
+	 */
+	byte[] getHeader() {
+		return header.clone();
+	}
+
+	int getChunkSize() {
+		return chunkSize;
+	}
+
+	String getCipherTransformation() {
+		return xform;
+	}
+
+	int getKeySize() {
+		return keySize;
+	}
+
+	/**
+	 * @return	The size of the largest frame, for sizing buffers.
+	 */
+	int getMaxFrameLength() {
+		return FRAME_HEADER_LENGTH + ivLength + maxCiphertextLength + MAC_LENGTH;
+	}
+
+	/**
+	 * Get the length of the frame of a whole chunk, which is the same for all
+	 * of them. The frame of the last chunk may be shorter.
+	 *
+	 * @return	The length of a full frame.
+	 * @throws EncryptionException	if encryption fails.
+	 */
+	int getFullFrameLength() throws EncryptionException {
+		if ( fullFrameLength == 0 ) {
+			fullFrameLength = seal(0, false, new byte[chunkSize], 0, chunkSize, new byte[getMaxFrameLength()], 0);
+		}
+		return fullFrameLength;
+	}
+
+	/**
+	 * Get the length of the frame that follows from the flags and ciphertext
+	 * length at its start.
+	 *
+	 * @throws EncryptionException	if the length is not valid.
+	 */
+	int getFrameLength(byte[] frame, int offset) throws EncryptionException {
+		int ciphertextLength = ByteConversionUtil.toInt(Arrays.copyOfRange(frame, offset + 1, offset + FRAME_HEADER_LENGTH));
+		if ( ciphertextLength < 0 || ciphertextLength > maxCiphertextLength ) {
+			throw new EncryptionException(DECRYPTION_FAILED, "Invalid chunk length: " + ciphertextLength);
+		}
+		return FRAME_HEADER_LENGTH + ivLength + ciphertextLength + MAC_LENGTH;
+	}
+
+	/**
+	 * @return	Whether the frame is the last one.
+	 */
+	static boolean isLast(byte[] frame, int offset) {
+		return (frame[offset] & LAST) != 0;
+	}
+
+	/**
+	 * Encrypt and authenticate a chunk.
+	 *
+	 * @param sequence	The number of the chunk, counting from 0.
+	 * @param last	Whether it is the last chunk.
+	 * @param plain	The plaintext.
+	 * @param offset	The start of the chunk in {@code plain}.
+	 * @param length	The length of the chunk, at most the chunk size.
+	 * @param frame	The buffer to write the frame to, of at least {@link #getMaxFrameLength()} bytes after {@code frameOffset}.
+	 * @param frameOffset	Where to write the frame.
+	 * @return	The length of the frame.
+	 * @throws EncryptionException	if encryption fails.
+	 */
+	int seal(long sequence, boolean last, byte[] plain, int offset, int length, byte[] frame, int frameOffset)
+		throws EncryptionException
+	{
+		if ( length > chunkSize ) {
+			throw new IllegalArgumentException("Chunk of " + length + " bytes is larger than the chunk size " + chunkSize);
+		}
+		Cipher cipher = null;
+		try {
+			cipher = CryptoPool.getCipher(xform);
+			int pos = frameOffset + FRAME_HEADER_LENGTH;
+			if ( ivLength > 0 ) {
+				byte[] iv = ESAPI.randomizer().getRandomBytes(ivLength);
+				cipher.init(Cipher.ENCRYPT_MODE, encKey, new IvParameterSpec(iv));
+				System.arraycopy(iv, 0, frame, pos, ivLength);
+				pos += ivLength;
+			} else {
+				cipher.init(Cipher.ENCRYPT_MODE, encKey);
+			}
+			int ciphertextLength = cipher.doFinal(plain, offset, length, frame, pos);
+			frame[frameOffset] = last ? LAST : 0;
+			System.arraycopy(ByteConversionUtil.fromInt(ciphertextLength), 0, frame, frameOffset + 1, 4);
+			pos += ciphertextLength;
+			byte[] mac = mac(sequence, frame, frameOffset, pos - frameOffset);
+			System.arraycopy(mac, 0, frame, pos, MAC_LENGTH);
+			return pos + MAC_LENGTH - frameOffset;
+		} catch (Exception e) {
+			throw new EncryptionException("Encryption failure", "Cannot encrypt chunk " + sequence + ": " + e.getMessage(), e);
+		} finally {
+			CryptoPool.release(cipher);
+		}
+	}
+
+	/**
+	 * Verify and decrypt a frame.
+	 *
+	 * @param sequence	The number the chunk must have.
+	 * @param frame	The frame.
+	 * @param frameOffset	Where the frame starts.
+	 * @param frameLength	The length of the frame.
+	 * @param plain	The buffer to decrypt to, of at least the chunk size after {@code offset}.
+	 * @param offset	Where to write the plaintext.
+	 * @return	The length of the plaintext.
+	 * @throws EncryptionException	if the frame was altered, is out of place, or cannot be decrypted.
+	 */
+	int open(long sequence, byte[] frame, int frameOffset, int frameLength, byte[] plain, int offset)
+		throws EncryptionException
+	{
+		if ( frameLength != getFrameLength(frame, frameOffset) ) {
+			throw new EncryptionException(DECRYPTION_FAILED, "Chunk " + sequence + " has an invalid length");
+		}
+		int macOffset = frameOffset + frameLength - MAC_LENGTH;
+		byte[] expected = mac(sequence, frame, frameOffset, frameLength - MAC_LENGTH);
+		if ( !CryptoHelper.arrayCompare(expected, Arrays.copyOfRange(frame, macOffset, macOffset + MAC_LENGTH)) ) {
+			throw new EncryptionException(DECRYPTION_FAILED, "Chunk " + sequence +
+										  " was altered, reordered or taken from other data");
+		}
+		Cipher cipher = null;
+		try {
+			cipher = CryptoPool.getCipher(xform);
+			int pos = frameOffset + FRAME_HEADER_LENGTH;
+			if ( ivLength > 0 ) {
+				cipher.init(Cipher.DECRYPT_MODE, encKey, new IvParameterSpec(frame, pos, ivLength));
+				pos += ivLength;
+			} else {
+				cipher.init(Cipher.DECRYPT_MODE, encKey);
+			}
+			int length = cipher.doFinal(frame, pos, macOffset - pos, plain, offset);
+			if ( length > chunkSize ) {
+				throw new EncryptionException(DECRYPTION_FAILED, "Chunk " + sequence + " is larger than the chunk size");
+			}
+			return length;
+		} catch (EncryptionException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new EncryptionException(DECRYPTION_FAILED, "Cannot decrypt chunk " + sequence + ": " + e.getMessage(), e);
+		} finally {
+			CryptoPool.release(cipher);
+		}
+	}
+
+	private byte[] mac(byte[] data) throws EncryptionException {
+		Mac mac = null;
+		try {
+			mac = CryptoPool.getMac(MAC_ALGORITHM);
+			mac.init(macKey);
+			return mac.doFinal(data);
+		} catch (Exception e) {
+			throw new EncryptionException("Encryption failure", "Cannot compute " + MAC_ALGORITHM + ": " + e.getMessage(), e);
+		} finally {
+			CryptoPool.release(mac);
+		}
+	}
+
+	private byte[] mac(long sequence, byte[] frame, int offset, int length) throws EncryptionException {
+		Mac mac = null;
+		try {
+			mac = CryptoPool.getMac(MAC_ALGORITHM);
+			mac.init(macKey);
+			mac.update(ByteConversionUtil.fromLong(sequence));
+			mac.update(frame, offset, length);
+			return mac.doFinal();
+		} catch (Exception e) {
+			throw new EncryptionException("Encryption failure", "Cannot compute " + MAC_ALGORITHM + ": " + e.getMessage(), e);
+		} finally {
+			CryptoPool.release(mac);
+		}
+	}
+}
@@ -12,6 +12,7 @@ package org.owasp.esapi.crypto;
 
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.util.Date;
@@ -177,6 +178,23 @@ public final class CipherText implements Serializable {
         return cts.asCipherText();
     }
 
+    /** Create a {@code CipherText} object from the portable serialization at
+     *  the position of a buffer, as written by
+     *  {@link #writePortableSerializedBytes(ByteBuffer)} or
+     *  {@link #asPortableSerializedByteArray()}. The buffer's position is
+     *  advanced past the serialization.
+     * @param buffer A buffer holding a portable serialized {@code CipherText}.
+     * @return A {@code CipherText} object reconstructed from the buffer.
+     * @throws EncryptionException
+     * @since 2.1.1
+     */
+    public static CipherText fromPortableSerializedBytes(ByteBuffer buffer)
+            throws EncryptionException
+    {
+        CipherTextSerializer cts = new CipherTextSerializer(buffer);
+        return cts.asCipherText();
+    }
+
     /////////////////////////  P U B L I C   M E T H O D S  ////////////////////
 
 	/**
@@ -297,6 +315,32 @@ public final class CipherText implements Serializable {
 	    }
 	}
 	
+	/**
+	 * Get a read-only view of the raw ciphertext, without copying it.
+	 * 
+	 * @return The raw ciphertext, or <code>null</code> if it has not been set yet.
+	 * @since 2.1.1
+	 */
+	public ByteBuffer getRawCipherTextBuffer() {
+	    if ( isCollected(CipherTextFlags.CIPHERTEXT) ) {
+	        return ByteBuffer.wrap(raw_ciphertext_).asReadOnlyBuffer();
+	    } else {
+	        logger.error(Logger.SECURITY_FAILURE, "Raw ciphertext not set yet; unable to retrieve; returning null");
+	        return null;
+	    }
+	}
+
+	/**
+	 * Get a read-only view of the initialization vector (IV), without copying it.
+	 * 
+	 * @return The IV, or <code>null</code> if there is none.
+	 * @since 2.1.1
+	 */
+	public ByteBuffer getIVBuffer() {
+	    byte[] iv = isCollected(CipherTextFlags.INITVECTOR) ? cipherSpec_.getIV() : null;
+	    return ( iv == null ) ? null : ByteBuffer.wrap(iv).asReadOnlyBuffer();
+	}
+
 	/**
 	 * Get number of bytes in raw ciphertext. Zero is returned if ciphertext has not
 	 * yet been stored.
@@ -481,6 +525,40 @@ public final class CipherText implements Serializable {
 	 * @throws EncryptionException
 	 */    // DISCUSS: This method name sucks too. Suggestions???
 	public byte[] asPortableSerializedByteArray() throws EncryptionException {
+	    checkSerializable();
+	    // OK, everything ready, so give it a shot.
+	    return new CipherTextSerializer(this).asSerializedByteArray();
+	}
+
+	/**
+	 * Get the number of bytes in the portable serialization of this object,
+	 * that is, the length of {@link #asPortableSerializedByteArray()}.
+	 * 
+	 * @return The length of the portable serialization.
+	 * @since 2.1.1
+	 */
+	public int getPortableSerializedLength() {
+	    return new CipherTextSerializer(this).serializedLength();
+	}
+
+	/**
+	 * Write the portable serialization of this object, the same bytes as
+	 * {@link #asPortableSerializedByteArray()} returns, at the position of a
+	 * buffer, without an intermediate byte array. The buffer's position is
+	 * advanced past the serialization.
+	 * 
+	 * @param buffer The buffer to write to. It must have at least
+	 * 				{@link #getPortableSerializedLength()} bytes remaining.
+	 * @throws EncryptionException
+	 * @throws java.nio.BufferOverflowException if the buffer has too few bytes remaining.
+	 * @since 2.1.1
+	 */
+	public void writePortableSerializedBytes(ByteBuffer buffer) throws EncryptionException {
+	    checkSerializable();
+	    new CipherTextSerializer(this).writeTo(buffer);
+	}
+
+	private void checkSerializable() throws EncryptionException {
         // Check if this CipherText object is "complete", i.e., all
         // mandatory has been collected.
 	    if ( ! collectedAll() ) {
@@ -501,9 +579,6 @@ public final class CipherText implements Serializable {
 	        throw new EncryptionException("Can't serialize ciphertext info: Data integrity issue.",
 	                                      msg);
 	    }
-	    
-	    // OK, everything ready, so give it a shot.
-	    return new CipherTextSerializer(this).asSerializedByteArray();
 	}
 	
     ///// Setters /////
@@ -515,6 +590,17 @@ public final class CipherText implements Serializable {
      */
     public void setCiphertext(byte[] ciphertext)
         throws EncryptionException
+    {
+        setCiphertext(ciphertext, true);
+    }
+
+    /**
+     * Set the raw ciphertext, keeping the array itself instead of a copy if
+     * {@code copy} is false. Only used by {@code CipherTextSerializer}, which
+     * has just read the array. (Has package level access.)
+     */
+    void setCiphertext(byte[] ciphertext, boolean copy)
+        throws EncryptionException
     {
         if ( ! macComputed() ) {
             if ( ciphertext == null || ciphertext.length == 0 ) {
@@ -524,8 +610,12 @@ public final class CipherText implements Serializable {
             if ( isCollected(CipherTextFlags.CIPHERTEXT) ) {
                 logger.warning(Logger.SECURITY_FAILURE, "Raw ciphertext was already set; resetting.");
             }
-            raw_ciphertext_ = new byte[ ciphertext.length ];
-            CryptoHelper.copyByteArray(ciphertext, raw_ciphertext_);
+            if ( copy ) {
+                raw_ciphertext_ = new byte[ ciphertext.length ];
+                CryptoHelper.copyByteArray(ciphertext, raw_ciphertext_);
+            } else {
+                raw_ciphertext_ = ciphertext;
+            }
             received(CipherTextFlags.CIPHERTEXT);
             setEncryptionTimestamp();
         } else {
@@ -657,6 +747,17 @@ public final class CipherText implements Serializable {
         System.arraycopy(separate_mac_, 0, copy, 0, separate_mac_.length);
         return copy;   
     }
+
+    /** Get a read-only view of the separately calculated MAC, without copying it.
+     * @return The MAC, or {@code null} if one is not used.
+     * @since 2.1.1
+     */
+    public ByteBuffer getSeparateMACBuffer() {
+        if ( separate_mac_ == null ) {
+            return null;
+        }
+        return ByteBuffer.wrap(separate_mac_).asReadOnlyBuffer();
+    }
     
     /**
      * More useful {@code toString()} method.
@@ -778,13 +879,17 @@ public final class CipherText implements Serializable {
         	// to be just that much longer, which is probably unacceptable when encrypting
         	// short strings.
             SecretKey sk = new SecretKeySpec(authKey.getEncoded(), "HmacSHA1");
-            Mac mac = Mac.getInstance("HmacSHA1");
-            mac.init(sk);
-            if ( requiresIV() ) {
-                mac.update( getIV() );
+            Mac mac = CryptoPool.getMac("HmacSHA1");
+            try {
+                mac.init(sk);
+                if ( requiresIV() ) {
+                    mac.update( getIV() );
+                }
+                byte[] result = mac.doFinal( getRawCipherText() );
+                return result;
+            } finally {
+                CryptoPool.release(mac);
             }
-            byte[] result = mac.doFinal( getRawCipherText() );
-            return result;
         } catch (NoSuchAlgorithmException e) {
             logger.error(Logger.SECURITY_FAILURE, "Cannot compute MAC w/out HmacSHA1.", e);
             return null;
@@ -1,15 +1,16 @@
 package org.owasp.esapi.crypto;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InvalidClassException;
 import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Date;
 
 import org.owasp.esapi.ESAPI;
 import org.owasp.esapi.Logger;
-import org.owasp.esapi.util.ByteConversionUtil;
 import org.owasp.esapi.errors.EncryptionException;
 
 /**
@@ -80,50 +81,121 @@ public class CipherTextSerializer {
         cipherText_ = convertToCipherText(cipherTextSerializedBytes);
     }
 
+    /**
+     * Given a buffer holding a serialized {@code CipherText} at its position,
+     * in network byte order (i.e., big-endian order), read it so that a
+     * {@code CipherText} can be constructed from it. The buffer's position is
+     * advanced past the serialization.
+     * @param cipherTextSerialization A buffer holding a serialized {@code CipherText}.
+     * @throws EncryptionException Thrown if a valid {@code CipherText} object
+     *          cannot be reconstructed from the buffer.
+     * @since 2.1.1
+     */
+    public CipherTextSerializer(ByteBuffer cipherTextSerialization)
+        throws EncryptionException
+    {
+        if ( cipherTextSerialization == null ) {
+            throw new IllegalArgumentException("Serialized CipherText buffer must not be null.");
+        }
+        cipherText_ = convertToCipherText(cipherTextSerialization);
+    }
+
     /** Return this {@code CipherText} object as a specialized, portable
      *  serialized byte array.
      * @return A serialization of this object. Note that this is <i>not</i> the
      * Java serialization.
      */
     public byte[] asSerializedByteArray() {
+        byte[] serializedObj = new byte[ serializedLength() ];
+        writeTo(ByteBuffer.wrap(serializedObj));
+        return serializedObj;
+    }
+
+    /**
+     * Return the exact number of bytes that {@link #asSerializedByteArray()}
+     * returns and {@link #writeTo(ByteBuffer)} writes.
+     * @return The length of the serialization.
+     * @since 2.1.1
+     */
+    public int serializedLength() {
+        return 4 +                                  // kdfInfo
+               8 +                                  // timestamp
+               2 + utf8(cipherText_.getCipherTransformation()).length +
+               2 +                                  // keySize
+               2 +                                  // blockSize
+               2 + remaining(cipherText_.getIVBuffer()) +
+               4 + remaining(cipherText_.getRawCipherTextBuffer()) +
+               2 + remaining(cipherText_.getSeparateMACBuffer());
+    }
+
+    /**
+     * Write the serialization at the position of a buffer, in network byte
+     * order whatever the order of the buffer, advancing its position past the
+     * serialization. The IV, raw ciphertext and MAC are put into the buffer
+     * straight from the {@code CipherText}, without intermediate copies.
+     * @param buffer The buffer to write to. It must have at least
+     *               {@link #serializedLength()} bytes remaining.
+     * @throws BufferOverflowException if the buffer has too few bytes remaining,
+     *               in which case nothing is written.
+     * @since 2.1.1
+     */
+    public void writeTo(ByteBuffer buffer) {
         int kdfInfo = cipherText_.getKDFInfo();
-        debug("asSerializedByteArray: kdfInfo = " + kdfInfo);
         long timestamp = cipherText_.getEncryptionTimestamp();
         String cipherXform = cipherText_.getCipherTransformation();
+        String[] parts = cipherXform.split("/");
+        assert parts.length == 3 : "Malformed cipher transformation";
+        byte[] xform = utf8(cipherXform);
+        assert xform.length < Short.MAX_VALUE : "writeTo: String exceeds max length";
         assert cipherText_.getKeySize() < Short.MAX_VALUE :
                             "Key size too large. Max is " + Short.MAX_VALUE;
-        short keySize = (short) cipherText_.getKeySize();
         assert cipherText_.getBlockSize() < Short.MAX_VALUE :
                             "Block size too large. Max is " + Short.MAX_VALUE;
-        short blockSize = (short) cipherText_.getBlockSize();
-        byte[] iv = cipherText_.getIV();
-        assert iv.length < Short.MAX_VALUE :
+        ByteBuffer iv = cipherText_.getIVBuffer();
+        assert remaining(iv) < Short.MAX_VALUE :
                             "IV size too large. Max is " + Short.MAX_VALUE;
-        short ivLen = (short) iv.length;
-        byte[] rawCiphertext = cipherText_.getRawCipherText();
-        int ciphertextLen = rawCiphertext.length;
-        assert ciphertextLen >= 1 : "Raw ciphertext length must be >= 1 byte.";
-        byte[] mac = cipherText_.getSeparateMAC();
-        assert mac.length < Short.MAX_VALUE :
+        ByteBuffer rawCiphertext = cipherText_.getRawCipherTextBuffer();
+        assert remaining(rawCiphertext) >= 1 : "Raw ciphertext length must be >= 1 byte.";
+        ByteBuffer mac = cipherText_.getSeparateMACBuffer();
+        assert remaining(mac) < Short.MAX_VALUE :
                             "MAC length too large. Max is " + Short.MAX_VALUE;
-        short macLen = (short) mac.length;
-        
-        byte[] serializedObj = computeSerialization(kdfInfo,
-                                                    timestamp,
-                                                    cipherXform,
-                                                    keySize,
-                                                    blockSize,
-                                                    ivLen,
-                                                    iv,
-                                                    ciphertextLen,
-                                                    rawCiphertext,
-                                                    macLen,
-                                                    mac
-                                                   );
-        
-        return serializedObj;
+
+        debug("writeTo: kdfInfo = " + kdfInfo);
+        debug("writeTo: timestamp = " + new Date(timestamp));
+        debug("writeTo: cipherXform = " + cipherXform);
+        debug("writeTo: keySize = " + cipherText_.getKeySize());
+        debug("writeTo: blockSize = " + cipherText_.getBlockSize());
+        debug("writeTo: ivLen = " + remaining(iv));
+        debug("writeTo: ciphertextLen = " + remaining(rawCiphertext));
+        debug("writeTo: macLen = " + remaining(mac));
+
+        if ( buffer.remaining() < serializedLength() ) {
+            throw new BufferOverflowException();
+        }
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        try {
+            buffer.putInt(kdfInfo);
+            buffer.putLong(timestamp);
+            // All strings are written as UTF-8 encoded byte streams with the
+            // length prepended before it as a short. The prepended length is
+            // more for the benefit of languages like C so they can pre-allocate
+            // char arrays without worrying about buffer overflows.
+            buffer.putShort((short) xform.length);
+            buffer.put(xform);
+            buffer.putShort((short) cipherText_.getKeySize());
+            buffer.putShort((short) cipherText_.getBlockSize());
+            buffer.putShort((short) remaining(iv));
+            if ( iv != null ) buffer.put(iv);
+            buffer.putInt(remaining(rawCiphertext));
+            buffer.put(rawCiphertext);
+            buffer.putShort((short) remaining(mac));
+            if ( mac != null ) buffer.put(mac);
+        } finally {
+            buffer.order(order);
+        }
     }
-    
+
     /**
      * Return the actual {@code CipherText} object.
      * @return The {@code CipherText} object that we are serializing.
@@ -132,140 +204,53 @@ public class CipherTextSerializer {
     	assert cipherText_ != null;
         return cipherText_;
     }
-      
-    /**
-     * Take all the individual elements that make of the serialized ciphertext
-     * format and put them in order and return them as a byte array.
-     * @param kdfInfo	Info about the KDF... which PRF and the KDF version {@link #asCipherText()}.
-     * @param timestamp	Timestamp when the data was encrypted. Intended to help
-     * 					facilitate key change operations and nothing more. If it is meaningless,
-     * 					then the expectations are just that the recipient should ignore it. Mostly
-     * 					intended when encrypted data is kept long term over a period of many
-     * 					key change operations.
-     * @param cipherXform	Details of how the ciphertext was encrypted. The format used
-     * 						is the same as used by {@code javax.crypto.Cipher}, namely,
-     * 						"cipherAlg/cipherMode/paddingScheme".
-     * @param keySize	The key size used for encrypting. Intended for cipher algorithms
-     * 					supporting multiple key sizes such as triple DES (DESede) or
-     * 					Blowfish.
-     * @param blockSize	The cipher block size. Intended to support cipher algorithms
-     * 					that support variable block sizes, such as Rijndael.
-     * @param ivLen		The length of the IV.
-     * @param iv		The actual IV (initialization vector) bytes.
-     * @param ciphertextLen	The length of the raw ciphertext.
-     * @param rawCiphertext	The actual raw ciphertext itself
-     * @param macLen	The length of the MAC (message authentication code).
-     * @param mac		The MAC itself.
-     * @return	A byte array representing the serialized ciphertext.
-     */
-    private byte[] computeSerialization(int kdfInfo, long timestamp,
-                                        String cipherXform, short keySize,
-                                        short blockSize,
-                                        short ivLen, byte[] iv,
-                                        int ciphertextLen, byte[] rawCiphertext,
-                                        short macLen, byte[] mac
-                                       )
-    {
-        debug("computeSerialization: kdfInfo = " + kdfInfo);
-        debug("computeSerialization: timestamp = " + new Date(timestamp));
-        debug("computeSerialization: cipherXform = " + cipherXform);
-        debug("computeSerialization: keySize = " + keySize);
-        debug("computeSerialization: blockSize = " + blockSize);
-        debug("computeSerialization: ivLen = " + ivLen);
-        debug("computeSerialization: ciphertextLen = " + ciphertextLen);
-        debug("computeSerialization: macLen = " + macLen);
 
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        writeInt(baos, kdfInfo);
-        writeLong(baos, timestamp);
-        String[] parts = cipherXform.split("/");
-        assert parts.length == 3 : "Malformed cipher transformation";
-        writeString(baos, cipherXform); // Size of string is prepended to string
-        writeShort(baos, keySize);
-        writeShort(baos, blockSize);
-        writeShort(baos, ivLen);
-        if ( ivLen > 0 ) baos.write(iv, 0, iv.length);
-        writeInt(baos, ciphertextLen);
-        baos.write(rawCiphertext, 0, rawCiphertext.length);
-        writeShort(baos, macLen);
-        if ( macLen > 0 ) baos.write(mac, 0, mac.length);
-        return baos.toByteArray();
+    private static int remaining(ByteBuffer buffer) {
+        return ( buffer == null ) ? 0 : buffer.remaining();
     }
-    
-    // All strings are written as UTF-8 encoded byte streams with the
-    // length prepended before it as a short. The prepended length is
-    // more for the benefit of languages like C so they can pre-allocate
-    // char arrays without worrying about buffer overflows.
-    private void writeString(ByteArrayOutputStream baos, String str) {
-        byte[] bytes;
+
+    private byte[] utf8(String str) {
         try {
             assert str != null && str.length() > 0;
-            bytes = str.getBytes("UTF8");
-            assert bytes.length < Short.MAX_VALUE : "writeString: String exceeds max length";
-            writeShort(baos, (short)bytes.length);
-            baos.write(bytes, 0, bytes.length);
+            return str.getBytes("UTF8");
         } catch (UnsupportedEncodingException e) {
             // Should never happen. UTF8 is built into the rt.jar. We don't use native encoding as
             // a fall-back because that simply is not guaranteed to be portable across Java
             // platforms and could cause really bizarre errors way downstream.
             logger.error(Logger.EVENT_FAILURE, "Ignoring caught UnsupportedEncodingException " +
                            "converting string to UTF8 encoding. Results suspect. Corrupt rt.jar????");
+            return new byte[0];
         }
     }
-    
-    private String readString(ByteArrayInputStream bais, short sz)
-        throws NullPointerException, IOException
-    {
-        byte[] bytes = new byte[sz];
-        int ret = bais.read(bytes, 0, sz);
-        assert ret == sz : "readString: Failed to read " + sz + " bytes.";
-        return new String(bytes, "UTF8");
-    }
-    
-    private void writeShort(ByteArrayOutputStream baos, short s) {
-        byte[] shortAsByteArray = ByteConversionUtil.fromShort(s);
-        assert shortAsByteArray.length == 2;
-        baos.write(shortAsByteArray, 0, 2);
-    }
-    
-    private short readShort(ByteArrayInputStream bais)
-        throws NullPointerException, IndexOutOfBoundsException
-    {
-        byte[] shortAsByteArray = new byte[2];
-        int ret = bais.read(shortAsByteArray, 0, 2);
-        assert ret == 2 : "readShort: Failed to read 2 bytes.";
-        return ByteConversionUtil.toShort(shortAsByteArray);
-    }
-    
-    private void writeInt(ByteArrayOutputStream baos, int i) {
-        byte[] intAsByteArray = ByteConversionUtil.fromInt(i);
-        baos.write(intAsByteArray, 0, 4);
-    }
-    
-    private int readInt(ByteArrayInputStream bais)
-        throws NullPointerException, IndexOutOfBoundsException
+
+    private String readString(ByteBuffer buffer, short sz)
+        throws UnsupportedEncodingException
     {
-        byte[] intAsByteArray = new byte[4];
-        int ret = bais.read(intAsByteArray, 0, 4);
-        assert ret == 4 : "readInt: Failed to read 4 bytes.";
-        return ByteConversionUtil.toInt(intAsByteArray);
-    }
-    
-    private void writeLong(ByteArrayOutputStream baos, long l) {
-        byte[] longAsByteArray = ByteConversionUtil.fromLong(l);
-        assert longAsByteArray.length == 8;
-        baos.write(longAsByteArray, 0, 8);
+        if ( sz < 0 || sz > buffer.remaining() ) {
+            throw new BufferUnderflowException();
+        }
+        String str;
+        if ( buffer.hasArray() ) {
+            // Decode in place rather than copying out the bytes first
+            str = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), sz, "UTF8");
+            buffer.position(buffer.position() + sz);
+        } else {
+            byte[] bytes = new byte[sz];
+            buffer.get(bytes);
+            str = new String(bytes, "UTF8");
+        }
+        return str;
     }
-    
-    private long readLong(ByteArrayInputStream bais)
-        throws NullPointerException, IndexOutOfBoundsException
-    {
-        byte[] longAsByteArray = new byte[8];
-        int ret = bais.read(longAsByteArray, 0, 8);
-        assert ret == 8 : "readLong: Failed to read 8 bytes.";
-        return ByteConversionUtil.toLong(longAsByteArray);
+
+    private byte[] readBytes(ByteBuffer buffer, int sz) {
+        if ( sz < 0 || sz > buffer.remaining() ) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[sz];
+        buffer.get(bytes);
+        return bytes;
     }
-    
+
     /** Convert the serialized ciphertext byte array to a {@code CipherText}
      * object.
      * @param cipherTextSerializedBytes	The serialized ciphertext as a byte array.
@@ -276,11 +261,26 @@ public class CipherTextSerializer {
     private CipherText convertToCipherText(byte[] cipherTextSerializedBytes)
         throws EncryptionException
     {
+    	assert cipherTextSerializedBytes != null : "cipherTextSerializedBytes cannot be null.";
+    	assert cipherTextSerializedBytes.length > 0 : "cipherTextSerializedBytes must be > 0 in length.";
+        return convertToCipherText(ByteBuffer.wrap(cipherTextSerializedBytes));
+    }
+
+    /** Read the serialized ciphertext at the position of a buffer as a
+     * {@code CipherText} object. Fixed size fields are read straight from the
+     * buffer; only the IV, raw ciphertext and MAC are copied out, once each.
+     * @param buffer	The buffer holding the serialized ciphertext.
+     * @return The corresponding {@code CipherText} object.
+     * @throws EncryptionException	Thrown if the data is corrupt or truncated or
+     * 				there are version mismatches, etc.
+     */
+    private CipherText convertToCipherText(ByteBuffer buffer)
+        throws EncryptionException
+    {
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.BIG_ENDIAN);
         try {
-        	assert cipherTextSerializedBytes != null : "cipherTextSerializedBytes cannot be null.";
-        	assert cipherTextSerializedBytes.length > 0 : "cipherTextSerializedBytes must be > 0 in length.";
-            ByteArrayInputStream bais = new ByteArrayInputStream(cipherTextSerializedBytes);
-            int kdfInfo = readInt(bais);
+            int kdfInfo = buffer.getInt();
             debug("kdfInfo: " + kdfInfo);
             int kdfPrf = (kdfInfo >>> 28);
             debug("kdfPrf: " + kdfPrf);
@@ -306,11 +306,11 @@ public class CipherTextSerializer {
             			"KDF version " + kdfVers + " from serialized ciphertext not compatibile with current KDF version of " + 
             			KeyDerivationFunction.kdfVersion);
             }
-            long timestamp = readLong(bais);
+            long timestamp = buffer.getLong();
             debug("convertToCipherText: timestamp = " + new Date(timestamp));
-            short strSize = readShort(bais);
+            short strSize = buffer.getShort();
             debug("convertToCipherText: length of cipherXform = " + strSize);
-            String cipherXform = readString(bais, strSize);
+            String cipherXform = readString(buffer, strSize);
             debug("convertToCipherText: cipherXform = " + cipherXform);
             String[] parts = cipherXform.split("/");
             assert parts.length == 3 : "Malformed cipher transformation";
@@ -319,28 +319,25 @@ public class CipherTextSerializer {
                 String msg = "Cipher mode " + cipherMode + " is not an allowed cipher mode";
                 throw new EncryptionException(msg, msg);
             }
-            short keySize = readShort(bais);
+            short keySize = buffer.getShort();
             debug("convertToCipherText: keySize = " + keySize);
-            short blockSize = readShort(bais);
+            short blockSize = buffer.getShort();
             debug("convertToCipherText: blockSize = " + blockSize);
-            short ivLen = readShort(bais);
+            short ivLen = buffer.getShort();
             debug("convertToCipherText: ivLen = " + ivLen);
             byte[] iv = null;
             if ( ivLen > 0 ) {
-                iv = new byte[ivLen];
-                bais.read(iv, 0, iv.length);
+                iv = readBytes(buffer, ivLen);
             }
-            int ciphertextLen = readInt(bais);
+            int ciphertextLen = buffer.getInt();
             debug("convertToCipherText: ciphertextLen = " + ciphertextLen);
             assert ciphertextLen > 0 : "convertToCipherText: Invalid cipher text length";
-            byte[] rawCiphertext = new byte[ciphertextLen];
-            bais.read(rawCiphertext, 0, rawCiphertext.length);
-            short macLen = readShort(bais);
+            byte[] rawCiphertext = readBytes(buffer, ciphertextLen);
+            short macLen = buffer.getShort();
             debug("convertToCipherText: macLen = " + macLen);
             byte[] mac = null;
             if ( macLen > 0 ) {
-                mac = new byte[macLen];
-                bais.read(mac, 0, mac.length);
+                mac = readBytes(buffer, macLen);
             }
 
             CipherSpec cipherSpec = new CipherSpec(cipherXform, keySize);
@@ -352,7 +349,7 @@ public class CipherTextSerializer {
                     throw new EncryptionException("convertToCipherText: Mismatch between IV length and cipher mode.",
                     						      "Possible tampering of serialized ciphertext?");
             }
-            ct.setCiphertext(rawCiphertext);
+            ct.setCiphertext(rawCiphertext, false);	// Just read, so no need to copy it again
               // Set this *AFTER* setting raw ciphertext because setCiphertext()
               // method also sets encryption time.
             ct.setEncryptionTimestamp(timestamp);
@@ -371,9 +368,14 @@ public class CipherTextSerializer {
             throw new EncryptionException("Cannot deserialize byte array into CipherText object",
                                           "Cannot deserialize byte array into CipherText object",
                                           ex);
+        } catch (BufferUnderflowException e) {
+            throw new EncryptionException("Cannot deserialize byte array into CipherText object",
+                    "Cannot deserialize byte array into CipherText object: serialization is truncated", e);
         } catch (IOException e) {
             throw new EncryptionException("Cannot deserialize byte array into CipherText object",
                     "Cannot deserialize byte array into CipherText object", e);
+        } finally {
+            buffer.order(order);
         }
     }
 
@@ -0,0 +1,257 @@
+/*
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ */
+package org.owasp.esapi.crypto;
+
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Pools of {@code Cipher}, {@code Mac} and {@code MessageDigest} instances, so
+ * that encrypting, authenticating or hashing a short value does not spend most
+ * of its time looking up a JCE provider and setting up a new instance.
+ * <p>
+ * Take an instance with one of the {@code get} methods and give it back with
+ * the matching {@code release} method when done, typically in a
+ * {@code finally} block. An instance must not be used after it is released.
+ * A released {@code MessageDigest} is reset, and a released {@code Mac} or
+ * {@code Cipher} is initialized with a dummy key, so the pool does not hold on
+ * to the caller's keys; an instance that can't be is dropped instead. Callers
+ * must therefore always initialize a {@code Cipher} or {@code Mac} taken from
+ * the pool, and never rely on the state a pooled instance was left in.
+ * <p>
+ * {@code Signature} instances are not pooled: one can't be rid of a private
+ * key without a public key to initialize it with, and setting one up costs
+ * little next to computing a signature.
+ * <p>
+ * Instances are pooled by algorithm, or cipher transformation, and come from
+ * whichever provider the JCE preferred when they were created. The pools are
+ * therefore cleared whenever {@link SecurityProviderLoader} changes the
+ * provider preferences. Each pool keeps at most {@link #MAX_IDLE} idle
+ * instances; any more are released to the garbage collector.
+ *
+ * @since 2.1.1
+ */
+public final class CryptoPool {
+
+	/** The maximum number of idle instances kept for each algorithm. */
+	public static final int MAX_IDLE = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+	private static final SecretKey DUMMY_MAC_KEY = new SecretKeySpec(new byte[1], "RAW");
+
+	/** Dummy cipher key lengths to try, in bytes: AES and Blowfish, DESede, DES. */
+	private static final int[] DUMMY_CIPHER_KEY_LENGTHS = { 16, 24, 8 };
+
+	/** Only used to choose the IV of a dummy key, so its quality doesn't matter. */
+	private static final SecureRandom DUMMY_RANDOM = new SecureRandom();
+
+	private static final ConcurrentMap<String, Pool> pools = new ConcurrentHashMap<String, Pool>();
+
+	private static final AtomicLong hits = new AtomicLong();
+	private static final AtomicLong misses = new AtomicLong();
+	private static final AtomicLong discards = new AtomicLong();
+
+	private CryptoPool() {
+		// Static methods only
+	}
+
+	/**
+	 * Get a {@code Cipher} for a transformation, which must be initialized before use.
+	 *
+	 * @param transformation	The cipher transformation, e.g., "AES/CBC/PKCS5Padding".
+	 * @return	A pooled or new {@code Cipher}.
+	 * @throws NoSuchAlgorithmException	if no provider supports the transformation.
+	 * @throws NoSuchPaddingException	if no provider supports its padding scheme.
+	 */
+	public static Cipher getCipher(String transformation) throws NoSuchAlgorithmException, NoSuchPaddingException {
+		Cipher cipher = (Cipher) take("Cipher", transformation);
+		return ( cipher != null ) ? cipher : Cipher.getInstance(transformation);
+	}
+
+	/**
+	 * Give back a {@code Cipher} taken with {@link #getCipher(String)}. It is initialized
+	 * with a dummy key first, so that the pool does not keep the caller's key; a cipher
+	 * that takes none of the dummy keys, such as an RSA cipher, is dropped.
+	 *
+	 * @param cipher	The cipher, or {@code null}.
+	 */
+	public static void release(Cipher cipher) {
+		if ( cipher != null ) {
+			String transformation = cipher.getAlgorithm();
+			int slash = transformation.indexOf('/');
+			String algorithm = ( slash < 0 ) ? transformation : transformation.substring(0, slash);
+			for ( int length : DUMMY_CIPHER_KEY_LENGTHS ) {
+				try {
+					cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(new byte[length], algorithm), DUMMY_RANDOM);
+					give("Cipher", transformation, cipher);
+					return;
+				} catch (InvalidKeyException e) {
+					// Try the next length.
+				} catch (IllegalArgumentException e) {
+					// Ditto; some providers reject a key's parameters this way.
+				}
+			}
+			discards.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Get a {@code Mac} for an algorithm, which must be initialized before use.
+	 *
+	 * @param algorithm	The MAC algorithm, e.g., "HmacSHA1".
+	 * @return	A pooled or new {@code Mac}.
+	 * @throws NoSuchAlgorithmException	if no provider supports the algorithm.
+	 */
+	public static Mac getMac(String algorithm) throws NoSuchAlgorithmException {
+		Mac mac = (Mac) take("Mac", algorithm);
+		return ( mac != null ) ? mac : Mac.getInstance(algorithm);
+	}
+
+	/**
+	 * Give back a {@code Mac} taken with {@link #getMac(String)}. It is initialized
+	 * with a dummy key first, so that the pool does not keep the caller's key.
+	 *
+	 * @param mac	The MAC, or {@code null}.
+	 */
+	public static void release(Mac mac) {
+		if ( mac != null ) {
+			try {
+				mac.init(DUMMY_MAC_KEY);
+			} catch (InvalidKeyException e) {
+				return;		// Not worth keeping then.
+			}
+			give("Mac", mac.getAlgorithm(), mac);
+		}
+	}
+
+	/**
+	 * Get a {@code MessageDigest} for an algorithm, ready to use.
+	 *
+	 * @param algorithm	The digest algorithm, e.g., "SHA-512".
+	 * @return	A pooled or new {@code MessageDigest}.
+	 * @throws NoSuchAlgorithmException	if no provider supports the algorithm.
+	 */
+	public static MessageDigest getMessageDigest(String algorithm) throws NoSuchAlgorithmException {
+		MessageDigest digest = (MessageDigest) take("MessageDigest", algorithm);
+		return ( digest != null ) ? digest : MessageDigest.getInstance(algorithm);
+	}
+
+	/**
+	 * Reset and give back a {@code MessageDigest} taken with {@link #getMessageDigest(String)}.
+	 *
+	 * @param digest	The digest, or {@code null}.
+	 */
+	public static void release(MessageDigest digest) {
+		if ( digest != null ) {
+			digest.reset();
+			give("MessageDigest", digest.getAlgorithm(), digest);
+		}
+	}
+
+	/**
+	 * Drop all idle instances, e.g., because the preferred provider changed.
+	 */
+	public static void clear() {
+		pools.clear();
+	}
+
+	/**
+	 * @return	The number of instances taken from a pool instead of created.
+	 */
+	public static long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * @return	The number of instances created because their pool was empty.
+	 */
+	public static long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * @return	The number of released instances dropped because their pool was full,
+	 *			or because they could not be rid of the caller's key.
+	 */
+	public static long getDiscardCount() {
+		return discards.get();
+	}
+
+	/**
+	 * @return	The fraction of requests served from a pool, between 0 and 1.
+	 */
+	public static double getHitRatio() {
+		long h = hits.get();
+		long total = h + misses.get();
+		return ( total == 0 ) ? 0 : (double) h / total;
+	}
+
+	private static Object take(String type, String algorithm) {
+		Pool pool = pools.get(type + ":" + algorithm);
+		Object instance = ( pool == null ) ? null : pool.poll();
+		if ( instance == null ) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return instance;
+	}
+
+	private static void give(String type, String algorithm, Object instance) {
+		String key = type + ":" + algorithm;
+		Pool pool = pools.get(key);
+		if ( pool == null ) {
+			Pool created = new Pool();
+			pool = pools.putIfAbsent(key, created);
+			if ( pool == null ) {
+				pool = created;
+			}
+		}
+		if ( !pool.offer(instance) ) {
+			discards.incrementAndGet();
+		}
+	}
+
+	// A lock-free queue of idle instances with a bounded size.
+	private static final class Pool {
+		private final Queue<Object> idle = new ConcurrentLinkedQueue<Object>();
+		private final AtomicInteger size = new AtomicInteger();
+
+		Object poll() {
+			Object instance = idle.poll();
+			if ( instance != null ) {
+				size.decrementAndGet();
+			}
+			return instance;
+		}
+
+		boolean offer(Object instance) {
+			if ( size.incrementAndGet() > MAX_IDLE ) {
+				size.decrementAndGet();
+				return false;
+			}
+			idle.offer(instance);
+			return true;
+		}
+	}
+}
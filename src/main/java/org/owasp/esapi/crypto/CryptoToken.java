@@ -542,7 +542,7 @@ public class CryptoToken {
             String key = entry.getKey();
             String value = entry.getValue();
             // Because attribute values may be confidential, we don't want to log them!
-            logger.debug(Logger.EVENT_UNSPECIFIED, "   " + key + " -> <not shown>");
+            logger.debug(Logger.EVENT_UNSPECIFIED, "   {} -> <not shown>", key);
             sb.append(key + "=" + quoteAttributeValue( value ) + DELIM);
         }
         return sb.toString();
@@ -654,7 +654,7 @@ public class CryptoToken {
         
         Object[] objArray = fields.toArray();
         assert fieldNo == objArray.length : "Program error: Mismatch of delimited field count.";
-        logger.debug(Logger.EVENT_UNSPECIFIED, "Found " + objArray.length + " fields.");
+        logger.debug(Logger.EVENT_UNSPECIFIED, "Found {} fields.", objArray.length);
         assert objArray.length >= 2 : "Missing mandatory fields from decrypted token (username &/or expiration time).";
         username = ((String)(objArray[0])).toLowerCase();
         String expTime = (String)objArray[1];
@@ -671,7 +671,7 @@ public class CryptoToken {
             String quotedValue = nvpair.substring(equalsAt + 1);
             String value = parseQuotedValue( quotedValue );
             // Because attribute values may be confidential, we don't want to log them!
-            logger.debug(Logger.EVENT_UNSPECIFIED, "Attribute[" + i + "]: name=" + name + ", value=<not shown>");
+            logger.debug(Logger.EVENT_UNSPECIFIED, "Attribute[{}]: name={}, value=<not shown>", i, name);
 
             // Check to make sure that attribute name is valid as per our regex.
             Matcher attrNameChecker = attrNameRegex.matcher(name);
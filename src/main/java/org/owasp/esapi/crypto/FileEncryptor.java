@@ -0,0 +1,430 @@
+/*
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ */
+package org.owasp.esapi.crypto;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.owasp.esapi.ESAPI;
+import org.owasp.esapi.errors.EncryptionException;
+import org.owasp.esapi.util.DaemonThreadFactory;
+
+/**
+ * Encrypts and decrypts files, memory mapping them and processing their
+ * chunks in parallel. The encrypted files use the same chunked format as
+ * {@link StreamEncryptor}, so either class can decrypt what the other
+ * encrypted, and because every chunk is authenticated on its own and all
+ * but the last have frames of the same length, any range of an encrypted
+ * file can be decrypted with {@link #decrypt(File, long, int)} without
+ * decrypting the rest.
+ * <p>
+ * The chunks are processed in groups of a few megabytes on an
+ * {@code ExecutorService}, by default a shared pool with a daemon thread for
+ * each processor. Decryption checks the last chunk of a file first, so a
+ * truncated file is rejected before anything is written. If decryption fails
+ * later, because a chunk was altered, the output file must be discarded.
+ *
+ * @since 2.1.1
+ */
+public final class FileEncryptor {
+
+	/** The default number of plaintext bytes in each chunk. */
+	public static final int DEFAULT_CHUNK_SIZE = StreamEncryptor.DEFAULT_CHUNK_SIZE;
+
+	// About how many bytes each task maps and processes.
+	private static final int TASK_SIZE = 4 * 1024 * 1024;
+
+	private static final String DECRYPTION_FAILED = "Decryption failed; see logs for details.";
+
+	private static volatile ExecutorService sharedExecutor;
+
+	private final SecretKey key;
+	private final int chunkSize;
+	private final ExecutorService executor;
+
+	/**
+	 * Encrypt with the master key from {@code Encryptor.MasterKey}.
+	 */
+	public FileEncryptor() {
+		this(new SecretKeySpec(ESAPI.securityConfiguration().getMasterKey(),
+							   ESAPI.securityConfiguration().getEncryptionAlgorithm()));
+	}
+
+	/**
+	 * @param key	The key to derive the encryption and authentication keys from.
+	 */
+	public FileEncryptor(SecretKey key) {
+		this(key, DEFAULT_CHUNK_SIZE, null);
+	}
+
+	/**
+	 * @param key	The key to derive the encryption and authentication keys from.
+	 * @param chunkSize	The number of plaintext bytes in each chunk, when encrypting.
+	 * @param executor	Where to process the chunks, or {@code null} for a shared pool.
+	 */
+	public FileEncryptor(SecretKey key, int chunkSize, ExecutorService executor) {
+		if ( key == null ) {
+			throw new IllegalArgumentException("SecretKey arg may not be null");
+		}
+		if ( chunkSize < 1 || chunkSize > ChunkCipher.MAX_CHUNK_SIZE ) {
+			throw new IllegalArgumentException("Chunk size must be between 1 and " + ChunkCipher.MAX_CHUNK_SIZE +
+											   ", was: " + chunkSize);
+		}
+		this.key = key;
+		this.chunkSize = chunkSize;
+		this.executor = ( executor != null ) ? executor : getSharedExecutor();
+	}
+
+	private static ExecutorService getSharedExecutor() {
+		if ( sharedExecutor == null ) {
+			synchronized ( FileEncryptor.class ) {
+				if ( sharedExecutor == null ) {
+					sharedExecutor = DaemonThreadFactory.newSharedPool("ESAPI-FileEncryptor");
+				}
+			}
+		}
+		return sharedExecutor;
+	}
+
+	/**
+	 * Encrypt a file.
+	 *
+	 * @param in	The plaintext file.
+	 * @param out	The file to write the encrypted data to; replaced if it exists.
+	 * @return	The number of plaintext bytes encrypted.
+	 * @throws EncryptionException	if encryption fails.
+	 * @throws IOException	if reading or writing fails.
+	 */
+	public long encrypt(File in, File out) throws EncryptionException, IOException {
+		final ChunkCipher chunks = ChunkCipher.create(key, ESAPI.securityConfiguration().getCipherTransformation(), chunkSize);
+		RandomAccessFile input = new RandomAccessFile(in, "r");
+		try {
+			RandomAccessFile output = new RandomAccessFile(out, "rw");
+			try {
+				final FileChannel src = input.getChannel();
+				final FileChannel dst = output.getChannel();
+				long size = src.size();
+				long count = Math.max(1, (size + chunkSize - 1) / chunkSize);
+				byte[] header = chunks.getHeader();
+				final long headerLength = header.length;
+				final int full = chunks.getFullFrameLength();
+				long lastOffset = headerLength + (count - 1) * full;
+				output.setLength(lastOffset);
+				writeFully(dst, ByteBuffer.wrap(header), 0);
+
+				List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+				int perTask = Math.max(1, TASK_SIZE / chunkSize);
+				for (long first = 0; first < count - 1; first += perTask) {
+					final long from = first;
+					final int n = (int) Math.min(perTask, count - 1 - first);
+					tasks.add(new Callable<Void>() {
+						public Void call() throws Exception {
+							MappedByteBuffer plain = src.map(FileChannel.MapMode.READ_ONLY, from * chunkSize, (long) n * chunkSize);
+							MappedByteBuffer frames = dst.map(FileChannel.MapMode.READ_WRITE, headerLength + from * full, (long) n * full);
+							byte[] chunk = new byte[chunkSize];
+							byte[] frame = new byte[chunks.getMaxFrameLength()];
+							try {
+								for (int i = 0; i < n; i++) {
+									plain.get(chunk);
+									int length = chunks.seal(from + i, false, chunk, 0, chunkSize, frame, 0);
+									if ( length != full ) {
+										throw new EncryptionException("Encryption failure", "Chunk " + (from + i) +
+																	  " has a frame of " + length + " bytes instead of " + full);
+									}
+									frames.put(frame, 0, length);
+								}
+							} finally {
+								CryptoHelper.overwrite(chunk);
+							}
+							return null;
+						}
+					});
+				}
+				List<Future<Void>> futures = submit(tasks);
+
+				// The last chunk, on this thread meanwhile
+				byte[] chunk = new byte[(int) (size - (count - 1) * chunkSize)];
+				try {
+					readFully(src, ByteBuffer.wrap(chunk), (count - 1) * chunkSize);
+					byte[] frame = new byte[chunks.getMaxFrameLength()];
+					int length = chunks.seal(count - 1, true, chunk, 0, chunk.length, frame, 0);
+					writeFully(dst, ByteBuffer.wrap(frame, 0, length), lastOffset);
+				} finally {
+					CryptoHelper.overwrite(chunk);
+				}
+				await(futures);
+				return size;
+			} finally {
+				output.close();
+			}
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Decrypt a file encrypted by this class or by {@link StreamEncryptor}.
+	 *
+	 * @param in	The encrypted file.
+	 * @param out	The file to write the plaintext to; replaced if it exists.
+	 * @return	The number of plaintext bytes decrypted.
+	 * @throws EncryptionException	if the file was altered or truncated, the key is wrong,
+	 * 				or decryption fails. The output file must then be discarded.
+	 * @throws IOException	if reading or writing fails.
+	 */
+	public long decrypt(File in, File out) throws EncryptionException, IOException {
+		RandomAccessFile input = new RandomAccessFile(in, "r");
+		try {
+			final FileChannel src = input.getChannel();
+			final Layout layout = new Layout(src);
+			RandomAccessFile output = new RandomAccessFile(out, "rw");
+			try {
+				final FileChannel dst = output.getChannel();
+				final int chunk = layout.chunks.getChunkSize();
+				output.setLength(layout.plaintextLength);
+
+				List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+				int perTask = Math.max(1, TASK_SIZE / chunk);
+				for (long first = 0; first < layout.count - 1; first += perTask) {
+					final long from = first;
+					final int n = (int) Math.min(perTask, layout.count - 1 - first);
+					tasks.add(new Callable<Void>() {
+						public Void call() throws Exception {
+							MappedByteBuffer frames = src.map(FileChannel.MapMode.READ_ONLY,
+															  layout.headerLength + from * layout.full, (long) n * layout.full);
+							MappedByteBuffer plain = dst.map(FileChannel.MapMode.READ_WRITE, from * chunk, (long) n * chunk);
+							byte[] frame = new byte[layout.full];
+							byte[] buffer = new byte[chunk];
+							try {
+								for (int i = 0; i < n; i++) {
+									frames.get(frame);
+									plain.put(buffer, 0, layout.open(from + i, frame, buffer));
+								}
+							} finally {
+								CryptoHelper.overwrite(buffer);
+							}
+							return null;
+						}
+					});
+				}
+				List<Future<Void>> futures = submit(tasks);
+				writeFully(dst, ByteBuffer.wrap(layout.lastPlain), (layout.count - 1) * chunk);
+				await(futures);
+				return layout.plaintextLength;
+			} finally {
+				output.close();
+			}
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Decrypt part of an encrypted file, decrypting only the chunks it falls in.
+	 *
+	 * @param in	The encrypted file.
+	 * @param position	The position of the part in the plaintext.
+	 * @param length	The length of the part.
+	 * @return	The plaintext of the part.
+	 * @throws EncryptionException	if a chunk needed was altered, the file was truncated,
+	 * 				the key is wrong, or decryption fails.
+	 * @throws IOException	if reading fails.
+	 * @throws IndexOutOfBoundsException	if the part does not lie within the plaintext.
+	 */
+	public byte[] decrypt(File in, long position, int length) throws EncryptionException, IOException {
+		RandomAccessFile input = new RandomAccessFile(in, "r");
+		try {
+			FileChannel src = input.getChannel();
+			Layout layout = new Layout(src);
+			if ( position < 0 || length < 0 || position + length > layout.plaintextLength ) {
+				throw new IndexOutOfBoundsException("Cannot read " + length + " bytes at " + position + " of " +
+													layout.plaintextLength);
+			}
+			int chunk = layout.chunks.getChunkSize();
+			byte[] result = new byte[length];
+			byte[] frame = new byte[layout.full];
+			byte[] buffer = new byte[chunk];
+			try {
+				int copied = 0;
+				while ( copied < length ) {
+					long pos = position + copied;
+					long index = pos / chunk;
+					byte[] plain;
+					if ( index == layout.count - 1 ) {
+						plain = layout.lastPlain;
+					} else {
+						readFully(src, ByteBuffer.wrap(frame), layout.headerLength + index * layout.full);
+						layout.open(index, frame, buffer);
+						plain = buffer;
+					}
+					int offset = (int) (pos - index * chunk);
+					int n = Math.min(length - copied, chunk - offset);
+					System.arraycopy(plain, offset, result, copied, n);
+					copied += n;
+				}
+				return result;
+			} finally {
+				CryptoHelper.overwrite(buffer);
+			}
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Get the length of the plaintext of an encrypted file, checking its
+	 * header and last chunk.
+	 *
+	 * @param in	The encrypted file.
+	 * @return	The number of plaintext bytes.
+	 * @throws EncryptionException	if the file was truncated, its last chunk altered, or the key is wrong.
+	 * @throws IOException	if reading fails.
+	 */
+	public long getPlaintextLength(File in) throws EncryptionException, IOException {
+		RandomAccessFile input = new RandomAccessFile(in, "r");
+		try {
+			return new Layout(input.getChannel()).plaintextLength;
+		} finally {
+			input.close();
+		}
+	}
+
+	// Where the frames of an encrypted file are, found from its header and last frame.
+	private final class Layout {
+		final ChunkCipher chunks;
+		final long headerLength;
+		final int full;
+		final long count;
+		final byte[] lastPlain;
+		final long plaintextLength;
+
+		Layout(FileChannel src) throws EncryptionException, IOException {
+			try {
+				chunks = ChunkCipher.read(key, new DataInputStream(Channels.newInputStream(src.position(0))));
+			} catch (EOFException e) {
+				throw new EncryptionException(DECRYPTION_FAILED, "Encrypted file is truncated in its header", e);
+			}
+			headerLength = chunks.getHeader().length;
+			full = chunks.getFullFrameLength();
+			long dataLength = src.size() - headerLength;
+			if ( dataLength < ChunkCipher.FRAME_HEADER_LENGTH ) {
+				throw new EncryptionException(DECRYPTION_FAILED, "Encrypted file has no chunks");
+			}
+			count = (dataLength + full - 1) / full;
+			int lastLength = (int) (dataLength - (count - 1) * full);
+			byte[] frame = new byte[lastLength];
+			readFully(src, ByteBuffer.wrap(frame), headerLength + (count - 1) * full);
+			if ( lastLength < ChunkCipher.FRAME_HEADER_LENGTH || !ChunkCipher.isLast(frame, 0) ) {
+				throw new EncryptionException(DECRYPTION_FAILED, "Encrypted file is truncated");
+			}
+			byte[] plain = new byte[chunks.getChunkSize()];
+			int length = chunks.open(count - 1, frame, 0, lastLength, plain, 0);
+			lastPlain = new byte[length];
+			System.arraycopy(plain, 0, lastPlain, 0, length);
+			CryptoHelper.overwrite(plain);
+			plaintextLength = (count - 1) * chunks.getChunkSize() + length;
+		}
+
+		// Decrypt a full frame, which must not be the last.
+		int open(long index, byte[] frame, byte[] plain) throws EncryptionException {
+			if ( ChunkCipher.isLast(frame, 0) ) {
+				throw new EncryptionException(DECRYPTION_FAILED, "Chunk " + index + " is marked as the last of " + count);
+			}
+			int length = chunks.open(index, frame, 0, full, plain, 0);
+			if ( length != chunks.getChunkSize() ) {
+				throw new EncryptionException(DECRYPTION_FAILED, "Chunk " + index + " is not a whole chunk");
+			}
+			return length;
+		}
+	}
+
+	private List<Future<Void>> submit(List<Callable<Void>> tasks) {
+		List<Future<Void>> futures = new ArrayList<Future<Void>>(tasks.size());
+		for (Callable<Void> task : tasks) {
+			try {
+				futures.add(executor.submit(task));
+			} catch (RejectedExecutionException e) {
+				// The executor is shut down, e.g., the JVM is exiting; do the rest here.
+				FutureTask<Void> inline = new FutureTask<Void>(task);
+				inline.run();
+				futures.add(inline);
+			}
+		}
+		return futures;
+	}
+
+	private static void await(List<Future<Void>> futures) throws EncryptionException, IOException {
+		try {
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (ExecutionException e) {
+			cancel(futures);
+			Throwable cause = e.getCause();
+			if ( cause instanceof EncryptionException ) {
+				throw (EncryptionException) cause;
+			}
+			if ( cause instanceof IOException ) {
+				throw (IOException) cause;
+			}
+			if ( cause instanceof RuntimeException ) {
+				throw (RuntimeException) cause;
+			}
+			if ( cause instanceof Error ) {
+				throw (Error) cause;
+			}
+			throw new EncryptionException("Encryption failure", "Processing a chunk failed: " + cause, cause);
+		} catch (InterruptedException e) {
+			cancel(futures);
+			Thread.currentThread().interrupt();
+			throw new EncryptionException("Encryption failure", "Interrupted while processing chunks", e);
+		}
+	}
+
+	private static void cancel(List<Future<Void>> futures) {
+		for (Future<Void> future : futures) {
+			future.cancel(false);
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while ( buffer.hasRemaining() ) {
+			int n = channel.read(buffer, position);
+			if ( n < 0 ) {
+				throw new EOFException("Unexpected end of file at " + position);
+			}
+			position += n;
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while ( buffer.hasRemaining() ) {
+			position += channel.write(buffer, position);
+		}
+	}
+}
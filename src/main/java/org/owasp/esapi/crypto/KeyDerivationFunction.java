@@ -330,77 +330,81 @@ public class KeyDerivationFunction {
 		Mac mac = null;
 
 		try {
-			mac = Mac.getInstance("HmacSHA1");
-			mac.init(sk);
-		} catch( InvalidKeyException ex ) {
-			logger.error(Logger.SECURITY_FAILURE,
-					"Created HmacSHA1 Mac but SecretKey sk has alg " +
-					sk.getAlgorithm(), ex);
-			throw ex;
-		}
+			try {
+				mac = CryptoPool.getMac("HmacSHA1");
+				mac.init(sk);
+			} catch( InvalidKeyException ex ) {
+				logger.error(Logger.SECURITY_FAILURE,
+						"Created HmacSHA1 Mac but SecretKey sk has alg " +
+						sk.getAlgorithm(), ex);
+				throw ex;
+			}
 		
-		// Repeatedly call of HmacSHA1 hash until we've collected enough bits
-		// for the derived key. The first time through, we calculate the HmacSHA1
-		// on the "purpose" string, but subsequent calculations are performed
-		// on the previous result.
-		int ctr = 1;		// Iteration counter for NIST 800-108
-		int totalCopied = 0;
-		int destPos = 0;
-		int len = 0;
-		byte[] tmpKey = null;	// Do not declare inside do-while loop!!!
-		do {
-			//
-			// This is to make our KDF more along the line of NIST's.
-			// NIST's Special Publication 800-108 performs the following in
-            // the iterative loop of Section 5.1:
-            //       n := number of blocks required to fulfill request
-            //       for i = 1 to n, do
-            //           K(i) := PRF(KDK, [i]2 || Label || 0x00 || Context || [L]2)
-            //           result(i) := result(i-1) || K(i)
-            //       end
-            // where '||' is represents bit string concatenation, and PRF is
-            // an NIST approved pseudo-random function (such as an HMAC),
-            // KDK is the key derivation key, [i]2 is the big-endian binary
-            // representation of the iteration, and [L]2 is the bits
-            // requested by the caller, and 0x00 represents a null byte
-            // used as a separation indicator.  However, other sections of this
-            // document (Section 7.6) implies that Context is to be an
-            // optional field (based on NIST's use of the word SHOULD
-            // rather than MUST)
-            // 
-			mac.update( ByteConversionUtil.fromInt( ctr++ ) );
-			mac.update(label);
-			mac.update((byte) '\0');
-			mac.update(context); // This is problematic for us. See Jeff Walton's
-								  // analysis of ESAPI 2.0's KDF for details.
-								  // Maybe for 2.1, we'll see; 2.0 too close to GA.
+			// Repeatedly call of HmacSHA1 hash until we've collected enough bits
+			// for the derived key. The first time through, we calculate the HmacSHA1
+			// on the "purpose" string, but subsequent calculations are performed
+			// on the previous result.
+			int ctr = 1;		// Iteration counter for NIST 800-108
+			int totalCopied = 0;
+			int destPos = 0;
+			int len = 0;
+			byte[] tmpKey = null;	// Do not declare inside do-while loop!!!
+			do {
+				//
+				// This is to make our KDF more along the line of NIST's.
+				// NIST's Special Publication 800-108 performs the following in
+	            // the iterative loop of Section 5.1:
+	            //       n := number of blocks required to fulfill request
+	            //       for i = 1 to n, do
+	            //           K(i) := PRF(KDK, [i]2 || Label || 0x00 || Context || [L]2)
+	            //           result(i) := result(i-1) || K(i)
+	            //       end
+	            // where '||' is represents bit string concatenation, and PRF is
+	            // an NIST approved pseudo-random function (such as an HMAC),
+	            // KDK is the key derivation key, [i]2 is the big-endian binary
+	            // representation of the iteration, and [L]2 is the bits
+	            // requested by the caller, and 0x00 represents a null byte
+	            // used as a separation indicator.  However, other sections of this
+	            // document (Section 7.6) implies that Context is to be an
+	            // optional field (based on NIST's use of the word SHOULD
+	            // rather than MUST)
+	            // 
+				mac.update( ByteConversionUtil.fromInt( ctr++ ) );
+				mac.update(label);
+				mac.update((byte) '\0');
+				mac.update(context); // This is problematic for us. See Jeff Walton's
+									  // analysis of ESAPI 2.0's KDF for details.
+									  // Maybe for 2.1, we'll see; 2.0 too close to GA.
 			
-	            // According to the Javadoc for Mac.doFinal(byte[]),
-	            // "A call to this method resets this Mac object to the state it was
-	            // in when previously initialized via a call to init(Key) or
-	            // init(Key, AlgorithmParameterSpec). That is, the object is reset
-	            // and available to generate another MAC from the same key, if
-	            // desired, via new calls to update and doFinal." Therefore, we do
-	            // not do an explicit reset().
-			tmpKey = mac.doFinal( ByteConversionUtil.fromInt( keySize ) );
+		            // According to the Javadoc for Mac.doFinal(byte[]),
+		            // "A call to this method resets this Mac object to the state it was
+		            // in when previously initialized via a call to init(Key) or
+		            // init(Key, AlgorithmParameterSpec). That is, the object is reset
+		            // and available to generate another MAC from the same key, if
+		            // desired, via new calls to update and doFinal." Therefore, we do
+		            // not do an explicit reset().
+				tmpKey = mac.doFinal( ByteConversionUtil.fromInt( keySize ) );
 			
-			if ( tmpKey.length >= keySize ) {
-				len = keySize;
-			} else {
-				len = Math.min(tmpKey.length, keySize - totalCopied);
-			}
-			System.arraycopy(tmpKey, 0, derivedKey, destPos, len);
-			label = tmpKey;
-			totalCopied += tmpKey.length;
-			destPos += len;
-		} while( totalCopied < keySize );
+				if ( tmpKey.length >= keySize ) {
+					len = keySize;
+				} else {
+					len = Math.min(tmpKey.length, keySize - totalCopied);
+				}
+				System.arraycopy(tmpKey, 0, derivedKey, destPos, len);
+				label = tmpKey;
+				totalCopied += tmpKey.length;
+				destPos += len;
+			} while( totalCopied < keySize );
 		
-		// Don't leave remnants of the partial key in memory. (Note: we could
-		// not do this if tmpKey were declared in the do-while loop.
-		for ( int i = 0; i < tmpKey.length; i++ ) {
-			tmpKey[i] = '\0';
+			// Don't leave remnants of the partial key in memory. (Note: we could
+			// not do this if tmpKey were declared in the do-while loop.
+			for ( int i = 0; i < tmpKey.length; i++ ) {
+				tmpKey[i] = '\0';
+			}
+			tmpKey = null;	// Make it immediately eligible for GC.
+		} finally {
+			CryptoPool.release(mac);
 		}
-		tmpKey = null;	// Make it immediately eligible for GC.
 		
         // Convert it back into a SecretKey of the appropriate type.
 		return new SecretKeySpec(derivedKey, keyDerivationKey.getAlgorithm());
@@ -190,6 +190,10 @@ public class SecurityProviderLoader  {
             } else {
                 ret = Security.insertProviderAt(cryptoProvider, pos);
             }
+            if ( ret != -1 ) {
+                // Pooled instances may come from a provider no longer preferred.
+                CryptoPool.clear();
+            }
             if ( ret == -1 ) {
                 // log INFO that provider was already loaded.
                 String msg = "JCE provider '" + algProvider + "' already loaded";
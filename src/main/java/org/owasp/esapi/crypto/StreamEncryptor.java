@@ -0,0 +1,212 @@
+/*
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ */
+package org.owasp.esapi.crypto;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.owasp.esapi.ESAPI;
+import org.owasp.esapi.errors.EncryptionException;
+
+/**
+ * Encrypts and decrypts data of any size as a stream, using memory for only
+ * one chunk at a time, instead of holding the whole plaintext in a
+ * {@link PlainText} and the whole ciphertext in a {@link CipherText}.
+ * <p>
+ * The data is encrypted with the cipher transformation from
+ * {@code Encryptor.CipherTransformation}, under keys derived from the master
+ * key, or another key, by the ESAPI KDF. Each chunk is authenticated with an
+ * HMAC, and decryption checks each chunk before writing its plaintext, so
+ * altered or reordered data is rejected as soon as it is read. Truncated data
+ * is only detected at its end, so plaintext written before decryption fails
+ * must be discarded.
+ * <pre>
+ *   StreamEncryptor encryptor = new StreamEncryptor();
+ *   encryptor.encrypt(new FileInputStream(export), new FileOutputStream(encrypted));
+ *   ...
+ *   encryptor.decrypt(new FileInputStream(encrypted), new FileOutputStream(restored));
+ * </pre>
+ * The streams are not closed. Instances are thread-safe.
+ *
+ * @since 2.1.1
+ */
+public final class StreamEncryptor {
+
+	/** The default number of plaintext bytes in each chunk. */
+	public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+	private final SecretKey key;
+	private final int chunkSize;
+
+	/**
+	 * Encrypt with the master key from {@code Encryptor.MasterKey}.
+	 */
+	public StreamEncryptor() {
+		this(new SecretKeySpec(ESAPI.securityConfiguration().getMasterKey(),
+							   ESAPI.securityConfiguration().getEncryptionAlgorithm()));
+	}
+
+	/**
+	 * @param key	The key to derive the encryption and authentication keys from.
+	 */
+	public StreamEncryptor(SecretKey key) {
+		this(key, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param key	The key to derive the encryption and authentication keys from.
+	 * @param chunkSize	The number of plaintext bytes in each chunk, when encrypting.
+	 * 					Decryption uses the chunk size the data was encrypted with.
+	 */
+	public StreamEncryptor(SecretKey key, int chunkSize) {
+		if ( key == null ) {
+			throw new IllegalArgumentException("SecretKey arg may not be null");
+		}
+		if ( chunkSize < 1 || chunkSize > ChunkCipher.MAX_CHUNK_SIZE ) {
+			throw new IllegalArgumentException("Chunk size must be between 1 and " + ChunkCipher.MAX_CHUNK_SIZE +
+											   ", was: " + chunkSize);
+		}
+		this.key = key;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Encrypt everything read from a stream.
+	 *
+	 * @param in	The plaintext.
+	 * @param out	Where to write the encrypted data.
+	 * @return	The number of plaintext bytes encrypted.
+	 * @throws EncryptionException	if encryption fails.
+	 * @throws IOException	if reading or writing fails.
+	 */
+	public long encrypt(InputStream in, OutputStream out) throws EncryptionException, IOException {
+		ChunkCipher chunks = ChunkCipher.create(key, ESAPI.securityConfiguration().getCipherTransformation(), chunkSize);
+		PushbackInputStream plain = new PushbackInputStream(in, 1);
+		byte[] chunk = new byte[chunkSize];
+		byte[] frame = new byte[chunks.getMaxFrameLength()];
+		long total = 0;
+		try {
+			out.write(chunks.getHeader());
+			long sequence = 0;
+			boolean last;
+			do {
+				int length = readFully(plain, chunk);
+				last = length < chunkSize || atEnd(plain);
+				int frameLength = chunks.seal(sequence++, last, chunk, 0, length, frame, 0);
+				out.write(frame, 0, frameLength);
+				total += length;
+			} while ( !last );
+			out.flush();
+			return total;
+		} finally {
+			CryptoHelper.overwrite(chunk);
+		}
+	}
+
+	/**
+	 * Decrypt everything read from a stream encrypted by {@link #encrypt(InputStream, OutputStream)}.
+	 *
+	 * @param in	The encrypted data.
+	 * @param out	Where to write the plaintext.
+	 * @return	The number of plaintext bytes decrypted.
+	 * @throws EncryptionException	if the data was altered or truncated, the key is wrong, or
+	 * 				decryption fails. Any plaintext already written must then be discarded.
+	 * @throws IOException	if reading or writing fails.
+	 */
+	public long decrypt(InputStream in, OutputStream out) throws EncryptionException, IOException {
+		DataInputStream data = new DataInputStream(in);
+		ChunkCipher chunks;
+		try {
+			chunks = ChunkCipher.read(key, data);
+		} catch (EOFException e) {
+			throw new EncryptionException("Decryption failed; see logs for details.", "Encrypted data is truncated in its header", e);
+		}
+		byte[] chunk = new byte[chunks.getChunkSize()];
+		byte[] frame = new byte[chunks.getMaxFrameLength()];
+		long total = 0;
+		try {
+			long sequence = 0;
+			boolean last;
+			do {
+				int frameLength;
+				try {
+					data.readFully(frame, 0, ChunkCipher.FRAME_HEADER_LENGTH);
+					frameLength = chunks.getFrameLength(frame, 0);
+					data.readFully(frame, ChunkCipher.FRAME_HEADER_LENGTH, frameLength - ChunkCipher.FRAME_HEADER_LENGTH);
+				} catch (EOFException e) {
+					throw new EncryptionException("Decryption failed; see logs for details.",
+												  "Encrypted data is truncated at chunk " + sequence, e);
+				}
+				last = ChunkCipher.isLast(frame, 0);
+				int length = chunks.open(sequence++, frame, 0, frameLength, chunk, 0);
+				out.write(chunk, 0, length);
+				total += length;
+			} while ( !last );
+			if ( data.read() != -1 ) {
+				throw new EncryptionException("Decryption failed; see logs for details.",
+											  "Unexpected data after the last chunk");
+			}
+			out.flush();
+			return total;
+		} finally {
+			CryptoHelper.overwrite(chunk);
+		}
+	}
+
+	/**
+	 * Encrypt everything read from a channel.
+	 *
+	 * @see #encrypt(InputStream, OutputStream)
+	 */
+	public long encrypt(ReadableByteChannel in, WritableByteChannel out) throws EncryptionException, IOException {
+		return encrypt(Channels.newInputStream(in), Channels.newOutputStream(out));
+	}
+
+	/**
+	 * Decrypt everything read from a channel.
+	 *
+	 * @see #decrypt(InputStream, OutputStream)
+	 */
+	public long decrypt(ReadableByteChannel in, WritableByteChannel out) throws EncryptionException, IOException {
+		return decrypt(Channels.newInputStream(in), Channels.newOutputStream(out));
+	}
+
+	// Read until the buffer is full or the stream ends.
+	private static int readFully(InputStream in, byte[] buffer) throws IOException {
+		int length = 0;
+		while ( length < buffer.length ) {
+			int n = in.read(buffer, length, buffer.length - length);
+			if ( n < 0 ) {
+				break;
+			}
+			length += n;
+		}
+		return length;
+	}
+
+	private static boolean atEnd(PushbackInputStream in) throws IOException {
+		int b = in.read();
+		if ( b < 0 ) {
+			return true;
+		}
+		in.unread(b);
+		return false;
+	}
+}
@@ -0,0 +1,418 @@
+/**
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ *
+ * The ESAPI is published by OWASP under the BSD license. You should read and accept the
+ * LICENSE before you use, modify, and/or redistribute this software.
+ *
+ * @created 2014
+ */
+package org.owasp.esapi.filters;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.owasp.esapi.ESAPI;
+import org.owasp.esapi.Logger;
+
+/**
+ * A servlet filter that protects the application when it is saturated by
+ * limiting the number of requests processed at once, and turning away the
+ * rest with a cheap 503 (Service Unavailable) response and a Retry-After
+ * header before they reach the application.
+ * <p>
+ * The limit adapts to how the application copes, using additive increase,
+ * multiplicative decrease (AIMD). Each time as many requests as the limit
+ * have completed within "targetLatencyMillis" while the limit was being used,
+ * the limit goes up by one. When a request takes longer, or fails with an
+ * exception, the limit is multiplied by "backoffRatio", at most once per
+ * target latency so that one slow burst does not collapse it. The limit
+ * stays between "minLimit" and "maxLimit" and starts at "initialLimit".
+ * <p>
+ * Requests are given a priority with the "priorities" parameter, one
+ * {@code url-pattern priority} per line (or separated by ';'); the first
+ * matching pattern applies, and patterns are matched as in
+ * {@link RateLimitFilter}. Priorities are:
+ * <ul>
+ * <li>{@code low}: shed once 75% of the limit is in use, e.g., for reports;</li>
+ * <li>{@code normal}: shed once the limit is reached; the default;</li>
+ * <li>{@code critical}: may go 50% over the limit, so that logins and health
+ * checks are the last to be shed.</li>
+ * </ul>
+ * <pre>
+ *     &lt;filter&gt;
+ *         &lt;filter-name&gt;ConcurrencyLimitFilter&lt;/filter-name&gt;
+ *         &lt;filter-class&gt;org.owasp.esapi.filters.ConcurrencyLimitFilter&lt;/filter-class&gt;
+ *         &lt;init-param&gt;
+ *             &lt;param-name&gt;priorities&lt;/param-name&gt;
+ *             &lt;param-value&gt;
+ *                 /login      critical
+ *                 /health     critical
+ *                 /reports/*  low
+ *             &lt;/param-value&gt;
+ *         &lt;/init-param&gt;
+ *     &lt;/filter&gt;
+ * </pre>
+ * The filter registers itself as a servlet context attribute named after this
+ * class, so that the application can report its metrics, e.g., from a health
+ * check.
+ *
+ * @since 2.1.1
+ */
+public class ConcurrencyLimitFilter implements Filter
+{
+
+    /** Shed once 75% of the limit is in use. */
+    public static final int LOW = 0;
+
+    /** Shed once the limit is reached. */
+    public static final int NORMAL = 1;
+
+    /** May go 50% over the limit. */
+    public static final int CRITICAL = 2;
+
+    private static final String[] PRIORITY_NAMES = { "low", "normal", "critical" };
+
+    /** Percentage of the limit each priority may use. */
+    private static final int[] PRIORITY_SHARE = { 75, 100, 150 };
+
+    /** HTTP 503, sent with a Retry-After of this many seconds. */
+    private static final int RETRY_AFTER_SECONDS = 1;
+
+    private final Logger logger = ESAPI.getLogger("ConcurrencyLimitFilter");
+
+    private List<Rule> priorities = new ArrayList<Rule>();
+    private int minLimit = 1;
+    private int maxLimit = 200;
+    private long targetNanos = TimeUnit.SECONDS.toNanos(1);
+    private double backoffRatio = 0.9;
+
+    private final AtomicInteger limit = new AtomicInteger(20);
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final AtomicInteger successes = new AtomicInteger();
+    private final AtomicLong lastDecrease = new AtomicLong();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLongArray shed = new AtomicLongArray(PRIORITY_NAMES.length);
+    private final AtomicLong slow = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+
+    /**
+     * Reads the "initialLimit", "minLimit", "maxLimit", "targetLatencyMillis",
+     * "backoffRatio" and "priorities" parameters.
+     *
+     * @param filterConfig
+     *            configuration object
+     * @throws ServletException
+     *            if a parameter is not valid
+     */
+    public void init(FilterConfig filterConfig) throws ServletException
+    {
+        try {
+            minLimit = intParameter(filterConfig, "minLimit", minLimit);
+            maxLimit = intParameter(filterConfig, "maxLimit", maxLimit);
+            int initial = intParameter(filterConfig, "initialLimit", Math.min(maxLimit, 20));
+            long target = intParameter(filterConfig, "targetLatencyMillis", 1000);
+            String ratio = filterConfig.getInitParameter("backoffRatio");
+            if (ratio != null)
+            {
+                backoffRatio = Double.parseDouble(ratio.trim());
+            }
+            if (minLimit < 1 || maxLimit < minLimit || initial < minLimit || initial > maxLimit || target < 1 ||
+                !(backoffRatio > 0 && backoffRatio < 1))
+            {
+                throw new IllegalArgumentException("need 1 <= minLimit <= initialLimit <= maxLimit, " +
+                                                   "targetLatencyMillis > 0 and 0 < backoffRatio < 1");
+            }
+            limit.set(initial);
+            targetNanos = TimeUnit.MILLISECONDS.toNanos(target);
+            lastDecrease.set(nanoTime() - targetNanos);
+            String spec = filterConfig.getInitParameter("priorities");
+            priorities = parsePriorities(( spec == null ) ? "" : spec);
+        } catch (IllegalArgumentException e) {
+            throw new ServletException("Invalid ConcurrencyLimitFilter configuration: " + e.getMessage(), e);
+        }
+        ServletContext context = filterConfig.getServletContext();
+        if (context != null)
+        {
+            context.setAttribute(ConcurrencyLimitFilter.class.getName(), this);
+        }
+    }
+
+    /**
+     * Processes the request if its priority allows another request in flight,
+     * and otherwise sends a 503 response without invoking the chain.
+     *
+     * @param request
+     * @param response
+     * @param chain
+     * @throws IOException
+     * @throws ServletException
+     */
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException
+    {
+        int priority = getPriority(PathPatterns.getPath((HttpServletRequest) request));
+        int started = tryAcquire(priority);
+        if (started < 0)
+        {
+            logger.debug(Logger.EVENT_FAILURE, "Shed {} priority request at concurrency limit {}",
+                         PRIORITY_NAMES[priority], limit.get());
+            HttpServletResponse httpResponse = (HttpServletResponse) response;
+            httpResponse.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            httpResponse.setHeader("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+            httpResponse.getWriter().println("Server busy");
+            return;
+        }
+        long start = nanoTime();
+        boolean failed = true;
+        try
+        {
+            chain.doFilter(request, response);
+            failed = false;
+        }
+        finally
+        {
+            inFlight.decrementAndGet();
+            long end = nanoTime();
+            onComplete(end - start, failed, started, end);
+        }
+    }
+
+    /**
+     * Called by the web container to indicate to a filter that it is being
+     * taken out of service.
+     */
+    public void destroy()
+    {
+        // nothing to release
+    }
+
+    /**
+     * @return The current concurrency limit.
+     */
+    public int getLimit()
+    {
+        return limit.get();
+    }
+
+    /**
+     * @return The number of requests being processed.
+     */
+    public int getInFlight()
+    {
+        return inFlight.get();
+    }
+
+    /**
+     * @return The largest number of requests that have been processed at once.
+     */
+    public int getPeakInFlight()
+    {
+        return peakInFlight.get();
+    }
+
+    /**
+     * @return The number of requests let through.
+     */
+    public long getAdmittedCount()
+    {
+        return admitted.get();
+    }
+
+    /**
+     * @param priority {@link #LOW}, {@link #NORMAL} or {@link #CRITICAL}.
+     * @return The number of requests of that priority that were shed.
+     */
+    public long getShedCount(int priority)
+    {
+        return shed.get(priority);
+    }
+
+    /**
+     * @return The number of requests shed, of any priority.
+     */
+    public long getShedCount()
+    {
+        long n = 0;
+        for (int i = 0; i < shed.length(); i++)
+        {
+            n += shed.get(i);
+        }
+        return n;
+    }
+
+    /**
+     * @return The number of requests that took longer than the target latency or failed.
+     */
+    public long getSlowCount()
+    {
+        return slow.get();
+    }
+
+    /**
+     * @return The mean latency of the requests let through, in milliseconds.
+     */
+    public double getAverageLatencyMillis()
+    {
+        long n = completed.get();
+        return ( n == 0 ) ? 0 : totalLatencyNanos.get() / (double) n / 1000000.0;
+    }
+
+    /**
+     * @return The current time in nanoseconds; tests override this to control the clock.
+     */
+    long nanoTime()
+    {
+        return System.nanoTime();
+    }
+
+    int getPriority(String path)
+    {
+        for (Rule rule : priorities)
+        {
+            if (PathPatterns.matches(rule.pattern, path))
+            {
+                return rule.priority;
+            }
+        }
+        return NORMAL;
+    }
+
+    /**
+     * Admit a request if there is room for its priority.
+     *
+     * @return The number of requests in flight before this one, or -1 if it is shed.
+     */
+    int tryAcquire(int priority)
+    {
+        int allowed = (int) ((long) limit.get() * PRIORITY_SHARE[priority] / 100);
+        for (;;)
+        {
+            int current = inFlight.get();
+            if (current >= allowed)
+            {
+                shed.incrementAndGet(priority);
+                return -1;
+            }
+            if (inFlight.compareAndSet(current, current + 1))
+            {
+                admitted.incrementAndGet();
+                int peak = peakInFlight.get();
+                while (current + 1 > peak && !peakInFlight.compareAndSet(peak, current + 1))
+                {
+                    peak = peakInFlight.get();
+                }
+                return current;
+            }
+        }
+    }
+
+    /**
+     * Adjust the limit after a request has completed.
+     *
+     * @param latencyNanos  How long the request took.
+     * @param failed        Whether it ended with an exception.
+     * @param started       The number of requests in flight when it started.
+     * @param now           The current time, in nanoseconds.
+     */
+    void onComplete(long latencyNanos, boolean failed, int started, long now)
+    {
+        completed.incrementAndGet();
+        totalLatencyNanos.addAndGet(latencyNanos);
+        if (failed || latencyNanos > targetNanos)
+        {
+            slow.incrementAndGet();
+            long last = lastDecrease.get();
+            if (now - last >= targetNanos && lastDecrease.compareAndSet(last, now))
+            {
+                int current;
+                int next;
+                do
+                {
+                    current = limit.get();
+                    next = Math.max(minLimit, Math.min(current - 1, (int) (current * backoffRatio)));
+                } while (next < current && !limit.compareAndSet(current, next));
+                successes.set(0);
+            }
+            return;
+        }
+        int current = limit.get();
+        // Only grow when the limit is actually being used, or an idle server would raise it without bound.
+        if (current < maxLimit && started * 2 >= current && successes.incrementAndGet() >= current)
+        {
+            successes.set(0);
+            limit.compareAndSet(current, current + 1);
+        }
+    }
+
+    private static int intParameter(FilterConfig filterConfig, String name, int def)
+    {
+        String value = filterConfig.getInitParameter(name);
+        return ( value == null ) ? def : Integer.parseInt(value.trim());
+    }
+
+    static List<Rule> parsePriorities(String spec)
+    {
+        List<Rule> result = new ArrayList<Rule>();
+        for (String line : spec.split("[;\\r\\n]+"))
+        {
+            line = line.trim();
+            if (line.length() == 0)
+            {
+                continue;
+            }
+            String[] parts = line.split("\\s+");
+            if (parts.length != 2)
+            {
+                throw new IllegalArgumentException("expected 'url-pattern priority': " + line);
+            }
+            int priority = -1;
+            for (int i = 0; i < PRIORITY_NAMES.length; i++)
+            {
+                if (PRIORITY_NAMES[i].equalsIgnoreCase(parts[1]))
+                {
+                    priority = i;
+                }
+            }
+            if (priority < 0)
+            {
+                throw new IllegalArgumentException("unknown priority '" + parts[1] + "': " + line);
+            }
+            result.add(new Rule(parts[0], priority));
+        }
+        return result;
+    }
+
+    static final class Rule
+    {
+        final String pattern;
+        final int priority;
+
+        Rule(String pattern, int priority)
+        {
+            this.pattern = pattern;
+            this.priority = priority;
+        }
+    }
+}
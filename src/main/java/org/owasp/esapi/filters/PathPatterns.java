@@ -0,0 +1,83 @@
+/**
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ *
+ * The ESAPI is published by OWASP under the BSD license. You should read and accept the
+ * LICENSE before you use, modify, and/or redistribute this software.
+ *
+ * @created 2014
+ */
+package org.owasp.esapi.filters;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Matching of request paths against servlet style URL patterns, as used in
+ * the configuration of {@link RateLimitFilter} and
+ * {@link ConcurrencyLimitFilter}.
+ *
+ * @since 2.1.1
+ */
+final class PathPatterns
+{
+
+    private PathPatterns()
+    {
+    }
+
+    /**
+     * Get the path a request is mapped by. This is the servlet path and the
+     * path info, which the container has decoded and normalized, rather than
+     * the request URI: {@code /login;x}, {@code //login} or {@code /%6cogin}
+     * reach the same servlet as {@code /login}, so they must match the same
+     * patterns.
+     *
+     * @param request The request.
+     * @return The servlet path followed by the path info, or "/" if both are empty.
+     */
+    static String getPath(HttpServletRequest request)
+    {
+        String path = request.getServletPath();
+        String info = request.getPathInfo();
+        if (path == null)
+        {
+            path = "";
+        }
+        if (info != null)
+        {
+            path += info;
+        }
+        return path.length() == 0 ? "/" : path;
+    }
+
+    /**
+     * Matches a path like a servlet mapping: an exact path, a {@code /prefix/*}
+     * or a {@code *.extension}; {@code /*} matches everything.
+     *
+     * @param pattern The URL pattern.
+     * @param path The path, as returned by {@link #getPath(HttpServletRequest)}.
+     * @return true if the pattern matches the path.
+     */
+    static boolean matches(String pattern, String path)
+    {
+        if (pattern.equals("/*"))
+        {
+            return true;
+        }
+        if (pattern.endsWith("/*"))
+        {
+            String prefix = pattern.substring(0, pattern.length() - 2);
+            return path.equals(prefix) || path.startsWith(prefix + "/");
+        }
+        if (pattern.startsWith("*."))
+        {
+            return path.endsWith(pattern.substring(1));
+        }
+        return path.equals(pattern);
+    }
+}
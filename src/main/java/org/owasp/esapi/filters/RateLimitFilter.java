@@ -0,0 +1,407 @@
+/**
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ *
+ * The ESAPI is published by OWASP under the BSD license. You should read and accept the
+ * LICENSE before you use, modify, and/or redistribute this software.
+ *
+ * @created 2014
+ */
+package org.owasp.esapi.filters;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.owasp.esapi.ESAPI;
+import org.owasp.esapi.Logger;
+import org.owasp.esapi.User;
+
+/**
+ * A servlet filter that limits the rate of requests per client, using the
+ * generic cell rate algorithm (GCRA), a token bucket that needs only a single
+ * timestamp per client. Each client's timestamp is kept in an
+ * {@link AtomicLong} and updated with compare-and-set, so requests never wait
+ * for a lock, and no session is ever created. Requests over the limit get a
+ * 429 (Too Many Requests) response with a Retry-After header, and the chain
+ * is not invoked.
+ * <p>
+ * Limits are configured with the "limits" parameter, one per line (or
+ * separated by ';'), each as {@code url-pattern key count/period [burst]}:
+ * <pre>
+ *     &lt;filter&gt;
+ *         &lt;filter-name&gt;RateLimitFilter&lt;/filter-name&gt;
+ *         &lt;filter-class&gt;org.owasp.esapi.filters.RateLimitFilter&lt;/filter-class&gt;
+ *         &lt;init-param&gt;
+ *             &lt;param-name&gt;limits&lt;/param-name&gt;
+ *             &lt;param-value&gt;
+ *                 /login           ip                5/1m
+ *                 /api/*           header:X-API-Key  100/1s  200
+ *                 /*               session           20/1s
+ *             &lt;/param-value&gt;
+ *         &lt;/init-param&gt;
+ *     &lt;/filter&gt;
+ * </pre>
+ * The url-pattern is matched against the servlet path and path info of the
+ * request, like a servlet mapping: an exact path, a {@code /prefix/*} or a
+ * {@code *.extension}; {@code /*} matches everything. The key is what
+ * requests are counted against: {@code ip} (the client address),
+ * {@code session} (the session ID), {@code user} (the current ESAPI user) or
+ * {@code header:name} (the value of a request header). Requests without a
+ * session, logged in user or header are counted against their IP address.
+ * The period is a number of seconds, minutes or hours ({@code s}, {@code m},
+ * {@code h}). The burst is the number of requests allowed at once, and
+ * defaults to the count. Every limit that matches a request applies, in
+ * order; the first one exceeded rejects it. The default is
+ * {@code /* ip 5/10s}, the same as {@link RequestRateThrottleFilter}.
+ * <p>
+ * Each limit tracks at most "maxKeys" clients (default 100000). A client
+ * whose bucket has refilled is the same as one that was never seen, so those
+ * are evicted first when a limit is full.
+ *
+ * @since 2.1.1
+ */
+public class RateLimitFilter implements Filter
+{
+
+    private static final String LIMITS = "limits";
+
+    private static final String MAX_KEYS = "maxKeys";
+
+    private static final String DEFAULT_LIMITS = "/* ip 5/10s";
+
+    private static final int DEFAULT_MAX_KEYS = 100000;
+
+    /** Header values used as keys are truncated to this length. */
+    private static final int MAX_KEY_LENGTH = 128;
+
+    /** HTTP 429, which is not in HttpServletResponse before Servlet 3.1. */
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+
+    private final Logger logger = ESAPI.getLogger("RateLimitFilter");
+
+    private List<Limit> limits = new ArrayList<Limit>();
+
+    private final AtomicLong allowed = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Reads the "limits" and "maxKeys" parameters.
+     *
+     * @param filterConfig
+     *            configuration object
+     * @throws ServletException
+     *            if a limit is not valid
+     */
+    public void init(FilterConfig filterConfig) throws ServletException
+    {
+        String spec = filterConfig.getInitParameter(LIMITS);
+        String max = filterConfig.getInitParameter(MAX_KEYS);
+        try {
+            int maxKeys = ( max == null ) ? DEFAULT_MAX_KEYS : Integer.parseInt(max.trim());
+            limits = parseLimits(( spec == null ) ? DEFAULT_LIMITS : spec, maxKeys);
+        } catch (IllegalArgumentException e) {
+            throw new ServletException("Invalid RateLimitFilter configuration: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Checks the request against every limit that applies to it. If one of
+     * them is exceeded, a 429 response is sent and no further processing is
+     * done on the request. Otherwise the request is processed as normal.
+     *
+     * @param request
+     * @param response
+     * @param chain
+     * @throws IOException
+     * @throws ServletException
+     */
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException
+    {
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        String path = PathPatterns.getPath(httpRequest);
+        long now = nanoTime();
+        for (Limit limit : limits)
+        {
+            if (!limit.matches(path))
+            {
+                continue;
+            }
+            String key = limit.keyFor(httpRequest);
+            long waitNanos = limit.acquire(key, now);
+            if (waitNanos > 0)
+            {
+                rejected.incrementAndGet();
+                logger.warning(Logger.SECURITY_FAILURE, "Request rate limit {} exceeded by {}", limit, key);
+                HttpServletResponse httpResponse = (HttpServletResponse) response;
+                long seconds = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+                httpResponse.setStatus(SC_TOO_MANY_REQUESTS);
+                httpResponse.setHeader("Retry-After", String.valueOf(seconds));
+                httpResponse.getWriter().println("Request rate too high");
+                return;
+            }
+        }
+        allowed.incrementAndGet();
+        chain.doFilter(request, response);
+    }
+
+    /**
+     * Called by the web container to indicate to a filter that it is being
+     * taken out of service.
+     */
+    public void destroy()
+    {
+        limits = new ArrayList<Limit>();
+    }
+
+    /**
+     * @return The number of requests let through.
+     */
+    public long getAllowedCount()
+    {
+        return allowed.get();
+    }
+
+    /**
+     * @return The number of requests rejected with a 429 response.
+     */
+    public long getRejectedCount()
+    {
+        return rejected.get();
+    }
+
+    /**
+     * @return The current time in nanoseconds; tests override this to control the clock.
+     */
+    long nanoTime()
+    {
+        return System.nanoTime();
+    }
+
+    static List<Limit> parseLimits(String spec, int maxKeys)
+    {
+        if (maxKeys < 1)
+        {
+            throw new IllegalArgumentException("maxKeys must be positive, was: " + maxKeys);
+        }
+        List<Limit> result = new ArrayList<Limit>();
+        for (String line : spec.split("[;\\r\\n]+"))
+        {
+            line = line.trim();
+            if (line.length() == 0)
+            {
+                continue;
+            }
+            String[] parts = line.split("\\s+");
+            if (parts.length < 3 || parts.length > 4)
+            {
+                throw new IllegalArgumentException("expected 'url-pattern key count/period [burst]': " + line);
+            }
+            String key = parts[1];
+            if (!key.equals("ip") && !key.equals("session") && !key.equals("user") &&
+                !(key.startsWith("header:") && key.length() > 7))
+            {
+                throw new IllegalArgumentException("unknown key '" + key + "': " + line);
+            }
+            int slash = parts[2].indexOf('/');
+            if (slash < 1)
+            {
+                throw new IllegalArgumentException("expected count/period: " + line);
+            }
+            int count = Integer.parseInt(parts[2].substring(0, slash));
+            long periodNanos = parsePeriod(parts[2].substring(slash + 1));
+            int burst = ( parts.length == 4 ) ? Integer.parseInt(parts[3]) : count;
+            if (count < 1 || burst < 1 || periodNanos < 1)
+            {
+                throw new IllegalArgumentException("count, period and burst must be positive: " + line);
+            }
+            result.add(new Limit(line, parts[0], key, count, periodNanos, burst, maxKeys));
+        }
+        return result;
+    }
+
+    private static long parsePeriod(String period)
+    {
+        if (period.length() < 2)
+        {
+            throw new IllegalArgumentException("period must be a number followed by s, m or h: " + period);
+        }
+        long n = Long.parseLong(period.substring(0, period.length() - 1));
+        switch (period.charAt(period.length() - 1))
+        {
+            case 's': return TimeUnit.SECONDS.toNanos(n);
+            case 'm': return TimeUnit.MINUTES.toNanos(n);
+            case 'h': return TimeUnit.HOURS.toNanos(n);
+            default: throw new IllegalArgumentException("period must be a number followed by s, m or h: " + period);
+        }
+    }
+
+    /**
+     * One configured limit and the state of every client it tracks. A
+     * client's state is its theoretical arrival time (TAT): the time at which
+     * its bucket will be full again. A request is allowed if, after adding
+     * one emission interval (period / count) to the TAT, the TAT is no more
+     * than burst intervals ahead of now.
+     */
+    static final class Limit
+    {
+        private final String description;
+        private final String pattern;
+        private final String key;
+        private final long emissionNanos;
+        private final long toleranceNanos;
+        private final int maxKeys;
+        private final ConcurrentMap<String, AtomicLong> cells = new ConcurrentHashMap<String, AtomicLong>();
+        private final AtomicBoolean sweeping = new AtomicBoolean();
+
+        Limit(String description, String pattern, String key, int count, long periodNanos, int burst, int maxKeys)
+        {
+            this.description = description;
+            this.pattern = pattern;
+            this.key = key;
+            this.emissionNanos = Math.max(1, periodNanos / count);
+            this.toleranceNanos = emissionNanos * burst;
+            this.maxKeys = maxKeys;
+        }
+
+        boolean matches(String path)
+        {
+            return PathPatterns.matches(pattern, path);
+        }
+
+        String keyFor(HttpServletRequest request)
+        {
+            if (key.equals("session"))
+            {
+                HttpSession session = request.getSession(false);
+                if (session != null)
+                {
+                    return "session:" + session.getId();
+                }
+            }
+            else if (key.equals("user"))
+            {
+                User user = ESAPI.authenticator().getCurrentUser();
+                if (user != null && !user.isAnonymous())
+                {
+                    return "user:" + user.getAccountName();
+                }
+            }
+            else if (key.startsWith("header:"))
+            {
+                String value = request.getHeader(key.substring(7));
+                if (value != null)
+                {
+                    // the value comes from the client, so don't let it take up arbitrary amounts of memory
+                    return key + ":" + ( value.length() > MAX_KEY_LENGTH ? value.substring(0, MAX_KEY_LENGTH) : value );
+                }
+            }
+            return "ip:" + request.getRemoteAddr();
+        }
+
+        /**
+         * Take one token from a client's bucket.
+         *
+         * @return 0 if the request is allowed, otherwise how long the client
+         *         has to wait, in nanoseconds.
+         */
+        long acquire(String client, long now)
+        {
+            AtomicLong cell = cells.get(client);
+            if (cell == null)
+            {
+                if (cells.size() >= maxKeys)
+                {
+                    sweep(now);
+                }
+                // A new client's bucket is full, i.e., its TAT is now.
+                AtomicLong created = new AtomicLong(now);
+                cell = cells.putIfAbsent(client, created);
+                if (cell == null)
+                {
+                    cell = created;
+                }
+            }
+            for (;;)
+            {
+                long tat = cell.get();
+                long next = Math.max(tat, now) + emissionNanos;
+                long excess = next - now - toleranceNanos;
+                if (excess > 0)
+                {
+                    return excess;
+                }
+                if (cell.compareAndSet(tat, next))
+                {
+                    return 0;
+                }
+            }
+        }
+
+        /** Make room by dropping clients whose bucket is full, or if there are none, any clients. */
+        private void sweep(long now)
+        {
+            if (!sweeping.compareAndSet(false, true))
+            {
+                return;
+            }
+            try
+            {
+                Iterator<Map.Entry<String, AtomicLong>> it = cells.entrySet().iterator();
+                while (it.hasNext())
+                {
+                    if (it.next().getValue().get() - now <= 0)
+                    {
+                        it.remove();
+                    }
+                }
+                // Still full of active clients; drop a tenth of them rather than growing.
+                int excess = cells.size() - maxKeys + Math.max(1, maxKeys / 10);
+                it = cells.entrySet().iterator();
+                while (excess-- > 0 && it.hasNext())
+                {
+                    it.next();
+                    it.remove();
+                }
+            }
+            finally
+            {
+                sweeping.set(false);
+            }
+        }
+
+        int size()
+        {
+            return cells.size();
+        }
+
+        @Override
+        public String toString()
+        {
+            return "'" + description + "'";
+        }
+    }
+}
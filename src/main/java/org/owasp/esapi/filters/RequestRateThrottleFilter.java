@@ -30,7 +30,15 @@ import java.util.Stack;
  * parameters named "hits" and "period" with the desired values. When the rate is exceeded, a short
  * string is written to the response output stream and the chain method is not invoked. Otherwise,
  * processing proceeds as normal.
+ * <p>
+ * If the "shared" parameter is "true", requests are counted per client IP address in the
+ * ESAPI {@link org.owasp.esapi.CounterStore} instead of per session, and no session is
+ * created. With a MappedFileCounterStore, the limit then holds across all the JVMs on the host.
+ *
+ * @deprecated Use {@link RateLimitFilter}, which never creates sessions, does not lock,
+ *             and supports several limits per URL pattern and client key.
  */
+@Deprecated
 public class RequestRateThrottleFilter implements Filter
 {
 
@@ -42,6 +50,10 @@ public class RequestRateThrottleFilter implements Filter
 
     private static final String PERIOD = "period";
 
+    private static final String SHARED = "shared";
+
+    private boolean shared = false;
+
     /**
      * Called by the web container to indicate to a filter that it is being
      * placed into service. The servlet container calls the init method exactly
@@ -55,6 +67,7 @@ public class RequestRateThrottleFilter implements Filter
     {
         hits = Integer.parseInt(filterConfig.getInitParameter(HITS));
         period = Integer.parseInt(filterConfig.getInitParameter(PERIOD));
+        shared = "true".equalsIgnoreCase(filterConfig.getInitParameter(SHARED));
     }
 
     /**
@@ -72,6 +85,17 @@ public class RequestRateThrottleFilter implements Filter
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException
     {
         HttpServletRequest httpRequest = (HttpServletRequest) request;
+        if (shared)
+        {
+            String key = "throttle:" + httpRequest.getRemoteAddr();
+            if (ESAPI.counterStore().increment(key, period * 1000L, System.currentTimeMillis()) > hits)
+            {
+                response.getWriter().println("Request rate too high");
+                return;
+            }
+            chain.doFilter(request, response);
+            return;
+        }
         HttpSession session = httpRequest.getSession(true);
         
         synchronized( session.getId().intern() ) {
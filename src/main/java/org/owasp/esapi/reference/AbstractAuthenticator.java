@@ -1,5 +1,6 @@
 package org.owasp.esapi.reference;
 
+import java.util.Arrays;
 import java.util.Date;
 
 import javax.servlet.http.HttpServletRequest;
@@ -7,14 +8,20 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
 import org.owasp.esapi.ESAPI;
+import org.owasp.esapi.EncoderConstants;
 import org.owasp.esapi.HTTPUtilities;
 import org.owasp.esapi.Logger;
+import org.owasp.esapi.Randomizer;
+import org.owasp.esapi.StringUtilities;
 import org.owasp.esapi.User;
 import org.owasp.esapi.errors.AccessControlException;
 import org.owasp.esapi.errors.AuthenticationCredentialsException;
 import org.owasp.esapi.errors.AuthenticationException;
 import org.owasp.esapi.errors.AuthenticationLoginException;
+import org.owasp.esapi.errors.AvailabilityException;
+import org.owasp.esapi.errors.EncryptionException;
 import org.owasp.esapi.errors.EnterpriseSecurityException;
+import org.owasp.esapi.errors.EnterpriseSecurityRuntimeException;
 /**
  * A partial implementation of the Authenticator interface.
  * This class should not implement any methods that would be meant
@@ -29,6 +36,8 @@ public abstract class AbstractAuthenticator implements org.owasp.esapi.Authentic
     protected static final String USER = "ESAPIUserSessionKey";
     
     private final Logger logger = ESAPI.getLogger("Authenticator");
+
+    private static final int MAX_ACCOUNT_NAME_LENGTH = 250;
     
     /**
      * The currentUser ThreadLocal variable is used to make the currentUser available to any call in any part of an
@@ -67,6 +76,7 @@ public abstract class AbstractAuthenticator implements org.owasp.esapi.Authentic
     public void clearCurrent() {
         // logger.logWarning(Logger.SECURITY, "************Clearing threadlocals. Thread" + Thread.currentThread().getName() );
         currentUser.setUser(null);
+        LogContext.invalidate();
     }
     
     /**
@@ -175,7 +185,15 @@ public abstract class AbstractAuthenticator implements org.owasp.esapi.Authentic
         if (user == null) {
             throw new AuthenticationCredentialsException("Authentication failed", "Authentication failed because user " + username + " doesn't exist");
         }
-        user.loginWithPassword(password);
+        try {
+            user.loginWithPassword(password);
+        } catch (EnterpriseSecurityRuntimeException e) {
+            // Thrown by verifyPassword in User implementations that don't handle it themselves
+            if (!isHashUnavailable(e)) {
+                throw e;
+            }
+            throw new AuthenticationException("Login unavailable, please try again later", e.getLogMessage(), e);
+        }
 
         request.setAttribute(user.getCSRFToken(), "authenticated");
         return user;
@@ -287,11 +305,176 @@ public abstract class AbstractAuthenticator implements org.owasp.esapi.Authentic
         }
     }
 
+    /**
+     * Called by {@link DefaultUser#setAccountName(String)} after a user has been renamed, so that implementations
+     * that index their users by name can find the user by its new name. This implementation does nothing.
+     *
+     * @param user    the renamed user
+     * @param oldName the account name the user had before
+     */
+    protected void accountNameChanged(User user, String oldName) {
+    }
+
     /**
      * {@inheritDoc}
      */
     public void setCurrentUser(User user) {
         currentUser.setUser(user);
+        LogContext.invalidate();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String generateStrongPassword() {
+        return generateStrongPassword("");
+    }
+
+    /**
+     * Generate a strong password that is not similar to the specified old password.
+     *
+     * @param oldPassword the password to be compared to the new password for similarity
+     * @return a new strong password that is dissimilar to the specified old password
+     */
+    private String generateStrongPassword(String oldPassword) {
+        Randomizer r = ESAPI.randomizer();
+        int letters = r.getRandomInteger(4, 6);  // inclusive, exclusive
+        int digits = 7 - letters;
+        String passLetters = r.getRandomString(letters, EncoderConstants.CHAR_PASSWORD_LETTERS);
+        String passDigits = r.getRandomString(digits, EncoderConstants.CHAR_PASSWORD_DIGITS);
+        String passSpecial = r.getRandomString(1, EncoderConstants.CHAR_PASSWORD_SPECIALS);
+        String newPassword = passLetters + passSpecial + passDigits;
+        if (StringUtilities.getLevenshteinDistance(oldPassword, newPassword) > 5) {
+            return newPassword;
+        }
+        return generateStrongPassword(oldPassword);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String generateStrongPassword(User user, String oldPassword) {
+        String newPassword = generateStrongPassword(oldPassword);
+        if (newPassword != null) {
+            logger.info(Logger.SECURITY_SUCCESS, "Generated strong password for " + user.getAccountName());
+        }
+        return newPassword;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws EncryptionException
+     */
+    public String hashPassword(String password, String accountName) throws EncryptionException {
+        String salt = accountName.toLowerCase();
+        return PasswordHashExecutor.getInstance().hash(password, salt);
+    }
+
+    /**
+     * Rethrows a failure to hash a password because too many passwords are waiting in the
+     * {@link PasswordHashExecutor}, so that it is not mistaken for a wrong password and counted
+     * as a failed login.
+     *
+     * @param e           The failure to hash the password.
+     * @param accountName The account whose password was being verified.
+     * @throws EnterpriseSecurityRuntimeException if hashing was unavailable.
+     */
+    protected void checkHashAvailable(EncryptionException e, String accountName) {
+        if (e.getCause() instanceof AvailabilityException) {
+            throw new EnterpriseSecurityRuntimeException(e.getUserMessage(),
+                    "Password hashing unavailable verifying password for " + accountName, e);
+        }
+    }
+
+    /**
+     * @param e An exception thrown by {@link #verifyPassword(User, String)}.
+     * @return Whether it was thrown by {@link #checkHashAvailable(EncryptionException, String)}.
+     */
+    static boolean isHashUnavailable(EnterpriseSecurityRuntimeException e) {
+        return e.getCause() instanceof EncryptionException && e.getCause().getCause() instanceof AvailabilityException;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * This implementation simply verifies that account names are at least 5 characters long. This helps to defeat a
+     * brute force attack, however the real strength comes from the name length and complexity.
+     *
+     * @param newAccountName
+     */
+    public void verifyAccountNameStrength(String newAccountName) throws AuthenticationException {
+        if (newAccountName == null) {
+            throw new AuthenticationCredentialsException("Invalid account name", "Attempt to create account with a null account name");
+        }
+        if (!ESAPI.validator().isValidInput("verifyAccountNameStrength", newAccountName, "AccountName", MAX_ACCOUNT_NAME_LENGTH, false)) {
+            throw new AuthenticationCredentialsException("Invalid account name", "New account name is not valid: " + newAccountName);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * This implementation checks: - for any 3 character substrings of the old password - for use of a length *
+     * character sets > 16 (where character sets are upper, lower, digit, and special
+     * jtm - 11/16/2010 - added check to verify pw != username (fix for http://code.google.com/p/owasp-esapi-java/issues/detail?id=108)
+     */
+    public void verifyPasswordStrength(String oldPassword, String newPassword, User user) throws AuthenticationException {
+        if (newPassword == null) {
+            throw new AuthenticationCredentialsException("Invalid password", "New password cannot be null");
+        }
+
+        // can't change to a password that contains any 3 character substring of old password
+        if (oldPassword != null) {
+            int length = oldPassword.length();
+            for (int i = 0; i < length - 2; i++) {
+                String sub = oldPassword.substring(i, i + 3);
+                if (newPassword.indexOf(sub) > -1) {
+                    throw new AuthenticationCredentialsException("Invalid password", "New password cannot contain pieces of old password");
+                }
+            }
+        }
+
+        // new password must have enough character sets and length
+        int charsets = 0;
+        for (int i = 0; i < newPassword.length(); i++) {
+            if (Arrays.binarySearch(EncoderConstants.CHAR_LOWERS, newPassword.charAt(i)) >= 0) {
+                charsets++;
+                break;
+            }
+        }
+        for (int i = 0; i < newPassword.length(); i++) {
+            if (Arrays.binarySearch(EncoderConstants.CHAR_UPPERS, newPassword.charAt(i)) >= 0) {
+                charsets++;
+                break;
+            }
+        }
+        for (int i = 0; i < newPassword.length(); i++) {
+            if (Arrays.binarySearch(EncoderConstants.CHAR_DIGITS, newPassword.charAt(i)) >= 0) {
+                charsets++;
+                break;
+            }
+        }
+        for (int i = 0; i < newPassword.length(); i++) {
+            if (Arrays.binarySearch(EncoderConstants.CHAR_SPECIALS, newPassword.charAt(i)) >= 0) {
+                charsets++;
+                break;
+            }
+        }
+
+        // calculate and verify password strength
+        int strength = newPassword.length() * charsets;
+        if (strength < 16) {
+            throw new AuthenticationCredentialsException("Invalid password", "New password is not long and complex enough");
+        }
+        
+        String accountName = user.getAccountName();
+        
+        //jtm - 11/3/2010 - fix for bug http://code.google.com/p/owasp-esapi-java/issues/detail?id=108
+        if (accountName.equalsIgnoreCase(newPassword)) {
+        	//password can't be account name
+        	throw new AuthenticationCredentialsException("Invalid password", "Password matches account name, irrespective of case");
+        }
     }
 
 }
@@ -0,0 +1,369 @@
+/**
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ *
+ * The ESAPI is published by OWASP under the BSD license. You should read and accept the
+ * LICENSE before you use, modify, and/or redistribute this software.
+ *
+ * @created 2014
+ */
+package org.owasp.esapi.reference;
+
+import java.io.Flushable;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.owasp.esapi.ESAPI;
+import org.owasp.esapi.SecurityConfiguration;
+
+/**
+ * Hands log events from request threads to a single background writer thread.
+ * Used by {@link JavaLogFactory} and {@link Log4JLogger} when
+ * {@code Logger.Async=true} in {@code ESAPI.properties}.
+ * <p>
+ * Callers capture everything that depends on the calling thread (the current
+ * user and request, the time and the thread name) into an immutable
+ * {@link Event} and {@link #dispatch(Event) dispatch} it. The writer thread
+ * does the CR/LF replacement, optional HTML encoding, string building and the
+ * actual I/O, draining events in batches so that it only has to be woken once
+ * per burst, and flushing each log destination once per batch rather than once
+ * per event.
+ * <p>
+ * Events are held in a bounded, lock-free ring buffer. When it is full the
+ * {@code Logger.Async.OverflowPolicy} decides whether the caller waits
+ * ({@code block}), or whether DEBUG and TRACE events are discarded
+ * ({@code drop-debug}) or thinned out to one in {@value #SAMPLE_RATE}
+ * ({@code sample}). Events at INFO and above are never discarded. Pending
+ * events are written out when the JVM shuts down or {@link #shutdown()} is
+ * called; after that, events are written synchronously by the caller, and an
+ * event that was queued while the writer thread was stopping is written out
+ * by the thread that queued it.
+ *
+ * @since 2.1.1
+ */
+public final class AsyncLogDispatcher {
+
+    /** Caller waits for room in the buffer. */
+    public static final String POLICY_BLOCK = "block";
+    /** DEBUG and TRACE events are discarded when the buffer is full. */
+    public static final String POLICY_DROP_DEBUG = "drop-debug";
+    /** One in every {@value #SAMPLE_RATE} DEBUG and TRACE events is kept when the buffer is full. */
+    public static final String POLICY_SAMPLE = "sample";
+
+    /** Under the {@code sample} policy, the fraction (1/n) of discardable events that are kept. */
+    public static final int SAMPLE_RATE = 10;
+
+    private static final int MAX_BATCH = 256;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long SHUTDOWN_WAIT_MILLIS = 5000;
+
+    private static volatile AsyncLogDispatcher singletonInstance;
+
+    /**
+     * Returns the shared dispatcher, creating and starting it on first use
+     * with the settings from {@code ESAPI.properties}.
+     *
+     * @return The shared dispatcher.
+     */
+    public static AsyncLogDispatcher getInstance() {
+        if ( singletonInstance == null ) {
+            synchronized ( AsyncLogDispatcher.class ) {
+                if ( singletonInstance == null ) {
+                    SecurityConfiguration config = ESAPI.securityConfiguration();
+                    final AsyncLogDispatcher dispatcher =
+                        new AsyncLogDispatcher(config.getLogAsyncBufferSize(), config.getLogAsyncOverflowPolicy());
+                    dispatcher.start();
+                    Runtime.getRuntime().addShutdownHook(new Thread("ESAPI-AsyncLogDispatcher-shutdown") {
+                        @Override
+                        public void run() {
+                            dispatcher.shutdown();
+                        }
+                    });
+                    singletonInstance = dispatcher;
+                }
+            }
+        }
+        return singletonInstance;
+    }
+
+    /**
+     * A log event captured on the calling thread. Implementations must hold
+     * everything needed to write the event and must not consult thread-local
+     * state (e.g., {@code ESAPI.currentRequest()}) in {@link #write()}.
+     */
+    abstract static class Event {
+        private final boolean discardable;
+
+        /**
+         * @param discardable true if the event may be dropped when the buffer
+         *                    is full (i.e., it is a DEBUG or TRACE event).
+         */
+        Event(boolean discardable) {
+            this.discardable = discardable;
+        }
+
+        /** Format the event and write it to the underlying log. */
+        abstract void write();
+
+        /**
+         * @return What to flush once the batch this event was written in is
+         *         complete, or null if the log needs no flushing. Events written
+         *         to the same log should return the same object, so that it is
+         *         flushed only once per batch.
+         */
+        Flushable flushTarget() {
+            return null;
+        }
+    }
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<Event> slots;
+    // Vyukov style sequence numbers. A slot whose sequence equals the producer
+    // position is free; one whose sequence is position + 1 holds an event.
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();  // Next position for producers
+    private volatile long head = 0;                     // Next position; only advanced by the writer thread
+
+    private final String policy;
+    private final AtomicLong discarded = new AtomicLong();
+    private final AtomicLong sampleCounter = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+
+    private final Thread writer;
+    // Held while taking events out of the buffer, which is normally only done
+    // by the writer thread, but also by producers once shutdown has begun.
+    private final Object drainLock = new Object();
+    private volatile boolean idle = false;
+    private volatile boolean running = true;
+
+    /**
+     * Creates a dispatcher. It must be {@link #start() started} before events are written.
+     *
+     * @param bufferSize    Maximum number of pending events; rounded up to a power of 2.
+     * @param policy        One of {@link #POLICY_BLOCK}, {@link #POLICY_DROP_DEBUG} or {@link #POLICY_SAMPLE}.
+     * @throws IllegalArgumentException if the buffer size or policy is invalid.
+     */
+    AsyncLogDispatcher(int bufferSize, String policy) {
+        if ( bufferSize < 2 || bufferSize > (1 << 24) ) {
+            throw new IllegalArgumentException("Async log buffer size must be between 2 and 2^24, was: " + bufferSize);
+        }
+        if ( ! POLICY_BLOCK.equalsIgnoreCase(policy) && ! POLICY_DROP_DEBUG.equalsIgnoreCase(policy) &&
+             ! POLICY_SAMPLE.equalsIgnoreCase(policy) ) {
+            throw new IllegalArgumentException("Invalid async log overflow policy: " + policy);
+        }
+        this.policy = policy.toLowerCase();
+        int size = Integer.highestOneBit(bufferSize - 1) << 1;
+        this.capacity = size;
+        this.mask = size - 1;
+        this.slots = new AtomicReferenceArray<Event>(size);
+        this.sequences = new AtomicLongArray(size);
+        for ( int i = 0; i < size; i++ ) {
+            sequences.set(i, i);
+        }
+        this.writer = new Thread(new Runnable() {
+            public void run() {
+                writeLoop();
+            }
+        }, "ESAPI-AsyncLogDispatcher");
+        this.writer.setDaemon(true);
+    }
+
+    /** Start the background writer thread. */
+    void start() {
+        writer.start();
+    }
+
+    /**
+     * Queue an event to be written by the background thread. If the
+     * dispatcher has been shut down, the event is written immediately on the
+     * calling thread instead.
+     *
+     * @param event The captured event.
+     */
+    void dispatch(Event event) {
+        if ( ! running ) {
+            event.write();
+            return;
+        }
+        if ( ! offer(event) ) {
+            if ( event.discardable && ! POLICY_BLOCK.equals(policy) ) {
+                if ( POLICY_DROP_DEBUG.equals(policy) ||
+                     sampleCounter.incrementAndGet() % SAMPLE_RATE != 0 ) {
+                    discarded.incrementAndGet();
+                    return;
+                }
+            }
+            while ( ! offer(event) ) {
+                if ( ! running ) {
+                    event.write();
+                    return;
+                }
+                wakeWriter();
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+            }
+        }
+        if ( ! running ) {
+            // The writer may already have done its final drain, so don't leave
+            // the event behind. Whichever producer publishes last drains it all.
+            while ( drainBatch() > 0 ) {
+                // keep draining
+            }
+            return;
+        }
+        if ( idle ) {
+            wakeWriter();
+        }
+    }
+
+    /**
+     * Stop accepting events, write out every pending event and stop the
+     * background thread. Waits at most a few seconds for the writer to finish.
+     */
+    public void shutdown() {
+        running = false;
+        wakeWriter();
+        if ( Thread.currentThread() != writer ) {
+            try {
+                writer.join(SHUTDOWN_WAIT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return The number of events discarded because the buffer was full.
+     */
+    public long getDiscardedCount() {
+        return discarded.get();
+    }
+
+    /**
+     * @return The number of events taken from the buffer and written.
+     */
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    /**
+     * @return The approximate number of events waiting to be written.
+     */
+    public int getPendingCount() {
+        long pending = tail.get() - head;
+        return (int) Math.max(0, Math.min(pending, capacity));
+    }
+
+    /**
+     * @return The capacity of the buffer.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private boolean offer(Event event) {
+        long pos = tail.get();
+        for ( ;; ) {
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if ( diff == 0 ) {
+                if ( tail.compareAndSet(pos, pos + 1) ) {
+                    slots.lazySet(index, event);
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if ( diff < 0 ) {
+                return false;   // Full
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    private Event poll() {
+        int index = (int) (head & mask);
+        if ( sequences.get(index) != head + 1 ) {
+            return null;
+        }
+        Event event = slots.get(index);
+        slots.lazySet(index, null);
+        sequences.set(index, head + capacity);
+        head++;
+        return event;
+    }
+
+    private void wakeWriter() {
+        LockSupport.unpark(writer);
+    }
+
+    private void writeLoop() {
+        for ( ;; ) {
+            int n = drainBatch();
+            if ( n > 0 ) {
+                continue;
+            }
+            if ( ! running ) {
+                // Producers that saw running == true may still be publishing.
+                if ( tail.get() == head ) {
+                    break;
+                }
+                Thread.yield();
+                continue;
+            }
+            idle = true;
+            if ( tail.get() == head ) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            idle = false;
+        }
+    }
+
+    private int drainBatch() {
+        int n = 0;
+        Map<Flushable, Boolean> targets = null;
+        synchronized ( drainLock ) {
+            Event event;
+            while ( n < MAX_BATCH && (event = poll()) != null ) {
+                try {
+                    event.write();
+                    Flushable target = event.flushTarget();
+                    if ( target != null ) {
+                        if ( targets == null ) {
+                            targets = new IdentityHashMap<Flushable, Boolean>();
+                        }
+                        targets.put(target, Boolean.TRUE);
+                    }
+                } catch (Throwable t) {
+                    // Nowhere else to report it. Don't let one bad event kill the writer.
+                    System.err.println("ESAPI async logger failed to write log event: " + t);
+                }
+                n++;
+            }
+            if ( targets != null ) {
+                for ( Flushable target : targets.keySet() ) {
+                    try {
+                        target.flush();
+                    } catch (Throwable t) {
+                        System.err.println("ESAPI async logger failed to flush log: " + t);
+                    }
+                }
+            }
+        }
+        if ( n > 0 ) {
+            written.addAndGet(n);
+        }
+        return n;
+    }
+}
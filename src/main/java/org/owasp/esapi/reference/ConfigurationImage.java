@@ -0,0 +1,293 @@
+/**
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ *
+ * The ESAPI is published by OWASP under the BSD license. You should read and accept the
+ * LICENSE before you use, modify, and/or redistribute this software.
+ *
+ * @created 2014
+ */
+package org.owasp.esapi.reference;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+import org.owasp.esapi.SecurityConfiguration;
+
+/**
+ * A compact, versioned binary image of the merged properties that
+ * {@link DefaultSecurityConfiguration} loads from {@code ESAPI.properties}
+ * and its validation properties files. The image records the name and a
+ * SHA-256 content hash of every source file it was built from, so a node
+ * whose source files are unchanged can memory map the image and skip
+ * re-parsing the text files altogether. If any source file has changed
+ * (or moved), the image is considered stale and is ignored.
+ * <p>
+ * Images are only ever produced explicitly, via {@link #main(String[])},
+ * typically as a build or deployment step:
+ * <pre>
+ *     java -Dorg.owasp.esapi.resources=/path/to/esapi org.owasp.esapi.reference.ConfigurationImage
+ * </pre>
+ * which writes {@code ESAPI.properties.image} next to {@code ESAPI.properties}.
+ * Every source file must be loaded via file I/O; an image is refused if any
+ * of them comes from the classpath, since its changes could not be detected.
+ * <p>
+ * Image layout (all integers big-endian, strings are length prefixed UTF-8):
+ * <pre>
+ *     int      magic ("ESCI")
+ *     short    format version
+ *     int      number of source files
+ *         string   source file name (as passed to {@code getResourceFile()})
+ *         byte[32] SHA-256 of the source file contents
+ *     int      number of properties
+ *         string   key
+ *         string   value
+ *     byte[32] SHA-256 of all preceding bytes
+ * </pre>
+ * Only the properties are cached. The WAF policy, AntiSamy policy and access
+ * control policy files are turned into live rule objects (some of them
+ * holding BeanShell interpreters) that cannot be meaningfully serialized,
+ * so those continue to be parsed at start up.
+ *
+ * @since 2.1.1
+ * @see DefaultSecurityConfiguration
+ */
+public final class ConfigurationImage {
+
+    /** Suffix appended to the name of the main resource file to obtain the image file name. */
+    public static final String IMAGE_SUFFIX = ".image";
+
+    private static final int MAGIC = 0x45534349;    // "ESCI"
+    private static final short VERSION = 1;
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final int DIGEST_LENGTH = 32;
+    private static final String ENCODING = "UTF-8";
+
+    private ConfigurationImage() {
+        // Static utility class
+    }
+
+    /**
+     * Build an image for the configuration found in the usual ESAPI resource
+     * locations and write it next to {@code ESAPI.properties}.
+     *
+     * @param args Optionally, the path of the image file to write.
+     * @throws Exception If the configuration cannot be loaded or the image cannot be written.
+     */
+    public static void main(String[] args) throws Exception {
+        DefaultSecurityConfiguration config = new DefaultSecurityConfiguration();
+        Map<String, File> sources = config.getConfigurationSources();
+        File propsFile = sources.get(DefaultSecurityConfiguration.DEFAULT_RESOURCE_FILE);
+        if ( propsFile == null ) {
+            System.err.println("Unable to build a configuration image: " +
+                               DefaultSecurityConfiguration.DEFAULT_RESOURCE_FILE +
+                               " must be loaded via file I/O rather than from the classpath.");
+            System.exit(1);
+        }
+        // The image could never notice a change to a file loaded from the classpath.
+        if ( ! config.getClasspathSources().isEmpty() ) {
+            System.err.println("Unable to build a configuration image: " + config.getClasspathSources() +
+                               " must be loaded via file I/O rather than from the classpath.");
+            System.exit(1);
+        }
+        File image = ( args.length > 0 ) ? new File(args[0]) :
+                        new File(propsFile.getParentFile(), propsFile.getName() + IMAGE_SUFFIX);
+        write(image, config.getESAPIProperties(), sources);
+        System.out.println("Wrote configuration image for " + sources.keySet() +
+                           " to " + image.getAbsolutePath());
+    }
+
+    /**
+     * Write an image of the specified properties.
+     *
+     * @param image     The image file to (re)create.
+     * @param props     The parsed and merged properties.
+     * @param sources   The files the properties were loaded from, keyed by the
+     *                  name that is later used to look them up again via
+     *                  {@link SecurityConfiguration#getResourceFile(String)}.
+     * @throws IOException If a source file cannot be read or the image cannot be written.
+     */
+    public static void write(File image, Properties props, Map<String, File> sources) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeInt(sources.size());
+        for ( Map.Entry<String, File> source : sources.entrySet() ) {
+            writeString(out, source.getKey());
+            out.write(hashOf(source.getValue()));
+        }
+        // Sorted so that identical configurations produce identical images.
+        TreeSet<String> keys = new TreeSet<String>(props.stringPropertyNames());
+        out.writeInt(keys.size());
+        Iterator<String> it = keys.iterator();
+        while ( it.hasNext() ) {
+            String key = it.next();
+            writeString(out, key);
+            writeString(out, props.getProperty(key));
+        }
+        out.flush();
+        out.write(newDigest().digest(bytes.toByteArray()));
+        out.flush();
+
+        // Write to a temporary file first so that a concurrently booting node
+        // never maps a half written image.
+        File tmp = new File(image.getAbsolutePath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try {
+            bytes.writeTo(fos);
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        if ( image.exists() && ! image.delete() ) {
+            tmp.delete();
+            throw new IOException("Unable to replace existing configuration image " + image);
+        }
+        if ( ! tmp.renameTo(image) ) {
+            tmp.delete();
+            throw new IOException("Unable to rename " + tmp + " to " + image);
+        }
+    }
+
+    /**
+     * Read the properties back from an image, provided that none of the source
+     * files it was built from have changed.
+     *
+     * @param image     The image file.
+     * @param config    Used to resolve the source file names recorded in the image.
+     * @param sources   If not {@code null}, receives the resolved source files of a
+     *                  usable image, keyed by name.
+     * @return The cached properties, or {@code null} if the image is stale.
+     * @throws IOException If the image cannot be read or is corrupt or of an unknown version.
+     */
+    public static Properties read(File image, SecurityConfiguration config, Map<String, File> sources)
+        throws IOException
+    {
+        FileInputStream fis = new FileInputStream(image);
+        try {
+            FileChannel channel = fis.getChannel();
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(buf, config, sources);
+        } finally {
+            fis.close();
+        }
+    }
+
+    private static Properties read(ByteBuffer buf, SecurityConfiguration config, Map<String, File> sources)
+        throws IOException
+    {
+        int bodyLength = buf.limit() - DIGEST_LENGTH;
+        if ( bodyLength < 10 ) {
+            throw new IOException("Configuration image is truncated.");
+        }
+        MessageDigest md = newDigest();
+        ByteBuffer body = buf.duplicate();
+        body.limit(bodyLength);
+        md.update(body);
+        byte[] expected = new byte[DIGEST_LENGTH];
+        buf.position(bodyLength);
+        buf.get(expected);
+        if ( ! MessageDigest.isEqual(expected, md.digest()) ) {
+            throw new IOException("Configuration image is corrupt; checksum mismatch.");
+        }
+
+        buf.position(0);
+        buf.limit(bodyLength);
+        try {
+            if ( buf.getInt() != MAGIC ) {
+                throw new IOException("Not an ESAPI configuration image.");
+            }
+            short version = buf.getShort();
+            if ( version != VERSION ) {
+                throw new IOException("Unsupported configuration image version: " + version);
+            }
+            int nSources = buf.getInt();
+            Map<String, File> resolved = new LinkedHashMap<String, File>();
+            for ( int i = 0; i < nSources; i++ ) {
+                String name = readString(buf);
+                byte[] hash = new byte[DIGEST_LENGTH];
+                buf.get(hash);
+                File f = config.getResourceFile(name);
+                if ( f == null || ! Arrays.equals(hash, hashOf(f)) ) {
+                    return null;    // Stale
+                }
+                resolved.put(name, f);
+            }
+            int nProps = buf.getInt();
+            Properties props = new Properties();
+            for ( int i = 0; i < nProps; i++ ) {
+                String key = readString(buf);
+                props.setProperty(key, readString(buf));
+            }
+            if ( sources != null ) {
+                sources.putAll(resolved);
+            }
+            return props;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Configuration image is truncated.");
+        }
+    }
+
+    private static byte[] hashOf(File f) throws IOException {
+        MessageDigest md = newDigest();
+        InputStream in = new FileInputStream(f);
+        try {
+            byte[] chunk = new byte[8192];
+            int n;
+            while ( (n = in.read(chunk)) != -1 ) {
+                md.update(chunk, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return md.digest();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every JRE is required to support SHA-256.
+            throw new IllegalStateException(DIGEST_ALGORITHM + " not available", e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(ENCODING);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(ByteBuffer buf) throws IOException {
+        int len = buf.getInt();
+        if ( len < 0 || len > buf.remaining() ) {
+            throw new IOException("Configuration image is corrupt; bad string length " + len);
+        }
+        byte[] b = new byte[len];
+        buf.get(b);
+        return new String(b, ENCODING);
+    }
+}
@@ -173,21 +173,21 @@ public class DefaultEncoder implements Encoder {
             if ( restrictMultiple || restrictMixed ) {
                 throw new IntrusionException( "Input validation failure", "Multiple ("+ foundCount +"x) and mixed encoding ("+ mixedCount +"x) detected in " + input );
             } else {
-                logger.warning( Logger.SECURITY_FAILURE, "Multiple ("+ foundCount +"x) and mixed encoding ("+ mixedCount +"x) detected in " + input );
+                logger.warning( Logger.SECURITY_FAILURE, "Multiple ({}x) and mixed encoding ({}x) detected in {}", foundCount, mixedCount, input );
             }
         }
         else if ( foundCount >= 2 ) {
             if ( restrictMultiple ) {
                 throw new IntrusionException( "Input validation failure", "Multiple ("+ foundCount +"x) encoding detected in " + input );
             } else {
-                logger.warning( Logger.SECURITY_FAILURE, "Multiple ("+ foundCount +"x) encoding detected in " + input );
+                logger.warning( Logger.SECURITY_FAILURE, "Multiple ({}x) encoding detected in {}", foundCount, input );
             }
         }
         else if ( mixedCount > 1 ) {
             if ( restrictMixed ) {
                 throw new IntrusionException( "Input validation failure", "Mixed encoding ("+ mixedCount +"x) detected in " + input );
             } else {
-                logger.warning( Logger.SECURITY_FAILURE, "Mixed encoding ("+ mixedCount +"x) detected in " + input );
+                logger.warning( Logger.SECURITY_FAILURE, "Mixed encoding ({}x) detected in {}", mixedCount, input );
             }
         }
         return working;
@@ -304,6 +304,7 @@ public class DefaultHTTPUtilities implements org.owasp.esapi.HTTPUtilities {
       {
          newSession.setAttribute(stringObjectEntry.getKey(), stringObjectEntry.getValue());
 		}
+		LogContext.invalidate();
 		return newSession;
 	}
 
@@ -313,6 +314,7 @@ public class DefaultHTTPUtilities implements org.owasp.esapi.HTTPUtilities {
     public void clearCurrent() {
 		currentRequest.set(null);
 		currentResponse.set(null);
+		LogContext.invalidate();
 	}
 
 	private String createCookieHeader(String name, String value, int maxAge, String domain, String path, boolean secure) {
@@ -844,6 +846,7 @@ public class DefaultHTTPUtilities implements org.owasp.esapi.HTTPUtilities {
     public void setCurrentHTTP(HttpServletRequest request, HttpServletResponse response) {
      	currentRequest.setRequest(request);
         currentResponse.setResponse(response);
+        LogContext.invalidate();
     }
 
     /**
@@ -15,11 +15,13 @@
  */
 package org.owasp.esapi.reference;
 
-import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Stack;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+import org.owasp.esapi.CounterStore;
 import org.owasp.esapi.ESAPI;
 import org.owasp.esapi.Logger;
 import org.owasp.esapi.User;
@@ -38,7 +40,14 @@ import org.owasp.esapi.errors.IntrusionException;
  * deviations from that baseline. This implementation stores state in the
  * user's session, so that it will be properly cleaned up when the session is
  * terminated. State is not otherwise persisted, so attacks that span sessions
- * will not be detectable.
+ * will not be detectable, unless IntrusionDetector.SharedCounters is enabled, in which
+ * case events are counted in the configured {@link org.owasp.esapi.CounterStore}, which
+ * may be shared with other processes.
+ * <p>
+ * If IntrusionDetector.Async is enabled, events are counted, logged and acted upon by
+ * the {@link IntrusionEventQueue} background thread instead of the request thread.
+ * Events whose quota includes a "logout" action are still processed on the request
+ * thread, since logging the user out needs the request and response.
  * 
  * @author Jeff Williams (jeff.williams .at. aspectsecurity.com) <a
  *         href="http://www.aspectsecurity.com">Aspect Security</a>
@@ -50,6 +59,9 @@ public class DefaultIntrusionDetector implements org.owasp.esapi.IntrusionDetect
 	/** The logger. */
 	private final Logger logger = ESAPI.getLogger("IntrusionDetector");
 
+	/** Header values used as principals are truncated to this length. */
+	private static final int MAX_PRINCIPAL_LENGTH = 128;
+
     public DefaultIntrusionDetector() {
 	}
 	
@@ -61,54 +73,82 @@ public class DefaultIntrusionDetector implements org.owasp.esapi.IntrusionDetect
 	public void addException(Exception e) {
 		if (ESAPI.securityConfiguration().getDisableIntrusionDetection()) return;
 		
+        // add the exception to the current user, which may trigger a detector 
+		User user = ESAPI.authenticator().getCurrentUser();
+		String principal = user.isAnonymous() ? getAnonymousPrincipal() : null;
+		long now = System.currentTimeMillis();
+		if ( isDeferred( e.getClass().getName() ) &&
+				IntrusionEventQueue.getInstance().offer( new QueuedEvent( this, user, principal, now, e, null, null ) ) ) return;
+		processException( e, user, principal, now, null );
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+    public void addEvent(String eventName, String logMessage) throws IntrusionException {
+    	if (ESAPI.securityConfiguration().getDisableIntrusionDetection()) return;
+    	
+        // add the event to the current user, which may trigger a detector 
+        User user = ESAPI.authenticator().getCurrentUser();
+        String principal = user.isAnonymous() ? getAnonymousPrincipal() : null;
+        long now = System.currentTimeMillis();
+        if ( isDeferred( "event." + eventName ) &&
+                IntrusionEventQueue.getInstance().offer( new QueuedEvent( this, user, principal, now, null, eventName, logMessage ) ) ) return;
+        processEvent( eventName, logMessage, user, principal, now, null );
+    }
+
+    /**
+     * Whether an event should be handed to the background thread: IntrusionDetector.Async
+     * is enabled, and the event's quota does not include a "logout" action, which must be
+     * taken on the request thread.
+     * 
+     * @param quotaName
+     * 		the name of the event's quota
+     * @return true if the event should be queued, false if the caller must process it
+     */
+    private boolean isDeferred( String quotaName ) {
+        if ( ! ESAPI.securityConfiguration().getIntrusionDetectionAsynchronously() ) return false;
+        Threshold quota = ESAPI.securityConfiguration().getQuota( quotaName );
+        return quota == null || quota.actions == null || ! quota.actions.contains( "logout" );
+    }
+
+    private void processException( Exception e, User user, String principal, long now, QueuedEvent queued ) {
         if ( e instanceof EnterpriseSecurityException ) {
             logger.warning( Logger.SECURITY_FAILURE, ((EnterpriseSecurityException)e).getLogMessage(), e );
         } else {
             logger.warning( Logger.SECURITY_FAILURE, e.getMessage(), e );
         }
 
-        // add the exception to the current user, which may trigger a detector 
-		User user = ESAPI.authenticator().getCurrentUser();
-        String eventName = e.getClass().getName();
-
         if ( e instanceof IntrusionException) {
             return;
         }
         
         // add the exception to the user's store, handle IntrusionException if thrown
+        String eventName = e.getClass().getName();
 		try {
-			addSecurityEvent(user, eventName);
+			addSecurityEvent(user, principal, eventName, now);
 		} catch( IntrusionException ex ) {
-            Threshold quota = ESAPI.securityConfiguration().getQuota(eventName);
-            Iterator i = quota.actions.iterator();
-            while ( i.hasNext() ) {
-                String action = (String)i.next();
-                String message = "User exceeded quota of " + quota.count + " per "+ quota.interval +" seconds for event " + eventName + ". Taking actions " + quota.actions;
-                takeSecurityAction( action, message );
-            }
+            takeSecurityActions( eventName, eventName, user, queued );
 		}
-	}
+    }
 
-	/**
-	 * {@inheritDoc}
-	 */
-    public void addEvent(String eventName, String logMessage) throws IntrusionException {
-    	if (ESAPI.securityConfiguration().getDisableIntrusionDetection()) return;
-    	
-        logger.warning( Logger.SECURITY_FAILURE, "Security event " + eventName + " received : " + logMessage );
+    private void processEvent( String eventName, String logMessage, User user, String principal, long now, QueuedEvent queued ) {
+        logger.warning( Logger.SECURITY_FAILURE, "Security event {} received : {}", eventName, logMessage );
 
-        // add the event to the current user, which may trigger a detector 
-        User user = ESAPI.authenticator().getCurrentUser();
         try {
-            addSecurityEvent(user, "event." + eventName);
+            addSecurityEvent(user, principal, "event." + eventName, now);
         } catch( IntrusionException ex ) {
-            Threshold quota = ESAPI.securityConfiguration().getQuota("event." + eventName);
-            Iterator i = quota.actions.iterator();
-            while ( i.hasNext() ) {
-                String action = (String)i.next();
-                String message = "User exceeded quota of " + quota.count + " per "+ quota.interval +" seconds for event " + eventName + ". Taking actions " + quota.actions;
-                takeSecurityAction( action, message );
-            }
+            takeSecurityActions( "event." + eventName, eventName, user, queued );
+        }
+    }
+
+    private void takeSecurityActions( String quotaName, String eventName, User user, QueuedEvent queued ) {
+        Threshold quota = ESAPI.securityConfiguration().getQuota(quotaName);
+        Iterator i = quota.actions.iterator();
+        while ( i.hasNext() ) {
+            String action = (String)i.next();
+            String message = "User exceeded quota of " + quota.count + " per "+ quota.interval +" seconds for event " + eventName + ". Taking actions " + quota.actions;
+            takeSecurityAction( action, message, user, queued );
         }
     }
 
@@ -120,74 +160,170 @@ public class DefaultIntrusionDetector implements org.owasp.esapi.IntrusionDetect
      * 		the action to take (log, disable, logout)
      * @param message
      * 		the message to log if the action is "log"
+     * @param user
+     * 		the user that caused the event
+     * @param queued
+     * 		the event being processed on the background thread, or null on a request thread
      */
-    private void takeSecurityAction( String action, String message ) {
+    private void takeSecurityAction( String action, String message, User user, QueuedEvent queued ) {
     	if (ESAPI.securityConfiguration().getDisableIntrusionDetection()) return;
     	
         if ( action.equals( "log" ) ) {
             logger.fatal( Logger.SECURITY_FAILURE, "INTRUSION - " + message );
         }
-        User user = ESAPI.authenticator().getCurrentUser();
         if (user == User.ANONYMOUS)
         	return;
         if ( action.equals( "disable" ) ) {
             user.disable();
         }
         if ( action.equals( "logout" ) ) {
-            user.logout();
+            if ( queued == null ) {
+                user.logout();
+            } else {
+                // only if the quota was reconfigured after the event was queued
+                logger.warning( Logger.SECURITY_FAILURE, "Cannot log out {} from the background thread", user.getAccountName() );
+            }
         }
     }
 
 	 /**
 	 * Adds a security event to the user.  These events are used to check that the user has not
-	 * reached the security thresholds set in the properties file.
+	 * reached the security thresholds set in the properties file. Events caused by anonymous
+	 * users are counted against the principal selected by IntrusionDetector.AnonymousKey, if any.
 	 * 
 	 * @param user
 	 * 			The user that caused the event.
+	 * @param principal
+	 * 			The principal an anonymous user's event is counted against, or null.
 	 * @param eventName
 	 * 			The name of the event that occurred.
+	 * @param now
+	 * 			The time of the event.
 	 */
-	private void addSecurityEvent(User user, String eventName) {
+	private void addSecurityEvent(User user, String principal, String eventName, long now) {
 		if (ESAPI.securityConfiguration().getDisableIntrusionDetection()) return;
-		
-		if ( user.isAnonymous() ) return;
-		
-		HashMap eventMap = user.getEventMap();
+		if ( user.isAnonymous() && principal == null ) return;
 		
 		// if there is a threshold, then track this event
 		Threshold threshold = ESAPI.securityConfiguration().getQuota( eventName );
 		if ( threshold != null ) {
-			Event event = (Event)eventMap.get( eventName );
-			if ( event == null ) {
-				event = new Event( eventName );
-				eventMap.put( eventName, event );
+			boolean exceeded;
+			if ( ESAPI.securityConfiguration().getIntrusionDetectionSharedCounters() ) {
+				String key = ( principal == null ? "user:" + user.getAccountName() : principal ) + '\u0000' + eventName;
+				CounterStore store = ESAPI.counterStore();
+				long interval = threshold.interval * 1000L;
+				// The count may be an estimate, so only act on the events that certainly happened
+				exceeded = store.increment( key, interval, now ) >= threshold.count &&
+					store.getMinimumCount( key, interval, now ) >= threshold.count;
+			} else {
+				EventCounter counter = ( principal == null ) ? getEventCounter( user, eventName, threshold.count ) :
+					PrincipalEventTable.getInstance().getCounter( principal, eventName, threshold.count, now );
+				exceeded = counter.increment( now, threshold.interval * 1000 );
+			}
+			if ( exceeded ) {
+				throw new IntrusionException( "Threshold exceeded", "Exceeded threshold for " + eventName +
+						( principal == null ? "" : " by " + principal ) );
 			}
-			// increment
-			event.increment(threshold.count, threshold.interval);
 		}
 	}
 
-    private static class Event {
-        public String key;
-        public Stack times = new Stack();
-        //public long count = 0;
-        public Event( String key ) {
-            this.key = key;
-        }
-        public void increment(int count, long interval) throws IntrusionException {
-        	if (ESAPI.securityConfiguration().getDisableIntrusionDetection()) return;
-        	
-            Date now = new Date();
-            times.add( 0, now );
-            while ( times.size() > count ) times.remove( times.size()-1 );
-            if ( times.size() == count ) {
-                Date past = (Date)times.get( count-1 );
-                long plong = past.getTime();
-                long nlong = now.getTime(); 
-                if ( nlong - plong < interval * 1000 ) {
-                    throw new IntrusionException( "Threshold exceeded", "Exceeded threshold for " + key );
-                }
-            }
-        }
-    }
+	/**
+	 * Gets the principal that events caused by an anonymous user are counted against, as
+	 * selected by IntrusionDetector.AnonymousKey: the client's IP address ("remote-address"),
+	 * the session ID ("session") or the value of a request header ("header:name"), such as an
+	 * API key.
+	 * 
+	 * @return The principal, or null if anonymous events are not counted or there is no
+	 * 			current request, session or header to identify the principal by.
+	 */
+	private String getAnonymousPrincipal() {
+		String key = ESAPI.securityConfiguration().getIntrusionDetectionAnonymousKey();
+		if ( key == null || key.equalsIgnoreCase( "none" ) ) return null;
+		HttpServletRequest request = ESAPI.currentRequest();
+		if ( request == null ) return null;
+		
+		if ( key.equalsIgnoreCase( "remote-address" ) ) {
+			return "ip:" + request.getRemoteAddr();
+		}
+		if ( key.equalsIgnoreCase( "session" ) ) {
+			HttpSession session = request.getSession( false );
+			return ( session == null ) ? null : "session:" + session.getId();
+		}
+		if ( key.regionMatches( true, 0, "header:", 0, 7 ) ) {
+			String name = key.substring( 7 );
+			String value = request.getHeader( name );
+			if ( value == null ) return null;
+			// the value comes from the client, so don't let it take up arbitrary amounts of memory
+			return name + ":" + ( value.length() > MAX_PRINCIPAL_LENGTH ? value.substring( 0, MAX_PRINCIPAL_LENGTH ) : value );
+		}
+		logger.warning( Logger.EVENT_FAILURE, "Ignoring unknown IntrusionDetector.AnonymousKey: {}", key );
+		return null;
+	}
+
+	/**
+	 * Gets the counter for an event from the user's event map, creating it if needed. The map
+	 * is a plain HashMap shared by all the user's requests, so it is only ever accessed while
+	 * holding its lock; the counter itself is updated without locking.
+	 * 
+	 * @param user
+	 * 			The user that caused the event.
+	 * @param eventName
+	 * 			The name of the event that occurred.
+	 * @param count
+	 * 			The threshold count for the event.
+	 * @return The counter for the event.
+	 */
+	@SuppressWarnings("unchecked")
+	private EventCounter getEventCounter(User user, String eventName, int count) {
+		HashMap eventMap = user.getEventMap();
+		synchronized ( eventMap ) {
+			Object o = eventMap.get( eventName );
+			if ( o instanceof EventCounter && ((EventCounter)o).getCapacity() == count ) {
+				return (EventCounter)o;
+			}
+			// new event, or the threshold count has been reconfigured
+			EventCounter counter = new EventCounter( eventName, count );
+			eventMap.put( eventName, counter );
+			return counter;
+		}
+	}
+
+	/**
+	 * A security event captured on the request thread, processed by the background thread
+	 * as if the user were logged in there.
+	 */
+	private static final class QueuedEvent extends IntrusionEventQueue.Event {
+		final DefaultIntrusionDetector detector;
+		final User user;
+		final String principal;
+		final long time;
+		final Exception exception;
+		final String eventName;
+		final String logMessage;
+
+		QueuedEvent( DefaultIntrusionDetector detector, User user, String principal, long time,
+				Exception exception, String eventName, String logMessage ) {
+			this.detector = detector;
+			this.user = user;
+			this.principal = principal;
+			this.time = time;
+			this.exception = exception;
+			this.eventName = eventName;
+			this.logMessage = logMessage;
+		}
+
+		void process() {
+			// so that log lines name the user, as they would have in the request
+			ESAPI.authenticator().setCurrentUser( user );
+			try {
+				if ( exception != null ) {
+					detector.processException( exception, user, principal, time, this );
+				} else {
+					detector.processEvent( eventName, logMessage, user, principal, time, this );
+				}
+			} finally {
+				ESAPI.authenticator().clearCurrent();
+			}
+		}
+	}
 }
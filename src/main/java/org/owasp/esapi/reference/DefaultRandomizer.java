@@ -111,7 +111,7 @@ public class DefaultRandomizer implements org.owasp.esapi.Randomizer {
 	 */
     public String getRandomFilename(String extension) {
         String fn = getRandomString(12, EncoderConstants.CHAR_ALPHANUMERICS) + "." + extension;
-        logger.debug(Logger.SECURITY_SUCCESS, "Generated new random filename: " + fn );
+        logger.debug(Logger.SECURITY_SUCCESS, "Generated new random filename: {}", fn );
         return fn;
     }
     
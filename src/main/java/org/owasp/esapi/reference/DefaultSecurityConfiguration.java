@@ -26,9 +26,12 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -95,12 +98,26 @@ public class DefaultSecurityConfiguration implements SecurityConfiguration {
     public static final String USERNAME_PARAMETER_NAME = "Authenticator.UsernameParameterName";
     public static final String PASSWORD_PARAMETER_NAME = "Authenticator.PasswordParameterName";
     public static final String MAX_OLD_PASSWORD_HASHES = "Authenticator.MaxOldPasswordHashes";
+    public static final String AUTHENTICATOR_JOURNAL = "Authenticator.Journal";
+    public static final String AUTHENTICATOR_JOURNAL_COMPACTION_THRESHOLD = "Authenticator.Journal.CompactionThreshold";
+    public static final String AUTHENTICATOR_USER_STORE_FILE = "Authenticator.UserStore.File";
+    public static final String AUTHENTICATOR_USER_STORE_CACHE_SIZE = "Authenticator.UserStore.CacheSize";
+    public static final String PASSWORD_HASH_THREADS = "Authenticator.HashThreads";
+    public static final String PASSWORD_HASH_QUEUE_SIZE = "Authenticator.HashQueueSize";
 
     public static final String ALLOW_MULTIPLE_ENCODING = "Encoder.AllowMultipleEncoding";
     public static final String ALLOW_MIXED_ENCODING	= "Encoder.AllowMixedEncoding";
     public static final String CANONICALIZATION_CODECS = "Encoder.DefaultCodecList";
 
     public static final String DISABLE_INTRUSION_DETECTION  = "IntrusionDetector.Disable";
+    public static final String INTRUSION_DETECTION_ANONYMOUS_KEY = "IntrusionDetector.AnonymousKey";
+    public static final String INTRUSION_DETECTION_MAX_PRINCIPALS = "IntrusionDetector.PrincipalTable.MaxEntries";
+    public static final String INTRUSION_DETECTION_PRINCIPAL_IDLE_SECONDS = "IntrusionDetector.PrincipalTable.IdleSeconds";
+    public static final String INTRUSION_DETECTION_ASYNC = "IntrusionDetector.Async";
+    public static final String INTRUSION_DETECTION_ASYNC_QUEUE_SIZE = "IntrusionDetector.Async.QueueSize";
+    public static final String INTRUSION_DETECTION_SHARED_COUNTERS = "IntrusionDetector.SharedCounters";
+    public static final String COUNTER_STORE_SLOTS = "CounterStore.Slots";
+    public static final String COUNTER_STORE_FILE = "CounterStore.File";
     
     public static final String MASTER_KEY = "Encryptor.MasterKey";
     public static final String MASTER_SALT = "Encryptor.MasterSalt";
@@ -112,6 +129,11 @@ public class DefaultSecurityConfiguration implements SecurityConfiguration {
     public static final String RANDOM_ALGORITHM = "Encryptor.RandomAlgorithm";
     public static final String DIGITAL_SIGNATURE_ALGORITHM = "Encryptor.DigitalSignatureAlgorithm";
     public static final String DIGITAL_SIGNATURE_KEY_LENGTH = "Encryptor.DigitalSignatureKeyLength";
+    public static final String DIGITAL_SIGNATURE_KEY_STORE = "Encryptor.DigitalSignatureKeyStore";
+    public static final String DIGITAL_SIGNATURE_KEY_STORE_TYPE = "Encryptor.DigitalSignatureKeyStoreType";
+    public static final String DIGITAL_SIGNATURE_KEY_STORE_PASSWORD = "Encryptor.DigitalSignatureKeyStorePassword";
+    public static final String DIGITAL_SIGNATURE_KEY_ALIAS = "Encryptor.DigitalSignatureKeyAlias";
+    public static final String DIGITAL_SIGNATURE_KEY_PAIR_FILE = "Encryptor.DigitalSignatureKeyPairFile";
     			// ==================================//
     			//		New in ESAPI Java 2.0		 //
     			// ================================= //
@@ -124,6 +146,10 @@ public class DefaultSecurityConfiguration implements SecurityConfiguration {
     public static final String COMBINED_CIPHER_MODES = "Encryptor.cipher_modes.combined_modes";
     public static final String ADDITIONAL_ALLOWED_CIPHER_MODES = "Encryptor.cipher_modes.additional_allowed";
     public static final String KDF_PRF_ALG = "Encryptor.KDF.PRF";
+    public static final String KDF_CACHE_SIZE = "Encryptor.KDF.CacheSize";
+    public static final String KDF_CACHE_TTL = "Encryptor.KDF.CacheTTL";
+    public static final String BATCH_PARALLEL_THRESHOLD = "Encryptor.Batch.ParallelThreshold";
+    public static final String SEAL_VERSION = "Encryptor.Seal.Version";
 	public static final String PRINT_PROPERTIES_WHEN_LOADED = "ESAPI.printProperties";
 
     public static final String WORKING_DIRECTORY = "Executor.WorkingDirectory";
@@ -148,6 +174,12 @@ public class DefaultSecurityConfiguration implements SecurityConfiguration {
     public static final String LOG_ENCODING_REQUIRED = "Logger.LogEncodingRequired";
     public static final String LOG_APPLICATION_NAME = "Logger.LogApplicationName";
     public static final String LOG_SERVER_IP = "Logger.LogServerIP";
+    public static final String LOG_ASYNCHRONOUSLY = "Logger.Async";
+    public static final String LOG_ASYNC_BUFFER_SIZE = "Logger.Async.BufferSize";
+    public static final String LOG_ASYNC_OVERFLOW_POLICY = "Logger.Async.OverflowPolicy";
+    public static final String LOG_SUPPRESSION = "Logger.Suppression";
+    public static final String LOG_SUPPRESSION_MAX_PER_WINDOW = "Logger.Suppression.MaxPerWindow";
+    public static final String LOG_SUPPRESSION_WINDOW_SECONDS = "Logger.Suppression.WindowSeconds";
     public static final String VALIDATION_PROPERTIES = "Validator.ConfigurationFile";
     public static final String VALIDATION_PROPERTIES_MULTIVALUED = "Validator.ConfigurationFile.MultiValued";
     public static final String ACCEPT_LENIENT_DATES = "Validator.AcceptLenientDates";
@@ -186,6 +218,7 @@ public class DefaultSecurityConfiguration implements SecurityConfiguration {
 	public static final String EXECUTOR_IMPLEMENTATION = "ESAPI.Executor";
 	public static final String VALIDATOR_IMPLEMENTATION = "ESAPI.Validator";
 	public static final String HTTP_UTILITIES_IMPLEMENTATION = "ESAPI.HTTPUtilities";
+	public static final String COUNTER_STORE_IMPLEMENTATION = "ESAPI.CounterStore";
 
     /*
      * Default Implementations
@@ -200,6 +233,7 @@ public class DefaultSecurityConfiguration implements SecurityConfiguration {
     public static final String DEFAULT_EXECUTOR_IMPLEMENTATION = "org.owasp.esapi.reference.DefaultExecutor";
     public static final String DEFAULT_HTTP_UTILITIES_IMPLEMENTATION = "org.owasp.esapi.reference.DefaultHTTPUtilities";
     public static final String DEFAULT_VALIDATOR_IMPLEMENTATION = "org.owasp.esapi.reference.DefaultValidator";
+    public static final String DEFAULT_COUNTER_STORE_IMPLEMENTATION = "org.owasp.esapi.reference.InMemoryCounterStore";
 
     private static final Map<String, Pattern> patternCache = new HashMap<String, Pattern>();
 
@@ -220,6 +254,18 @@ public class DefaultSecurityConfiguration implements SecurityConfiguration {
     private String resourceDirectory = ".esapi";	// For backward compatibility (vs. "esapi")
 	private final String resourceFile;
 
+	/*
+	 * The files that the current properties were loaded from via file I/O, keyed by the
+	 * name they were requested under. Used to build and validate a ConfigurationImage.
+	 */
+	private final Map<String, File> configurationSources = new LinkedHashMap<String, File>();
+
+	/*
+	 * The names of the files that the current properties were loaded from via the
+	 * classpath. A ConfigurationImage cannot detect changes to these.
+	 */
+	private final Set<String> classpathSources = new LinkedHashSet<String>();
+
 //    private static long lastModified = -1;
 
     /**
@@ -340,6 +386,13 @@ public class DefaultSecurityConfiguration implements SecurityConfiguration {
     	return getESAPIProperty(HTTP_UTILITIES_IMPLEMENTATION, DEFAULT_HTTP_UTILITIES_IMPLEMENTATION);
     }
 
+    /**
+	 * {@inheritDoc}
+	 */
+    public String getCounterStoreImplementation() {
+    	return getESAPIProperty(COUNTER_STORE_IMPLEMENTATION, DEFAULT_COUNTER_STORE_IMPLEMENTATION);
+    }
+
     /**
 	 * {@inheritDoc}
 	 */
@@ -435,10 +488,15 @@ public class DefaultSecurityConfiguration implements SecurityConfiguration {
 	 *             if the file is inaccessible
 	 */
 	protected void loadConfiguration() throws IOException {
+		configurationSources.clear();
+		classpathSources.clear();
+		if ( loadConfigurationImage() ) {
+			return;
+		}
 		try {
 		    //first attempt file IO loading of properties
 			logSpecial("Attempting to load " + resourceFile + " via file I/O.");
-			properties = loadPropertiesFromStream(getResourceStream(resourceFile), resourceFile);
+			properties = loadPropertiesFromResourceFile(resourceFile);
 			
 		} catch (Exception iae) {
 		    //if file I/O loading fails, attempt classpath based loading next
@@ -446,6 +504,7 @@ public class DefaultSecurityConfiguration implements SecurityConfiguration {
 			logSpecial("Attempting to load " + resourceFile + " via the classpath.");
 			try {
 				properties = loadConfigurationFromClasspath(resourceFile);
+				classpathSources.add(resourceFile);
 			} catch (Exception e) {				
 				logSpecial(resourceFile + " could not be loaded by any means. Fail.", e);
 				throw new ConfigurationException(resourceFile + " could not be loaded by any means. Fail.", e);
@@ -475,7 +534,7 @@ public class DefaultSecurityConfiguration implements SecurityConfiguration {
 				try {
 				    //first attempt file IO loading of properties
 					logSpecial("Attempting to load " + validationPropFileName + " via file I/O.");
-					validationProperties = loadPropertiesFromStream(getResourceStream(validationPropFileName), validationPropFileName);
+					validationProperties = loadPropertiesFromResourceFile(validationPropFileName);
 					
 				} catch (Exception iae) {
 				    //if file I/O loading fails, attempt classpath based loading next
@@ -483,6 +542,7 @@ public class DefaultSecurityConfiguration implements SecurityConfiguration {
 					logSpecial("Attempting to load " + validationPropFileName + " via the classpath.");		
 					try {
 						validationProperties = loadConfigurationFromClasspath(validationPropFileName);
+						classpathSources.add(validationPropFileName);
 					} catch (Exception e) {				
 						logSpecial(validationPropFileName + " could not be loaded by any means. fail.", e);
 					}			
@@ -517,6 +577,71 @@ public class DefaultSecurityConfiguration implements SecurityConfiguration {
 		}
 	}	
 	
+	/**
+	 * Load the properties from a {@link ConfigurationImage} previously written next
+	 * to the main resource file, provided none of the files it was built from have
+	 * changed since. This skips parsing ESAPI.properties and the validation properties
+	 * files entirely.
+	 * 
+	 * @return true if the properties were loaded from the image, false if there is no
+	 *         usable image and the text files must be parsed instead.
+	 */
+	private boolean loadConfigurationImage() {
+		File image = getResourceFile(resourceFile + ConfigurationImage.IMAGE_SUFFIX);
+		if ( image == null ) {
+			return false;
+		}
+		try {
+			Properties cached = ConfigurationImage.read(image, this, configurationSources);
+			if ( cached == null ) {
+				logSpecial("Configuration image " + image.getAbsolutePath() + " is stale; ignoring it.");
+				return false;
+			}
+			properties = cached;
+			//clear any cached validation patterns so they can be reloaded from the new properties
+			patternCache.clear();
+			logSpecial("Loaded '" + resourceFile + "' and validation properties from configuration image " + image.getAbsolutePath());
+			return true;
+		} catch (IOException e) {
+			logSpecial("Unable to use configuration image " + image.getAbsolutePath() + ".", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Load a properties file via file I/O, remembering where it was found.
+	 */
+	private Properties loadPropertiesFromResourceFile(String filename) throws IOException {
+		File f = getResourceFile(filename);
+		if ( f == null || ! f.exists() ) {
+			throw new FileNotFoundException();
+		}
+		Properties result = loadPropertiesFromStream(new FileInputStream(f), filename);
+		configurationSources.put(filename, f);
+		return result;
+	}
+
+	/**
+	 * Returns the files that the current properties were loaded from via file I/O,
+	 * keyed by the name they were requested under. Files loaded from the classpath
+	 * are not included. Empty if the properties were supplied to the constructor.
+	 * 
+	 * @return An unmodifiable map of resource name to file.
+	 */
+	Map<String, File> getConfigurationSources() {
+		return Collections.unmodifiableMap(configurationSources);
+	}
+
+	/**
+	 * Returns the names of the files that the current properties were loaded from
+	 * via the classpath, rather than via file I/O.
+	 * 
+	 * @return An unmodifiable set of resource names.
+	 */
+	Set<String> getClasspathSources() {
+		return Collections.unmodifiableSet(classpathSources);
+	}
+
 	/**
 	 * @param filename
 	 * @return An {@code InputStream} associated with the specified file name as
@@ -845,6 +970,34 @@ public class DefaultSecurityConfiguration implements SecurityConfiguration {
 		return getESAPIProperty(KDF_PRF_ALG, "HmacSHA256");  // NSA recommended SHA2 or better.
 	}
 
+    /**
+     * {@inheritDoc}
+     */
+	public int getKDFCacheSize() {
+		return getESAPIProperty(KDF_CACHE_SIZE, 100);
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	public int getKDFCacheTTL() {
+		return getESAPIProperty(KDF_CACHE_TTL, 3600);
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	public int getBatchParallelThreshold() {
+		return getESAPIProperty(BATCH_PARALLEL_THRESHOLD, 10000);
+	}
+
+    /**
+     * {@inheritDoc}
+     */
+	public int getSealVersion() {
+		return getESAPIProperty(SEAL_VERSION, 1);
+	}
+
     /**
 	 * {@inheritDoc}
 	 */
@@ -891,6 +1044,41 @@ public class DefaultSecurityConfiguration implements SecurityConfiguration {
         return getESAPIProperty(DIGITAL_SIGNATURE_KEY_LENGTH, 1024);
     }
 
+    /**
+	 * {@inheritDoc}
+	 */
+    public String getDigitalSignatureKeyStore() {
+        return getESAPIProperty(DIGITAL_SIGNATURE_KEY_STORE, "");
+    }
+
+    /**
+	 * {@inheritDoc}
+	 */
+    public String getDigitalSignatureKeyStoreType() {
+        return getESAPIProperty(DIGITAL_SIGNATURE_KEY_STORE_TYPE, "JKS");
+    }
+
+    /**
+	 * {@inheritDoc}
+	 */
+    public String getDigitalSignatureKeyStorePassword() {
+        return getESAPIProperty(DIGITAL_SIGNATURE_KEY_STORE_PASSWORD, "");
+    }
+
+    /**
+	 * {@inheritDoc}
+	 */
+    public String getDigitalSignatureKeyAlias() {
+        return getESAPIProperty(DIGITAL_SIGNATURE_KEY_ALIAS, "esapi-signing");
+    }
+
+    /**
+	 * {@inheritDoc}
+	 */
+    public String getDigitalSignatureKeyPairFile() {
+        return getESAPIProperty(DIGITAL_SIGNATURE_KEY_PAIR_FILE, "");
+    }
+
     /**
 	 * {@inheritDoc}
 	 */
@@ -912,6 +1100,49 @@ public class DefaultSecurityConfiguration implements SecurityConfiguration {
         return getESAPIProperty(MAX_OLD_PASSWORD_HASHES, 12);
     }
 
+    /**
+	 * {@inheritDoc}
+	 */
+    public boolean getAuthenticatorJournal() {
+        return getESAPIProperty(AUTHENTICATOR_JOURNAL, false);
+    }
+
+    /**
+	 * {@inheritDoc}
+	 */
+    public int getAuthenticatorJournalCompactionThreshold() {
+        return getESAPIProperty(AUTHENTICATOR_JOURNAL_COMPACTION_THRESHOLD, 1000);
+    }
+
+    /**
+	 * {@inheritDoc}
+	 */
+    public String getAuthenticatorUserStoreFile() {
+        return getESAPIProperty(AUTHENTICATOR_USER_STORE_FILE,
+                new File(System.getProperty("user.home") + "/.esapi", "users.db").getPath());
+    }
+
+    /**
+	 * {@inheritDoc}
+	 */
+    public int getAuthenticatorUserStoreCacheSize() {
+        return getESAPIProperty(AUTHENTICATOR_USER_STORE_CACHE_SIZE, 10000);
+    }
+
+    /**
+	 * {@inheritDoc}
+	 */
+    public int getPasswordHashThreads() {
+        return getESAPIProperty(PASSWORD_HASH_THREADS, 0);
+    }
+
+    /**
+	 * {@inheritDoc}
+	 */
+    public int getPasswordHashQueueSize() {
+        return getESAPIProperty(PASSWORD_HASH_QUEUE_SIZE, 64);
+    }
+
     /**
 	 * {@inheritDoc}
 	 */
@@ -938,6 +1169,63 @@ public class DefaultSecurityConfiguration implements SecurityConfiguration {
     	return false;	// Default result
 	}
 
+    /**
+	 * {@inheritDoc}
+	 */
+	public String getIntrusionDetectionAnonymousKey() {
+		return getESAPIProperty( INTRUSION_DETECTION_ANONYMOUS_KEY, "none" );
+	}
+
+    /**
+	 * {@inheritDoc}
+	 */
+	public int getIntrusionDetectionMaxPrincipals() {
+		return getESAPIProperty( INTRUSION_DETECTION_MAX_PRINCIPALS, 100000 );
+	}
+
+    /**
+	 * {@inheritDoc}
+	 */
+	public int getIntrusionDetectionPrincipalIdleSeconds() {
+		return getESAPIProperty( INTRUSION_DETECTION_PRINCIPAL_IDLE_SECONDS, 3600 );
+	}
+
+    /**
+	 * {@inheritDoc}
+	 */
+	public boolean getIntrusionDetectionAsynchronously() {
+		return getESAPIProperty( INTRUSION_DETECTION_ASYNC, false );
+	}
+
+    /**
+	 * {@inheritDoc}
+	 */
+	public int getIntrusionDetectionAsyncQueueSize() {
+		return getESAPIProperty( INTRUSION_DETECTION_ASYNC_QUEUE_SIZE, 4096 );
+	}
+
+    /**
+	 * {@inheritDoc}
+	 */
+	public boolean getIntrusionDetectionSharedCounters() {
+		return getESAPIProperty( INTRUSION_DETECTION_SHARED_COUNTERS, false );
+	}
+
+    /**
+	 * {@inheritDoc}
+	 */
+	public int getCounterStoreSlots() {
+		return getESAPIProperty( COUNTER_STORE_SLOTS, 65536 );
+	}
+
+    /**
+	 * {@inheritDoc}
+	 */
+	public String getCounterStoreFile() {
+		return getESAPIProperty( COUNTER_STORE_FILE,
+				new File( System.getProperty( "java.io.tmpdir" ), "esapi-counters.dat" ).getPath() );
+	}
+
     /**
 	 * {@inheritDoc}
 	 */
@@ -1023,6 +1311,48 @@ public class DefaultSecurityConfiguration implements SecurityConfiguration {
     	return getESAPIProperty( LOG_SERVER_IP, true );
 	}
 
+    /**
+	 * {@inheritDoc}
+	 */
+    public boolean getLogAsynchronously() {
+    	return getESAPIProperty( LOG_ASYNCHRONOUSLY, false );
+	}
+
+    /**
+	 * {@inheritDoc}
+	 */
+    public int getLogAsyncBufferSize() {
+    	return getESAPIProperty( LOG_ASYNC_BUFFER_SIZE, 8192 );
+	}
+
+    /**
+	 * {@inheritDoc}
+	 */
+    public String getLogAsyncOverflowPolicy() {
+    	return getESAPIProperty( LOG_ASYNC_OVERFLOW_POLICY, "block" );
+	}
+
+    /**
+	 * {@inheritDoc}
+	 */
+    public boolean getLogSuppression() {
+    	return getESAPIProperty( LOG_SUPPRESSION, false );
+	}
+
+    /**
+	 * {@inheritDoc}
+	 */
+    public int getLogSuppressionMaxPerWindow() {
+    	return getESAPIProperty( LOG_SUPPRESSION_MAX_PER_WINDOW, 100 );
+	}
+
+    /**
+	 * {@inheritDoc}
+	 */
+    public int getLogSuppressionWindowSeconds() {
+    	return getESAPIProperty( LOG_SUPPRESSION_WINDOW_SECONDS, 60 );
+	}
+
     /**
 	 * {@inheritDoc}
 	 */
@@ -15,6 +15,7 @@
  */
 package org.owasp.esapi.reference;
 
+import org.owasp.esapi.Authenticator;
 import org.owasp.esapi.ESAPI;
 import org.owasp.esapi.EncoderConstants;
 import org.owasp.esapi.HTTPUtilities;
@@ -414,13 +415,23 @@ public class DefaultUser implements User, Serializable {
 		
 		logout();
 
-		if ( verifyPassword( password ) ) {
+		boolean verified;
+		try {
+			verified = verifyPassword( password );
+		} catch ( EnterpriseSecurityRuntimeException e ) {
+			if ( !AbstractAuthenticator.isHashUnavailable( e ) ) {
+				throw e;
+			}
+			// The password wasn't checked, so this doesn't count as a failed login
+			throw new AuthenticationLoginException("Login unavailable, please try again later", e.getLogMessage(), e );
+		}
+		if ( verified ) {
 			loggedIn = true;
 			ESAPI.httpUtilities().changeSessionIdentifier( ESAPI.currentRequest() );
 			ESAPI.authenticator().setCurrentUser(this);
 			setLastLoginTime(new Date());
             setLastHostAddress( ESAPI.httpUtilities().getCurrentRequest().getRemoteAddr() );
-			logger.trace(Logger.SECURITY_SUCCESS, "User logged in: " + accountName );
+			logger.trace(Logger.SECURITY_SUCCESS, "User logged in: {}", accountName );
 		} else {
 			loggedIn = false;
 			setLastFailedLoginTime(new Date());
@@ -455,7 +466,7 @@ public class DefaultUser implements User, Serializable {
 	 */
 	public void removeRole(String role) {
 		roles.remove(role.toLowerCase());
-		logger.trace(Logger.SECURITY_SUCCESS, "Role " + role + " removed from " + getAccountName() );
+		logger.trace(Logger.SECURITY_SUCCESS, "Role {} removed from {}", role, getAccountName() );
 	}
 
 	/**
@@ -492,10 +503,11 @@ public class DefaultUser implements User, Serializable {
 		String old = getAccountName();
 		this.accountName = accountName.toLowerCase();
 		if (old != null) {
-			if ( old.equals( "" ) ) {
-				old = "[nothing]";
+			logger.info(Logger.SECURITY_SUCCESS, "Account name changed from " + ( old.equals( "" ) ? "[nothing]" : old ) + " to " + getAccountName() );
+			Authenticator authenticator = ESAPI.authenticator();
+			if ( authenticator instanceof AbstractAuthenticator ) {
+				((AbstractAuthenticator) authenticator).accountNameChanged( this, old );
 			}
-			logger.info(Logger.SECURITY_SUCCESS, "Account name changed from " + old + " to " + getAccountName() );
 		}
 	}
 
@@ -524,7 +536,11 @@ public class DefaultUser implements User, Serializable {
         	// returning remote address not remote hostname to prevent DNS lookup
 			throw new AuthenticationHostException("Host change", "User session just jumped from " + lastHostAddress + " to " + remoteHost );
 		}
-		lastHostAddress = remoteHost;
+		if ( remoteHost != null && !remoteHost.equals(lastHostAddress) ) {
+			lastHostAddress = remoteHost;
+			// the address is part of the cached log line prefix
+			LogContext.invalidate();
+		}
     }
 
 	/**
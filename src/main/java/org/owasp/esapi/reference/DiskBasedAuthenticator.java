@@ -0,0 +1,742 @@
+/**
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ *
+ * The ESAPI is published by OWASP under the BSD license. You should read and accept the
+ * LICENSE before you use, modify, and/or redistribute this software.
+ *
+ * @created 2014
+ */
+package org.owasp.esapi.reference;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.owasp.esapi.Authenticator;
+import org.owasp.esapi.ESAPI;
+import org.owasp.esapi.Logger;
+import org.owasp.esapi.SecurityConfiguration;
+import org.owasp.esapi.User;
+import org.owasp.esapi.errors.AuthenticationAccountsException;
+import org.owasp.esapi.errors.AuthenticationCredentialsException;
+import org.owasp.esapi.errors.AuthenticationException;
+import org.owasp.esapi.errors.ConfigurationException;
+import org.owasp.esapi.errors.EncryptionException;
+
+/**
+ * An Authenticator for applications with too many users to keep in memory.
+ * The users are kept in an indexed {@link UserStore} on disk, in the same
+ * line format as the users.txt of the {@link FileBasedAuthenticator}, and only
+ * the {@code Authenticator.UserStore.CacheSize} most recently used users are
+ * kept in memory. Memory use therefore does not depend on the number of
+ * users; looking up a user that is not cached reads a few blocks of the store,
+ * which the operating system usually has cached.
+ * <p>
+ * The store is kept in {@code Authenticator.UserStore.File} and the files
+ * next to it. Creating or removing a user and changing a password are written
+ * to the store at once. Other changes to a user, such as its last login time,
+ * are written when the user is dropped from the cache, by
+ * {@link #saveUser(User)} or by {@link #saveUsers()}.
+ * <p>
+ * To move from the {@link FileBasedAuthenticator}, import its users.txt while
+ * the application is stopped:
+ * <PRE>
+ * java -Dorg.owasp.esapi.resources="/path/resources" -classpath esapi.jar org.owasp.esapi.reference.DiskBasedAuthenticator import users.txt
+ * </PRE>
+ * Since saving a user appends a new version of it, the store grows until it
+ * is compacted, which may be done while the application is stopped with:
+ * <PRE>
+ * java -Dorg.owasp.esapi.resources="/path/resources" -classpath esapi.jar org.owasp.esapi.reference.DiskBasedAuthenticator compact
+ * </PRE>
+ *
+ * @since 2.1.1
+ * @see org.owasp.esapi.Authenticator
+ */
+public class DiskBasedAuthenticator extends AbstractAuthenticator {
+
+    private static volatile Authenticator singletonInstance;
+
+    public static Authenticator getInstance() {
+        if ( singletonInstance == null ) {
+            synchronized ( DiskBasedAuthenticator.class ) {
+                if ( singletonInstance == null ) {
+                    SecurityConfiguration config = ESAPI.securityConfiguration();
+                    File file = new File(config.getAuthenticatorUserStoreFile());
+                    try {
+                        final DiskBasedAuthenticator instance = new DiskBasedAuthenticator(file, config.getAuthenticatorUserStoreCacheSize());
+                        // Closing the store cleanly saves rebuilding its indexes on the next start
+                        Runtime.getRuntime().addShutdownHook(new Thread("ESAPI-DiskBasedAuthenticator-shutdown") {
+                            public void run() {
+                                instance.close();
+                            }
+                        });
+                        singletonInstance = instance;
+                    } catch (IOException e) {
+                        throw new ConfigurationException("Unable to open user store " + file, e);
+                    }
+                }
+            }
+        }
+        return singletonInstance;
+    }
+
+    /**
+     * Import the users of a {@link FileBasedAuthenticator} into a user store, or compact a user store. The
+     * application must not be using the user store at the same time.
+     * <p/>
+     * Usage: {@code DiskBasedAuthenticator import users.txt [userstore]} or
+     * {@code DiskBasedAuthenticator compact [userstore]}, where userstore defaults to
+     * {@code Authenticator.UserStore.File}.
+     *
+     * @param args the arguments
+     * @throws Exception the exception
+     */
+    public static void main(String[] args) throws Exception {
+        boolean importing = args.length >= 2 && args.length <= 3 && "import".equals(args[0]);
+        boolean compacting = args.length >= 1 && args.length <= 2 && "compact".equals(args[0]);
+        if (!importing && !compacting) {
+            System.out.println("Usage: DiskBasedAuthenticator import users.txt [userstore]");
+            System.out.println("       DiskBasedAuthenticator compact [userstore]");
+            return;
+        }
+        int files = importing ? 2 : 1;
+        String path = args.length > files ? args[files] : ESAPI.securityConfiguration().getAuthenticatorUserStoreFile();
+        UserStore store = new UserStore(new File(path));
+        try {
+            if (importing) {
+                int count = importUsers(store, new File(args[1]));
+                System.out.println(count + " users imported into " + path);
+            } else {
+                store.compact();
+                System.out.println(path + " compacted, " + store.size() + " users");
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Import the users in a users.txt file into a store. Users that are already in the store are replaced.
+     *
+     * @param store the store to import into
+     * @param users the users.txt file
+     * @return the number of users imported
+     * @throws IOException if a file could not be read or written
+     */
+    static int importUsers(UserStore store, File users) throws IOException {
+        int count = 0;
+        int number = 0;
+        store.setSync(false);
+        BufferedReader reader = new BufferedReader(new FileReader(users));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                line = line.trim();
+                if (line.length() == 0 || line.charAt(0) == '#') {
+                    continue;
+                }
+                try {
+                    if (line.split(" *\\| *").length < FIELDS) {
+                        throw new IllegalArgumentException("Missing fields in user");
+                    }
+                    store.put(line);
+                    count++;
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Skipping line " + number + ": " + e.getMessage());
+                }
+            }
+        } finally {
+            reader.close();
+            store.force();
+            store.setSync(true);
+        }
+        return count;
+    }
+
+    /**
+     * The number of fields in a user's line.
+     */
+    private static final int FIELDS = 13;
+
+    /**
+     * The logger.
+     */
+    private final Logger logger = ESAPI.getLogger("Authenticator");
+
+    /**
+     * The users on disk.
+     */
+    private final UserStore store;
+
+    /**
+     * The most recently used users by account id, in order of use. Guards itself and {@link #byName}.
+     */
+    private final Map<Long, Account> cache;
+
+    /**
+     * The cached users by lower case account name.
+     */
+    private final Map<String, Account> byName = new HashMap<String, Account>();
+
+    /**
+     * The users dropped from the cache that are still to be written back, by account id. Guarded by {@link #cache}.
+     */
+    private final Map<Long, Account> evicted = new HashMap<Long, Account>();
+
+    /**
+     * @param file      the data file of the user store
+     * @param cacheSize the number of users to keep in memory
+     * @throws IOException if the user store can't be opened
+     */
+    DiskBasedAuthenticator(File file, final int cacheSize) throws IOException {
+        super();
+        this.store = new UserStore(file);
+        this.cache = new LinkedHashMap<Long, Account>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<Long, Account> eldest) {
+                if (size() <= cacheSize) {
+                    return false;
+                }
+                // Written back by writeBackEvicted() once the lock is released; found until then
+                Account account = eldest.getValue();
+                account.evictions++;
+                evicted.put(account.user.getAccountId(), account);
+                return true;
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized User createUser(String accountName, String password1, String password2) throws AuthenticationException {
+        if (accountName == null) {
+            throw new AuthenticationAccountsException("Account creation failed", "Attempt to create user with null accountName");
+        }
+        if (getUser(accountName) != null) {
+            throw new AuthenticationAccountsException("Account creation failed", "Duplicate user creation denied for " + accountName);
+        }
+
+        verifyAccountNameStrength(accountName);
+
+        if (password1 == null) {
+            throw new AuthenticationCredentialsException("Invalid account name", "Attempt to create account " + accountName + " with a null password");
+        }
+
+        DefaultUser user = new DefaultUser(accountName);
+
+        verifyPasswordStrength(null, password1, user);
+
+        if (!password1.equals(password2)) {
+            throw new AuthenticationCredentialsException("Passwords do not match", "Passwords for " + accountName + " do not match");
+        }
+
+        List<String> hashes = new ArrayList<String>();
+        try {
+            hashes.add(hashPassword(password1, accountName));
+        } catch (EncryptionException ee) {
+            throw new AuthenticationException("Internal error", "Error hashing password for " + accountName, ee);
+        }
+        Account account = new Account(user, hashes);
+        write(account);
+        cache(account);
+        writeBackEvicted();
+        logger.info(Logger.SECURITY_SUCCESS, "New user created: " + accountName);
+        return user;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void changePassword(User user, String currentPassword,
+                               String newPassword, String newPassword2)
+            throws AuthenticationException {
+        String accountName = user.getAccountName();
+        Account account = getAccount(user.getAccountId());
+        if (account == null) {
+            throw new AuthenticationCredentialsException("Password change failed", "Password change for unknown user: " + accountName);
+        }
+        try {
+            String verifyHash = hashPassword(currentPassword, accountName);
+            if (!account.getHash().equals(verifyHash)) {
+                throw new AuthenticationCredentialsException("Password change failed", "Authentication failed for password change on user: " + accountName);
+            }
+            if (newPassword == null || newPassword2 == null || !newPassword.equals(newPassword2)) {
+                throw new AuthenticationCredentialsException("Password change failed", "Passwords do not match for password change on user: " + accountName);
+            }
+            verifyPasswordStrength(currentPassword, newPassword, user);
+            user.setLastPasswordChangeTime(new Date());
+            String newHash = hashPassword(newPassword, accountName);
+            if (!account.setHash(newHash)) {
+                throw new AuthenticationCredentialsException("Password change failed", "Password change matches a recent password for user: " + accountName);
+            }
+            logger.info(Logger.SECURITY_SUCCESS, "Password changed for user: " + accountName);
+            write(account);
+        } catch (EncryptionException ee) {
+            throw new AuthenticationException("Password change failed", "Encryption exception changing password for " + accountName, ee);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean verifyPassword(User user, String password) {
+        String accountName = user.getAccountName();
+        Account account = getAccount(user.getAccountId());
+        if (account != null) {
+            try {
+                String hash = hashPassword(password, accountName);
+                if (hash.equals(account.getHash())) {
+                    user.setLastLoginTime(new Date());
+                    ((DefaultUser) user).setFailedLoginCount(0);
+                    logger.info(Logger.SECURITY_SUCCESS, "Password verified for " + accountName);
+                    return true;
+                }
+            } catch (EncryptionException e) {
+                checkHashAvailable(e, accountName);
+                logger.fatal(Logger.SECURITY_FAILURE, "Encryption error verifying password for " + accountName);
+            }
+        }
+        logger.fatal(Logger.SECURITY_FAILURE, "Password verification failed for " + accountName);
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public User getUser(long accountId) {
+        if (accountId == 0) {
+            return User.ANONYMOUS;
+        }
+        Account account = getAccount(accountId);
+        return account == null ? null : account.user;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public User getUser(String accountName) {
+        if (accountName == null) {
+            return User.ANONYMOUS;
+        }
+        Account account = null;
+        synchronized (cache) {
+            Account named = byName.get(accountName.toLowerCase(Locale.ENGLISH));
+            // The user may have been renamed since it was cached
+            if (named != null && named.user.getAccountName().equalsIgnoreCase(accountName)) {
+                account = cached(named.user.getAccountId());
+            }
+        }
+        if (account != null) {
+            writeBackEvicted();
+            return account.user;
+        }
+        try {
+            String line = store.get(accountName);
+            return line == null ? null : load(line).user;
+        } catch (IOException e) {
+            logger.fatal(Logger.SECURITY_FAILURE, "Problem reading user store " + store.getFile().getAbsolutePath(), e);
+            return null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * This implementation reads the whole user store.
+     */
+    public Set getUserNames() {
+        try {
+            return store.getAccountNames();
+        } catch (IOException e) {
+            logger.fatal(Logger.SECURITY_FAILURE, "Problem reading user store " + store.getFile().getAbsolutePath(), e);
+            return Collections.emptySet();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void removeUser(String accountName) throws AuthenticationException {
+        User user = getUser(accountName);
+        if (user == null) {
+            throw new AuthenticationAccountsException("Remove user failed", "Can't remove invalid accountName " + accountName);
+        }
+        // Evicted users are only written back while holding the authenticator lock, so one that is dropped here
+        // before the lock is released can't be written back after it was removed from the store.
+        try {
+            store.remove(user.getAccountId());
+        } catch (IOException e) {
+            logger.fatal(Logger.SECURITY_FAILURE, "Problem writing user store " + store.getFile().getAbsolutePath(), e);
+            throw new AuthenticationException("Internal Error", "Problem writing user store " + store.getFile().getAbsolutePath(), e);
+        }
+        synchronized (cache) {
+            uncache(cache.remove(user.getAccountId()));
+            uncache(evicted.remove(user.getAccountId()));
+        }
+        logger.info(Logger.SECURITY_SUCCESS, "Removing user " + user.getAccountName());
+    }
+
+    /**
+     * Write a user to the user store now, e.g., after changing its roles.
+     *
+     * @param user the user to save
+     * @throws AuthenticationException if the user is unknown or the user store could not be written
+     */
+    public void saveUser(User user) throws AuthenticationException {
+        Account account = getAccount(user.getAccountId());
+        if (account == null) {
+            throw new AuthenticationAccountsException("Save user failed", "Can't save unknown user " + user.getAccountName());
+        }
+        if (account.user != user) {
+            // Not the cached object, e.g., one kept in a session since before it was dropped from the cache
+            account = new Account((DefaultUser) user, account.getHashes());
+            synchronized (cache) {
+                cache.put(user.getAccountId(), account);
+            }
+            writeBackEvicted();
+        }
+        write(account);
+    }
+
+    /**
+     * Write the changes to all cached users to the user store, and force the user store to disk.
+     *
+     * @throws AuthenticationException if the user store could not be written
+     */
+    public synchronized void saveUsers() throws AuthenticationException {
+        List<Account> accounts;
+        synchronized (cache) {
+            accounts = new ArrayList<Account>(cache.values());
+            accounts.addAll(evicted.values());
+        }
+        for (Account account : accounts) {
+            writeBack(account);
+        }
+        try {
+            store.force();
+        } catch (IOException e) {
+            logger.fatal(Logger.SECURITY_FAILURE, "Problem writing user store " + store.getFile().getAbsolutePath(), e);
+            throw new AuthenticationException("Internal Error", "Problem writing user store " + store.getFile().getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Save the cached users and close the user store. The authenticator must not be used afterwards.
+     */
+    void close() {
+        try {
+            saveUsers();
+            store.close();
+        } catch (Exception e) {
+            logger.fatal(Logger.SECURITY_FAILURE, "Problem closing user store " + store.getFile().getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * @return The number of users kept in memory.
+     */
+    int getCachedUserCount() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * @return the cached or stored user with an account id, or null if there is none
+     */
+    private Account getAccount(long accountId) {
+        Account account;
+        synchronized (cache) {
+            account = cached(accountId);
+        }
+        if (account != null) {
+            writeBackEvicted();
+            return account;
+        }
+        try {
+            String line = store.get(accountId);
+            return line == null ? null : load(line);
+        } catch (IOException e) {
+            logger.fatal(Logger.SECURITY_FAILURE, "Problem reading user store " + store.getFile().getAbsolutePath(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Cache a user read from the store, unless another thread did so first.
+     */
+    private Account load(String line) throws IOException {
+        Account account;
+        try {
+            account = parse(line);
+        } catch (Exception e) {
+            throw new IOException("Invalid user in user store: " + UserStore.field(line, 0), e);
+        }
+        synchronized (cache) {
+            Account cached = cached(account.user.getAccountId());
+            if (cached != null) {
+                return cached;
+            }
+            cache(account);
+        }
+        writeBackEvicted();
+        return account;
+    }
+
+    /**
+     * Cache a user. The caller calls {@link #writeBackEvicted()} afterwards, outside the cache lock.
+     */
+    private void cache(Account account) {
+        synchronized (cache) {
+            cache.put(account.user.getAccountId(), account);
+            byName.put(account.name, account);
+        }
+    }
+
+    /**
+     * @return the cached user with an account id, cached again if it was evicted but not written back yet, or null
+     *         if there is none; the caller holds the cache lock
+     */
+    private Account cached(long accountId) {
+        Account account = cache.get(accountId);
+        if (account == null) {
+            account = evicted.get(accountId);
+            if (account != null) {
+                evicted.remove(accountId);
+                cache.put(accountId, account);
+            }
+        }
+        return account;
+    }
+
+    /**
+     * Forget a user that is no longer cached; the caller holds the cache lock.
+     */
+    private void uncache(Account account) {
+        if (account != null && byName.get(account.name) == account) {
+            byName.remove(account.name);
+        }
+    }
+
+    /**
+     * Write back the users dropped from the cache. This is done outside the cache lock, since writing may wait for
+     * the disk, and inside the authenticator lock, so that a user that {@link #removeUser(String)} removes in the
+     * meantime is not written back.
+     */
+    private void writeBackEvicted() {
+        synchronized (cache) {
+            if (evicted.isEmpty()) {
+                return;
+            }
+        }
+        synchronized (this) {
+            List<Account> accounts;
+            int[] evictions;
+            synchronized (cache) {
+                accounts = new ArrayList<Account>(evicted.values());
+                evictions = new int[accounts.size()];
+                for (int i = 0; i < evictions.length; i++) {
+                    evictions[i] = accounts.get(i).evictions;
+                }
+            }
+            for (Account account : accounts) {
+                try {
+                    writeBack(account);
+                } catch (AuthenticationException e) {
+                    // already logged
+                }
+            }
+            synchronized (cache) {
+                for (int i = 0; i < evictions.length; i++) {
+                    Account account = accounts.get(i);
+                    long accountId = account.user.getAccountId();
+                    // Unless it was cached again and evicted again since, possibly with new changes
+                    if (evicted.get(accountId) == account && account.evictions == evictions[i]) {
+                        evicted.remove(accountId);
+                        uncache(account);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Write a user to the store if it has changed since it was read or written.
+     */
+    private void writeBack(Account account) throws AuthenticationException {
+        synchronized (account) {
+            if (!format(account).equals(account.saved)) {
+                write(account);
+            }
+        }
+    }
+
+    private void write(Account account) throws AuthenticationException {
+        synchronized (account) {
+            String line = format(account);
+            try {
+                store.put(line);
+                account.saved = line;
+            } catch (IllegalArgumentException e) {
+                logger.fatal(Logger.SECURITY_FAILURE, "Problem saving user " + account.user.getAccountName(), e);
+                throw new AuthenticationAccountsException("Problem saving user", "Skipping save of user " + account.user.getAccountName(), e);
+            } catch (IOException e) {
+                logger.fatal(Logger.SECURITY_FAILURE, "Problem writing user store " + store.getFile().getAbsolutePath(), e);
+                throw new AuthenticationException("Internal Error", "Problem writing user store " + store.getFile().getAbsolutePath(), e);
+            }
+        }
+    }
+
+    /**
+     * Create a user from a line in the users.txt format:
+     * accountId | accountName | password | roles (comma separated) | unlocked | enabled | old password hashes (comma separated) | last host address | last password change time | last long time | last failed login time | expiration time | failed login count
+     */
+    private Account parse(String line) throws AuthenticationException {
+        String[] parts = line.split(" *\\| *");
+        DefaultUser user = new DefaultUser(parts[1]);
+        user.accountId = Long.parseLong(parts[0]);
+
+        List<String> hashes = new ArrayList<String>();
+        hashes.add(parts[2]);
+        for (String role : parts[3].toLowerCase().split(" *, *")) {
+            if (!"".equals(role)) {
+                user.addRole(role);
+            }
+        }
+        if (!"unlocked".equalsIgnoreCase(parts[4])) {
+            user.lock();
+        }
+        if ("enabled".equalsIgnoreCase(parts[5])) {
+            user.enable();
+        } else {
+            user.disable();
+        }
+
+        // generate a new csrf token
+        user.resetCSRFToken();
+
+        for (String hash : parts[6].split(" *, *")) {
+            if (!"".equals(hash)) {
+                hashes.add(hash);
+            }
+        }
+        user.setLastHostAddress("null".equals(parts[7]) ? null : parts[7]);
+        user.setLastPasswordChangeTime(new Date(Long.parseLong(parts[8])));
+        user.setLastLoginTime(new Date(Long.parseLong(parts[9])));
+        user.setLastFailedLoginTime(new Date(Long.parseLong(parts[10])));
+        user.setExpirationTime(new Date(Long.parseLong(parts[11])));
+        user.setFailedLoginCount(Integer.parseInt(parts[12]));
+
+        Account account = new Account(user, hashes);
+        account.saved = format(account);
+        return account;
+    }
+
+    /**
+     * @return the user as a line in the users.txt format
+     */
+    private static String format(Account account) {
+        DefaultUser user = account.user;
+        List<String> hashes = account.getHashes();
+        StringBuilder sb = new StringBuilder();
+        sb.append(user.getAccountId());
+        sb.append(" | ");
+        sb.append(user.getAccountName());
+        sb.append(" | ");
+        sb.append(hashes.get(0));
+        sb.append(" | ");
+        sb.append(dump(user.getRoles()));
+        sb.append(" | ");
+        sb.append(user.isLocked() ? "locked" : "unlocked");
+        sb.append(" | ");
+        sb.append(user.isEnabled() ? "enabled" : "disabled");
+        sb.append(" | ");
+        sb.append(dump(hashes.subList(1, hashes.size())));
+        sb.append(" | ");
+        sb.append(user.getLastHostAddress());
+        sb.append(" | ");
+        sb.append(user.getLastPasswordChangeTime().getTime());
+        sb.append(" | ");
+        sb.append(user.getLastLoginTime().getTime());
+        sb.append(" | ");
+        sb.append(user.getLastFailedLoginTime().getTime());
+        sb.append(" | ");
+        sb.append(user.getExpirationTime().getTime());
+        sb.append(" | ");
+        sb.append(user.getFailedLoginCount());
+        return sb.toString();
+    }
+
+    /**
+     * Dump a collection as a comma-separated list.
+     */
+    private static String dump(Collection<String> c) {
+        StringBuilder sb = new StringBuilder();
+        for (String s : c) {
+            if (sb.length() > 0) {
+                sb.append(",");
+            }
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A user and its password hashes.
+     */
+    private static final class Account {
+        final DefaultUser user;
+        final String name;          // The lower case account name it was cached under
+        private final List<String> hashes;    // The current password hash first
+        String saved;               // The line last read from or written to the store
+        int evictions;              // The number of times it was dropped from the cache, guarded by the cache lock
+
+        Account(DefaultUser user, List<String> hashes) {
+            this.user = user;
+            this.name = user.getAccountName().toLowerCase(Locale.ENGLISH);
+            this.hashes = hashes;
+        }
+
+        synchronized String getHash() {
+            return hashes.get(0);
+        }
+
+        synchronized List<String> getHashes() {
+            return new ArrayList<String>(hashes);
+        }
+
+        /**
+         * @return false if the hash is one of the old password hashes.
+         */
+        synchronized boolean setHash(String hash) {
+            if (hashes.subList(1, hashes.size()).contains(hash)) {
+                return false;
+            }
+            hashes.add(0, hash);
+            while (hashes.size() > ESAPI.securityConfiguration().getMaxOldPasswordHashes()) {
+                hashes.remove(hashes.size() - 1);
+            }
+            return true;
+        }
+    }
+}
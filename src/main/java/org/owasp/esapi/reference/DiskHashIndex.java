@@ -0,0 +1,331 @@
+/**
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ *
+ * The ESAPI is published by OWASP under the BSD license. You should read and accept the
+ * LICENSE before you use, modify, and/or redistribute this software.
+ *
+ * @created 2014
+ */
+package org.owasp.esapi.reference;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A hash table on disk that maps 64 bit keys, such as the fingerprint of an
+ * account name, to 64 bit values, such as the position of a record in a data
+ * file. Nothing but the header is held in memory, so the table can be much
+ * larger than the heap; the operating system's page cache keeps the parts in
+ * use in memory.
+ * <p>
+ * The table uses open addressing with linear probing over fixed size slots.
+ * Different keys may be given the same fingerprint, so every operation is
+ * given a {@link Matcher} that checks whether a value really belongs to the
+ * key, e.g., by reading the record it points to. The table is doubled once it
+ * is three quarters full.
+ * <p>
+ * Only the header records whether the table was closed cleanly. A table that
+ * was not is expected to be rebuilt by its owner from the data it indexes,
+ * which is why changes are not forced to disk. Only the header is, once it
+ * has been marked as in use and before any slot changes, so that a crash
+ * can't leave changed slots behind a header that claims a clean close.
+ * <p>
+ * This class is not thread safe.
+ *
+ * @since 2.1.1
+ */
+final class DiskHashIndex {
+
+    /**
+     * Checks whether a value found under a key belongs to the key being looked up.
+     */
+    interface Matcher {
+        boolean matches(long value) throws IOException;
+    }
+
+    /**
+     * Receives every key and value in the table.
+     */
+    interface Visitor {
+        void visit(long key, long value) throws IOException;
+    }
+
+    private static final long MAGIC = 0x4553415049494458L;     // "ESAPIIDX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int SLOT_SIZE = 16;
+    private static final int MIN_CAPACITY = 1024;
+
+    private static final long EMPTY = 0;
+    private static final long DELETED = 1;
+
+    private final File file;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private int capacity;
+    private int size;
+    private int used;       // Slots that are not EMPTY, including DELETED ones
+    private boolean wasClean;
+
+    /**
+     * Open a table, creating the file if it does not exist yet, and mark it
+     * as in use until it is closed.
+     *
+     * @param file The file the table is kept in.
+     * @throws IOException if the file can't be opened or is not a table.
+     */
+    DiskHashIndex(File file) throws IOException {
+        this.file = file;
+        open();
+    }
+
+    private void open() throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        if ( channel.size() == 0 ) {
+            create(MIN_CAPACITY);
+            wasClean = true;
+        } else {
+            ByteBuffer header = read(0, HEADER_SIZE);
+            if ( header.getLong() != MAGIC || header.getInt() != VERSION ) {
+                raf.close();
+                throw new IOException(file + " is not an ESAPI index");
+            }
+            capacity = header.getInt();
+            size = header.getInt();
+            used = header.getInt();
+            wasClean = header.getInt() == 1;
+        }
+        writeHeader(false);
+        channel.force(true);
+    }
+
+    private void create(int slots) throws IOException {
+        channel.truncate(0);
+        capacity = slots;
+        size = 0;
+        used = 0;
+        // Extending the file fills the slots with zeroes, i.e., EMPTY
+        channel.write(ByteBuffer.allocate(1), HEADER_SIZE + (long) capacity * SLOT_SIZE - 1);
+    }
+
+    /**
+     * @return Whether the table was closed cleanly the last time it was used.
+     */
+    boolean wasClean() {
+        return wasClean;
+    }
+
+    /**
+     * @return The number of values in the table.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return The value of a key, or -1 if there is none.
+     */
+    long find(long key, Matcher matcher) throws IOException {
+        key = slotKey(key);
+        for ( int i = home(key); ; i = next(i) ) {
+            ByteBuffer slot = read(position(i), SLOT_SIZE);
+            long k = slot.getLong();
+            if ( k == EMPTY ) {
+                return -1;
+            }
+            long value = slot.getLong();
+            if ( k == key && matcher.matches(value) ) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Set the value of a key, replacing its current value if it has one.
+     */
+    void put(long key, long value, Matcher matcher) throws IOException {
+        key = slotKey(key);
+        int free = -1;
+        int i = home(key);
+        for ( ; ; i = next(i) ) {
+            ByteBuffer slot = read(position(i), SLOT_SIZE);
+            long k = slot.getLong();
+            if ( k == EMPTY ) {
+                break;
+            }
+            if ( k == DELETED ) {
+                if ( free < 0 ) {
+                    free = i;
+                }
+            } else if ( k == key && matcher.matches(slot.getLong()) ) {
+                writeSlot(i, key, value);
+                return;
+            }
+        }
+        if ( free < 0 ) {
+            free = i;
+            used++;
+        }
+        writeSlot(free, key, value);
+        size++;
+        if ( used > capacity / 4 * 3 ) {
+            grow();
+        }
+    }
+
+    /**
+     * Remove a key.
+     *
+     * @return Whether the key was in the table.
+     */
+    boolean remove(long key, Matcher matcher) throws IOException {
+        key = slotKey(key);
+        for ( int i = home(key); ; i = next(i) ) {
+            ByteBuffer slot = read(position(i), SLOT_SIZE);
+            long k = slot.getLong();
+            if ( k == EMPTY ) {
+                return false;
+            }
+            if ( k == key && matcher.matches(slot.getLong()) ) {
+                writeSlot(i, DELETED, 0);
+                size--;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Pass every key and value in the table to a visitor, in no particular order.
+     */
+    void visit(Visitor visitor) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(SLOT_SIZE * 256);
+        for ( int first = 0; first < capacity; first += 256 ) {
+            int count = Math.min(256, capacity - first);
+            block.clear();
+            block.limit(count * SLOT_SIZE);
+            readFully(block, position(first));
+            block.flip();
+            for ( int i = 0; i < count; i++ ) {
+                long k = block.getLong();
+                long value = block.getLong();
+                if ( k != EMPTY && k != DELETED ) {
+                    visitor.visit(k, value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove everything from the table.
+     */
+    void clear() throws IOException {
+        create(MIN_CAPACITY);
+        writeHeader(false);
+    }
+
+    /**
+     * Mark the table as closed cleanly and close the file. The table must not be used afterwards.
+     */
+    void close() throws IOException {
+        try {
+            writeHeader(true);
+            channel.force(true);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Copy the values into a table with room for twice as many, dropping the deleted slots.
+     */
+    private void grow() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        temp.delete();      // Left over from a failed attempt
+        final DiskHashIndex grown = new DiskHashIndex(temp);
+        grown.create(Math.max(MIN_CAPACITY, Integer.highestOneBit(size) * 4));
+        visit(new Visitor() {
+            public void visit(long key, long value) throws IOException {
+                grown.insert(key, value);
+            }
+        });
+        grown.close();
+        raf.close();
+        FileUtil.replace(temp, file);
+        open();
+    }
+
+    /** Add a key known not to be in the table, without checking for growth. */
+    private void insert(long key, long value) throws IOException {
+        int i = home(key);
+        while ( read(position(i), SLOT_SIZE).getLong() != EMPTY ) {
+            i = next(i);
+        }
+        writeSlot(i, key, value);
+        size++;
+        used++;
+    }
+
+    /** @return The key as stored in a slot; EMPTY and DELETED are reserved. */
+    private static long slotKey(long key) {
+        return ( key == EMPTY || key == DELETED ) ? 2 : key;
+    }
+
+    private int home(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (capacity - 1);
+    }
+
+    private int next(int slot) {
+        return (slot + 1) & (capacity - 1);
+    }
+
+    private static long position(int slot) {
+        return HEADER_SIZE + (long) slot * SLOT_SIZE;
+    }
+
+    private void writeSlot(int slot, long key, long value) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SLOT_SIZE);
+        buffer.putLong(key).putLong(value).flip();
+        writeFully(buffer, position(slot));
+    }
+
+    private void writeHeader(boolean clean) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putLong(MAGIC).putInt(VERSION).putInt(capacity).putInt(size).putInt(used).putInt(clean ? 1 : 0);
+        header.clear();
+        writeFully(header, 0);
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(buffer, position);
+        buffer.flip();
+        return buffer;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while ( buffer.hasRemaining() ) {
+            int n = channel.read(buffer, position);
+            if ( n < 0 ) {
+                throw new IOException(file + " is truncated");
+            }
+            position += n;
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while ( buffer.hasRemaining() ) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ *
+ * The ESAPI is published by OWASP under the BSD license. You should read and accept the
+ * LICENSE before you use, modify, and/or redistribute this software.
+ *
+ * @created 2014
+ */
+package org.owasp.esapi.reference;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Sliding window counter used by {@link DefaultIntrusionDetector} to check a
+ * {@link org.owasp.esapi.SecurityConfiguration.Threshold}: have there been
+ * {@code count} events within {@code interval} seconds?
+ * <p>
+ * The times of the last {@code count} events are kept in a fixed size ring
+ * buffer of primitive longs, so recording an event is O(1) and allocates
+ * nothing. The threshold is exceeded when every slot holds an event less than
+ * the interval before the one just recorded. The slot of the oldest event is
+ * checked first, so the others are only looked at when the threshold is close
+ * to being exceeded.
+ * <p>
+ * Events may be recorded concurrently, e.g., by several requests from the
+ * same user. Each event claims its own slot with an atomic increment, so no
+ * locking is needed. Each slot always holds the time of a distinct event, so
+ * a racing event can only make the check see a slot that is not written yet,
+ * or a time that is not within the interval. The check may then under count,
+ * which is harmless for intrusion detection, but it never over counts, which
+ * would fire the intrusion response against a legitimate user.
+ */
+final class EventCounter {
+
+    // Marks a slot that no event has been recorded in yet.
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final String key;
+    private final AtomicLongArray times;
+    private final AtomicLong cursor = new AtomicLong();
+
+    /**
+     * @param key       The name of the event being counted.
+     * @param capacity  The threshold count, i.e., the number of event times to keep.
+     */
+    EventCounter(String key, int capacity) {
+        if ( capacity < 1 ) {
+            throw new IllegalArgumentException("Event counter capacity must be at least 1, was: " + capacity);
+        }
+        this.key = key;
+        this.times = new AtomicLongArray(capacity);
+        for ( int i = 0; i < capacity; i++ ) {
+            times.set(i, EMPTY);
+        }
+    }
+
+    /**
+     * @return The name of the event being counted.
+     */
+    String getKey() {
+        return key;
+    }
+
+    /**
+     * @return The number of event times kept, i.e., the threshold count.
+     */
+    int getCapacity() {
+        return times.length();
+    }
+
+    /**
+     * Record an event and check the threshold.
+     *
+     * @param now               The time of the event, in milliseconds.
+     * @param intervalMillis    The threshold interval, in milliseconds.
+     * @return {@code true} if there have been {@link #getCapacity()} events,
+     *         including this one, within the interval.
+     */
+    boolean increment(long now, long intervalMillis) {
+        int capacity = times.length();
+        long position = cursor.getAndIncrement();
+        times.set((int) (position % capacity), now);
+        if ( position + 1 < capacity ) {
+            return false;
+        }
+        // Start with the next slot to be overwritten, which normally holds the
+        // oldest of the last 'capacity' events. A concurrent event may already
+        // have replaced it with a newer one, so every slot must be checked.
+        int start = (int) ((position + 1) % capacity);
+        for ( int i = 0; i < capacity; i++ ) {
+            long time = times.get((start + i) % capacity);
+            if ( time == EMPTY || time > now || now - time >= intervalMillis ) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
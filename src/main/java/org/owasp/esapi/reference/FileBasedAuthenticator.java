@@ -17,9 +17,13 @@ package org.owasp.esapi.reference;
 
 import org.owasp.esapi.*;
 import org.owasp.esapi.errors.*;
+import org.owasp.esapi.util.DaemonThreadFactory;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Reference implementation of the Authenticator interface. This reference implementation is backed by a simple text
@@ -38,6 +42,23 @@ import java.util.*;
  * 2187200605330 | 1
  * <p/>
  * </PRE>
+ * <p/>
+ * Users are looked up on every request, so the loaded users are kept in concurrent maps by account id and by lower
+ * case account name, which readers use without locking. Changes (creating, removing and renaming users) are
+ * serialized on the authenticator and update the maps in place; reloading the user file publishes new ones. An
+ * account renamed with {@link User#setAccountName(String)} is indexed by its new name.
+ * <p/>
+ * By default, creating or removing a user or changing a password rewrites the whole user file. With
+ * {@code Authenticator.Journal=true} in {@code ESAPI.properties}, these changes are instead appended to a journal next
+ * to the user file (users.txt.journal), and forced to disk together with any changes made by other threads at the same
+ * time. Once the journal holds {@code Authenticator.Journal.CompactionThreshold} changes, a background thread writes a
+ * new user file, which replaces the old one, and starts a new journal. Only taking a copy of the users and replacing
+ * the file hold up other changes; changes made while the file is written go on in the journal and are carried over to
+ * the new one. The user file records its generation in a comment line, and on startup the journal is replayed on top
+ * of the user file only if it belongs to that generation, or to the generation the file was written from, in which
+ * case the changes the file already contains are skipped.
+ * {@link #saveUsers()} always writes the user file, including changes that were not journaled, such as the last login
+ * time.
  *
  * @author <a href="mailto:jeff.williams@aspectsecurity.com?subject=ESAPI question">Jeff Williams</a> at <a href="http://www.aspectsecurity.com">Aspect Security</a>
  * @author Chris Schmidt (chrisisbeef .at. gmail.com) <a href="http://www.digital-ritual.com">Digital Ritual Software</a>
@@ -78,14 +99,52 @@ public class FileBasedAuthenticator extends AbstractAuthenticator {
     /**
      * The last modified time we saw on the user db.
      */
-    private long lastModified = 0;
+    private volatile long lastModified = 0;
 
     /**
      * The last time we checked if the user db had been modified externally
      */
-    private long lastChecked = 0;
+    private volatile long lastChecked = 0;
+
+    /**
+     * The comment line that holds the generation of the user db when it is journaled.
+     */
+    private static final String GENERATION = "# generation ";
+
+    /**
+     * The comment line that holds the generation and number of journal records a journaled user db was written from.
+     */
+    private static final String JOURNAL = "# journal ";
 
-    private static final int MAX_ACCOUNT_NAME_LENGTH = 250;
+    /**
+     * Whether changes are journaled, see {@code Authenticator.Journal}.
+     */
+    private final boolean journaled;
+
+    /**
+     * The number of journaled changes that trigger writing a new user db.
+     */
+    private final int compactionThreshold;
+
+    /**
+     * The journal of changes since the user db was written, or null if changes rewrite the user db.
+     */
+    private volatile UserJournal journal = null;
+
+    /**
+     * The generation of the user db the journal applies to.
+     */
+    private long generation = 0;
+
+    /**
+     * Whether a background thread is writing a new user db.
+     */
+    private final AtomicBoolean compacting = new AtomicBoolean(false);
+
+    /**
+     * Held while writing a new user db from the journal; taken before the lock on the authenticator.
+     */
+    private final ReentrantLock compactionLock = new ReentrantLock();
 
     /**
      * Fail safe main program to add or update an account in an emergency.
@@ -121,7 +180,7 @@ public class FileBasedAuthenticator extends AbstractAuthenticator {
             user.addRole(role);
             user.enable();
             user.unlock();
-            auth.userMap.put(user.getAccountId(), user);
+            auth.users.add(user);
             System.out.println("New user created: " + accountName);
             auth.saveUsers();
             System.out.println("User account " + user.getAccountName() + " updated");
@@ -211,9 +270,9 @@ public class FileBasedAuthenticator extends AbstractAuthenticator {
     }
 
     /**
-     * The user map.
+     * The users, replaced as a whole when the user db is reloaded.
      */
-    private Map<Long, User> userMap = new HashMap<Long, User>();
+    private volatile UserIndex users = new UserIndex(Collections.<Long, User>emptyMap());
 
     // Map<User, List<String>>, where the strings are password hashes, with the current hash in entry 0
     private Map<User, List<String>> passwordMap = new Hashtable<User, List<String>>();
@@ -224,72 +283,62 @@ public class FileBasedAuthenticator extends AbstractAuthenticator {
      *
      */
     private FileBasedAuthenticator() {
-    	super();
+    	this(null, ESAPI.securityConfiguration().getAuthenticatorJournal());
+    }
+
+    /**
+     * @param userDB    the user db, or null to find users.txt in the ESAPI resources
+     * @param journaled whether changes are journaled instead of rewriting the user db
+     */
+    FileBasedAuthenticator(File userDB, boolean journaled) {
+        super();
+        this.userDB = userDB;
+        this.journaled = journaled;
+        this.compactionThreshold = ESAPI.securityConfiguration().getAuthenticatorJournalCompactionThreshold();
     }
 
 
     /**
      * {@inheritDoc}
      */
-    public synchronized User createUser(String accountName, String password1, String password2) throws AuthenticationException {
-        loadUsersIfNecessary();
-        if (accountName == null) {
-            throw new AuthenticationAccountsException("Account creation failed", "Attempt to create user with null accountName");
-        }
-        if (getUser(accountName) != null) {
-            throw new AuthenticationAccountsException("Account creation failed", "Duplicate user creation denied for " + accountName);
-        }
+    public User createUser(String accountName, String password1, String password2) throws AuthenticationException {
+        DefaultUser user;
+        long sequence;
+        synchronized (this) {
+            loadUsersIfNecessary();
+            if (accountName == null) {
+                throw new AuthenticationAccountsException("Account creation failed", "Attempt to create user with null accountName");
+            }
+            if (getUser(accountName) != null) {
+                throw new AuthenticationAccountsException("Account creation failed", "Duplicate user creation denied for " + accountName);
+            }
 
-        verifyAccountNameStrength(accountName);
+            verifyAccountNameStrength(accountName);
 
-        if (password1 == null) {
-            throw new AuthenticationCredentialsException("Invalid account name", "Attempt to create account " + accountName + " with a null password");
-        }
-        
-        DefaultUser user = new DefaultUser(accountName);
-        
-        verifyPasswordStrength(null, password1, user);
+            if (password1 == null) {
+                throw new AuthenticationCredentialsException("Invalid account name", "Attempt to create account " + accountName + " with a null password");
+            }
 
-        if (!password1.equals(password2)) {
-            throw new AuthenticationCredentialsException("Passwords do not match", "Passwords for " + accountName + " do not match");
-        }
+            user = new DefaultUser(accountName);
 
-        try {
-            setHashedPassword(user, hashPassword(password1, accountName));
-        } catch (EncryptionException ee) {
-            throw new AuthenticationException("Internal error", "Error hashing password for " + accountName, ee);
-        }
-        userMap.put(user.getAccountId(), user);
-        logger.info(Logger.SECURITY_SUCCESS, "New user created: " + accountName);
-        saveUsers();
-        return user;
-    }
+            verifyPasswordStrength(null, password1, user);
 
-    /**
-     * {@inheritDoc}
-     */
-    public String generateStrongPassword() {
-        return generateStrongPassword("");
-    }
+            if (!password1.equals(password2)) {
+                throw new AuthenticationCredentialsException("Passwords do not match", "Passwords for " + accountName + " do not match");
+            }
 
-    /**
-     * Generate a strong password that is not similar to the specified old password.
-     *
-     * @param oldPassword the password to be compared to the new password for similarity
-     * @return a new strong password that is dissimilar to the specified old password
-     */
-    private String generateStrongPassword(String oldPassword) {
-        Randomizer r = ESAPI.randomizer();
-        int letters = r.getRandomInteger(4, 6);  // inclusive, exclusive
-        int digits = 7 - letters;
-        String passLetters = r.getRandomString(letters, EncoderConstants.CHAR_PASSWORD_LETTERS);
-        String passDigits = r.getRandomString(digits, EncoderConstants.CHAR_PASSWORD_DIGITS);
-        String passSpecial = r.getRandomString(1, EncoderConstants.CHAR_PASSWORD_SPECIALS);
-        String newPassword = passLetters + passSpecial + passDigits;
-        if (StringUtilities.getLevenshteinDistance(oldPassword, newPassword) > 5) {
-            return newPassword;
-        }
-        return generateStrongPassword(oldPassword);
+            try {
+                setHashedPassword(user, hashPassword(password1, accountName));
+            } catch (EncryptionException ee) {
+                throw new AuthenticationException("Internal error", "Error hashing password for " + accountName, ee);
+            }
+            users.add(user);
+            logger.info(Logger.SECURITY_SUCCESS, "New user created: " + accountName);
+            sequence = persist(user, false);
+        }
+        // Wait for the journal outside the lock, so that other changes can join the commit
+        commit(sequence);
+        return user;
     }
 
     /**
@@ -317,7 +366,7 @@ public class FileBasedAuthenticator extends AbstractAuthenticator {
             setHashedPassword(user, newHash);
             logger.info(Logger.SECURITY_SUCCESS, "Password changed for user: " + accountName);
             // jtm - 11/2/2010 - added to resolve http://code.google.com/p/owasp-esapi-java/issues/detail?id=13
-            saveUsers();
+            commit(persist(user, false));
         } catch (EncryptionException ee) {
             throw new AuthenticationException("Password change failed", "Encryption exception changing password for " + accountName, ee);
         }
@@ -338,6 +387,7 @@ public class FileBasedAuthenticator extends AbstractAuthenticator {
                 return true;
             }
         } catch (EncryptionException e) {
+            checkHashAvailable(e, accountName);
             logger.fatal(Logger.SECURITY_FAILURE, "Encryption error verifying password for " + accountName);
         }
         logger.fatal(Logger.SECURITY_FAILURE, "Password verification failed for " + accountName);
@@ -347,39 +397,36 @@ public class FileBasedAuthenticator extends AbstractAuthenticator {
     /**
      * {@inheritDoc}
      */
-    public String generateStrongPassword(User user, String oldPassword) {
-        String newPassword = generateStrongPassword(oldPassword);
-        if (newPassword != null) {
-            logger.info(Logger.SECURITY_SUCCESS, "Generated strong password for " + user.getAccountName());
+    public User getUser(long accountId) {
+        if (accountId == 0) {
+            return User.ANONYMOUS;
         }
-        return newPassword;
+        loadUsersIfNecessary();
+        return users.byId.get(accountId);
     }
 
     /**
      * {@inheritDoc}
      */
-    public synchronized User getUser(long accountId) {
-        if (accountId == 0) {
+    public User getUser(String accountName) {
+        if (accountName == null) {
             return User.ANONYMOUS;
         }
         loadUsersIfNecessary();
-        return userMap.get(accountId);
+        User u = users.byName.get(accountName.toLowerCase(Locale.ENGLISH));
+        // A user renamed by other means than DefaultUser.setAccountName() is not found by either name
+        return u != null && u.getAccountName().equalsIgnoreCase(accountName) ? u : null;
     }
 
     /**
      * {@inheritDoc}
+     * <p/>
+     * This implementation indexes the user by its new name.
      */
-    public synchronized User getUser(String accountName) {
-        if (accountName == null) {
-            return User.ANONYMOUS;
-        }
-        loadUsersIfNecessary();
-        for (User u : userMap.values()) {
-            if (u.getAccountName().equalsIgnoreCase(accountName)) {
-                return u;
-            }
+    protected synchronized void accountNameChanged(User user, String oldName) {
+        if (users.byId.get(user.getAccountId()) == user) {
+            users.rename(user, oldName);
         }
-        return null;
     }
 
  
@@ -387,25 +434,15 @@ public class FileBasedAuthenticator extends AbstractAuthenticator {
     /**
      * {@inheritDoc}
      */
-    public synchronized Set getUserNames() {
+    public Set getUserNames() {
         loadUsersIfNecessary();
         HashSet<String> results = new HashSet<String>();
-        for (User u : userMap.values()) {
+        for (User u : users.byId.values()) {
             results.add(u.getAccountName());
         }
         return results;
     }
 
-    /**
-     * {@inheritDoc}
-     *
-     * @throws EncryptionException
-     */
-    public String hashPassword(String password, String accountName) throws EncryptionException {
-        String salt = accountName.toLowerCase();
-        return ESAPI.encryptor().hash(password, salt);
-    }
-
     /**
      * Load users if they haven't been loaded in a while.
      */
@@ -428,12 +465,18 @@ public class FileBasedAuthenticator extends AbstractAuthenticator {
         if (now - lastChecked < checkInterval) {
             return;
         }
-        lastChecked = now;
+        synchronized (this) {
+            // Only one of the threads that got here needs to check
+            if (now - lastChecked < checkInterval) {
+                return;
+            }
+            lastChecked = now;
 
-        if (lastModified == userDB.lastModified()) {
-            return;
+            if (lastModified == userDB.lastModified()) {
+                return;
+            }
+            loadUsersImmediately();
         }
-        loadUsersImmediately();
     }
 
     // file was touched so reload it
@@ -442,15 +485,24 @@ public class FileBasedAuthenticator extends AbstractAuthenticator {
      */
     protected void loadUsersImmediately() {
         synchronized (this) {
-            logger.trace(Logger.SECURITY_SUCCESS, "Loading users from " + userDB.getAbsolutePath(), null);
+            logger.trace(Logger.SECURITY_SUCCESS, "Loading users from {}", userDB.getAbsolutePath());
 
             BufferedReader reader = null;
             try {
                 HashMap<Long, User> map = new HashMap<Long, User>();
+                long fileGeneration = 0;
+                long previous = -1;
+                int covered = 0;
                 reader = new BufferedReader(new FileReader(userDB));
                 String line;
                 while ((line = reader.readLine()) != null) {
-                    if (line.length() > 0 && line.charAt(0) != '#') {
+                    if (line.startsWith(GENERATION)) {
+                        fileGeneration = Long.parseLong(line.substring(GENERATION.length()).trim());
+                    } else if (line.startsWith(JOURNAL)) {
+                        String[] parts = line.substring(JOURNAL.length()).trim().split(" +");
+                        previous = Long.parseLong(parts[0]);
+                        covered = Integer.parseInt(parts[1]);
+                    } else if (line.length() > 0 && line.charAt(0) != '#') {
                         DefaultUser user = createUser(line);
                         if (map.containsKey(new Long(user.getAccountId()))) {
                             logger.fatal(Logger.SECURITY_FAILURE, "Problem in user file. Skipping duplicate user: " + user, null);
@@ -458,9 +510,21 @@ public class FileBasedAuthenticator extends AbstractAuthenticator {
                         map.put(user.getAccountId(), user);
                     }
                 }
-                userMap = map;
-                this.lastModified = System.currentTimeMillis();
-                logger.trace(Logger.SECURITY_SUCCESS, "User file reloaded: " + map.size(), null);
+                if (journaled) {
+                    generation = fileGeneration;
+                    replayJournal(map, previous, covered);
+                }
+                users = new UserIndex(map);
+                this.lastModified = userDB.lastModified();
+                logger.trace(Logger.SECURITY_SUCCESS, "User file reloaded: {}", map.size());
+                // Give the file a generation for the journal to refer to, unless a compaction already does
+                if (journal != null && generation == 0 && compactionLock.tryLock()) {
+                    try {
+                        compactJournal();
+                    } finally {
+                        compactionLock.unlock();
+                    }
+                }
             } catch (Exception e) {
                 logger.fatal(Logger.SECURITY_FAILURE, "Failure loading user file: " + userDB.getAbsolutePath(), e);
             } finally {
@@ -475,6 +539,37 @@ public class FileBasedAuthenticator extends AbstractAuthenticator {
         }
     }
 
+    /**
+     * Apply the journaled changes made since the user db was written.
+     *
+     * @param map      the users read from the user db
+     * @param previous the generation the user db was written from, or -1
+     * @param covered  the number of records of that generation's journal the user db contains
+     * @throws IOException if the journal can't be opened or read
+     * @throws AuthenticationException if a journaled user is invalid
+     */
+    private void replayJournal(Map<Long, User> map, long previous, int covered) throws IOException, AuthenticationException {
+        if (journal == null) {
+            journal = new UserJournal(new File(userDB.getPath() + ".journal"));
+        } else {
+            journal.flush();
+        }
+        List<String> records = journal.recover(generation, previous, covered);
+        for (String record : records) {
+            User old;
+            if (record.startsWith("- ")) {
+                old = map.remove(Long.valueOf(record.substring(2)));
+            } else {
+                DefaultUser user = createUser(record.substring(2));
+                old = map.put(user.getAccountId(), user);
+            }
+            if (old != null) {
+                passwordMap.remove(old);
+            }
+        }
+        logger.trace(Logger.SECURITY_SUCCESS, "User journal replayed: {}", records.size());
+    }
+
     /**
      * Create a new user with all attributes from a String.  The format is:
      * accountId | accountName | password | roles (comma separated) | unlocked | enabled | old password hashes (comma separated) | last host address | last password change time | last long time | last failed login time | expiration time | failed login count
@@ -529,16 +624,71 @@ public class FileBasedAuthenticator extends AbstractAuthenticator {
     /**
      * {@inheritDoc}
      */
-    public synchronized void removeUser(String accountName) throws AuthenticationException {
-        loadUsersIfNecessary();
-        User user = getUser(accountName);
-        if (user == null) {
-            throw new AuthenticationAccountsException("Remove user failed", "Can't remove invalid accountName " + accountName);
+    public void removeUser(String accountName) throws AuthenticationException {
+        long sequence;
+        synchronized (this) {
+            loadUsersIfNecessary();
+            User user = getUser(accountName);
+            if (user == null) {
+                throw new AuthenticationAccountsException("Remove user failed", "Can't remove invalid accountName " + accountName);
+            }
+            users.remove(user);
+            logger.info(Logger.SECURITY_SUCCESS, "Removing user " + user.getAccountName());
+            passwordMap.remove(user);
+            sequence = persist(user, true);
+        }
+        commit(sequence);
+    }
+
+    /**
+     * Record a change to a user, either in the journal or by saving all users.
+     *
+     * @param user    the user that was created, changed or removed
+     * @param removed whether the user was removed
+     * @return the journal sequence number to pass to {@link #commit(long)}, or 0 if there is no journal
+     * @throws AuthenticationException if the user file could not be written
+     */
+    private synchronized long persist(User user, boolean removed) throws AuthenticationException {
+        if (journal == null) {
+            saveUsers();
+            return 0;
+        }
+        return journal.append(removed ? "- " + user.getAccountId() : "+ " + save((DefaultUser) user));
+    }
+
+    /**
+     * Wait until a journaled change is on disk, and write a new user db in the background if the journal has grown
+     * large enough.
+     *
+     * @param sequence the sequence number returned by {@link #persist(User, boolean)}
+     * @throws AuthenticationException if the journal could not be written; the change stays in memory and queued for
+     *         the next commit or {@link #saveUsers()}
+     */
+    private void commit(long sequence) throws AuthenticationException {
+        UserJournal j = journal;
+        if (sequence == 0 || j == null) {
+            return;
+        }
+        try {
+            j.commit(sequence);
+        } catch (IOException e) {
+            logger.fatal(Logger.SECURITY_FAILURE, "Problem writing user journal " + j.getFile().getAbsolutePath(), e);
+            throw new AuthenticationException("Internal Error", "Problem writing user journal " + j.getFile().getAbsolutePath(), e);
+        }
+        if (j.getRecordCount() >= compactionThreshold && compacting.compareAndSet(false, true)) {
+            Thread compactor = DaemonThreadFactory.newThread("ESAPI-UserJournal-compaction", new Runnable() {
+                public void run() {
+                    try {
+                        saveUsers();
+                    } catch (AuthenticationException e) {
+                        // already logged; the journal keeps the changes until the next try
+                    } finally {
+                        compacting.set(false);
+                    }
+                }
+            });
+            compactor.start();
         }
-        userMap.remove(user.getAccountId());
-        logger.info(Logger.SECURITY_SUCCESS, "Removing user " + user.getAccountName());
-        passwordMap.remove(user);
-        saveUsers();
     }
 
     /**
@@ -547,41 +697,127 @@ public class FileBasedAuthenticator extends AbstractAuthenticator {
      *
      * @throws AuthenticationException if the user file could not be written
      */
-    public synchronized void saveUsers() throws AuthenticationException {
-        PrintWriter writer = null;
+    public void saveUsers() throws AuthenticationException {
+        if (journal != null) {
+            compactionLock.lock();
+            try {
+                compactJournal();
+            } finally {
+                compactionLock.unlock();
+            }
+            return;
+        }
+        synchronized (this) {
+            PrintWriter writer = null;
+            try {
+                writer = new PrintWriter(new FileWriter(userDB));
+                writeHeader(writer);
+                saveUsers(writer);
+                writer.flush();
+                logger.info(Logger.SECURITY_SUCCESS, "User file written to disk");
+            } catch (IOException e) {
+                logger.fatal(Logger.SECURITY_FAILURE, "Problem saving user file " + userDB.getAbsolutePath(), e);
+                throw new AuthenticationException("Internal Error", "Problem saving user file " + userDB.getAbsolutePath(), e);
+            } finally {
+                if (writer != null) {
+                    writer.close();
+                    lastModified = userDB.lastModified();
+                    lastChecked = lastModified;
+                }
+            }
+        }
+    }
+
+    /**
+     * Write all users to a new user db with the next generation, replace the user db with it, and start a new journal
+     * with the changes journaled in the meantime. Only taking a copy of the users and replacing the user db are done
+     * under the lock on the authenticator; the caller holds {@link #compactionLock}.
+     *
+     * @throws AuthenticationException if the user file could not be written
+     */
+    private void compactJournal() throws AuthenticationException {
+        long previous;
+        int covered;
+        List<String> lines;
+        synchronized (this) {
+            previous = generation;
+            covered = journal.mark();
+            lines = new ArrayList<String>(users.byId.size());
+            for (User u : users.byId.values()) {
+                if (!(u instanceof DefaultUser) || u.isAnonymous()) {
+                    throw new AuthenticationCredentialsException("Problem saving user", "Skipping save of user " + u.getAccountName());
+                }
+                lines.add(save((DefaultUser) u));
+            }
+        }
+        long next = previous + 1;
+        File temp = new File(userDB.getPath() + ".tmp");
+        FileOutputStream out = null;
         try {
-            writer = new PrintWriter(new FileWriter(userDB));
-            writer.println("# This is the user file associated with the ESAPI library from http://www.owasp.org");
-            writer.println("# accountId | accountName | hashedPassword | roles | locked | enabled | csrfToken | oldPasswordHashes | lastPasswordChangeTime | lastLoginTime | lastFailedLoginTime | expirationTime | failedLoginCount");
-            writer.println();
-            saveUsers(writer);
+            out = new FileOutputStream(temp);
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(out));
+            writeHeader(writer);
+            writer.println(GENERATION + next);
+            // Until the journal is reset, its records after these are replayed on top of this file
+            writer.println(JOURNAL + previous + " " + covered);
+            for (String line : lines) {
+                writer.println(line);
+            }
             writer.flush();
+            if (writer.checkError()) {
+                throw new IOException("Unable to write " + temp.getAbsolutePath());
+            }
+            out.getFD().sync();
+            out.close();
+            out = null;
+            synchronized (this) {
+                if (generation != previous) {
+                    logger.warning(Logger.SECURITY_FAILURE, "User file reloaded while writing it, discarding " + temp.getAbsolutePath());
+                    temp.delete();
+                    return;
+                }
+                FileUtil.replace(temp, userDB);
+                generation = next;
+                lastModified = userDB.lastModified();
+                journal.reset(next);
+            }
             logger.info(Logger.SECURITY_SUCCESS, "User file written to disk");
         } catch (IOException e) {
             logger.fatal(Logger.SECURITY_FAILURE, "Problem saving user file " + userDB.getAbsolutePath(), e);
             throw new AuthenticationException("Internal Error", "Problem saving user file " + userDB.getAbsolutePath(), e);
         } finally {
-            if (writer != null) {
-                writer.close();
-                lastModified = userDB.lastModified();
-                lastChecked = lastModified;
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // already failed
+                }
             }
         }
     }
 
+    /**
+     * Write the comments at the top of the user db.
+     *
+     * @param writer the print writer to use for saving
+     */
+    private void writeHeader(PrintWriter writer) {
+        writer.println("# This is the user file associated with the ESAPI library from http://www.owasp.org");
+        writer.println("# accountId | accountName | hashedPassword | roles | locked | enabled | csrfToken | oldPasswordHashes | lastPasswordChangeTime | lastLoginTime | lastFailedLoginTime | expirationTime | failedLoginCount");
+        writer.println();
+    }
+
     /**
      * Save users.
      *
      * @param writer the print writer to use for saving
      */
     protected synchronized void saveUsers(PrintWriter writer) throws AuthenticationCredentialsException {
-        for (Object o : getUserNames()) {
-            String accountName = (String) o;
-            DefaultUser u = (DefaultUser) getUser(accountName);
-            if (u != null && !u.isAnonymous()) {
-                writer.println(save(u));
+        for (User u : users.byId.values()) {
+            if (u instanceof DefaultUser && !u.isAnonymous()) {
+                writer.println(save((DefaultUser) u));
             } else {
-                throw new AuthenticationCredentialsException("Problem saving user", "Skipping save of user " + accountName);
+                throw new AuthenticationCredentialsException("Problem saving user", "Skipping save of user " + u.getAccountName());
             }
         }
     }
@@ -641,85 +877,38 @@ public class FileBasedAuthenticator extends AbstractAuthenticator {
     }
 
     /**
-     * {@inheritDoc}
-     * <p/>
-     * This implementation simply verifies that account names are at least 5 characters long. This helps to defeat a
-     * brute force attack, however the real strength comes from the name length and complexity.
-     *
-     * @param newAccountName
+     * The users, indexed by account id and by lower case account name. Changed only while holding the lock on the
+     * authenticator, and read without it.
      */
-    public void verifyAccountNameStrength(String newAccountName) throws AuthenticationException {
-        if (newAccountName == null) {
-            throw new AuthenticationCredentialsException("Invalid account name", "Attempt to create account with a null account name");
-        }
-        if (!ESAPI.validator().isValidInput("verifyAccountNameStrength", newAccountName, "AccountName", MAX_ACCOUNT_NAME_LENGTH, false)) {
-            throw new AuthenticationCredentialsException("Invalid account name", "New account name is not valid: " + newAccountName);
-        }
-    }
+    private static final class UserIndex {
+        final ConcurrentHashMap<Long, User> byId;
+        final ConcurrentHashMap<String, User> byName;
 
-    /**
-     * {@inheritDoc}
-     * <p/>
-     * This implementation checks: - for any 3 character substrings of the old password - for use of a length *
-     * character sets > 16 (where character sets are upper, lower, digit, and special
-     * jtm - 11/16/2010 - added check to verify pw != username (fix for http://code.google.com/p/owasp-esapi-java/issues/detail?id=108)
-     */
-    public void verifyPasswordStrength(String oldPassword, String newPassword, User user) throws AuthenticationException {
-        if (newPassword == null) {
-            throw new AuthenticationCredentialsException("Invalid password", "New password cannot be null");
-        }
-
-        // can't change to a password that contains any 3 character substring of old password
-        if (oldPassword != null) {
-            int length = oldPassword.length();
-            for (int i = 0; i < length - 2; i++) {
-                String sub = oldPassword.substring(i, i + 3);
-                if (newPassword.indexOf(sub) > -1) {
-                    throw new AuthenticationCredentialsException("Invalid password", "New password cannot contain pieces of old password");
-                }
+        UserIndex(Map<Long, User> users) {
+            byId = new ConcurrentHashMap<Long, User>(users);
+            byName = new ConcurrentHashMap<String, User>();
+            for (User u : byId.values()) {
+                byName.put(key(u.getAccountName()), u);
             }
         }
 
-        // new password must have enough character sets and length
-        int charsets = 0;
-        for (int i = 0; i < newPassword.length(); i++) {
-            if (Arrays.binarySearch(EncoderConstants.CHAR_LOWERS, newPassword.charAt(i)) >= 0) {
-                charsets++;
-                break;
-            }
+        void add(User user) {
+            byId.put(user.getAccountId(), user);
+            byName.put(key(user.getAccountName()), user);
         }
-        for (int i = 0; i < newPassword.length(); i++) {
-            if (Arrays.binarySearch(EncoderConstants.CHAR_UPPERS, newPassword.charAt(i)) >= 0) {
-                charsets++;
-                break;
-            }
-        }
-        for (int i = 0; i < newPassword.length(); i++) {
-            if (Arrays.binarySearch(EncoderConstants.CHAR_DIGITS, newPassword.charAt(i)) >= 0) {
-                charsets++;
-                break;
-            }
-        }
-        for (int i = 0; i < newPassword.length(); i++) {
-            if (Arrays.binarySearch(EncoderConstants.CHAR_SPECIALS, newPassword.charAt(i)) >= 0) {
-                charsets++;
-                break;
-            }
+
+        void remove(User user) {
+            byId.remove(user.getAccountId());
+            byName.remove(key(user.getAccountName()), user);
         }
 
-        // calculate and verify password strength
-        int strength = newPassword.length() * charsets;
-        if (strength < 16) {
-            throw new AuthenticationCredentialsException("Invalid password", "New password is not long and complex enough");
+        void rename(User user, String oldName) {
+            byName.remove(key(oldName), user);
+            byName.put(key(user.getAccountName()), user);
         }
-        
-        String accountName = user.getAccountName();
-        
-        //jtm - 11/3/2010 - fix for bug http://code.google.com/p/owasp-esapi-java/issues/detail?id=108
-        if (accountName.equalsIgnoreCase(newPassword)) {
-        	//password can't be account name
-        	throw new AuthenticationCredentialsException("Invalid password", "Password matches account name, irrespective of case");
+
+        private static String key(String accountName) {
+            return accountName.toLowerCase(Locale.ENGLISH);
         }
     }
-
 }
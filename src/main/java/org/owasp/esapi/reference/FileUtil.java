@@ -0,0 +1,44 @@
+/**
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ *
+ * The ESAPI is published by OWASP under the BSD license. You should read and accept the
+ * LICENSE before you use, modify, and/or redistribute this software.
+ *
+ * @created 2014
+ */
+package org.owasp.esapi.reference;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * File handling shared by the file based stores of this package.
+ *
+ * @since 2.1.1
+ */
+final class FileUtil {
+
+    private FileUtil() {
+    }
+
+    /**
+     * Replace a file with another one, usually a temporary file that was
+     * written out completely beforehand.
+     *
+     * @param source The file to move.
+     * @param target The file to replace; it need not exist.
+     * @throws IOException if the source cannot be moved to the target.
+     */
+    static void replace(File source, File target) throws IOException {
+        // renameTo does not replace an existing file on all platforms
+        if ( !source.renameTo(target) && !(target.delete() && source.renameTo(target)) ) {
+            throw new IOException("Unable to replace " + target + " with " + source);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ *
+ * The ESAPI is published by OWASP under the BSD license. You should read and accept the
+ * LICENSE before you use, modify, and/or redistribute this software.
+ *
+ * @created 2014
+ */
+package org.owasp.esapi.reference;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.owasp.esapi.ESAPI;
+
+/**
+ * The default {@link org.owasp.esapi.CounterStore}, which keeps its counters
+ * on the heap of this JVM. Holds up to {@code CounterStore.Slots} keys, as
+ * described in {@link SlotCounterStore}.
+ *
+ * @since 2.1.1
+ */
+public class InMemoryCounterStore extends SlotCounterStore {
+
+    private static volatile InMemoryCounterStore singletonInstance;
+
+    /**
+     * @return The shared store, sized according to {@code ESAPI.properties}.
+     */
+    public static InMemoryCounterStore getInstance() {
+        if ( singletonInstance == null ) {
+            synchronized ( InMemoryCounterStore.class ) {
+                if ( singletonInstance == null ) {
+                    singletonInstance = new InMemoryCounterStore(ESAPI.securityConfiguration().getCounterStoreSlots());
+                }
+            }
+        }
+        return singletonInstance;
+    }
+
+    private final AtomicLongArray words;
+
+    /**
+     * @param slots The number of keys that can be counted at once; rounded up to a power of 2.
+     */
+    public InMemoryCounterStore(int slots) {
+        this(slots, new SecureRandom());
+    }
+
+    private InMemoryCounterStore(int slots, SecureRandom random) {
+        super(slotCount(slots), random.nextLong(), random.nextLong());
+        words = new AtomicLongArray(getSlotCount() * WORDS_PER_SLOT);
+    }
+
+    long get(int word) {
+        return words.get(word);
+    }
+
+    boolean compareAndSet(int word, long expect, long update) {
+        return words.compareAndSet(word, expect, update);
+    }
+
+    void set(int word, long value) {
+        words.set(word, value);
+    }
+}
@@ -0,0 +1,232 @@
+/**
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ *
+ * The ESAPI is published by OWASP under the BSD license. You should read and accept the
+ * LICENSE before you use, modify, and/or redistribute this software.
+ *
+ * @created 2014
+ */
+package org.owasp.esapi.reference;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.owasp.esapi.ESAPI;
+import org.owasp.esapi.util.DaemonThreadFactory;
+
+/**
+ * Hands security events from request threads to a single background thread
+ * that counts, logs and acts on them. Used by {@link DefaultIntrusionDetector}
+ * when {@code IntrusionDetector.Async=true} in {@code ESAPI.properties}.
+ * <p>
+ * An attack tends to produce a burst of security events, each of which is
+ * logged at WARNING and checked against its threshold, possibly followed by
+ * FATAL logging and disabling the account. Doing that in the request makes
+ * the attacker's requests, and everybody else's, slower exactly when the
+ * application is under load. With this queue the request thread only captures
+ * what depends on it (the user, the anonymous principal and the time) and
+ * returns.
+ * <p>
+ * The queue is bounded by {@code IntrusionDetector.Async.QueueSize}. Security
+ * events are never discarded: when the queue is full or has been shut down,
+ * {@link #offer(Event)} returns {@code false} and the caller processes the
+ * event itself, which slows down the callers instead of losing events. The
+ * {@link #getRejectedCount() rejected count} shows how often that happened.
+ *
+ * @since 2.1.1
+ */
+public final class IntrusionEventQueue {
+
+    private static final long POLL_MILLIS = 100;
+    private static final long SHUTDOWN_WAIT_MILLIS = 5000;
+
+    private static volatile IntrusionEventQueue singletonInstance;
+
+    /**
+     * Returns the shared queue, creating and starting it on first use with
+     * the settings from {@code ESAPI.properties}.
+     *
+     * @return The shared queue.
+     */
+    public static IntrusionEventQueue getInstance() {
+        if ( singletonInstance == null ) {
+            synchronized ( IntrusionEventQueue.class ) {
+                if ( singletonInstance == null ) {
+                    final IntrusionEventQueue queue =
+                        new IntrusionEventQueue(ESAPI.securityConfiguration().getIntrusionDetectionAsyncQueueSize());
+                    queue.start();
+                    Runtime.getRuntime().addShutdownHook(new Thread("ESAPI-IntrusionEventQueue-shutdown") {
+                        @Override
+                        public void run() {
+                            queue.shutdown();
+                        }
+                    });
+                    singletonInstance = queue;
+                }
+            }
+        }
+        return singletonInstance;
+    }
+
+    /**
+     * A security event captured on the reporting thread. Implementations must
+     * hold everything needed to process the event; the processing thread has
+     * no current request and no current user of its own.
+     */
+    abstract static class Event {
+        /** Count, log and act on the event. */
+        abstract void process();
+    }
+
+    private final int capacity;
+    private final BlockingQueue<Event> queue;
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicInteger maxPending = new AtomicInteger();
+
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    /**
+     * Creates a queue. It must be {@link #start() started} before events are processed.
+     *
+     * @param capacity  Maximum number of pending events.
+     * @throws IllegalArgumentException if the capacity is not positive.
+     */
+    IntrusionEventQueue(int capacity) {
+        if ( capacity < 1 ) {
+            throw new IllegalArgumentException("Intrusion event queue size must be positive, was: " + capacity);
+        }
+        this.capacity = capacity;
+        this.queue = new ArrayBlockingQueue<Event>(capacity);
+        this.worker = DaemonThreadFactory.newThread("ESAPI-IntrusionEventQueue", new Runnable() {
+            public void run() {
+                processLoop();
+            }
+        });
+    }
+
+    /** Start the background thread. */
+    void start() {
+        worker.start();
+    }
+
+    /**
+     * Queue an event to be processed by the background thread.
+     *
+     * @param event The captured event.
+     * @return {@code true} if the event was queued, {@code false} if the queue
+     *         is full or has been shut down, in which case the caller must
+     *         process the event itself.
+     */
+    boolean offer(Event event) {
+        if ( running && queue.offer(event) ) {
+            // If shutdown() got in between, the worker may be gone; take the event back unless it was seen.
+            if ( ! running && queue.remove(event) ) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            accepted.incrementAndGet();
+            int pending = queue.size();
+            int max = maxPending.get();
+            while ( pending > max && ! maxPending.compareAndSet(max, pending) ) {
+                max = maxPending.get();
+            }
+            return true;
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Stop accepting events, process every pending event and stop the
+     * background thread. Waits at most a few seconds for it to finish.
+     */
+    public void shutdown() {
+        running = false;
+        if ( Thread.currentThread() != worker ) {
+            try {
+                worker.join(SHUTDOWN_WAIT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return The number of events queued for the background thread.
+     */
+    public long getAcceptedCount() {
+        return accepted.get();
+    }
+
+    /**
+     * @return The number of events the callers had to process themselves
+     *         because the queue was full or shut down.
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return The number of events processed by the background thread.
+     */
+    public long getProcessedCount() {
+        return processed.get();
+    }
+
+    /**
+     * @return The number of events waiting to be processed.
+     */
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    /**
+     * @return The largest number of events that have been waiting at once.
+     */
+    public int getMaxPendingCount() {
+        return maxPending.get();
+    }
+
+    /**
+     * @return The capacity of the queue.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private void processLoop() {
+        for ( ;; ) {
+            Event event;
+            try {
+                event = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                event = null;
+            }
+            if ( event == null ) {
+                if ( ! running && queue.isEmpty() ) {
+                    break;
+                }
+                continue;
+            }
+            try {
+                event.process();
+            } catch (Throwable t) {
+                // Nowhere else to report it. Don't let one bad event kill the worker.
+                System.err.println("ESAPI intrusion detector failed to process security event: " + t);
+            }
+            processed.incrementAndGet();
+        }
+    }
+}
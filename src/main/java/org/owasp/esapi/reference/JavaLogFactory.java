@@ -1,16 +1,13 @@
 package org.owasp.esapi.reference;
 
-import java.io.Serializable;
-import java.util.HashMap;
+import java.io.Flushable;
+import java.util.logging.Handler;
 import java.util.logging.Level;
-
-import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpSession;
+import java.util.logging.LogRecord;
 
 import org.owasp.esapi.ESAPI;
 import org.owasp.esapi.LogFactory;
 import org.owasp.esapi.Logger;
-import org.owasp.esapi.User;
 
 /**
  * Reference implementation of the LogFactory and Logger interfaces. This implementation uses the Java logging package, and marks each
@@ -37,7 +34,11 @@ public class JavaLogFactory implements LogFactory {
         return singletonInstance;
     }
 
-	private HashMap<Serializable, Logger> loggersMap = new HashMap<Serializable, Logger>();
+	private final LoggerRegistry loggers = new LoggerRegistry(new LoggerRegistry.LoggerMaker() {
+		public Logger makeLogger(String name) {
+			return new JavaLogger(name);
+		}
+	});
 	
 	/**
 	* Null argument constructor for this implementation of the LogFactory interface
@@ -49,30 +50,16 @@ public class JavaLogFactory implements LogFactory {
 	* {@inheritDoc}
 	*/
 	public Logger getLogger(Class clazz) {
-    	
     	// If a logger for this class already exists, we return the same one, otherwise we create a new one.
-    	Logger classLogger = (Logger) loggersMap.get(clazz);
-    	
-    	if (classLogger == null) {
-    		classLogger = new JavaLogger(clazz.getName());
-    		loggersMap.put(clazz, classLogger);
-    	}
-		return classLogger;
+		return loggers.getLogger(clazz);
     }
 
     /**
 	* {@inheritDoc}
 	*/
     public Logger getLogger(String moduleName) {
-    	
     	// If a logger for this module already exists, we return the same one, otherwise we create a new one.
-    	Logger moduleLogger = (Logger) loggersMap.get(moduleName);
-    	
-    	if (moduleLogger == null) {
-    		moduleLogger = new JavaLogger(moduleName);
-    		loggersMap.put(moduleName, moduleLogger);    		
-    	}
-		return moduleLogger;
+		return loggers.getLogger(moduleName);
     }
 
 
@@ -128,6 +115,28 @@ public class JavaLogFactory implements LogFactory {
 
     	/** Log the server ip? */
     	private static boolean logServerIP = ESAPI.securityConfiguration().getLogServerIP();
+
+    	/** Hand log events off to a background thread? */
+    	private static boolean logAsync = ESAPI.securityConfiguration().getLogAsynchronously();
+
+    	/** The app name and module name part of every log line -- /app/module */
+    	private final String appModuleInfo;
+
+    	/** Suppresses floods of the same message, if Logger.Suppression is enabled; otherwise null. */
+    	private final LogSuppressor suppressor;
+
+    	/** Flushes the handlers this logger publishes to, once per asynchronous batch. */
+    	private final Flushable handlers = new Flushable() {
+    		public void flush() {
+    			java.util.logging.Logger l = jlogger;
+    			while ( l != null ) {
+    				for ( Handler handler : l.getHandlers() ) {
+    					handler.flush();
+    				}
+    				l = l.getUseParentHandlers() ? l.getParent() : null;
+    			}
+    		}
+    	};
     	
         /**
          * Public constructor should only ever be called via the appropriate LogFactory
@@ -137,6 +146,12 @@ public class JavaLogFactory implements LogFactory {
         private JavaLogger(String moduleName) {
             this.moduleName = moduleName;
             this.jlogger = java.util.logging.Logger.getLogger(applicationName + ":" + moduleName);
+            this.appModuleInfo = ( logAppName ? "/" + applicationName : "" ) + "/" + moduleName;
+            this.suppressor = LogSuppressor.fromConfiguration(new LogSuppressor.SummaryLogger() {
+                public void logSummary(Object level, EventType type, String summary) {
+                    write((Level) level, type, summary, null);
+                }
+            });
         }
 
         /**
@@ -270,6 +285,148 @@ public class JavaLogFactory implements LogFactory {
             log(Level.SEVERE, type, message, null);
         }
 
+        /**
+    	* {@inheritDoc}
+    	*/
+        public void trace(EventType type, String format, Object arg, Object... moreArgs) {
+            logFormatted(Level.FINEST, type, format, arg, moreArgs);
+        }
+
+        /**
+    	* {@inheritDoc}
+    	*/
+        public void trace(EventType type, MessageSupplier message) {
+            logSupplied(Level.FINEST, type, message, null);
+        }
+
+        /**
+    	* {@inheritDoc}
+    	*/
+        public void trace(EventType type, MessageSupplier message, Throwable throwable) {
+            logSupplied(Level.FINEST, type, message, throwable);
+        }
+
+        /**
+    	* {@inheritDoc}
+    	*/
+        public void debug(EventType type, String format, Object arg, Object... moreArgs) {
+            logFormatted(Level.FINE, type, format, arg, moreArgs);
+        }
+
+        /**
+    	* {@inheritDoc}
+    	*/
+        public void debug(EventType type, MessageSupplier message) {
+            logSupplied(Level.FINE, type, message, null);
+        }
+
+        /**
+    	* {@inheritDoc}
+    	*/
+        public void debug(EventType type, MessageSupplier message, Throwable throwable) {
+            logSupplied(Level.FINE, type, message, throwable);
+        }
+
+        /**
+    	* {@inheritDoc}
+    	*/
+        public void info(EventType type, String format, Object arg, Object... moreArgs) {
+            logFormatted(Level.INFO, type, format, arg, moreArgs);
+        }
+
+        /**
+    	* {@inheritDoc}
+    	*/
+        public void info(EventType type, MessageSupplier message) {
+            logSupplied(Level.INFO, type, message, null);
+        }
+
+        /**
+    	* {@inheritDoc}
+    	*/
+        public void info(EventType type, MessageSupplier message, Throwable throwable) {
+            logSupplied(Level.INFO, type, message, throwable);
+        }
+
+        /**
+    	* {@inheritDoc}
+    	*/
+        public void warning(EventType type, String format, Object arg, Object... moreArgs) {
+            logFormatted(Level.WARNING, type, format, arg, moreArgs);
+        }
+
+        /**
+    	* {@inheritDoc}
+    	*/
+        public void warning(EventType type, MessageSupplier message) {
+            logSupplied(Level.WARNING, type, message, null);
+        }
+
+        /**
+    	* {@inheritDoc}
+    	*/
+        public void warning(EventType type, MessageSupplier message, Throwable throwable) {
+            logSupplied(Level.WARNING, type, message, throwable);
+        }
+
+        /**
+    	* {@inheritDoc}
+    	*/
+        public void error(EventType type, String format, Object arg, Object... moreArgs) {
+            logFormatted(Level.SEVERE, type, format, arg, moreArgs);
+        }
+
+        /**
+    	* {@inheritDoc}
+    	*/
+        public void error(EventType type, MessageSupplier message) {
+            logSupplied(Level.SEVERE, type, message, null);
+        }
+
+        /**
+    	* {@inheritDoc}
+    	*/
+        public void error(EventType type, MessageSupplier message, Throwable throwable) {
+            logSupplied(Level.SEVERE, type, message, throwable);
+        }
+
+        /**
+    	* {@inheritDoc}
+    	*/
+        public void fatal(EventType type, String format, Object arg, Object... moreArgs) {
+            logFormatted(Level.SEVERE, type, format, arg, moreArgs);
+        }
+
+        /**
+    	* {@inheritDoc}
+    	*/
+        public void fatal(EventType type, MessageSupplier message) {
+            logSupplied(Level.SEVERE, type, message, null);
+        }
+
+        /**
+    	* {@inheritDoc}
+    	*/
+        public void fatal(EventType type, MessageSupplier message, Throwable throwable) {
+            logSupplied(Level.SEVERE, type, message, throwable);
+        }
+
+        /**
+         * Format a parameterized message and log it, but only if the level is enabled.
+         */
+        private void logFormatted(Level level, EventType type, String format, Object arg, Object[] moreArgs) {
+            if (!jlogger.isLoggable( level ) || isSuppressed( level, type, format )) return;
+            write(level, type, LogMessages.format(format, arg, moreArgs), null);
+        }
+
+        /**
+         * Obtain a deferred message and log it, but only if the level is enabled.
+         */
+        private void logSupplied(Level level, EventType type, MessageSupplier message, Throwable throwable) {
+            if (!jlogger.isLoggable( level )) return;
+            log(level, type, message.get(), throwable);
+        }
+
         /**
          * Log the message after optionally encoding any special characters that might be dangerous when viewed
          * by an HTML based log viewer. Also encode any carriage returns and line feeds to prevent log 
@@ -289,6 +446,48 @@ public class JavaLogFactory implements LogFactory {
         	// Check to see if we need to log
         	if (!jlogger.isLoggable( level )) return;
 
+        	// Check whether this is one too many of the same message, unless it must always be logged
+        	if (level != Level.OFF && isSuppressed( level, type, message )) return;
+
+        	write(level, type, message, throwable);
+        }
+
+        /**
+         * @return true if the event is suppressed by {@code Logger.Suppression}.
+         */
+        private boolean isSuppressed(Level level, EventType type, String template) {
+        	return suppressor != null && !suppressor.allow( level, type, template );
+        }
+
+        /**
+         * Write an event that has passed the level and suppression checks.
+         */
+        private void write(Level level, EventType type, String message, Throwable throwable) {
+			// user, session and server -- worked out once per request
+			LogContext context = LogContext.current();
+			String serverInfo = logServerIP ? context.getServerInfo() : null;
+
+			if ( logAsync ) {
+				AsyncLogDispatcher.getInstance().dispatch(
+						new JavaLogEvent(this, level, type, message, throwable, context.getUserInfo(), serverInfo));
+				return;
+			}
+
+			// log the message
+			jlogger.log(level, format(type, message, context.getUserInfo(), serverInfo), throwable);
+        }
+
+        /**
+         * Build the log line for an event. Does not depend on any thread-local state, so that
+         * it may be called from the asynchronous log writer thread.
+         * 
+         * @param type the type of the event
+         * @param message the message
+         * @param userInfo the user information captured when the event was logged
+         * @param serverInfo the server address and port captured when the event was logged, or null
+         * @return The log line.
+         */
+        private String format(EventType type, String message, String userInfo, String serverInfo) {
             // ensure there's something to log
             if ( message == null ) {
             	message = "";
@@ -304,23 +503,62 @@ public class JavaLogFactory implements LogFactory {
             }
 
 			// log server, port, app name, module name -- server:80/app/module
-			StringBuilder appInfo = new StringBuilder();
-			if ( ESAPI.currentRequest() != null && logServerIP ) {
-				appInfo.append( ESAPI.currentRequest().getLocalAddr() + ":" + ESAPI.currentRequest().getLocalPort() );
-			}
-			if ( logAppName ) {
-				appInfo.append( "/" + applicationName );
-			}
-			appInfo.append( "/"  + moduleName );
-			
+			StringBuilder line = new StringBuilder( clean.length() + 128 );
+			line.append( '[' );
 			//get the type text if it exists
-			String typeInfo = "";
-			if (type != null) {
-				typeInfo += type + " ";
+			if ( type != null ) {
+				line.append( type ).append( ' ' );
 			}
-			
-			// log the message
-			jlogger.log(level, "[" + typeInfo + getUserInfo() + " -> " + appInfo + "] " + clean, throwable);
+			line.append( userInfo ).append( " -> " );
+			if ( serverInfo != null ) {
+				line.append( serverInfo );
+			}
+			line.append( appModuleInfo ).append( "] " ).append( clean );
+			return line.toString();
+        }
+
+        /**
+         * A log event captured on the calling thread, to be formatted and written by
+         * the {@link AsyncLogDispatcher}.
+         */
+        private static final class JavaLogEvent extends AsyncLogDispatcher.Event {
+        	private final JavaLogger logger;
+        	private final Level level;
+        	private final EventType type;
+        	private final String message;
+        	private final Throwable throwable;
+        	private final String userInfo;
+        	private final String serverInfo;
+        	private final long millis = System.currentTimeMillis();
+        	private final int threadID = (int) Thread.currentThread().getId();
+
+        	JavaLogEvent(JavaLogger logger, Level level, EventType type, String message, Throwable throwable,
+        				 String userInfo, String serverInfo) {
+        		super( level.intValue() < Level.INFO.intValue() );
+        		this.logger = logger;
+        		this.level = level;
+        		this.type = type;
+        		this.message = message;
+        		this.throwable = throwable;
+        		this.userInfo = userInfo;
+        		this.serverInfo = serverInfo;
+        	}
+
+        	void write() {
+        		LogRecord record = new LogRecord(level, logger.format(type, message, userInfo, serverInfo));
+        		record.setMillis(millis);
+        		record.setThreadID(threadID);
+        		record.setThrown(throwable);
+        		record.setLoggerName(logger.jlogger.getName());
+        		// Otherwise the source would be inferred from the writer thread's stack.
+        		record.setSourceClassName(JavaLogger.class.getName());
+        		record.setSourceMethodName("log");
+        		logger.jlogger.log(record);
+        	}
+
+        	Flushable flushTarget() {
+        		return logger.handlers;
+        	}
         }
 
         /**
@@ -365,31 +603,12 @@ public class JavaLogFactory implements LogFactory {
     	    return jlogger.isLoggable(Level.WARNING);
         }
         
+        /**
+         * @return The user information for the current request -- username:session@ipaddr
+         * @see LogContext
+         */
         public String getUserInfo() {
-            // create a random session number for the user to represent the user's 'session', if it doesn't exist already
-            String sid = null;
-            HttpServletRequest request = ESAPI.httpUtilities().getCurrentRequest();
-            if ( request != null ) {
-                HttpSession session = request.getSession( false );
-                if ( session != null ) {
-	                sid = (String)session.getAttribute("ESAPI_SESSION");
-	                // if there is no session ID for the user yet, we create one and store it in the user's session
-		            if ( sid == null ) {
-		            	sid = ""+ ESAPI.randomizer().getRandomInteger(0, 1000000);
-		            	session.setAttribute("ESAPI_SESSION", sid);
-		            }
-                }
-            }
-            
-			// log user information - username:session@ipaddr
-			User user = ESAPI.authenticator().getCurrentUser();            
-			String userInfo = "";
-			//TODO - Make Type Logging configurable
-			if ( user != null) {
-				userInfo += user.getAccountName()+ ":" + sid + "@"+ user.getLastHostAddress();
-			}
-			
-			return userInfo;
+            return LogContext.current().getUserInfo();
         }
 
     	/**
@@ -61,6 +61,13 @@ public class Log4JLogFactory implements LogFactory {
 	//The Log4j logger factory to use
 	LoggerFactory factory = new Log4JLoggerFactory();
 
+	//Caches the loggers so that repeat lookups don't go through the Log4J hierarchy, which locks
+	private final LoggerRegistry loggers = new LoggerRegistry(new LoggerRegistry.LoggerMaker() {
+		public Logger makeLogger(String name) {
+			return (Logger)LogManager.getLogger(name, factory);
+		}
+	});
+
     public static LogFactory getInstance() {
         if ( singletonInstance == null ) {
             synchronized ( Log4JLogFactory.class ) {
@@ -78,14 +85,14 @@ public class Log4JLogFactory implements LogFactory {
 	* {@inheritDoc}
 	*/
 	public org.owasp.esapi.Logger getLogger(Class clazz) {
-		return (org.owasp.esapi.Logger)LogManager.getLogger(clazz.getName(), factory);
+		return loggers.getLogger(clazz);
     }
 
     /**
 	* {@inheritDoc}
 	*/
 	public org.owasp.esapi.Logger getLogger(String moduleName) {
-		return (org.owasp.esapi.Logger)LogManager.getLogger(moduleName, factory);
+		return loggers.getLogger(moduleName);
     }
 
 }
\ No newline at end of file
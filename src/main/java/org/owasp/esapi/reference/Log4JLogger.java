@@ -15,15 +15,20 @@
  */
 package org.owasp.esapi.reference;
 
-import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpSession;
+import java.util.HashMap;
+import java.util.Map;
+
 import org.apache.log4j.Category;
 import org.apache.log4j.Level;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
+import org.apache.log4j.NDC;
+import org.apache.log4j.spi.LocationInfo;
 import org.apache.log4j.spi.LoggerFactory;
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.ThrowableInformation;
 import org.owasp.esapi.ESAPI;
-import org.owasp.esapi.User;
 
 /**
  * Reference implementation of the Logger interface. This implementation extends org.apache.log4j.Logger
@@ -49,8 +54,26 @@ public class Log4JLogger extends org.apache.log4j.Logger implements org.owasp.es
 	/** Log the server ip? */
 	private static boolean logServerIP = ESAPI.securityConfiguration().getLogServerIP();
 
+	/** Hand log events off to a background thread? */
+	private static boolean logAsync = ESAPI.securityConfiguration().getLogAsynchronously();
+
+	/** Fully qualified name of the class that log4j's {@code Category.log()} would record. */
+	private static final String FQCN = Category.class.getName();
+
+	/** The app name and module name part of every log line -- /app/module */
+	private final String appModuleInfo;
+
+	/** Suppresses floods of the same message, if Logger.Suppression is enabled; otherwise null. */
+	private final LogSuppressor suppressor;
+
 	public Log4JLogger(String name) {
 		super(name);
+		this.appModuleInfo = (logAppName ? "/" + applicationName : "") + "/" + name;
+		this.suppressor = LogSuppressor.fromConfiguration(new LogSuppressor.SummaryLogger() {
+			public void logSummary(Object level, EventType type, String summary) {
+				write((Level) level, type, summary, null);
+			}
+		});
 	}
 
 	/**
@@ -241,6 +264,152 @@ public class Log4JLogger extends org.apache.log4j.Logger implements org.owasp.es
 		log(Level.FATAL, type, message, null);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public void trace(EventType type, String format, Object arg, Object... moreArgs) {
+		logFormatted(Level.TRACE, type, format, arg, moreArgs);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void trace(EventType type, MessageSupplier message) {
+		logSupplied(Level.TRACE, type, message, null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void trace(EventType type, MessageSupplier message, Throwable throwable) {
+		logSupplied(Level.TRACE, type, message, throwable);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void debug(EventType type, String format, Object arg, Object... moreArgs) {
+		logFormatted(Level.DEBUG, type, format, arg, moreArgs);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void debug(EventType type, MessageSupplier message) {
+		logSupplied(Level.DEBUG, type, message, null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void debug(EventType type, MessageSupplier message, Throwable throwable) {
+		logSupplied(Level.DEBUG, type, message, throwable);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void info(EventType type, String format, Object arg, Object... moreArgs) {
+		logFormatted(Level.INFO, type, format, arg, moreArgs);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void info(EventType type, MessageSupplier message) {
+		logSupplied(Level.INFO, type, message, null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void info(EventType type, MessageSupplier message, Throwable throwable) {
+		logSupplied(Level.INFO, type, message, throwable);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void warning(EventType type, String format, Object arg, Object... moreArgs) {
+		logFormatted(Level.WARN, type, format, arg, moreArgs);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void warning(EventType type, MessageSupplier message) {
+		logSupplied(Level.WARN, type, message, null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void warning(EventType type, MessageSupplier message, Throwable throwable) {
+		logSupplied(Level.WARN, type, message, throwable);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void error(EventType type, String format, Object arg, Object... moreArgs) {
+		logFormatted(Level.ERROR, type, format, arg, moreArgs);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void error(EventType type, MessageSupplier message) {
+		logSupplied(Level.ERROR, type, message, null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void error(EventType type, MessageSupplier message, Throwable throwable) {
+		logSupplied(Level.ERROR, type, message, throwable);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void fatal(EventType type, String format, Object arg, Object... moreArgs) {
+		logFormatted(Level.FATAL, type, format, arg, moreArgs);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void fatal(EventType type, MessageSupplier message) {
+		logSupplied(Level.FATAL, type, message, null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void fatal(EventType type, MessageSupplier message, Throwable throwable) {
+		logSupplied(Level.FATAL, type, message, throwable);
+	}
+
+	/**
+	 * Format a parameterized message and log it, but only if the level is enabled.
+	 */
+	private void logFormatted(Level level, EventType type, String format, Object arg, Object[] moreArgs) {
+		if (!isEnabledFor(level) || isSuppressed(level, type, format)) {
+			return;
+		}
+		write(level, type, LogMessages.format(format, arg, moreArgs), null);
+	}
+
+	/**
+	 * Obtain a deferred message and log it, but only if the level is enabled.
+	 */
+	private void logSupplied(Level level, EventType type, MessageSupplier message, Throwable throwable) {
+		if (!isEnabledFor(level)) {
+			return;
+		}
+		log(level, type, message.get(), throwable);
+	}
+
 	/**
 	 * Always log the specified message as a {@code SECURITY_AUDIT} event type.
 	 * 
@@ -416,6 +585,50 @@ public class Log4JLogger extends org.apache.log4j.Logger implements org.owasp.es
 			return;
 		}
 
+		// Check whether this is one too many of the same message, unless it must always be logged.
+		if (level != Level.OFF && isSuppressed(level, type, message)) {
+			return;
+		}
+
+		write(level, type, message, throwable);
+	}
+
+	/**
+	 * @return true if the event is suppressed by {@code Logger.Suppression}.
+	 */
+	private boolean isSuppressed(Level level, EventType type, String template) {
+		return suppressor != null && !suppressor.allow(level, type, template);
+	}
+
+	/**
+	 * Write an event that has passed the level and suppression checks.
+	 */
+	private void write(Level level, EventType type, String message, Throwable throwable) {
+		// user, session and server -- worked out once per request
+		LogContext context = LogContext.current();
+		String serverInfo = logServerIP ? context.getServerInfo() : null;
+
+		if (logAsync) {
+			AsyncLogDispatcher.getInstance().dispatch(
+					new Log4JLogEvent(this, level, type, message, throwable, context.getUserInfo(), serverInfo));
+			return;
+		}
+
+		// log the message
+		log(level, format(type, message, context.getUserInfo(), serverInfo), throwable);
+	}
+
+	/**
+	 * Build the log line for an event. Does not depend on any thread-local state, so that
+	 * it may be called from the asynchronous log writer thread.
+	 *
+	 * @param type the type of the event
+	 * @param message the message to be logged
+	 * @param userInfo the user information captured when the event was logged
+	 * @param serverInfo the server address and port captured when the event was logged, or null
+	 * @return The log line.
+	 */
+	private String format(EventType type, String message, String userInfo, String serverInfo) {
 		// ensure there's something to log
 		if (message == null) {
 			message = "";
@@ -431,23 +644,59 @@ public class Log4JLogger extends org.apache.log4j.Logger implements org.owasp.es
 		}
 
 		// log server, port, app name, module name -- server:80/app/module
-		StringBuilder appInfo = new StringBuilder();
-		if (ESAPI.currentRequest() != null && logServerIP) {
-			appInfo.append(ESAPI.currentRequest().getLocalAddr()).append(":").append(ESAPI.currentRequest().getLocalPort());
-		}
-		if (logAppName) {
-			appInfo.append("/").append(applicationName);
-		}
-		appInfo.append("/").append(getName());
-
+		StringBuilder line = new StringBuilder(clean.length() + 128);
+		line.append('[');
 		//get the type text if it exists
-		String typeInfo = "";
 		if (type != null) {
-			typeInfo += type + " ";
+			line.append(type).append(' ');
+		}
+		line.append(userInfo).append(" -> ");
+		if (serverInfo != null) {
+			line.append(serverInfo);
+		}
+		line.append(appModuleInfo).append("] ").append(clean);
+		return line.toString();
+	}
+
+	/**
+	 * A log event captured on the calling thread, to be formatted and written by
+	 * the {@link AsyncLogDispatcher}. The thread name, NDC and MDC of the calling
+	 * thread are captured too, so layouts that use them still work.
+	 */
+	private static final class Log4JLogEvent extends AsyncLogDispatcher.Event {
+		private final Log4JLogger logger;
+		private final Level level;
+		private final EventType type;
+		private final String message;
+		private final Throwable throwable;
+		private final String userInfo;
+		private final String serverInfo;
+		private final long timeStamp = System.currentTimeMillis();
+		private final String threadName = Thread.currentThread().getName();
+		private final String ndc = NDC.get();
+		private final Map<?, ?> mdc;
+
+		Log4JLogEvent(Log4JLogger logger, Level level, EventType type, String message, Throwable throwable,
+					  String userInfo, String serverInfo) {
+			super(!level.isGreaterOrEqual(Level.INFO));
+			this.logger = logger;
+			this.level = level;
+			this.type = type;
+			this.message = message;
+			this.throwable = throwable;
+			this.userInfo = userInfo;
+			this.serverInfo = serverInfo;
+			Map<?, ?> context = MDC.getContext();
+			this.mdc = (context == null) ? null : new HashMap<Object, Object>(context);
 		}
 
-		// log the message
-		log(level, "[" + typeInfo + getUserInfo() + " -> " + appInfo + "] " + clean, throwable);
+		void write() {
+			String msg = logger.format(type, message, userInfo, serverInfo);
+			ThrowableInformation ti = (throwable == null) ? null : new ThrowableInformation(throwable);
+			// Location information would otherwise be taken from the writer thread's stack.
+			logger.callAppenders(new LoggingEvent(FQCN, logger, timeStamp, level, msg, threadName,
+												  ti, ndc, LocationInfo.NA_LOCATION_INFO, mdc));
+		}
 	}
 
 	/**
@@ -495,31 +744,12 @@ public class Log4JLogger extends org.apache.log4j.Logger implements org.owasp.es
 		return isEnabledFor(Level.WARN);
 	}
 
+	/**
+	 * @return The user information for the current request -- username:session@ipaddr
+	 * @see LogContext
+	 */
 	public String getUserInfo() {
-		// create a random session number for the user to represent the user's 'session', if it doesn't exist already
-		String sid = null;
-		HttpServletRequest request = ESAPI.httpUtilities().getCurrentRequest();
-		if (request != null) {
-			HttpSession session = request.getSession(false);
-			if (session != null) {
-				sid = (String) session.getAttribute("ESAPI_SESSION");
-				// if there is no session ID for the user yet, we create one and store it in the user's session
-				if (sid == null) {
-					sid = "" + ESAPI.randomizer().getRandomInteger(0, 1000000);
-					session.setAttribute("ESAPI_SESSION", sid);
-				}
-			}
-		}
-
-		// log user information - username:session@ipaddr
-		User user = ESAPI.authenticator().getCurrentUser();
-		String userInfo = "";
-		//TODO - make type logging configurable
-		if (user != null) {
-			userInfo += user.getAccountName() + ":" + sid + "@" + user.getLastHostAddress();
-		}
-
-		return userInfo;
+		return LogContext.current().getUserInfo();
 	}
 	
 }
\ No newline at end of file
@@ -0,0 +1,128 @@
+/**
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ *
+ * The ESAPI is published by OWASP under the BSD license. You should read and accept the
+ * LICENSE before you use, modify, and/or redistribute this software.
+ *
+ * @created 2014
+ */
+package org.owasp.esapi.reference;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+import org.owasp.esapi.ESAPI;
+import org.owasp.esapi.User;
+
+/**
+ * The user, session and server details that {@link JavaLogFactory} and
+ * {@link Log4JLogger} put at the start of every log line, e.g.,
+ * {@code jdoe:123456@10.1.2.3 -> 10.0.0.1:8080}. Working these out means
+ * looking up the current request, its session, the session's
+ * {@code ESAPI_SESSION} attribute and the current user, so it is done once
+ * per request, on the first log call, and then cached in a thread local.
+ * While the current request has no session yet, the context is not cached,
+ * so that log lines pick up the session as soon as one is created.
+ * <p>
+ * The cached context is discarded whenever the current request or user
+ * changes, i.e., by {@link DefaultHTTPUtilities#setCurrentHTTP},
+ * {@link DefaultHTTPUtilities#changeSessionIdentifier},
+ * {@link AbstractAuthenticator#setCurrentUser}, {@link DefaultUser#setLastHostAddress}
+ * and by the {@code clearCurrent()}
+ * methods called from {@link ESAPI#clearCurrent()}. Custom
+ * {@code HTTPUtilities} or {@code Authenticator} implementations that bind the
+ * request or user some other way should call {@link #invalidate()} as well.
+ *
+ * @since 2.1.1
+ */
+public final class LogContext {
+
+    /** Session attribute holding the random number that identifies the session in log lines. */
+    static final String SESSION_ATTRIBUTE = "ESAPI_SESSION";
+
+    private static final ThreadLocal<LogContext> current = new ThreadLocal<LogContext>();
+
+    private final String userInfo;
+    private final String serverInfo;
+    private final boolean cacheable;
+
+    private LogContext(String userInfo, String serverInfo, boolean cacheable) {
+        this.userInfo = userInfo;
+        this.serverInfo = serverInfo;
+        this.cacheable = cacheable;
+    }
+
+    /**
+     * @return The log context for the request and user bound to the current thread.
+     */
+    static LogContext current() {
+        LogContext context = current.get();
+        if ( context == null ) {
+            context = create();
+            if ( context.cacheable ) {
+                current.set(context);
+            }
+        }
+        return context;
+    }
+
+    /**
+     * Discard the cached log context of the current thread, so that it is
+     * worked out again on the next log call. Must be called whenever the
+     * current request, session or user changes.
+     */
+    public static void invalidate() {
+        current.remove();
+    }
+
+    /**
+     * @return The user information, {@code username:session@ipaddr}, or an
+     *         empty string if there is no current user.
+     */
+    String getUserInfo() {
+        return userInfo;
+    }
+
+    /**
+     * @return The local address and port of the current request, e.g.,
+     *         {@code 10.0.0.1:8080}, or {@code null} if there is no current request.
+     */
+    String getServerInfo() {
+        return serverInfo;
+    }
+
+    private static LogContext create() {
+        // create a random session number for the user to represent the user's 'session', if it doesn't exist already
+        String sid = null;
+        String serverInfo = null;
+        HttpServletRequest request = ESAPI.httpUtilities().getCurrentRequest();
+        if ( request != null ) {
+            HttpSession session = request.getSession( false );
+            if ( session != null ) {
+                sid = (String)session.getAttribute(SESSION_ATTRIBUTE);
+                // if there is no session ID for the user yet, we create one and store it in the user's session
+                if ( sid == null ) {
+                    sid = "" + ESAPI.randomizer().getRandomInteger(0, 1000000);
+                    session.setAttribute(SESSION_ATTRIBUTE, sid);
+                }
+            }
+            serverInfo = request.getLocalAddr() + ":" + request.getLocalPort();
+        }
+
+        // log user information - username:session@ipaddr
+        User user = ESAPI.authenticator().getCurrentUser();
+        String userInfo = "";
+        //TODO - Make Type Logging configurable
+        if ( user != null ) {
+            userInfo = user.getAccountName() + ":" + sid + "@" + user.getLastHostAddress();
+        }
+        // Until the request has a session, a later log call may find one.
+        return new LogContext(userInfo, serverInfo, request == null || sid != null);
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ *
+ * The ESAPI is published by OWASP under the BSD license. You should read and accept the
+ * LICENSE before you use, modify, and/or redistribute this software.
+ *
+ * @created 2014
+ */
+package org.owasp.esapi.reference;
+
+/**
+ * Builds the message for the parameterized logging methods of
+ * {@link org.owasp.esapi.Logger}, e.g.,
+ * {@code logger.debug(Logger.EVENT_SUCCESS, "Encrypting with {}", cipherSpec)}.
+ * Each {@code {}} in the format is replaced by the string value of the next
+ * argument. Surplus placeholders are left as is and surplus arguments are
+ * ignored. Unlike {@link java.text.MessageFormat}, single quotes have no special
+ * meaning, so messages such as "Can't find {}" work as expected.
+ */
+final class LogMessages {
+
+    private LogMessages() {
+        // Static utility class
+    }
+
+    /**
+     * @param format    The message, with a {@code {}} placeholder for each argument.
+     * @param arg       The first argument.
+     * @param moreArgs  Any further arguments; may be {@code null}.
+     * @return The formatted message.
+     */
+    static String format(String format, Object arg, Object[] moreArgs) {
+        if ( format == null ) {
+            return null;
+        }
+        int nArgs = 1 + (moreArgs == null ? 0 : moreArgs.length);
+        StringBuilder sb = new StringBuilder(format.length() + 16 * nArgs);
+        int from = 0;
+        for ( int i = 0; i < nArgs; i++ ) {
+            int at = format.indexOf("{}", from);
+            if ( at < 0 ) {
+                break;
+            }
+            sb.append(format, from, at);
+            sb.append(String.valueOf(i == 0 ? arg : moreArgs[i - 1]));
+            from = at + 2;
+        }
+        sb.append(format, from, format.length());
+        return sb.toString();
+    }
+}
@@ -0,0 +1,240 @@
+/**
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ *
+ * The ESAPI is published by OWASP under the BSD license. You should read and accept the
+ * LICENSE before you use, modify, and/or redistribute this software.
+ *
+ * @created 2014
+ */
+package org.owasp.esapi.reference;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.owasp.esapi.ESAPI;
+import org.owasp.esapi.Logger.EventType;
+import org.owasp.esapi.SecurityConfiguration;
+
+/**
+ * Keeps a flood of identical log events from turning log I/O into the
+ * bottleneck, e.g., thousands of "Multiple encoding detected" warnings a
+ * second while under attack. Used by {@link JavaLogFactory} and
+ * {@link Log4JLogger} when {@code Logger.Suppression=true} in
+ * {@code ESAPI.properties}.
+ * <p>
+ * Events are keyed by level, event type and message template. The template
+ * is the format of a parameterized message, e.g.,
+ * {@code "Multiple ({}x) encoding detected in {}"}, or otherwise the message
+ * itself. The first {@code Logger.Suppression.MaxPerWindow} events with the
+ * same key in each window of {@code Logger.Suppression.WindowSeconds} are
+ * logged; the rest are counted and reported in a single
+ * "Suppressed n occurrences" summary once the window is over. Summaries are
+ * written when the next event with that key arrives, or at the latest when
+ * the logger is next used after the window has passed.
+ * <p>
+ * At most {@value #MAX_TEMPLATES} templates are tracked per logger. Beyond
+ * that, say when an attacker varies the input that ends up in the message,
+ * events share one window per level and event type.
+ * <p>
+ * Counting is lock free, so under contention the limit is approximate by a
+ * few events around the window boundary.
+ */
+final class LogSuppressor {
+
+    /** Maximum number of distinct templates tracked before falling back to one window per level and type. */
+    static final int MAX_TEMPLATES = 1024;
+
+    /**
+     * Receives the summaries of suppressed events. They must be logged
+     * directly, not passed through the suppressor again.
+     */
+    interface SummaryLogger {
+        /**
+         * @param level     The level of the suppressed events, as passed to {@link LogSuppressor#allow}.
+         * @param type      The event type of the suppressed events.
+         * @param summary   The summary message.
+         */
+        void logSummary(Object level, EventType type, String summary);
+    }
+
+    private final int maxPerWindow;
+    private final long windowMillis;
+    private final SummaryLogger out;
+    private final ConcurrentMap<Key, Window> windows = new ConcurrentHashMap<Key, Window>();
+    private final AtomicLong nextSweep;
+
+    /**
+     * Create a suppressor with the settings in {@code ESAPI.properties}.
+     *
+     * @param out   Where to log the summaries.
+     * @return The suppressor, or {@code null} if {@code Logger.Suppression} is disabled.
+     */
+    static LogSuppressor fromConfiguration(SummaryLogger out) {
+        SecurityConfiguration config = ESAPI.securityConfiguration();
+        if ( ! config.getLogSuppression() ) {
+            return null;
+        }
+        return new LogSuppressor(config.getLogSuppressionMaxPerWindow(),
+                                 config.getLogSuppressionWindowSeconds() * 1000L, out);
+    }
+
+    /**
+     * @param maxPerWindow  Number of events with the same key that are logged per window.
+     * @param windowMillis  Length of the window.
+     * @param out           Where to log the summaries.
+     */
+    LogSuppressor(int maxPerWindow, long windowMillis, SummaryLogger out) {
+        if ( maxPerWindow < 1 || windowMillis < 1 ) {
+            throw new IllegalArgumentException("Log suppression limit and window must be positive: " +
+                                               maxPerWindow + " per " + windowMillis + "ms");
+        }
+        this.maxPerWindow = maxPerWindow;
+        this.windowMillis = windowMillis;
+        this.out = out;
+        this.nextSweep = new AtomicLong(System.currentTimeMillis() + windowMillis);
+    }
+
+    /**
+     * Count an event and decide whether it should be logged.
+     *
+     * @param level     The level of the event; any object with a sensible {@code equals()}.
+     * @param type      The event type.
+     * @param template  The message template.
+     * @return {@code true} if the event should be logged, {@code false} if it is suppressed.
+     */
+    boolean allow(Object level, EventType type, String template) {
+        return allow(level, type, template, System.currentTimeMillis());
+    }
+
+    /**
+     * As {@link #allow(Object, EventType, String)}, at the specified time.
+     */
+    boolean allow(Object level, EventType type, String template, long now) {
+        Window window = windowFor(new Key(level, type, template), now);
+        window.roll(now);
+        window.lastUsed = now;
+        boolean allowed = window.count.incrementAndGet() <= maxPerWindow;
+        if ( ! allowed ) {
+            window.suppressed.incrementAndGet();
+        }
+        long sweepAt = nextSweep.get();
+        if ( now >= sweepAt && nextSweep.compareAndSet(sweepAt, now + windowMillis) ) {
+            sweep(now);
+        }
+        return allowed;
+    }
+
+    /**
+     * @return The number of events counted as suppressed but not yet reported in a summary.
+     */
+    long getPendingSuppressedCount() {
+        long n = 0;
+        for ( Window window : windows.values() ) {
+            n += window.suppressed.get();
+        }
+        return n;
+    }
+
+    private Window windowFor(Key key, long now) {
+        Window window = windows.get(key);
+        if ( window == null ) {
+            if ( windows.size() >= MAX_TEMPLATES ) {
+                key = new Key(key.level, key.type, null);
+                window = windows.get(key);
+                if ( window != null ) {
+                    return window;
+                }
+            }
+            window = new Window(key, now);
+            Window existing = windows.putIfAbsent(key, window);
+            if ( existing != null ) {
+                window = existing;
+            }
+        }
+        return window;
+    }
+
+    /** Report windows that have ended and forget the ones that are no longer used. */
+    private void sweep(long now) {
+        Iterator<Window> it = windows.values().iterator();
+        while ( it.hasNext() ) {
+            Window window = it.next();
+            window.roll(now);
+            if ( now - window.lastUsed >= windowMillis && window.suppressed.get() == 0 ) {
+                windows.remove(window.key, window);
+            }
+        }
+    }
+
+    private final class Window {
+        final Key key;
+        final AtomicLong start;
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicLong suppressed = new AtomicLong();
+        volatile long lastUsed;
+
+        Window(Key key, long now) {
+            this.key = key;
+            this.start = new AtomicLong(now);
+            this.lastUsed = now;
+        }
+
+        /** Start a new window if this one has ended, reporting what it suppressed. */
+        void roll(long now) {
+            long began = start.get();
+            if ( now - began >= windowMillis && start.compareAndSet(began, now) ) {
+                count.set(0);
+                long n = suppressed.getAndSet(0);
+                if ( n > 0 ) {
+                    String what = ( key.template != null ) ? "\"" + key.template + "\"" : "other messages";
+                    out.logSummary(key.level, key.type, "Suppressed " + n + " occurrences of " + what +
+                                   " in the last " + (now - began) / 1000 + " seconds");
+                }
+            }
+        }
+    }
+
+    private static final class Key {
+        final Object level;
+        final EventType type;
+        final String template;
+        private final int hash;
+
+        Key(Object level, EventType type, String template) {
+            this.level = level;
+            this.type = type;
+            this.template = template;
+            int h = ( level == null ) ? 0 : level.hashCode();
+            h = 31 * h + ( type == null ? 0 : type.hashCode() );
+            h = 31 * h + ( template == null ? 0 : template.hashCode() );
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if ( ! (o instanceof Key) ) {
+                return false;
+            }
+            Key k = (Key) o;
+            return hash == k.hash && eq(level, k.level) && eq(type, k.type) && eq(template, k.template);
+        }
+
+        private static boolean eq(Object a, Object b) {
+            return ( a == null ) ? b == null : a.equals(b);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ *
+ * The ESAPI is published by OWASP under the BSD license. You should read and accept the
+ * LICENSE before you use, modify, and/or redistribute this software.
+ *
+ * @created 2014
+ */
+package org.owasp.esapi.reference;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.owasp.esapi.Logger;
+
+/**
+ * A thread safe cache of the loggers handed out by a {@link org.owasp.esapi.LogFactory},
+ * used by {@link JavaLogFactory} and {@link Log4JLogFactory}. Loggers are
+ * typically looked up from static initializers and constructors on many
+ * threads at once, so lookups of an existing logger take no locks and
+ * allocate nothing.
+ * <p>
+ * Loggers are keyed by name only. A logger for a class is the logger for that
+ * class's name, so the registry never holds a reference to an application
+ * class, which would keep its class loader alive after a redeploy.
+ * If two threads race to create the same logger, both may create one, but only
+ * the first to be registered is ever returned.
+ */
+final class LoggerRegistry {
+
+    /**
+     * Creates the logger for a name that has not been seen before.
+     */
+    interface LoggerMaker {
+        /**
+         * @param name The module or class name.
+         * @return A new logger for that name.
+         */
+        Logger makeLogger(String name);
+    }
+
+    private final LoggerMaker maker;
+    private final ConcurrentMap<String, Logger> moduleLoggers = new ConcurrentHashMap<String, Logger>();
+
+    /**
+     * @param maker Creates the loggers on first use.
+     */
+    LoggerRegistry(LoggerMaker maker) {
+        this.maker = maker;
+    }
+
+    /**
+     * @param clazz The class to get the logger for.
+     * @return The existing logger for the class, or a newly registered one.
+     */
+    Logger getLogger(Class<?> clazz) {
+        return getLogger(clazz.getName());
+    }
+
+    /**
+     * @param moduleName The module to get the logger for.
+     * @return The existing logger for the module, or a newly registered one.
+     */
+    Logger getLogger(String moduleName) {
+        Logger logger = moduleLoggers.get(moduleName);
+        if ( logger == null ) {
+            Logger made = maker.makeLogger(moduleName);
+            logger = moduleLoggers.putIfAbsent(moduleName, made);
+            if ( logger == null ) {
+                logger = made;
+            }
+        }
+        return logger;
+    }
+}
@@ -0,0 +1,297 @@
+/**
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ *
+ * The ESAPI is published by OWASP under the BSD license. You should read and accept the
+ * LICENSE before you use, modify, and/or redistribute this software.
+ *
+ * @created 2014
+ */
+package org.owasp.esapi.reference;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.security.SecureRandom;
+
+import org.owasp.esapi.ESAPI;
+import org.owasp.esapi.SecurityConfiguration;
+import org.owasp.esapi.errors.ConfigurationException;
+
+/**
+ * A {@link org.owasp.esapi.CounterStore} kept in a memory mapped file, so that
+ * every JVM on the host that maps the same file shares the same counters, with
+ * no network round trip. Set {@code ESAPI.CounterStore} to this class and
+ * point {@code CounterStore.File} at the same file in each JVM.
+ * <p>
+ * The file holds a small header followed by the fixed size slots described in
+ * {@link SlotCounterStore}. Slot words are updated with the processor's atomic
+ * compare-and-swap directly on the shared memory, through
+ * {@code sun.misc.Unsafe}, which is looked up reflectively so that the code
+ * does not depend on it. On a JVM without it, updates fall back to a lock on
+ * the store combined with a {@link FileLock} on the word, which is much slower.
+ * The two don't exclude each other, so every JVM sharing a file must update it
+ * the same way: the header records the way of the JVM that created the file,
+ * and a JVM that would update it the other way refuses to open it.
+ * <p>
+ * The file is created, with {@code CounterStore.Slots} slots, by the first JVM
+ * to open it; the others use the size recorded in its header. The header also
+ * holds the secret key of the slot fingerprints, so the file is created
+ * readable only by its owner; JVMs running as other users need to be given
+ * access to it explicitly. Counts survive
+ * restarts as long as the file does, which is harmless since they expire with
+ * their interval. Delete the file while no JVM is using it to change its size.
+ *
+ * @since 2.1.1
+ */
+public class MappedFileCounterStore extends SlotCounterStore {
+
+    private static final long MAGIC = 0x4553415049434e54L;     // "ESAPICNT"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+
+    /** Ways of updating the slots, as recorded in the header. */
+    private static final int UPDATE_CAS = 1;
+    private static final int UPDATE_LOCK = 2;
+
+    /** The sun.misc.Unsafe instance, or null if it is not available. */
+    private static final Object unsafe;
+    private static final Method getLongVolatile;
+    private static final Method putLongVolatile;
+    private static final Method compareAndSwapLong;
+    private static final long addressOffset;
+
+    static {
+        Object u = null;
+        Method get = null;
+        Method put = null;
+        Method cas = null;
+        long offset = -1;
+        try {
+            Class<?> c = Class.forName("sun.misc.Unsafe");
+            Field f = c.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            u = f.get(null);
+            get = c.getMethod("getLongVolatile", Object.class, long.class);
+            put = c.getMethod("putLongVolatile", Object.class, long.class, long.class);
+            cas = c.getMethod("compareAndSwapLong", Object.class, long.class, long.class, long.class);
+            offset = ((Long) c.getMethod("objectFieldOffset", Field.class)
+                                .invoke(u, Buffer.class.getDeclaredField("address"))).longValue();
+        } catch (Throwable t) {
+            u = null;   // Use the locking fallback
+        }
+        unsafe = u;
+        getLongVolatile = get;
+        putLongVolatile = put;
+        compareAndSwapLong = cas;
+        addressOffset = offset;
+    }
+
+    private static Object invokeUnsafe(Method method, Object... args) {
+        try {
+            return method.invoke(unsafe, args);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static int updateMode() {
+        return ( unsafe == null ) ? UPDATE_LOCK : UPDATE_CAS;
+    }
+
+    private static volatile MappedFileCounterStore singletonInstance;
+
+    /**
+     * @return The shared store, using the file and size in {@code ESAPI.properties}.
+     */
+    public static MappedFileCounterStore getInstance() {
+        if ( singletonInstance == null ) {
+            synchronized ( MappedFileCounterStore.class ) {
+                if ( singletonInstance == null ) {
+                    SecurityConfiguration config = ESAPI.securityConfiguration();
+                    File file = new File(config.getCounterStoreFile());
+                    try {
+                        singletonInstance = new MappedFileCounterStore(file, config.getCounterStoreSlots());
+                    } catch (IOException e) {
+                        throw new ConfigurationException("Unable to open counter store " + file, e);
+                    }
+                }
+            }
+        }
+        return singletonInstance;
+    }
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final long address;
+
+    /**
+     * Open the store in a file, creating the file if it does not exist yet.
+     *
+     * @param file  The file shared by the JVMs.
+     * @param slots The number of slots to create the file with; ignored if it already exists.
+     * @throws IOException if the file can't be created, read or mapped, or is not a counter store.
+     */
+    public MappedFileCounterStore(File file, int slots) throws IOException {
+        this(file, open(file, slotCount(slots)));
+    }
+
+    private MappedFileCounterStore(File file, RandomAccessFile raf) throws IOException {
+        this(file, raf, readHeader(file, raf));
+    }
+
+    private MappedFileCounterStore(File file, RandomAccessFile raf, Header header) throws IOException {
+        super(header.slots, header.k0, header.k1);
+        this.file = file;
+        this.raf = raf;
+        this.channel = raf.getChannel();
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                                  HEADER_SIZE + (long) getSlotCount() * WORDS_PER_SLOT * 8);
+        // Native order, so that the fallback and Unsafe see the same values.
+        this.buffer.order(ByteOrder.nativeOrder());
+        this.address = ( unsafe == null ) ? 0 :
+            ((Long) invokeUnsafe(getLongVolatile, buffer, addressOffset)).longValue() + HEADER_SIZE;
+    }
+
+    private static RandomAccessFile open(File file, int slots) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            // The class lock keeps this JVM from taking two overlapping file locks.
+            synchronized ( MappedFileCounterStore.class ) {
+                FileLock lock = raf.getChannel().lock(0, HEADER_SIZE, false);
+                try {
+                    if ( raf.length() == 0 ) {
+                        // Restrict the file before the key is written to it
+                        file.setReadable(false, false);
+                        file.setWritable(false, false);
+                        file.setReadable(true, true);
+                        file.setWritable(true, true);
+                        SecureRandom random = new SecureRandom();
+                        raf.setLength(HEADER_SIZE + (long) slots * WORDS_PER_SLOT * 8);
+                        raf.seek(0);
+                        raf.writeLong(MAGIC);
+                        raf.writeInt(VERSION);
+                        raf.writeInt(slots);
+                        raf.writeLong(random.nextLong());
+                        raf.writeLong(random.nextLong());
+                        raf.writeInt(updateMode());
+                    }
+                } finally {
+                    lock.release();
+                }
+            }
+            return raf;
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    private static Header readHeader(File file, RandomAccessFile raf) throws IOException {
+        raf.seek(0);
+        if ( raf.length() < HEADER_SIZE || raf.readLong() != MAGIC ) {
+            raf.close();
+            throw new IOException(file + " is not an ESAPI counter store");
+        }
+        if ( raf.readInt() != VERSION ) {
+            raf.close();
+            throw new IOException(file + " was created by another version of ESAPI; delete it while no JVM is using it");
+        }
+        Header header = new Header();
+        header.slots = raf.readInt();
+        header.k0 = raf.readLong();
+        header.k1 = raf.readLong();
+        int mode = raf.readInt();
+        if ( raf.length() < HEADER_SIZE + (long) header.slots * WORDS_PER_SLOT * 8 ) {
+            raf.close();
+            throw new IOException(file + " is truncated");
+        }
+        if ( mode != updateMode() ) {
+            raf.close();
+            throw new IOException(file + " is updated with " + ( mode == UPDATE_CAS ? "sun.misc.Unsafe" : "file locks" ) +
+                                  ", which this JVM can't interoperate with");
+        }
+        return header;
+    }
+
+    private static final class Header {
+        int slots;
+        long k0;
+        long k1;
+    }
+
+    /**
+     * @return The file the counters are kept in.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Close the file. The store must not be used afterwards.
+     *
+     * @throws IOException if closing the file fails.
+     */
+    public void close() throws IOException {
+        raf.close();
+    }
+
+    long get(int word) {
+        if ( unsafe != null ) {
+            return ((Long) invokeUnsafe(getLongVolatile, null, address + word * 8L)).longValue();
+        }
+        synchronized ( this ) {
+            return buffer.getLong(HEADER_SIZE + word * 8);
+        }
+    }
+
+    boolean compareAndSet(int word, long expect, long update) {
+        if ( unsafe != null ) {
+            return ((Boolean) invokeUnsafe(compareAndSwapLong, null, address + word * 8L, expect, update)).booleanValue();
+        }
+        int position = HEADER_SIZE + word * 8;
+        synchronized ( this ) {
+            try {
+                FileLock lock = channel.lock(position, 8, false);
+                try {
+                    if ( buffer.getLong(position) != expect ) {
+                        return false;
+                    }
+                    buffer.putLong(position, update);
+                    return true;
+                } finally {
+                    lock.release();
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to lock counter store " + file, e);
+            }
+        }
+    }
+
+    void set(int word, long value) {
+        if ( unsafe != null ) {
+            invokeUnsafe(putLongVolatile, null, address + word * 8L, value);
+            return;
+        }
+        synchronized ( this ) {
+            buffer.putLong(HEADER_SIZE + word * 8, value);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/**
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ *
+ * The ESAPI is published by OWASP under the BSD license. You should read and accept the
+ * LICENSE before you use, modify, and/or redistribute this software.
+ *
+ * @created 2014
+ */
+package org.owasp.esapi.reference;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.owasp.esapi.ESAPI;
+import org.owasp.esapi.errors.AvailabilityException;
+import org.owasp.esapi.errors.EncryptionException;
+import org.owasp.esapi.util.DaemonThreadFactory;
+
+/**
+ * Hashes passwords on a small, dedicated pool of threads, so that a burst of
+ * logins, such as a credential stuffing attack, can only keep that many
+ * processors busy with the deliberately slow password hash, instead of every
+ * thread of the servlet container. The authenticators hash passwords with
+ * {@link #hash(String, String)} through
+ * {@link AbstractAuthenticator#hashPassword(String, String)}.
+ * <p>
+ * The pool has {@code Authenticator.HashThreads} threads, and up to
+ * {@code Authenticator.HashQueueSize} passwords may wait for one of them. When
+ * the queue is full, hashing fails at once with an {@link EncryptionException}
+ * caused by an {@link AvailabilityException}, which the authenticators turn
+ * into a failed login that does not count against the user. With
+ * {@code Authenticator.HashThreads=0}, the default, passwords are hashed on
+ * the calling thread as before, but are still measured.
+ * <p>
+ * The getters report how many passwords were hashed or rejected, and how long
+ * they waited in the queue and took to hash, e.g., to be exported through
+ * JMX.
+ *
+ * @since 2.1.1
+ */
+public final class PasswordHashExecutor {
+
+    private static volatile PasswordHashExecutor singletonInstance;
+
+    /**
+     * @return The shared executor, using the settings from {@code ESAPI.properties}.
+     */
+    public static PasswordHashExecutor getInstance() {
+        if ( singletonInstance == null ) {
+            synchronized ( PasswordHashExecutor.class ) {
+                if ( singletonInstance == null ) {
+                    singletonInstance = new PasswordHashExecutor(ESAPI.securityConfiguration().getPasswordHashThreads(),
+                                                                 ESAPI.securityConfiguration().getPasswordHashQueueSize());
+                }
+            }
+        }
+        return singletonInstance;
+    }
+
+    private final ThreadPoolExecutor executor;    // null to hash on the calling thread
+    private final int queueSize;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong totalHashNanos = new AtomicLong();
+    private final AtomicLong maxHashNanos = new AtomicLong();
+
+    /**
+     * @param threads   The number of hashing threads, or 0 to hash on the calling thread.
+     * @param queueSize The number of passwords that may wait for a thread.
+     * @throws IllegalArgumentException if a size is negative, or the queue size is not positive while there are threads.
+     */
+    PasswordHashExecutor(int threads, int queueSize) {
+        if ( threads < 0 || (threads > 0 && queueSize < 1) ) {
+            throw new IllegalArgumentException("Password hash threads must not be negative and queue size must be positive, were: "
+                                               + threads + ", " + queueSize);
+        }
+        this.queueSize = queueSize;
+        if ( threads == 0 ) {
+            this.executor = null;
+            return;
+        }
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(queueSize),
+            new DaemonThreadFactory("ESAPI-PasswordHash"),
+            new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Hash a password with {@link org.owasp.esapi.Encryptor#hash(String, String)}.
+     *
+     * @param password The password.
+     * @param salt     The salt.
+     * @return The hash.
+     * @throws EncryptionException if hashing fails, or, caused by an
+     *         {@link AvailabilityException}, if too many passwords are waiting to be hashed.
+     */
+    public String hash(final String password, final String salt) throws EncryptionException {
+        return execute(new Callable<String>() {
+            public String call() throws EncryptionException {
+                return ESAPI.encryptor().hash(password, salt);
+            }
+        });
+    }
+
+    /**
+     * Run a task on a hashing thread and wait for its result.
+     */
+    <T> T execute(final Callable<T> task) throws EncryptionException {
+        final long queued = System.nanoTime();
+        Callable<T> timed = new Callable<T>() {
+            public T call() throws Exception {
+                long started = System.nanoTime();
+                record(totalWaitNanos, maxWaitNanos, started - queued);
+                try {
+                    return task.call();
+                } finally {
+                    record(totalHashNanos, maxHashNanos, System.nanoTime() - started);
+                    completed.incrementAndGet();
+                }
+            }
+        };
+        try {
+            if ( executor == null ) {
+                return timed.call();
+            }
+            Future<T> future;
+            try {
+                future = executor.submit(timed);
+            } catch (RejectedExecutionException e) {
+                rejected.incrementAndGet();
+                throw new EncryptionException("Service unavailable, please try again later",
+                    "Password hashing rejected, " + executor.getQueue().size() + " passwords already waiting",
+                    new AvailabilityException("Service unavailable, please try again later", "Password hash queue is full", e));
+            }
+            return future.get();
+        } catch (ExecutionException e) {
+            return this.<T>rethrow(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EncryptionException("Service unavailable, please try again later",
+                "Interrupted while waiting for a password hash",
+                new AvailabilityException("Service unavailable, please try again later", "Interrupted", e));
+        } catch (EncryptionException e) {
+            throw e;
+        } catch (Exception e) {
+            return this.<T>rethrow(e);
+        }
+    }
+
+    private <T> T rethrow(Throwable cause) throws EncryptionException {
+        if ( cause instanceof EncryptionException ) {
+            throw (EncryptionException) cause;
+        }
+        if ( cause instanceof RuntimeException ) {
+            throw (RuntimeException) cause;
+        }
+        if ( cause instanceof Error ) {
+            throw (Error) cause;
+        }
+        throw new EncryptionException("Encryption failure", "Password hashing failed", cause);
+    }
+
+    private static void record(AtomicLong total, AtomicLong max, long nanos) {
+        total.addAndGet(nanos);
+        long current;
+        while ( nanos > (current = max.get()) && !max.compareAndSet(current, nanos) ) {
+            // retry
+        }
+    }
+
+    /**
+     * Stop the hashing threads. Passwords already queued are still hashed.
+     */
+    public void shutdown() {
+        if ( executor != null ) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * @return The number of hashing threads, or 0 if passwords are hashed on the calling thread.
+     */
+    public int getThreads() {
+        return ( executor == null ) ? 0 : executor.getMaximumPoolSize();
+    }
+
+    /**
+     * @return The number of passwords that may wait for a hashing thread.
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * @return The number of passwords waiting for a hashing thread.
+     */
+    public int getPendingCount() {
+        return ( executor == null ) ? 0 : executor.getQueue().size();
+    }
+
+    /**
+     * @return The number of passwords hashed, successfully or not.
+     */
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * @return The number of passwords rejected because too many were waiting.
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return The average time, in milliseconds, a password waited for a hashing thread.
+     */
+    public double getAverageQueueWaitMillis() {
+        return average(totalWaitNanos);
+    }
+
+    /**
+     * @return The longest time, in milliseconds, a password waited for a hashing thread.
+     */
+    public double getMaxQueueWaitMillis() {
+        return maxWaitNanos.get() / 1e6;
+    }
+
+    /**
+     * @return The average time, in milliseconds, hashing a password took.
+     */
+    public double getAverageHashMillis() {
+        return average(totalHashNanos);
+    }
+
+    /**
+     * @return The longest time, in milliseconds, hashing a password took.
+     */
+    public double getMaxHashMillis() {
+        return maxHashNanos.get() / 1e6;
+    }
+
+    private double average(AtomicLong totalNanos) {
+        long count = completed.get();
+        return ( count == 0 ) ? 0 : totalNanos.get() / 1e6 / count;
+    }
+}
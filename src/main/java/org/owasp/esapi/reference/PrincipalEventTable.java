@@ -0,0 +1,154 @@
+/**
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ *
+ * The ESAPI is published by OWASP under the BSD license. You should read and accept the
+ * LICENSE before you use, modify, and/or redistribute this software.
+ *
+ * @created 2014
+ */
+package org.owasp.esapi.reference;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.owasp.esapi.ESAPI;
+import org.owasp.esapi.SecurityConfiguration;
+
+/**
+ * The {@link EventCounter}s that {@link DefaultIntrusionDetector} keeps for
+ * principals other than logged in users, e.g., the client IP address of
+ * anonymous requests. Logged in users keep their counters in their own
+ * {@link org.owasp.esapi.User#getEventMap() event map}, but there is no such
+ * place for anonymous traffic, which is where most attacks come from.
+ * <p>
+ * An attacker controls how many distinct principals there are, so the table
+ * is bounded. It is split into independently locked shards, each a least
+ * recently used map. Counters that have not been used for
+ * {@code IntrusionDetector.PrincipalTable.IdleSeconds} are evicted as new ones
+ * are added; if a shard is full of active counters, its least recently used
+ * counter is evicted regardless. The idle time should therefore be at least
+ * as long as the longest threshold interval.
+ *
+ * @since 2.1.1
+ */
+final class PrincipalEventTable {
+
+    private static final int SHARDS = 64;
+
+    private static volatile PrincipalEventTable singletonInstance;
+
+    /**
+     * @return The shared table, sized according to {@code ESAPI.properties}.
+     */
+    static PrincipalEventTable getInstance() {
+        if ( singletonInstance == null ) {
+            synchronized ( PrincipalEventTable.class ) {
+                if ( singletonInstance == null ) {
+                    SecurityConfiguration config = ESAPI.securityConfiguration();
+                    singletonInstance = new PrincipalEventTable(config.getIntrusionDetectionMaxPrincipals(),
+                            config.getIntrusionDetectionPrincipalIdleSeconds() * 1000L);
+                }
+            }
+        }
+        return singletonInstance;
+    }
+
+    private final Shard[] shards = new Shard[SHARDS];
+    private final long idleMillis;
+
+    /**
+     * @param maxEntries    Maximum number of (principal, event) counters kept.
+     * @param idleMillis    How long an unused counter is kept, in milliseconds.
+     */
+    PrincipalEventTable(int maxEntries, long idleMillis) {
+        if ( maxEntries < 1 || idleMillis < 1 ) {
+            throw new IllegalArgumentException("Principal event table size and idle time must be positive: " +
+                                               maxEntries + ", " + idleMillis + "ms");
+        }
+        this.idleMillis = idleMillis;
+        int perShard = (maxEntries + SHARDS - 1) / SHARDS;
+        for ( int i = 0; i < SHARDS; i++ ) {
+            shards[i] = new Shard(perShard);
+        }
+    }
+
+    /**
+     * Gets the counter for an event caused by a principal, creating it if needed.
+     *
+     * @param principal The principal, e.g., {@code ip:10.1.2.3}.
+     * @param eventName The name of the event.
+     * @param count     The threshold count for the event.
+     * @param now       The current time, in milliseconds.
+     * @return The counter.
+     */
+    EventCounter getCounter(String principal, String eventName, int count, long now) {
+        String key = principal + '\u0000' + eventName;
+        Shard shard = shards[spread(key.hashCode()) & (SHARDS - 1)];
+        synchronized ( shard ) {
+            Entry entry = shard.get(key);
+            if ( entry == null || entry.counter.getCapacity() != count ) {
+                entry = new Entry(new EventCounter(eventName, count));
+                entry.lastUsed = now;
+                shard.now = now;
+                shard.put(key, entry);
+            } else {
+                entry.lastUsed = now;
+            }
+            return entry.counter;
+        }
+    }
+
+    /**
+     * @return The number of counters currently kept.
+     */
+    int size() {
+        int n = 0;
+        for ( Shard shard : shards ) {
+            synchronized ( shard ) {
+                n += shard.size();
+            }
+        }
+        return n;
+    }
+
+    private static int spread(int h) {
+        // Principals such as IP addresses differ mostly in their last few characters.
+        h ^= (h >>> 16);
+        return h ^ (h >>> 8);
+    }
+
+    private static final class Entry {
+        final EventCounter counter;
+        long lastUsed;
+
+        Entry(EventCounter counter) {
+            this.counter = counter;
+        }
+    }
+
+    private final class Shard extends LinkedHashMap<String, Entry> {
+        private static final long serialVersionUID = 1L;
+        private final int maxEntries;
+        long now;   // Time of the current insertion, for removeEldestEntry()
+
+        Shard(int maxEntries) {
+            super(16, 0.75f, true);     // Access order, so the eldest entry is the least recently used
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if ( size() > maxEntries ) {
+                return true;
+            }
+            // Evict one idle counter per insertion, which keeps up with the rate they are added.
+            return now - eldest.getValue().lastUsed >= idleMillis;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/**
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ *
+ * The ESAPI is published by OWASP under the BSD license. You should read and accept the
+ * LICENSE before you use, modify, and/or redistribute this software.
+ *
+ * @created 2014
+ */
+package org.owasp.esapi.reference;
+
+import org.owasp.esapi.CounterStore;
+
+/**
+ * A {@link CounterStore} kept in a fixed size table of slots, each made of
+ * three 64 bit words that are only ever updated with compare-and-set. The
+ * words can live on the heap ({@link InMemoryCounterStore}) or in memory
+ * shared between processes ({@link MappedFileCounterStore}), since no locks
+ * or object references are involved.
+ * <p>
+ * A slot holds the 64 bit fingerprint of its key, the counter state and the
+ * time it was last used. Fingerprints are SipHash-2-4 with a secret random key
+ * per store, so that whoever picks the keys being counted, e.g., client
+ * addresses, cannot pick two that share a slot and a count. The state packs the start of the current fixed
+ * window (in seconds), the count for the current window and the count for the
+ * previous window into one word, so that rolling over to a new window and
+ * counting an event are a single atomic update. The sliding window count is
+ * estimated as the current count plus the previous count weighted by how much
+ * of the previous window still falls within the interval, which may count
+ * events that were before the interval. The minimum count is therefore only
+ * the count for the current window. Counts saturate at {@value #MAX_COUNT}.
+ * <p>
+ * A key may be stored in any of {@value #MAX_PROBES} slots starting at its
+ * hash. When they are all taken by other keys, the least recently used of
+ * them is given to the new key, so the table never grows and keys that are no
+ * longer used are forgotten. Counts may be slightly off while a slot is being
+ * handed over; that is harmless for thresholds.
+ *
+ * @since 2.1.1
+ */
+abstract class SlotCounterStore implements CounterStore {
+
+    /** Number of 64 bit words in a slot. */
+    static final int WORDS_PER_SLOT = 3;
+
+    /** Number of slots a key may be stored in. */
+    static final int MAX_PROBES = 8;
+
+    /** Largest count a window can hold. */
+    static final int MAX_COUNT = 0xFFFF;
+
+    /** Largest number of slots. */
+    static final int MAX_SLOTS = 1 << 26;
+
+    private static final int FINGERPRINT = 0;
+    private static final int STATE = 1;
+    private static final int LAST_USED = 2;
+
+    private final int slots;
+    private final int mask;
+    private final long k0;
+    private final long k1;
+
+    /**
+     * @param slots The number of slots; must be a power of 2, see {@link #slotCount(int)}.
+     * @param k0    The first half of the secret fingerprint key.
+     * @param k1    The second half of the secret fingerprint key.
+     */
+    SlotCounterStore(int slots, long k0, long k1) {
+        if ( slots < MAX_PROBES || slots > MAX_SLOTS || Integer.bitCount(slots) != 1 ) {
+            throw new IllegalArgumentException("Counter store slot count must be a power of 2 between " +
+                                               MAX_PROBES + " and " + MAX_SLOTS + ", was: " + slots);
+        }
+        this.slots = slots;
+        this.mask = slots - 1;
+        this.k0 = k0;
+        this.k1 = k1;
+    }
+
+    /**
+     * @param requested The requested number of slots.
+     * @return The requested number rounded up to a valid slot count.
+     * @throws IllegalArgumentException if the requested number is not positive or too large.
+     */
+    static int slotCount(int requested) {
+        if ( requested < 1 || requested > MAX_SLOTS ) {
+            throw new IllegalArgumentException("Counter store size must be between 1 and " + MAX_SLOTS +
+                                               ", was: " + requested);
+        }
+        return Math.max(MAX_PROBES, Integer.highestOneBit(requested - 1) << 1);
+    }
+
+    /** @return The value of a word. */
+    abstract long get(int word);
+
+    /** Atomically set a word to {@code update} if it currently holds {@code expect}. */
+    abstract boolean compareAndSet(int word, long expect, long update);
+
+    /** Set the value of a word. */
+    abstract void set(int word, long value);
+
+    /**
+     * @return The number of slots, i.e., the number of keys that can be counted at once.
+     */
+    public int getSlotCount() {
+        return slots;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int increment(String key, long intervalMillis, long now) {
+        checkInterval(intervalMillis);
+        int base = claimSlot(fingerprint(key), now) * WORDS_PER_SLOT;
+        for ( ;; ) {
+            long state = get(base + STATE);
+            long next = roll(state, intervalMillis, now);
+            if ( current(next) < MAX_COUNT ) {
+                next += 1L << 16;
+            }
+            if ( compareAndSet(base + STATE, state, next) ) {
+                set(base + LAST_USED, now);
+                return estimate(next, intervalMillis, now);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getCount(String key, long intervalMillis, long now) {
+        checkInterval(intervalMillis);
+        int slot = findSlot(fingerprint(key));
+        if ( slot < 0 ) {
+            return 0;
+        }
+        return estimate(roll(get(slot * WORDS_PER_SLOT + STATE), intervalMillis, now), intervalMillis, now);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation returns the count for the current fixed window,
+     * every event of which is within the interval.
+     */
+    public int getMinimumCount(String key, long intervalMillis, long now) {
+        checkInterval(intervalMillis);
+        int slot = findSlot(fingerprint(key));
+        if ( slot < 0 ) {
+            return 0;
+        }
+        return current(roll(get(slot * WORDS_PER_SLOT + STATE), intervalMillis, now));
+    }
+
+    private static void checkInterval(long intervalMillis) {
+        // Window starts are kept in seconds, so shorter windows can't be told apart.
+        if ( intervalMillis < 1000 ) {
+            throw new IllegalArgumentException("Counter interval must be at least 1000ms, was: " + intervalMillis);
+        }
+    }
+
+    private int findSlot(long fingerprint) {
+        int start = index(fingerprint);
+        for ( int i = 0; i < MAX_PROBES; i++ ) {
+            int slot = (start + i) & mask;
+            long f = get(slot * WORDS_PER_SLOT + FINGERPRINT);
+            if ( f == fingerprint ) {
+                return slot;
+            }
+            if ( f == 0 ) {
+                break;      // Slots are never emptied, so the key can't be further on.
+            }
+        }
+        return -1;
+    }
+
+    private int claimSlot(long fingerprint, long now) {
+        int start = index(fingerprint);
+        for ( ;; ) {
+            int victim = -1;
+            long victimUsed = Long.MAX_VALUE;
+            for ( int i = 0; i < MAX_PROBES; i++ ) {
+                int slot = (start + i) & mask;
+                int base = slot * WORDS_PER_SLOT;
+                long f = get(base + FINGERPRINT);
+                if ( f == 0 ) {
+                    if ( compareAndSet(base + FINGERPRINT, 0, fingerprint) ) {
+                        set(base + LAST_USED, now);
+                        return slot;
+                    }
+                    f = get(base + FINGERPRINT);
+                }
+                if ( f == fingerprint ) {
+                    return slot;
+                }
+                long used = get(base + LAST_USED);
+                if ( used < victimUsed ) {
+                    victim = slot;
+                    victimUsed = used;
+                }
+            }
+            // All taken by other keys; take over the least recently used one.
+            int base = victim * WORDS_PER_SLOT;
+            long f = get(base + FINGERPRINT);
+            if ( get(base + LAST_USED) == victimUsed && compareAndSet(base + FINGERPRINT, f, fingerprint) ) {
+                set(base + STATE, 0);
+                set(base + LAST_USED, now);
+                return victim;
+            }
+        }
+    }
+
+    private int index(long fingerprint) {
+        return (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+    }
+
+    /**
+     * @return The keyed hash of the key; never 0, which marks an empty slot.
+     */
+    private long fingerprint(String key) {
+        long h = sipHash(k0, k1, key);
+        return ( h == 0 ) ? 1 : h;
+    }
+
+    /**
+     * @return The SipHash-2-4 of the UTF-16LE encoding of a string.
+     */
+    static long sipHash(long k0, long k1, String s) {
+        long v0 = k0 ^ 0x736f6d6570736575L;
+        long v1 = k1 ^ 0x646f72616e646f6dL;
+        long v2 = k0 ^ 0x6c7967656e657261L;
+        long v3 = k1 ^ 0x7465646279746573L;
+        int length = s.length();
+        int blocks = length / 4 + 1;    // The last one holds the rest and the length in bytes
+        for ( int b = 0; b <= blocks; b++ ) {
+            long m = 0;
+            int rounds = 2;
+            if ( b < blocks ) {
+                for ( int i = b * 4, shift = 0; i < length && shift < 64; i++, shift += 16 ) {
+                    m |= (long) s.charAt(i) << shift;
+                }
+                if ( b == blocks - 1 ) {
+                    m |= (long) (length * 2) << 56;
+                }
+                v3 ^= m;
+            } else {
+                v2 ^= 0xff;
+                rounds = 4;
+            }
+            for ( int r = 0; r < rounds; r++ ) {
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            }
+            v0 ^= m;
+        }
+        return v0 ^ v1 ^ v2 ^ v3;
+    }
+
+    /** @return The state moved on to the window containing {@code now}. */
+    private static long roll(long state, long intervalMillis, long now) {
+        long windowStart = windowStartSeconds(now, intervalMillis);
+        long stateStart = state >>> 32;
+        if ( stateStart == windowStart ) {
+            return state;
+        }
+        long previous = 0;
+        if ( stateStart == windowStartSeconds(now - intervalMillis, intervalMillis) ) {
+            previous = current(state);
+        }
+        return (windowStart << 32) | previous;
+    }
+
+    private static int estimate(long state, long intervalMillis, long now) {
+        long elapsed = now % intervalMillis;
+        return current(state) + (int) ((state & 0xFFFF) * (intervalMillis - elapsed) / intervalMillis);
+    }
+
+    private static int current(long state) {
+        return (int) ((state >>> 16) & 0xFFFF);
+    }
+
+    private static long windowStartSeconds(long now, long intervalMillis) {
+        return ((now / intervalMillis) * intervalMillis / 1000) & 0xFFFFFFFFL;
+    }
+}
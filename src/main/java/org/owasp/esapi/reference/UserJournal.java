@@ -0,0 +1,381 @@
+/**
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ *
+ * The ESAPI is published by OWASP under the BSD license. You should read and accept the
+ * LICENSE before you use, modify, and/or redistribute this software.
+ *
+ * @created 2014
+ */
+package org.owasp.esapi.reference;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of the changes made to the users of a
+ * {@link FileBasedAuthenticator} since its user file was last written, so that
+ * creating, changing or removing a user costs one appended line instead of
+ * rewriting the whole file.
+ * <p>
+ * The first line of the journal holds the generation of the user file it
+ * applies to. Each following line is one record, prefixed with the CRC-32 of
+ * the record, so that a line torn by a crash is recognized and dropped.
+ * <p>
+ * Changes are made durable by group commit: {@link #append(String)} only
+ * queues a record, and {@link #commit(long)} waits until it has been written
+ * and forced to disk. A thread that commits writes and forces every record
+ * queued so far, so threads that commit while the disk is busy with a previous
+ * force share the next one. Records that fail to be written stay queued, ahead
+ * of any appended since, for the next commit to retry.
+ * <p>
+ * A new user file can be written while changes go on: {@link #mark()} tells
+ * how many records the file being written covers, and
+ * {@link #reset(long)} starts the journal of the new generation with the
+ * records appended after the mark. Until then, the new user file refers to
+ * the journal it continues, see {@link #recover(long, long, int)}.
+ *
+ * @since 2.1.1
+ */
+final class UserJournal {
+
+    private static final String HEADER = "# ESAPI user journal, generation ";
+    private static final String UTF8 = "UTF-8";
+
+    private final File file;
+
+    // Replaced by reset, guarded by commitLock
+    private RandomAccessFile raf;
+    private FileChannel channel;
+
+    /** Held while writing to the file. */
+    private final Object commitLock = new Object();
+
+    // Guarded by this
+    private final List<String> pending = new ArrayList<String>();
+    private long appended = 0;
+    private int total = 0;                  // records in the file and pending
+    private List<String> marked = null;     // records appended since the mark
+
+    private volatile long durable = 0;
+    private volatile int records = 0;
+    private volatile long commits = 0;
+
+    /**
+     * Open a journal, creating the file if it does not exist yet.
+     *
+     * @param file The journal file.
+     * @throws IOException if the file can't be opened.
+     */
+    UserJournal(File file) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+    }
+
+    /**
+     * @return The journal file.
+     */
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Read the records that apply to a generation of the user file. If the
+     * journal belongs to another generation, it is discarded and started over
+     * for this one. A torn or corrupted record, and anything after it, is
+     * dropped from the file.
+     *
+     * @param generation The generation of the user file that was just read.
+     * @return The records, oldest first.
+     * @throws IOException if the journal can't be read or written.
+     */
+    List<String> recover(long generation) throws IOException {
+        return recover(generation, -1, 0);
+    }
+
+    /**
+     * Read the records that apply to a generation of the user file, which
+     * may have been written from a previous generation whose journal was not
+     * reset yet. In that case, the records the user file already covers are
+     * skipped, and the journal is started over for the new generation with
+     * the rest.
+     *
+     * @param generation The generation of the user file that was just read.
+     * @param previous The generation the user file was written from, or -1.
+     * @param covered The number of records of the previous generation's
+     *        journal that the user file contains.
+     * @return The records, oldest first.
+     * @throws IOException if the journal can't be read or written.
+     */
+    List<String> recover(long generation, long previous, int covered) throws IOException {
+        synchronized ( commitLock ) {
+            List<String> result = new ArrayList<String>();
+            byte[] data = new byte[(int) channel.size()];
+            channel.read(ByteBuffer.wrap(data), 0);
+
+            int end = lineEnd(data, 0);
+            String header = ( end < 0 ) ? null : new String(data, 0, end, UTF8);
+            boolean continued = previous >= 0 && (HEADER + previous).equals(header);
+            if ( !continued && !(HEADER + generation).equals(header) ) {
+                reset(generation);
+                return result;
+            }
+            int valid = end + 1;
+            while ( valid < data.length ) {
+                end = lineEnd(data, valid);
+                String record = ( end < 0 ) ? null : parse(new String(data, valid, end - valid, UTF8));
+                if ( record == null ) {
+                    break;
+                }
+                result.add(record);
+                valid = end + 1;
+            }
+            if ( continued ) {
+                result = new ArrayList<String>(result.subList(Math.min(covered, result.size()), result.size()));
+                List<String> lines = new ArrayList<String>();
+                for ( String record : result ) {
+                    lines.add(format(record));
+                }
+                rewrite(generation, lines);
+            } else if ( valid < data.length ) {
+                channel.truncate(valid);
+                channel.force(true);
+            }
+            records = result.size();
+            synchronized ( this ) {
+                total = records + pending.size();
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Queue a record. It is not durable until {@link #commit(long)} returns.
+     *
+     * @param record The record, which must not contain line breaks.
+     * @return The sequence number to commit.
+     */
+    synchronized long append(String record) {
+        String line = format(record);
+        pending.add(line);
+        total++;
+        if ( marked != null ) {
+            marked.add(line);
+        }
+        return ++appended;
+    }
+
+    /**
+     * Mark the records appended so far as the ones a new user file will
+     * contain, so that {@link #reset(long)} keeps those appended later.
+     *
+     * @return The number of records the journal file holds once the records
+     *         appended so far are committed.
+     */
+    synchronized int mark() {
+        marked = new ArrayList<String>();
+        return total;
+    }
+
+    /**
+     * Wait until a record, and every record appended before it, is on disk.
+     *
+     * @param sequence The sequence number returned by {@link #append(String)}.
+     * @throws IOException if writing or forcing the journal failed; the record is still queued.
+     */
+    void commit(long sequence) throws IOException {
+        if ( durable >= sequence ) {
+            return;
+        }
+        synchronized ( commitLock ) {
+            if ( durable >= sequence ) {
+                return;     // Committed by another thread while we waited
+            }
+            List<String> lines;
+            long last;
+            synchronized ( this ) {
+                lines = new ArrayList<String>(pending);
+                pending.clear();
+                last = appended;
+            }
+            StringBuilder batch = new StringBuilder();
+            for ( String line : lines ) {
+                batch.append(line).append('\n');
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(batch.toString().getBytes(UTF8));
+            long start = channel.size();
+            try {
+                long position = start;
+                while ( buffer.hasRemaining() ) {
+                    position += channel.write(buffer, position);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                synchronized ( this ) {
+                    pending.addAll(0, lines);
+                }
+                try {
+                    channel.truncate(start);    // Don't leave part of the batch for the retry to repeat
+                } catch (IOException ignored) {
+                    // A torn record is dropped on recovery anyway
+                }
+                throw e;
+            }
+            records += lines.size();
+            commits++;
+            durable = last;
+        }
+    }
+
+    /**
+     * Commit every record appended so far.
+     *
+     * @throws IOException if writing or forcing the journal failed.
+     */
+    void flush() throws IOException {
+        long last;
+        synchronized ( this ) {
+            last = appended;
+        }
+        commit(last);
+    }
+
+    /**
+     * Start the journal over for a new generation of the user file. The
+     * caller must make sure that the user file already contains every record
+     * appended before the last {@link #mark()}, or every record appended so
+     * far if there is no mark; these are therefore considered committed. The
+     * records appended after the mark are kept, and the new journal replaces
+     * the old one in a single step, so that a crash leaves either of them.
+     *
+     * @param generation The generation of the user file that was just written.
+     * @throws IOException if the journal can't be written.
+     */
+    void reset(long generation) throws IOException {
+        synchronized ( commitLock ) {
+            List<String> committed;
+            long from;
+            synchronized ( this ) {
+                int kept = ( marked == null ) ? 0 : marked.size();
+                from = appended - kept;     // the sequence number of the mark
+                // The kept records that were committed go into the new file, the others stay pending
+                committed = ( durable > from ) ? new ArrayList<String>(marked.subList(0, (int) (durable - from)))
+                                               : new ArrayList<String>();
+            }
+            rewrite(generation, committed);
+            synchronized ( this ) {
+                if ( durable < from ) {
+                    pending.subList(0, (int) (from - durable)).clear();
+                    durable = from;
+                }
+                total = committed.size() + pending.size();
+                marked = null;
+            }
+            records = committed.size();
+        }
+    }
+
+    /**
+     * Replace the journal file with one for a generation that holds some
+     * records. The caller holds the commit lock.
+     */
+    private void rewrite(long generation, List<String> lines) throws IOException {
+        StringBuilder content = new StringBuilder(HEADER).append(generation).append('\n');
+        for ( String line : lines ) {
+            content.append(line).append('\n');
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(content.toString().getBytes(UTF8));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        raf.close();
+        try {
+            FileUtil.replace(temp, file);
+        } finally {
+            raf = new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+        }
+    }
+
+    /**
+     * @return The number of records in the journal file.
+     */
+    int getRecordCount() {
+        return records;
+    }
+
+    /**
+     * @return The number of times the journal was forced to disk by {@link #commit(long)}.
+     */
+    long getCommitCount() {
+        return commits;
+    }
+
+    /**
+     * Close the file. The journal must not be used afterwards.
+     *
+     * @throws IOException if closing the file fails.
+     */
+    void close() throws IOException {
+        synchronized ( commitLock ) {
+            raf.close();
+        }
+    }
+
+    private static String format(String record) {
+        return String.format("%08x %s", checksum(record), record);
+    }
+
+    /** @return The record in a line, or null if the line is not a valid record. */
+    private static String parse(String line) {
+        if ( line.length() < 9 || line.charAt(8) != ' ' ) {
+            return null;
+        }
+        String record = line.substring(9);
+        try {
+            if ( Long.parseLong(line.substring(0, 8), 16) != checksum(record) ) {
+                return null;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return record;
+    }
+
+    private static long checksum(String record) {
+        CRC32 crc = new CRC32();
+        try {
+            crc.update(record.getBytes(UTF8));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);     // UTF-8 is always supported
+        }
+        return crc.getValue();
+    }
+
+    private static int lineEnd(byte[] data, int from) {
+        for ( int i = from; i < data.length; i++ ) {
+            if ( data[i] == '\n' ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
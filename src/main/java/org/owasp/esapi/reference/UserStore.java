@@ -0,0 +1,447 @@
+/**
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ *
+ * The ESAPI is published by OWASP under the BSD license. You should read and accept the
+ * LICENSE before you use, modify, and/or redistribute this software.
+ *
+ * @created 2014
+ */
+package org.owasp.esapi.reference;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * The users of a {@link DiskBasedAuthenticator}, kept on disk in the line
+ * format of users.txt and indexed by account id and by account name, so that
+ * looking up a user reads a few blocks of the files instead of keeping every
+ * user in memory.
+ * <p>
+ * The users are kept in a data file that is only ever appended to: saving a
+ * user appends a new version of its line, and removing one appends a
+ * tombstone. Each record carries its length and CRC-32. Two
+ * {@link DiskHashIndex}es next to the data file map the account id and the
+ * lower case account name to the latest version of each user. They are marked
+ * as closed cleanly by {@link #close()}; when they were not, they are rebuilt
+ * by reading the data file from the start, which also drops a record torn by
+ * a crash. Old versions of users are only removed by {@link #compact()}.
+ * <p>
+ * Any number of threads may read at once; writes are serialized.
+ *
+ * @since 2.1.1
+ */
+final class UserStore {
+
+    private static final long MAGIC = 0x4553415049555352L;     // "ESAPIUSR"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final String UTF8 = "UTF-8";
+
+    private final File file;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private long end;
+    private DiskHashIndex ids;
+    private DiskHashIndex names;
+    private boolean sync = true;
+
+    /**
+     * Open a store, creating its files if they do not exist yet.
+     *
+     * @param file The data file; the indexes are kept next to it.
+     * @throws IOException if the files can't be opened or are not a user store.
+     */
+    UserStore(File file) throws IOException {
+        this.file = file;
+        open();
+        ids = new DiskHashIndex(new File(file.getPath() + ".ids"));
+        names = new DiskHashIndex(new File(file.getPath() + ".names"));
+        if ( !ids.wasClean() || !names.wasClean() ) {
+            rebuild();
+        }
+    }
+
+    private void open() throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        if ( channel.size() == 0 ) {
+            writeHeader(channel);
+            channel.force(true);
+        } else {
+            ByteBuffer header = read(0, HEADER_SIZE);
+            if ( header.getLong() != MAGIC || header.getInt() != VERSION ) {
+                raf.close();
+                throw new IOException(file + " is not an ESAPI user store");
+            }
+        }
+        end = channel.size();
+    }
+
+    /**
+     * @return The data file.
+     */
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Whether each change is forced to disk before it returns. Turn this off
+     * while loading many users at once, and call {@link #force()} at the end.
+     */
+    void setSync(boolean sync) {
+        lock.writeLock().lock();
+        try {
+            this.sync = sync;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return The line of the user with an account id, or null if there is none.
+     */
+    String get(final long accountId) throws IOException {
+        lock.readLock().lock();
+        try {
+            long position = ids.find(idKey(accountId), idMatcher(accountId));
+            return ( position < 0 ) ? null : readLine(position);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The line of the user with an account name, in any case, or null if there is none.
+     */
+    String get(String accountName) throws IOException {
+        lock.readLock().lock();
+        try {
+            long position = names.find(nameKey(accountName), nameMatcher(accountName));
+            return ( position < 0 ) ? null : readLine(position);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Save a user, replacing the current version with the same account id.
+     *
+     * @param line The user, in the format of users.txt.
+     * @throws IllegalArgumentException if the line has no account id and name, or another user has the same name.
+     * @throws IOException if the store can't be written.
+     */
+    void put(String line) throws IOException {
+        long accountId = accountId(line);
+        String accountName = field(line, 1);
+        lock.writeLock().lock();
+        try {
+            long named = names.find(nameKey(accountName), nameMatcher(accountName));
+            if ( named >= 0 && accountId(readLine(named)) != accountId ) {
+                throw new IllegalArgumentException("Duplicate account name " + accountName);
+            }
+            long position = append("+ " + line);
+            index(accountId, accountName, position);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a user.
+     *
+     * @return Whether there was a user with the account id.
+     * @throws IOException if the store can't be written.
+     */
+    boolean remove(long accountId) throws IOException {
+        lock.writeLock().lock();
+        try {
+            if ( ids.find(idKey(accountId), idMatcher(accountId)) < 0 ) {
+                return false;
+            }
+            append("- " + accountId);
+            unindex(accountId);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return The number of users.
+     */
+    int size() {
+        lock.readLock().lock();
+        try {
+            return ids.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The account names of all users; this reads the whole store.
+     */
+    Set<String> getAccountNames() throws IOException {
+        lock.readLock().lock();
+        try {
+            final Set<String> result = new HashSet<String>();
+            ids.visit(new DiskHashIndex.Visitor() {
+                public void visit(long key, long position) throws IOException {
+                    result.add(field(readLine(position), 1));
+                }
+            });
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Force the changes made so far to disk.
+     */
+    void force() throws IOException {
+        lock.writeLock().lock();
+        try {
+            channel.force(false);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrite the data file with only the current version of each user.
+     */
+    void compact() throws IOException {
+        lock.writeLock().lock();
+        try {
+            File temp = new File(file.getPath() + ".tmp");
+            RandomAccessFile compacted = new RandomAccessFile(temp, "rw");
+            try {
+                final FileChannel out = compacted.getChannel();
+                out.truncate(0);    // Left over from a failed attempt
+                writeHeader(out);
+                ids.visit(new DiskHashIndex.Visitor() {
+                    public void visit(long key, long position) throws IOException {
+                        write(out, record("+ " + readLine(position)), out.size());
+                    }
+                });
+                out.force(true);
+            } finally {
+                compacted.close();
+            }
+            raf.close();
+            FileUtil.replace(temp, file);
+            open();
+            rebuild();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Mark the indexes as closed cleanly and close the files. The store must not be used afterwards.
+     */
+    void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            channel.force(true);
+            ids.close();
+            names.close();
+            raf.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rebuild the indexes from the data file, and drop anything after the last valid record.
+     */
+    private void rebuild() throws IOException {
+        ids.clear();
+        names.clear();
+        long position = HEADER_SIZE;
+        long size = channel.size();
+        while ( position + RECORD_HEADER_SIZE <= size ) {
+            String record = readRecord(position, size);
+            if ( record == null ) {
+                break;
+            }
+            if ( record.startsWith("- ") ) {
+                unindex(Long.parseLong(record.substring(2)));
+            } else {
+                String line = record.substring(2);
+                index(accountId(line), field(line, 1), position);
+            }
+            position += RECORD_HEADER_SIZE + record.getBytes(UTF8).length;
+        }
+        if ( position < size ) {
+            channel.truncate(position);
+            channel.force(true);
+        }
+        end = position;
+    }
+
+    private void index(long accountId, String accountName, long position) throws IOException {
+        long previous = ids.find(idKey(accountId), idMatcher(accountId));
+        if ( previous >= 0 ) {
+            String previousName = field(readLine(previous), 1);
+            if ( !previousName.equalsIgnoreCase(accountName) ) {
+                names.remove(nameKey(previousName), nameMatcher(previousName));
+            }
+        }
+        ids.put(idKey(accountId), position, idMatcher(accountId));
+        names.put(nameKey(accountName), position, nameMatcher(accountName));
+    }
+
+    private void unindex(long accountId) throws IOException {
+        long previous = ids.find(idKey(accountId), idMatcher(accountId));
+        if ( previous >= 0 ) {
+            String previousName = field(readLine(previous), 1);
+            names.remove(nameKey(previousName), nameMatcher(previousName));
+            ids.remove(idKey(accountId), idMatcher(accountId));
+        }
+    }
+
+    private DiskHashIndex.Matcher idMatcher(final long accountId) {
+        return new DiskHashIndex.Matcher() {
+            public boolean matches(long position) throws IOException {
+                return accountId(readLine(position)) == accountId;
+            }
+        };
+    }
+
+    private DiskHashIndex.Matcher nameMatcher(final String accountName) {
+        return new DiskHashIndex.Matcher() {
+            public boolean matches(long position) throws IOException {
+                return field(readLine(position), 1).equalsIgnoreCase(accountName);
+            }
+        };
+    }
+
+    private static long idKey(long accountId) {
+        return hash(Long.toString(accountId));
+    }
+
+    private static long nameKey(String accountName) {
+        return hash(accountName.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * @return A 64 bit FNV-1a hash of a string. The indexes on disk depend on
+     *         it, so it must never change without a new {@link DiskHashIndex} version.
+     */
+    private static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for ( int i = 0; i < s.length(); i++ ) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h ^ (h >>> 29);
+    }
+
+    /** @return The position of the new record. */
+    private long append(String record) throws IOException {
+        ByteBuffer buffer = record(record);
+        long position = end;
+        write(channel, buffer, position);
+        end += buffer.limit();
+        if ( sync ) {
+            channel.force(false);
+        }
+        return position;
+    }
+
+    /** @return A record with its length and checksum, ready to be written. */
+    private static ByteBuffer record(String record) throws IOException {
+        byte[] data = record.getBytes(UTF8);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + data.length);
+        buffer.putInt(data.length).putInt((int) crc.getValue()).put(data).flip();
+        return buffer;
+    }
+
+    private static void writeHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putLong(MAGIC).putInt(VERSION).clear();
+        write(channel, header, 0);
+    }
+
+    /** @return The line of the user saved at a position. */
+    private String readLine(long position) throws IOException {
+        String record = readRecord(position, end);
+        if ( record == null || !record.startsWith("+ ") ) {
+            throw new IOException(file + " is corrupted at " + position);
+        }
+        return record.substring(2);
+    }
+
+    /** @return The record at a position, or null if it is not valid. */
+    private String readRecord(long position, long limit) throws IOException {
+        ByteBuffer header = read(position, RECORD_HEADER_SIZE);
+        int length = header.getInt();
+        int checksum = header.getInt();
+        if ( length < 2 || position + RECORD_HEADER_SIZE + length > limit ) {
+            return null;
+        }
+        ByteBuffer data = read(position + RECORD_HEADER_SIZE, length);
+        CRC32 crc = new CRC32();
+        crc.update(data.array(), 0, length);
+        if ( (int) crc.getValue() != checksum ) {
+            return null;
+        }
+        return new String(data.array(), 0, length, UTF8);
+    }
+
+    /** @return The account id of a line. */
+    static long accountId(String line) {
+        try {
+            return Long.parseLong(field(line, 0));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid account id in user: " + field(line, 0));
+        }
+    }
+
+    /** @return A field of a line. */
+    static String field(String line, int index) {
+        String[] parts = line.split(" *\\| *", index + 2);
+        if ( parts.length <= index || parts[index].trim().length() == 0 ) {
+            throw new IllegalArgumentException("Missing field " + index + " in user");
+        }
+        return parts[index].trim();
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while ( buffer.hasRemaining() ) {
+            if ( channel.read(buffer, position + buffer.position()) < 0 ) {
+                throw new IOException(file + " is truncated");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while ( buffer.hasRemaining() ) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
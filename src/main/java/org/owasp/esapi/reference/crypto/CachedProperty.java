@@ -0,0 +1,100 @@
+/**
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ *
+ * The ESAPI is published by OWASP under the BSD license. You should read and accept the
+ * LICENSE before you use, modify, and/or redistribute this software.
+ *
+ * @created 2014
+ */
+package org.owasp.esapi.reference.crypto;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A value of {@link DefaultEncryptedProperties} or
+ * {@link ReferenceEncryptedProperties}: its base64-encoded ciphertext, and its
+ * plaintext once it has been decrypted.
+ * <p>
+ * The values are kept in a {@code ConcurrentMap} by property name next to the
+ * {@code Properties} that hold the ciphertexts, so that reading a value takes
+ * no lock. A value is immutable; caching its plaintext replaces it in the map
+ * only while the name still maps to it, so a plaintext decrypted while the
+ * property is set to something else is dropped rather than cached.
+ *
+ * @since 2.1.1
+ */
+final class CachedProperty {
+
+    private final String ciphertext;
+    private final char[] plaintext;
+
+    /**
+     * @param ciphertext The base64-encoded ciphertext.
+     * @param plaintext The plaintext, or null if it has not been decrypted yet.
+     */
+    CachedProperty(String ciphertext, String plaintext) {
+        this(ciphertext, plaintext == null ? null : plaintext.toCharArray());
+    }
+
+    private CachedProperty(String ciphertext, char[] plaintext) {
+        this.ciphertext = ciphertext;
+        this.plaintext = plaintext;
+    }
+
+    /**
+     * @return The base64-encoded ciphertext.
+     */
+    String getCiphertext() {
+        return ciphertext;
+    }
+
+    /**
+     * @return The plaintext, or null if it has not been decrypted yet.
+     */
+    String getPlaintext() {
+        return ( plaintext == null ) ? null : new String(plaintext);
+    }
+
+    /**
+     * Cache the plaintext of a value, unless the property was set to another
+     * value since it was read.
+     *
+     * @param values The values by property name.
+     * @param name The property name.
+     * @param read The value that was read and decrypted.
+     * @param plaintext Its plaintext.
+     */
+    static void cache(ConcurrentMap<String, CachedProperty> values, String name, CachedProperty read, String plaintext) {
+        CachedProperty decrypted = new CachedProperty(read.ciphertext, plaintext);
+        if ( !values.replace(name, read, decrypted) ) {
+            Arrays.fill(decrypted.plaintext, '*');
+        }
+    }
+
+    /**
+     * Drop every cached plaintext, so that the values are decrypted again when
+     * they are read.
+     *
+     * @param values The values by property name.
+     * @param zeroize Whether to overwrite the plaintexts.
+     */
+    static void drop(ConcurrentMap<String, CachedProperty> values, boolean zeroize) {
+        for ( Map.Entry<String, CachedProperty> entry : values.entrySet() ) {
+            CachedProperty value = entry.getValue();
+            if ( value.plaintext != null ) {
+                values.replace(entry.getKey(), value, new CachedProperty(value.ciphertext, (char[]) null));
+                if ( zeroize ) {
+                    Arrays.fill(value.plaintext, '*');
+                }
+            }
+        }
+    }
+}
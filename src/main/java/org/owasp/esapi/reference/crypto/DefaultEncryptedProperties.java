@@ -16,6 +16,7 @@
 package org.owasp.esapi.reference.crypto;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -26,6 +27,7 @@ import java.io.OutputStream;
 import java.util.Iterator;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.owasp.esapi.ESAPI;
 import org.owasp.esapi.Logger;
@@ -43,6 +45,13 @@ import org.owasp.esapi.errors.EncryptionException;
  * encrypted properties file. A better approach would be to allow unencrypted
  * properties in the file and to encrypt them the first time the file is
  * accessed.
+ * <p>
+ * Each value is decrypted only once, the first time it is read or, if so
+ * constructed, when the properties are loaded. The values and their plaintexts
+ * are kept in a concurrent map next to the properties, so {@code getProperty}
+ * does not lock, and a plaintext is only cached while the property still has
+ * the value it was decrypted from. {@link #close()} drops the cached
+ * plaintexts, optionally overwriting them first.
  * 
  * @author Jeff Williams (jeff.williams .at. aspectsecurity.com) <a
  *         href="http://www.aspectsecurity.com">Aspect Security</a>
@@ -51,11 +60,17 @@ import org.owasp.esapi.errors.EncryptionException;
  * @see org.owasp.esapi.EncryptedProperties
  * @see org.owasp.esapi.reference.crypto.ReferenceEncryptedProperties
  */
-public class DefaultEncryptedProperties implements org.owasp.esapi.EncryptedProperties {
+public class DefaultEncryptedProperties implements org.owasp.esapi.EncryptedProperties, Closeable {
 
 	/** The properties. */
 	private final Properties properties = new Properties();
 
+	/** The values of the properties, with their plaintexts once decrypted; changed while holding the lock on the properties. */
+	private final ConcurrentHashMap<String, CachedProperty> values = new ConcurrentHashMap<String, CachedProperty>();
+
+	private final boolean eagerDecryption;
+	private final boolean zeroizeOnClose;
+
 	/** The logger. */
 	private final Logger logger = ESAPI.getLogger("EncryptedProperties");
 
@@ -63,13 +78,25 @@ public class DefaultEncryptedProperties implements org.owasp.esapi.EncryptedProp
 	 * Instantiates a new encrypted properties.
 	 */
 	public DefaultEncryptedProperties() {
-		// hidden
+		this(false, false);
+	}
+
+	/**
+	 * Instantiates a new encrypted properties.
+	 *
+	 * @param eagerDecryption	Decrypt every value when the properties are loaded,
+	 * 							rather than the first time each one is read.
+	 * @param zeroizeOnClose	Overwrite the cached plaintexts when {@link #close()} is called.
+	 */
+	public DefaultEncryptedProperties(boolean eagerDecryption, boolean zeroizeOnClose) {
+		this.eagerDecryption = eagerDecryption;
+		this.zeroizeOnClose = zeroizeOnClose;
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
-	public synchronized String getProperty(String key) throws EncryptionException {
+	public String getProperty(String key) throws EncryptionException {
 	    String[] errorMsgs = new String[] {
 	            ": failed decoding from base64",
 	            ": failed to deserialize properly",
@@ -78,19 +105,27 @@ public class DefaultEncryptedProperties implements org.owasp.esapi.EncryptedProp
 
 	    int progressMark = 0;
 	    try {
-	        String encryptedValue = properties.getProperty(key);
+	        CachedProperty encryptedValue = values.get(key);
 
 	        if(encryptedValue==null)
 	            return null;
 
+	        String cached = encryptedValue.getPlaintext();
+	        if ( cached != null ) {
+	            return cached;
+	        }
+
 	        progressMark = 0;
-	        byte[] serializedCiphertext   = ESAPI.encoder().decodeFromBase64(encryptedValue);
+	        byte[] serializedCiphertext   = ESAPI.encoder().decodeFromBase64(encryptedValue.getCiphertext());
 	        progressMark++;
 	        CipherText restoredCipherText = CipherText.fromPortableSerializedBytes(serializedCiphertext);
 	        progressMark++;
 	        PlainText plaintext           = ESAPI.encryptor().decrypt(restoredCipherText);
 	        
-	        return plaintext.toString();
+	        String value = plaintext.toString();
+	        plaintext.overwrite();
+	        CachedProperty.cache(values, key, encryptedValue, value);
+	        return value;
 	    } catch (Exception e) {
 	        throw new EncryptionException("Property retrieval failure",
 	                                      "Couldn't retrieve encrypted property for property " + key +
@@ -101,7 +136,7 @@ public class DefaultEncryptedProperties implements org.owasp.esapi.EncryptedProp
 	/**
 	 * {@inheritDoc}
 	 */
-	public synchronized String setProperty(String key, String value) throws EncryptionException {
+	public String setProperty(String key, String value) throws EncryptionException {
 	    String[] errorMsgs = new String[] {
 	            ": failed to encrypt properly",
 	            ": failed to serialize correctly",
@@ -125,7 +160,11 @@ public class DefaultEncryptedProperties implements org.owasp.esapi.EncryptedProp
 	        progressMark++;
 	        String b64str = ESAPI.encoder().encodeForBase64(serializedCiphertext, false);
 	        progressMark++;
-	        String encryptedValue = (String)properties.setProperty(key, b64str);
+	        String encryptedValue;
+	        synchronized ( properties ) {
+	            encryptedValue = (String)properties.setProperty(key, b64str);
+	            values.put(key, new CachedProperty(b64str, value));
+	        }
 	        progressMark++;
 	        return encryptedValue;
 	    } catch (Exception e) {
@@ -146,7 +185,25 @@ public class DefaultEncryptedProperties implements org.owasp.esapi.EncryptedProp
 	 * {@inheritDoc}
 	 */
 	public void load(InputStream in) throws IOException {
-		properties.load(in);
+		synchronized ( properties ) {
+			properties.load(in);
+			for (String key : properties.stringPropertyNames()) {
+				String encryptedValue = properties.getProperty(key);
+				CachedProperty value = values.get(key);
+				if ( value == null || !value.getCiphertext().equals(encryptedValue) ) {
+					values.put(key, new CachedProperty(encryptedValue, null));
+				}
+			}
+		}
+		if ( eagerDecryption ) {
+			for (String key : properties.stringPropertyNames()) {
+				try {
+					getProperty(key);
+				} catch (EncryptionException e) {
+					throw new IOException("Couldn't decrypt property " + key, e);
+				}
+			}
+		}
 		logger.trace(Logger.SECURITY_SUCCESS, "Encrypted properties loaded successfully");
 	}
 
@@ -157,6 +214,15 @@ public class DefaultEncryptedProperties implements org.owasp.esapi.EncryptedProp
 		properties.store(out, comments);
 	}
 
+	/**
+	 * Drops the cached plaintexts, overwriting them first if this was constructed
+	 * to zeroize on close. Values read afterwards are decrypted again. Call this
+	 * only once no other thread is reading properties.
+	 */
+	public void close() {
+		CachedProperty.drop(values, zeroizeOnClose);
+	}
+
 	/**
 	 * Loads encrypted properties file based on the location passed in args then prompts the 
 	 * user to input key-value pairs.  When the user enters a null or blank key, the values 
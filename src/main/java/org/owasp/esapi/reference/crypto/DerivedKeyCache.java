@@ -0,0 +1,260 @@
+/**
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ *
+ * The ESAPI is published by OWASP under the BSD license. You should read and accept the
+ * LICENSE before you use, modify, and/or redistribute this software.
+ *
+ * @created 2014
+ */
+package org.owasp.esapi.reference.crypto;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.owasp.esapi.crypto.CryptoHelper;
+import org.owasp.esapi.crypto.CryptoPool;
+import org.owasp.esapi.crypto.KeyDerivationFunction;
+
+/**
+ * A bounded cache of the keys {@link JavaEncryptor} derives from a key
+ * derivation key with {@link KeyDerivationFunction}, so that encrypting or
+ * decrypting many values with the same key does not rerun the KDF twice for
+ * each of them.
+ * <p>
+ * Derived keys are cached by a fingerprint of the key derivation key together
+ * with the KDF version, PRF, key size and purpose they were derived with. The
+ * fingerprint is a SHA-256 digest of the key salted with a random value chosen
+ * for each cache, so it reveals nothing about the key outside this process.
+ * Keys that cannot be encoded, such as keys held in a hardware module, are
+ * never cached.
+ * <p>
+ * The cache is a single LRU map guarded by its own lock, which is only held
+ * to look up, copy or wipe a key, so it holds exactly as many keys as it was
+ * sized for. A cached key is handed out as a copy, and the cached copy is
+ * overwritten when it is evicted because the cache is full, it is older than
+ * the time to live, or the cache is cleared.
+ *
+ * @since 2.1.1
+ */
+final class DerivedKeyCache {
+
+    private final Map<CacheKey, Entry> map;
+    private final long ttlMillis;
+    private final byte[] salt = new byte[16];
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxSize   The maximum number of derived keys to keep.
+     * @param ttlMillis How long a derived key may be used before it is derived again,
+     *                  or 0 to keep it until it is evicted.
+     * @throws IllegalArgumentException if the size is not positive or the time to live is negative.
+     */
+    DerivedKeyCache(final int maxSize, long ttlMillis) {
+        if ( maxSize < 1 || ttlMillis < 0 ) {
+            throw new IllegalArgumentException("Derived key cache size must be positive and time to live not negative, were: "
+                                               + maxSize + ", " + ttlMillis);
+        }
+        this.map = new LinkedHashMap<CacheKey, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, Entry> eldest) {
+                if ( size() > maxSize ) {
+                    eldest.getValue().wipe();
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.ttlMillis = ttlMillis;
+        new SecureRandom().nextBytes(salt);
+    }
+
+    /**
+     * Get the name under which a derived key is cached.
+     *
+     * @return The name, or {@code null} if keys derived from this key cannot be cached.
+     */
+    CacheKey cacheKey(SecretKey kdk, int kdfVersion, KeyDerivationFunction.PRF_ALGORITHMS prf,
+                      int keySize, String purpose) {
+        byte[] encoded = kdk.getEncoded();
+        if ( encoded == null ) {
+            return null;
+        }
+        MessageDigest digest = null;
+        try {
+            digest = CryptoPool.getMessageDigest("SHA-256");
+            digest.update(salt);
+            digest.update(encoded);
+            if ( kdfVersion == 0 ) {
+                kdfVersion = KeyDerivationFunction.kdfVersion;
+            }
+            return new CacheKey(digest.digest(), kdk.getAlgorithm(), kdfVersion, prf, keySize, purpose);
+        } catch (NoSuchAlgorithmException e) {
+            return null;    // Not cached then
+        } finally {
+            CryptoPool.release(digest);
+            CryptoHelper.overwrite(encoded);
+        }
+    }
+
+    /**
+     * @param cacheKey The name from {@link #cacheKey}.
+     * @return A copy of the cached key, or {@code null} if it is not cached or has expired.
+     */
+    SecretKey get(CacheKey cacheKey) {
+        SecretKey key = lookup(cacheKey, System.currentTimeMillis());
+        if ( key == null ) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return key;
+    }
+
+    /**
+     * Cache a copy of a derived key.
+     *
+     * @param cacheKey The name from {@link #cacheKey}.
+     * @param key      The derived key.
+     */
+    void put(CacheKey cacheKey, SecretKey key) {
+        byte[] encoded = key.getEncoded();
+        if ( encoded != null ) {
+            long expires = ( ttlMillis == 0 ) ? Long.MAX_VALUE : System.currentTimeMillis() + ttlMillis;
+            Entry entry = new Entry(encoded, key.getAlgorithm(), expires);
+            synchronized ( map ) {
+                Entry previous = map.put(cacheKey, entry);
+                if ( previous != null ) {
+                    previous.wipe();
+                }
+            }
+        }
+    }
+
+    /**
+     * Evict and overwrite all cached keys.
+     */
+    void clear() {
+        synchronized ( map ) {
+            for (Entry entry : map.values()) {
+                entry.wipe();
+            }
+            map.clear();
+        }
+    }
+
+    /**
+     * @return The number of cached keys, including any that have expired but not been evicted yet.
+     */
+    int size() {
+        synchronized ( map ) {
+            return map.size();
+        }
+    }
+
+    long getHitCount() {
+        return hits.get();
+    }
+
+    long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Keys are copied out and wiped under the lock, so a key is never handed
+     * out while it is being wiped.
+     */
+    private SecretKey lookup(CacheKey cacheKey, long now) {
+        synchronized ( map ) {
+            Entry entry = map.get(cacheKey);
+            if ( entry == null ) {
+                return null;
+            }
+            if ( entry.expires <= now ) {
+                map.remove(cacheKey);
+                entry.wipe();
+                return null;
+            }
+            return new SecretKeySpec(entry.encoded, entry.algorithm);
+        }
+    }
+
+    /**
+     * The name of a derived key: the fingerprint of the key it was derived
+     * from and how it was derived. A value object rather than a string, since
+     * building one is paid for on every lookup.
+     */
+    static final class CacheKey {
+        private final byte[] fingerprint;
+        private final String algorithm;
+        private final int kdfVersion;
+        private final KeyDerivationFunction.PRF_ALGORITHMS prf;
+        private final int keySize;
+        private final String purpose;
+        private final int hash;
+
+        CacheKey(byte[] fingerprint, String algorithm, int kdfVersion, KeyDerivationFunction.PRF_ALGORITHMS prf,
+                 int keySize, String purpose) {
+            this.fingerprint = fingerprint;
+            this.algorithm = algorithm;
+            this.kdfVersion = kdfVersion;
+            this.prf = prf;
+            this.keySize = keySize;
+            this.purpose = purpose;
+            int h = Arrays.hashCode(fingerprint);
+            h = 31 * h + kdfVersion;
+            h = 31 * h + prf.hashCode();
+            h = 31 * h + keySize;
+            this.hash = 31 * h + purpose.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if ( !(o instanceof CacheKey) ) {
+                return false;
+            }
+            CacheKey other = (CacheKey) o;
+            return hash == other.hash && kdfVersion == other.kdfVersion && prf == other.prf
+                   && keySize == other.keySize && purpose.equals(other.purpose)
+                   && algorithm.equals(other.algorithm) && Arrays.equals(fingerprint, other.fingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+        final byte[] encoded;
+        final String algorithm;
+        final long expires;
+
+        Entry(byte[] encoded, String algorithm, long expires) {
+            this.encoded = encoded;
+            this.algorithm = algorithm;
+            this.expires = expires;
+        }
+
+        void wipe() {
+            CryptoHelper.overwrite(encoded, (byte) 0);
+        }
+    }
+}
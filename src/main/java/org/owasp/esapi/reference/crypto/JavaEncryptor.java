@@ -16,32 +16,41 @@
  */
 package org.owasp.esapi.reference.crypto;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.KeyPair;
-import java.security.KeyPairGenerator;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
-import java.security.PrivateKey;
 import java.security.Provider;
-import java.security.PublicKey;
 import java.security.SecureRandom;
 import java.security.Security;
 import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
-// import javax.crypto.Mac;			// Uncomment if computeHMAC() is included.
+import javax.crypto.Mac;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
@@ -55,6 +64,7 @@ import org.owasp.esapi.codecs.Hex;
 import org.owasp.esapi.crypto.CipherSpec;
 import org.owasp.esapi.crypto.CipherText;
 import org.owasp.esapi.crypto.CryptoHelper;
+import org.owasp.esapi.crypto.CryptoPool;
 import org.owasp.esapi.crypto.KeyDerivationFunction;
 import org.owasp.esapi.crypto.PlainText;
 import org.owasp.esapi.crypto.SecurityProviderLoader;
@@ -62,6 +72,7 @@ import org.owasp.esapi.errors.ConfigurationException;
 import org.owasp.esapi.errors.EncryptionException;
 import org.owasp.esapi.errors.IntegrityException;
 import org.owasp.esapi.reference.DefaultSecurityConfiguration;
+import org.owasp.esapi.util.DaemonThreadFactory;
 
 /**
  * Reference implementation of the {@code Encryptor} interface. This implementation
@@ -103,9 +114,8 @@ public final class JavaEncryptor implements Encryptor {
     private static String encoding = "UTF-8"; 
     private static int encryptionKeyLength = 128;
     
-    // digital signatures
-    private static PrivateKey privateKey = null;
-	private static PublicKey publicKey = null;
+    // digital signatures -- loaded (or derived) on first use; see getSigningKeys()
+    private static volatile KeyPair signingKeys = null;
 	private static String signatureAlgorithm = "SHA1withDSA";
     private static String randomAlgorithm = "SHA1PRNG";
 	private static int signatureKeyLength = 1024;
@@ -128,6 +138,24 @@ public final class JavaEncryptor implements Encryptor {
         //          change it will help. For now, it is just hard-coded here.
         //          We could be mean and just print a warning *every* time.
 	private static final int logEveryNthUse = 25;
+
+	// Keys derived for encryption and authenticity, or null if they are not cached.
+	private final DerivedKeyCache derivedKeys;
+
+	// Processes large batches for encryptAll() and decryptAll(); created when first needed
+	// and shut down with the JVM.
+	private static volatile ExecutorService batchExecutor;
+
+	// First byte of a seal in the compact format (Encryptor.Seal.Version=2). Seals in
+	// the original format are base64 encoded serialized CipherTexts, whose first byte
+	// is the top of the KDF info and always has 1 as its low nibble, so they are never
+	// taken for this format.
+	private static final byte COMPACT_SEAL_VERSION = 2;
+	private static final String SEAL_MAC_ALGORITHM = "HmacSHA256";
+	private static final int SEAL_TAG_LENGTH = 32;
+
+	// HMAC key for compact seals, derived from the master key when first needed.
+	private volatile SecretKey sealKey;
 	
     // *Only* use this string for user messages for EncryptionException when
     // decryption fails. This is to prevent information leakage that may be
@@ -156,11 +184,28 @@ public final class JavaEncryptor implements Encryptor {
     /**
      * Generates a new strongly random secret key and salt that can be
      * copy and pasted in the <b>ESAPI.properties</b> file.
+     * <p>
+     * With the arguments {@code -genkeypair <file>}, instead generates a new
+     * digital signature key pair for the configured
+     * {@code Encryptor.DigitalSignatureAlgorithm} and writes it to that file,
+     * for use as {@code Encryptor.DigitalSignatureKeyPairFile}.
      * 
      * @param args Set first argument to "-print" to display available algorithms on standard output.
      * @throws java.lang.Exception	To cover a multitude of sins, mostly in configuring ESAPI.properties.
      */
     public static void main( String[] args ) throws Exception {
+		if ( args.length == 2 && args[0].equalsIgnoreCase("-genkeypair") ) {
+			File file = new File(args[1]);
+			System.out.println( "Generating a new " + signatureAlgorithm + " signing key pair" );
+			KeyPair pair = SigningKeyPairs.generate(signatureAlgorithm, signatureKeyLength,
+			                                        SecureRandom.getInstance(randomAlgorithm));
+			SigningKeyPairs.writeKeyPairFile(pair, file);
+	        String eol = System.getProperty("line.separator", "\n");
+	        System.out.println( eol + "Wrote " + file.getAbsolutePath() + "; keep it secret and copy and paste " +
+	                            "this line into your ESAPI.properties" + eol);
+	        System.out.println( "Encryptor.DigitalSignatureKeyPairFile=" + file.getAbsolutePath() + eol );
+			return;
+		}
 		System.out.println( "Generating a new secret master key" );
 		
 		// print out available ciphers
@@ -233,6 +278,10 @@ public final class JavaEncryptor implements Encryptor {
      * 					Original exception will be attached as the 'cause'.
      */
     private JavaEncryptor() throws EncryptionException {
+        int cacheSize = ESAPI.securityConfiguration().getKDFCacheSize();
+        derivedKeys = ( cacheSize > 0 ) ?
+            new DerivedKeyCache(cacheSize, ESAPI.securityConfiguration().getKDFCacheTTL() * 1000L) : null;
+
         byte[] salt = ESAPI.securityConfiguration().getMasterSalt();
         byte[] skey = ESAPI.securityConfiguration().getMasterKey();
 
@@ -264,22 +313,8 @@ public final class JavaEncryptor implements Encryptor {
                 //            fit better here.
                 secretKeySpec = new SecretKeySpec(skey, encryptAlgorithm );
                 
-                //
-                // For asymmetric encryption (i.e., public/private key)
-                //
-                try {
-                    SecureRandom prng = SecureRandom.getInstance(randomAlgorithm);
-
-                    // Because hash() is not static (but it could be were in not
-                    // for the interface method specification in Encryptor), we
-                    // cannot do this initialization in a static method or static
-                    // initializer.
-                    byte[] seed = hash(new String(skey, encoding),new String(salt, encoding)).getBytes(encoding);
-                    prng.setSeed(seed);
-                    initKeyPair(prng);
-                } catch (Exception e) {
-                    throw new EncryptionException("Encryption failure", "Error creating Encryptor", e);
-                }             
+                // The signing key pair is set up lazily by getSigningKeys(),
+                // so that generating it does not slow down every startup.
                 
                 // Mark everything as initialized.
                 initialized = true;
@@ -308,9 +343,9 @@ public final class JavaEncryptor implements Encryptor {
 	 */
 	public String hash(String plaintext, String salt, int iterations) throws EncryptionException {
 		byte[] bytes = null;
+		MessageDigest digest = null;
 		try {
-			MessageDigest digest = MessageDigest.getInstance(hashAlgorithm);
-			digest.reset();
+			digest = CryptoPool.getMessageDigest(hashAlgorithm);
 			digest.update(ESAPI.securityConfiguration().getMasterSalt());
 			digest.update(salt.getBytes(encoding));
 			digest.update(plaintext.getBytes(encoding));
@@ -327,6 +362,8 @@ public final class JavaEncryptor implements Encryptor {
 			throw new EncryptionException("Internal error", "Can't find hash algorithm " + hashAlgorithm, e);
 		} catch (UnsupportedEncodingException ex) {
 			throw new EncryptionException("Internal error", "Can't find encoding for " + encoding, ex);
+		} finally {
+			CryptoPool.release(digest);
 		}
 	}
 
@@ -355,6 +392,7 @@ public final class JavaEncryptor implements Encryptor {
 
 		 boolean success = false;	// Used in 'finally' clause.
 		 String xform = null;
+		 Cipher encrypter = null;
 		 int keySize = key.getEncoded().length * 8;	// Convert to # bits
 
 		try {
@@ -375,88 +413,15 @@ public final class JavaEncryptor implements Encryptor {
                              "cipher mode " + cipherMode);
              }
              
-			 // Note - Cipher is not thread-safe so we create one locally
+			 // Note - Cipher is not thread-safe so we take one from the pool
 			 //        Also, we need to change this eventually so other algorithms can
 			 //        be supported. Eventually, there will be an encrypt() method that
 			 //        takes a (new class) CryptoControls, as something like this:
 			 //          public CipherText encrypt(CryptoControls ctrl, SecretKey skey, PlainText plaintext)
 			 //        and this method will just call that one.
-			 Cipher encrypter = Cipher.getInstance(xform);
+			 encrypter = CryptoPool.getCipher(xform);
 			 String cipherAlg = encrypter.getAlgorithm();
-			 int keyLen = ESAPI.securityConfiguration().getEncryptionKeyLength();
-
-			 // DISCUSS: OK, what do we want to do here if keyLen != keySize? If use keyLen, encryption
-			 //		     could fail with an exception, but perhaps that's what we want. Or we may just be
-			 //			 OK with silently using keySize as long as keySize >= keyLen, which then interprets
-			 //			 ESAPI.EncryptionKeyLength as the *minimum* key size, but as long as we have something
-			 //			 stronger it's OK to use it. For now, I am just going to log warning if different, but use
-			 //			 keySize unless keySize is SMALLER than ESAPI.EncryptionKeyLength, in which case I'm going
-			 //			 to log an error.
-			 //
-			 //			 IMPORTANT NOTE:	When we generate key sizes for both DES and DESede the result of
-			 //								SecretKey.getEncoding().length includes the TRUE key size (i.e.,
-			 //								*with* the even parity bits) rather than the EFFECTIVE key size
-			 //								(which incidentally is what KeyGenerator.init() expects for DES
-			 //								and DESede; duh! Nothing like being consistent). This leads to
-			 //								the following dilemma:
-			 //
-			 //													EFFECTIVE Key Size		TRUE Key Size
-			 //													(KeyGenerator.init())	(SecretKey.getEncoding().length)
-			 //									========================================================================
-			 //									For DES:			56 bits					64 bits
-			 //									For DESede:			112 bits / 168 bits		192 bits (always)
-			 //
-			 //								We are trying to automatically determine the key size from SecretKey
-			 //								based on 8 * SecretKey.getEncoding().length, but as you can see, the
-			 //								2 key 3DES and the 3 key 3DES both use the same key size (192 bits)
-			 //								regardless of what is passed to KeyGenerator.init(). There are no advertised
-			 //								methods to get the key size specified by the init() method so I'm not sure how
-			 //								this is actually working internally. However, it does present a problem if we
-			 //								wish to communicate the 3DES key size to a recipient for later decryption as
-			 //								they would not be able to distinguish 2 key 3DES from 3 key 3DES.
-			 //
-			 //								The only workaround I know is to pass the explicit key size down. However, if
-			 //								we are going to do that, I'd propose passing in a CipherSpec object so we could
-			 //								tell what cipher transformation to use as well instead of just the key size. Then
-			 //								we would extract keySize from the CipherSpec object of from the SecretKey object.
-			 //
-			 if ( keySize != keyLen ) {
-				 // DISCUSS: Technically this is not a security "failure" per se, but not really a "success" either.
-				 logger.warning(Logger.SECURITY_FAILURE, "Encryption key length mismatch. ESAPI.EncryptionKeyLength is " +
-						 keyLen + " bits, but length of actual encryption key is " + keySize +
-				 		" bits.  Did you remember to regenerate your master key (if that is what you are using)???");
-			 }
-			 // DISCUSS: Reconsider these warnings. If thousands of encryptions are done in tight loop, no one needs
-			 //          more than 1 warning. Should we do something more intelligent here?
-			 if ( keySize < keyLen ) {
-				 // ESAPI.EncryptionKeyLength defaults to 128, but that means that we could not use DES (as weak as it
-				 // is), even for legacy code. Therefore, this has been changed to simple log a warning rather than
-				 //	throw the following exception.
-				 //				 throw new ConfigurationException("Actual key size of " + keySize + " bits smaller than specified " +
-				 //						  "encryption key length (ESAPI.EncryptionKeyLength) of " + keyLen + " bits.");
-				 logger.warning(Logger.SECURITY_FAILURE, "Actual key size of " + keySize + " bits SMALLER THAN specified " +
-						 "encryption key length (ESAPI.EncryptionKeyLength) of " + keyLen + " bits with cipher algorithm " + cipherAlg);
-			 }
-			 if ( keySize < 112 ) {		// NIST Special Pub 800-57 considers 112-bits to be the minimally safe key size from 2010-2030.
-				 						// Note that 112 bits 'just happens' to be size of 2-key Triple DES!
-				 logger.warning(Logger.SECURITY_FAILURE, "Potentially unsecure encryption. Key size of " + keySize + "bits " +
-				                "not sufficiently long for " + cipherAlg + ". Should use appropriate algorithm with key size " +
-				                "of *at least* 112 bits except when required by legacy apps. See NIST Special Pub 800-57.");
-			 }
-			 // Check if algorithm mentioned in SecretKey is same as that being used for Cipher object.
-			 // They should be the same. If they are different, things could fail. (E.g., DES and DESede
-			 // require keys with even parity. Even if key was sufficient size, if it didn't have the correct
-			 // parity it could fail.)
-			 //
-			 String skeyAlg = key.getAlgorithm();
-			 if ( !( cipherAlg.startsWith( skeyAlg + "/" ) || cipherAlg.equals( skeyAlg ) ) ) {
-				 // DISCUSS: Should we thrown a ConfigurationException here or just log a warning??? I'm game for
-				 //			 either, but personally I'd prefer the squeaky wheel to the annoying throwing of
-				 //			 a ConfigurationException (which is a RuntimeException). Less likely to upset
-				 //			 the development community.
-				 logger.warning(Logger.SECURITY_FAILURE, "Encryption mismatch between cipher algorithm (" +
-						 cipherAlg + ") and SecretKey algorithm (" + skeyAlg + "). Cipher will use algorithm " + cipherAlg);
-			 }
+			 checkKeySize(key, keySize, cipherAlg);
 
 			 byte[] ivBytes = null;
 			 CipherSpec cipherSpec = new CipherSpec(encrypter, keySize);	// Could pass the ACTUAL (intended) key size
@@ -505,7 +470,7 @@ public final class JavaEncryptor implements Encryptor {
 			 } else {
 				 encrypter.init(Cipher.ENCRYPT_MODE, encKey);
 			 }
-			 logger.debug(Logger.EVENT_SUCCESS, "Encrypting with " + cipherSpec);
+			 logger.debug(Logger.EVENT_SUCCESS, "Encrypting with {}", cipherSpec);
 			 byte[] raw = encrypter.doFinal(plaintext);
                  // Convert to CipherText.
              CipherText ciphertext = new CipherText(cipherSpec, raw);
@@ -545,6 +510,7 @@ public final class JavaEncryptor implements Encryptor {
 			 throw new EncryptionException("Encryption failure (unavailable padding scheme requested)",
 					 "Encryption problem: specified padding scheme in cipher xform " + xform + " not available: " + e.getMessage(), e);
 		 } finally {
+			 CryptoPool.release(encrypter);
 			 // Don't overwrite anything in the case of exceptions because they may wish to retry.
 			 if ( success && overwritePlaintext ) {
 				 plain.overwrite();		// Note: Same as overwriting 'plaintext' byte array.
@@ -552,6 +518,221 @@ public final class JavaEncryptor implements Encryptor {
 	}
 	 }
 
+	/**
+	 * Encrypt a batch of plaintexts with the master key.
+	 *
+	 * @see #encryptAll(SecretKey, List)
+	 * @since 2.1.1
+	 */
+	public List<CipherText> encryptAll(List<PlainText> plaintexts) throws EncryptionException {
+		return encryptAll(secretKeySpec, plaintexts);
+	}
+
+	/**
+	 * Encrypt a batch of plaintexts, with the same result as calling
+	 * {@link #encrypt(SecretKey, PlainText)} for each of them, but reading the
+	 * configuration, checking the cipher transformation and key, and deriving
+	 * the keys for encryption and authenticity only once for the whole batch.
+	 * The IVs for the batch come from a single call to the {@code Randomizer},
+	 * and a batch of at least {@code Encryptor.Batch.ParallelThreshold}
+	 * plaintexts is split across the available processors.
+	 * <p>
+	 * This method is not part of the {@code Encryptor} interface, so cast
+	 * {@code ESAPI.encryptor()} to {@code JavaEncryptor} to call it.
+	 *
+	 * @param key	The encryption key.
+	 * @param plaintexts	The plaintexts to encrypt.
+	 * @return	The ciphertexts, in the same order as the plaintexts.
+	 * @throws EncryptionException	if any plaintext cannot be encrypted, in which
+	 * 			case none of them is overwritten.
+	 * @since 2.1.1
+	 */
+	public List<CipherText> encryptAll(SecretKey key, final List<PlainText> plaintexts) throws EncryptionException {
+		if ( key == null ) {
+			throw new IllegalArgumentException("(Master) encryption key arg may not be null. Is Encryptor.MasterKey set?");
+		}
+		if ( plaintexts == null || plaintexts.contains(null) ) {
+			throw new IllegalArgumentException("PlainText list arg and its elements may not be null");
+		}
+		final int count = plaintexts.size();
+		String xform = ESAPI.securityConfiguration().getCipherTransformation();
+		int keySize = key.getEncoded().length * 8;	// Convert to # bits
+		final CipherText[] results = new CipherText[count];
+		try {
+			String[] parts = xform.split("/");
+			assert parts.length == 3 : "Malformed cipher transformation: " + xform;
+			String cipherMode = parts[1];
+			if ( ! CryptoHelper.isAllowedCipherMode(cipherMode) ) {
+				throw new EncryptionException("Encryption failure: invalid cipher mode ( " + cipherMode + ") for encryption",
+							"Encryption failure: Cipher transformation " + xform + " specifies invalid " +
+							"cipher mode " + cipherMode);
+			}
+			Cipher encrypter = CryptoPool.getCipher(xform);
+			final CipherSpec template;
+			try {
+				checkKeySize(key, keySize, encrypter.getAlgorithm());
+				template = new CipherSpec(encrypter, keySize);
+			} finally {
+				CryptoPool.release(encrypter);
+			}
+
+			final SecretKey encKey;
+			final SecretKey authKey;
+			if ( CryptoHelper.isCombinedCipherMode( cipherMode ) ) {
+				encKey = key;
+				authKey = null;
+			} else {
+				encKey = computeDerivedKey(KeyDerivationFunction.kdfVersion, getDefaultPRF(),
+										   key, keySize, "encryption");
+				authKey = computeDerivedKey(KeyDerivationFunction.kdfVersion, getDefaultPRF(),
+											key, keySize, "authenticity");
+			}
+
+			// The IVs for the whole batch, one after another
+			final byte[] ivs;
+			final int ivLength;
+			if ( template.requiresIV() ) {
+				String ivType = ESAPI.securityConfiguration().getIVType();
+				if ( ivType.equalsIgnoreCase("random") ) {
+					ivLength = template.getBlockSize();
+					ivs = ESAPI.randomizer().getRandomBytes(count * ivLength);
+				} else if ( ivType.equalsIgnoreCase("fixed") ) {
+					byte[] fixedIV = Hex.decode(ESAPI.securityConfiguration().getFixedIV());
+					ivLength = fixedIV.length;
+					ivs = new byte[count * ivLength];
+					for (int i = 0; i < count; i++) {
+						System.arraycopy(fixedIV, 0, ivs, i * ivLength, ivLength);
+					}
+				} else {
+					throw new ConfigurationException("Property Encryptor.ChooseIVMethod must be set to 'random' or 'fixed'");
+				}
+			} else {
+				ivs = null;
+				ivLength = 0;
+			}
+			logger.debug(Logger.EVENT_SUCCESS, "Encrypting {} values with {}", count, template);
+
+			final String cipherXform = xform;
+			runBatch(count, new BatchRange() {
+				public void run(int from, int to) throws Exception {
+					Cipher cipher = CryptoPool.getCipher(cipherXform);
+					try {
+						for (int i = from; i < to; i++) {
+							CipherSpec cipherSpec = new CipherSpec(template.getCipherTransformation(),
+																   template.getKeySize(), template.getBlockSize());
+							if ( ivs != null ) {
+								byte[] ivBytes = Arrays.copyOfRange(ivs, i * ivLength, (i + 1) * ivLength);
+								cipherSpec.setIV(ivBytes);
+								cipher.init(Cipher.ENCRYPT_MODE, encKey, new IvParameterSpec(ivBytes));
+							} else {
+								cipher.init(Cipher.ENCRYPT_MODE, encKey);
+							}
+							CipherText ciphertext = new CipherText(cipherSpec, cipher.doFinal(plaintexts.get(i).asBytes()));
+							if ( authKey != null ) {
+								ciphertext.computeAndStoreMAC( authKey );
+							}
+							results[i] = ciphertext;
+						}
+					} finally {
+						CryptoPool.release(cipher);
+					}
+				}
+			});
+		} catch (ConfigurationException cex) {
+			throw new EncryptionException("Encryption failure: Configuration error. Details in log.", "Key size mismatch or unsupported IV method. " +
+					"Check encryption key size vs. ESAPI.EncryptionKeyLength or Encryptor.ChooseIVMethod property.", cex);
+		} catch (EncryptionException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new EncryptionException("Encryption failure",
+					"Encryption problem with cipher xform " + xform + ": " + e.getMessage(), e);
+		}
+		if ( ESAPI.securityConfiguration().overwritePlainText() ) {
+			for (PlainText plain : plaintexts) {
+				plain.overwrite();
+			}
+		}
+		return Arrays.asList(results);
+	}
+
+	// Warn if the key does not match ESAPI.EncryptionKeyLength or the cipher algorithm.
+	private void checkKeySize(SecretKey key, int keySize, String cipherAlg) {
+		int keyLen = ESAPI.securityConfiguration().getEncryptionKeyLength();
+
+		// DISCUSS: OK, what do we want to do here if keyLen != keySize? If use keyLen, encryption
+		//		     could fail with an exception, but perhaps that's what we want. Or we may just be
+		//			 OK with silently using keySize as long as keySize >= keyLen, which then interprets
+		//			 ESAPI.EncryptionKeyLength as the *minimum* key size, but as long as we have something
+		//			 stronger it's OK to use it. For now, I am just going to log warning if different, but use
+		//			 keySize unless keySize is SMALLER than ESAPI.EncryptionKeyLength, in which case I'm going
+		//			 to log an error.
+		//
+		//			 IMPORTANT NOTE:	When we generate key sizes for both DES and DESede the result of
+		//								SecretKey.getEncoding().length includes the TRUE key size (i.e.,
+		//								*with* the even parity bits) rather than the EFFECTIVE key size
+		//								(which incidentally is what KeyGenerator.init() expects for DES
+		//								and DESede; duh! Nothing like being consistent). This leads to
+		//								the following dilemma:
+		//
+		//													EFFECTIVE Key Size		TRUE Key Size
+		//													(KeyGenerator.init())	(SecretKey.getEncoding().length)
+		//									========================================================================
+		//									For DES:			56 bits					64 bits
+		//									For DESede:			112 bits / 168 bits		192 bits (always)
+		//
+		//								We are trying to automatically determine the key size from SecretKey
+		//								based on 8 * SecretKey.getEncoding().length, but as you can see, the
+		//								2 key 3DES and the 3 key 3DES both use the same key size (192 bits)
+		//								regardless of what is passed to KeyGenerator.init(). There are no advertised
+		//								methods to get the key size specified by the init() method so I'm not sure how
+		//								this is actually working internally. However, it does present a problem if we
+		//								wish to communicate the 3DES key size to a recipient for later decryption as
+		//								they would not be able to distinguish 2 key 3DES from 3 key 3DES.
+		//
+		//								The only workaround I know is to pass the explicit key size down. However, if
+		//								we are going to do that, I'd propose passing in a CipherSpec object so we could
+		//								tell what cipher transformation to use as well instead of just the key size. Then
+		//								we would extract keySize from the CipherSpec object of from the SecretKey object.
+		//
+		if ( keySize != keyLen ) {
+			// DISCUSS: Technically this is not a security "failure" per se, but not really a "success" either.
+			logger.warning(Logger.SECURITY_FAILURE, "Encryption key length mismatch. ESAPI.EncryptionKeyLength is " +
+						 keyLen + " bits, but length of actual encryption key is " + keySize +
+					" bits.  Did you remember to regenerate your master key (if that is what you are using)???");
+		}
+		// DISCUSS: Reconsider these warnings. If thousands of encryptions are done in tight loop, no one needs
+		//          more than 1 warning. Should we do something more intelligent here?
+		if ( keySize < keyLen ) {
+			// ESAPI.EncryptionKeyLength defaults to 128, but that means that we could not use DES (as weak as it
+			// is), even for legacy code. Therefore, this has been changed to simple log a warning rather than
+			//	throw the following exception.
+			//				 throw new ConfigurationException("Actual key size of " + keySize + " bits smaller than specified " +
+			//						  "encryption key length (ESAPI.EncryptionKeyLength) of " + keyLen + " bits.");
+			logger.warning(Logger.SECURITY_FAILURE, "Actual key size of " + keySize + " bits SMALLER THAN specified " +
+						 "encryption key length (ESAPI.EncryptionKeyLength) of " + keyLen + " bits with cipher algorithm " + cipherAlg);
+		}
+		if ( keySize < 112 ) {		// NIST Special Pub 800-57 considers 112-bits to be the minimally safe key size from 2010-2030.
+									// Note that 112 bits 'just happens' to be size of 2-key Triple DES!
+			logger.warning(Logger.SECURITY_FAILURE, "Potentially unsecure encryption. Key size of " + keySize + "bits " +
+			               "not sufficiently long for " + cipherAlg + ". Should use appropriate algorithm with key size " +
+			               "of *at least* 112 bits except when required by legacy apps. See NIST Special Pub 800-57.");
+		}
+		// Check if algorithm mentioned in SecretKey is same as that being used for Cipher object.
+		// They should be the same. If they are different, things could fail. (E.g., DES and DESede
+		// require keys with even parity. Even if key was sufficient size, if it didn't have the correct
+		// parity it could fail.)
+		//
+		String skeyAlg = key.getAlgorithm();
+		if ( !( cipherAlg.startsWith( skeyAlg + "/" ) || cipherAlg.equals( skeyAlg ) ) ) {
+			// DISCUSS: Should we thrown a ConfigurationException here or just log a warning??? I'm game for
+			//			 either, but personally I'd prefer the squeaky wheel to the annoying throwing of
+			//			 a ConfigurationException (which is a RuntimeException). Less likely to upset
+			//			 the development community.
+			logger.warning(Logger.SECURITY_FAILURE, "Encryption mismatch between cipher algorithm (" +
+						 cipherAlg + ") and SecretKey algorithm (" + skeyAlg + "). Cipher will use algorithm " + cipherAlg);
+		}
+	}
+
 	/**
 	* {@inheritDoc}
 	*/
@@ -585,7 +766,7 @@ public final class JavaEncryptor implements Encryptor {
 	        " not permitted for decryption or encryption operations.");
 	    }
 	    logger.debug(Logger.EVENT_SUCCESS,
-	            "Args valid for JavaEncryptor.decrypt(SecretKey,CipherText): " +
+	            "Args valid for JavaEncryptor.decrypt(SecretKey,CipherText): {}",
 	            ciphertext);
 
 	    PlainText plaintext = null;
@@ -593,7 +774,7 @@ public final class JavaEncryptor implements Encryptor {
 	    int progressMark = 0;
 	    try {
 	        // First we validate the MAC.
-	        boolean valid = CryptoHelper.isCipherTextMACvalid(key, ciphertext);
+	        boolean valid = isMACValid(key, ciphertext);
 	        if ( !valid ) {
 	            try {
 	                // This is going to fail, but we want the same processing
@@ -636,46 +817,235 @@ public final class JavaEncryptor implements Encryptor {
 	    }
 	    finally {
 	        if ( caughtException ) {
-	            // The rest of this code is to try to account for any minute differences
-	            // in the time it might take for the various reasons that decryption fails
-	            // in order to prevent any other possible timing attacks. Perhaps it is
-	            // going overboard. If nothing else, if N_SECS is large enough, it might
-	            // deter attempted repeated attacks by making them take much longer.
-	            long now = System.nanoTime();
-	            long elapsed = now - start;
-	            final long NANOSECS_IN_SEC = 1000000000L; // nanosec is 10**-9 sec
-	            long nSecs = N_SECS * NANOSECS_IN_SEC;  // N seconds in nano seconds
-	            if ( elapsed < nSecs ) {
-	                // Want to sleep so total time taken is N seconds.
-	                long extraSleep = nSecs - elapsed;
-
-	                // 'extraSleep' is in nanoseconds. Need to convert to a millisec
-	                // part and nanosec part. Nanosec is 10**-9, millsec is
-	                // 10**-3, so divide by (10**-9 / 10**-3), or 10**6 to
-	                // convert to from nanoseconds to milliseconds.
-	                long millis = extraSleep / 1000000L;
-	                long nanos  = (extraSleep - (millis * 1000000L));
-	                assert nanos >= 0 && nanos <= Integer.MAX_VALUE :
-                            "Nanosecs out of bounds; nanos = " + nanos;
-	                try {
-	                    Thread.sleep(millis, (int)nanos);
-	                } catch(InterruptedException ex) {
-	                    ;   // Ignore
-	                }
-	            } // Else ... time already exceeds N_SECS sec, so do not sleep.
+	            delayFailure(start);
 	        }
 	    }
 	    return plaintext;
 	}
 
+	/**
+	 * Decrypt a batch of ciphertexts with the master key.
+	 *
+	 * @see #decryptAll(SecretKey, List)
+	 * @since 2.1.1
+	 */
+	public List<PlainText> decryptAll(List<CipherText> ciphertexts) throws EncryptionException {
+		return decryptAll(secretKeySpec, ciphertexts);
+	}
+
+	/**
+	 * Decrypt a batch of ciphertexts, with the same result as calling
+	 * {@link #decrypt(SecretKey, CipherText)} for each of them, but checking
+	 * the cipher modes and deriving the keys for each KDF version and PRF in
+	 * the batch only once. A batch of at least
+	 * {@code Encryptor.Batch.ParallelThreshold} ciphertexts is split across the
+	 * available processors.
+	 * <p>
+	 * This method is not part of the {@code Encryptor} interface, so cast
+	 * {@code ESAPI.encryptor()} to {@code JavaEncryptor} to call it.
+	 *
+	 * @param key	The decryption key.
+	 * @param ciphertexts	The ciphertexts to decrypt.
+	 * @return	The plaintexts, in the same order as the ciphertexts.
+	 * @throws EncryptionException	if any ciphertext cannot be decrypted or has an
+	 * 			invalid MAC. As for a single decryption, the failure is delayed.
+	 * @since 2.1.1
+	 */
+	public List<PlainText> decryptAll(SecretKey key, final List<CipherText> ciphertexts) throws EncryptionException {
+		long start = System.nanoTime();  // Current time in nanosecs; used to prevent timing attacks
+		if ( key == null ) {
+			throw new IllegalArgumentException("SecretKey arg may not be null");
+		}
+		if ( ciphertexts == null || ciphertexts.contains(null) ) {
+			throw new IllegalArgumentException("CipherText list arg and its elements may not be null");
+		}
+		final int count = ciphertexts.size();
+		final PlainText[] results = new PlainText[count];
+		try {
+			// Derive the keys up front, once for each KDF version, PRF and key size in the batch
+			int keySize = key.getEncoded().length * 8;	// Convert to # bits
+			final SecretKey[] encKeys = new SecretKey[count];
+			final SecretKey[] authKeys = new SecretKey[count];
+			Map<String, SecretKey> derived = new HashMap<String, SecretKey>();
+			for (int i = 0; i < count; i++) {
+				CipherText ciphertext = ciphertexts.get(i);
+				if ( ! CryptoHelper.isAllowedCipherMode(ciphertext.getCipherMode()) ) {
+					throw new EncryptionException(DECRYPTION_FAILED,
+							"Invalid cipher mode " + ciphertext.getCipherMode() +
+							" not permitted for decryption or encryption operations.");
+				}
+				if ( CryptoHelper.isCombinedCipherMode( ciphertext.getCipherMode() ) ) {
+					encKeys[i] = key;
+				} else {
+					encKeys[i] = batchDerivedKey(derived, ciphertext.getKDFVersion(), ciphertext.getKDF_PRF(),
+												 key, keySize, "encryption");
+				}
+				// The same key as isMACValid() uses
+				if ( CryptoHelper.isMACRequired( ciphertext ) ) {
+					authKeys[i] = batchDerivedKey(derived, KeyDerivationFunction.kdfVersion,
+												  KeyDerivationFunction.PRF_ALGORITHMS.HmacSHA1,
+												  key, ciphertext.getKeySize(), "authenticity");
+				}
+			}
+
+			runBatch(count, new BatchRange() {
+				public void run(int from, int to) throws Exception {
+					// Ciphers are reused for ciphertexts with the same transformation
+					Map<String, Cipher> ciphers = new HashMap<String, Cipher>();
+					try {
+						for (int i = from; i < to; i++) {
+							CipherText ciphertext = ciphertexts.get(i);
+							if ( authKeys[i] != null && !ciphertext.validateMAC(authKeys[i]) ) {
+								throw new EncryptionException(DECRYPTION_FAILED,
+										"Decryption failed because MAC invalid for " + ciphertext);
+							}
+							Cipher cipher = ciphers.get(ciphertext.getCipherTransformation());
+							if ( cipher == null ) {
+								cipher = CryptoPool.getCipher(ciphertext.getCipherTransformation());
+								ciphers.put(ciphertext.getCipherTransformation(), cipher);
+							}
+							if ( ciphertext.requiresIV() ) {
+								cipher.init(Cipher.DECRYPT_MODE, encKeys[i], new IvParameterSpec(ciphertext.getIV()));
+							} else {
+								cipher.init(Cipher.DECRYPT_MODE, encKeys[i]);
+							}
+							results[i] = new PlainText(cipher.doFinal(ciphertext.getRawCipherText()));
+						}
+					} finally {
+						for (Cipher cipher : ciphers.values()) {
+							CryptoPool.release(cipher);
+						}
+					}
+				}
+			});
+			return Arrays.asList(results);
+		} catch (EncryptionException e) {
+			logger.error(Logger.SECURITY_FAILURE, "Batch decryption failed. See logged exception for details.");
+			delayFailure(start);
+			throw e;
+		} catch (Exception e) {
+			logger.error(Logger.SECURITY_FAILURE, "Batch decryption failed. See logged exception for details.");
+			delayFailure(start);
+			throw new EncryptionException(DECRYPTION_FAILED, "Decryption problem: " + e.getMessage(), e);
+		}
+	}
+
+	// Derive a key for a batch, reusing one already derived for the same parameters.
+	private SecretKey batchDerivedKey(Map<String, SecretKey> derived, int kdfVersion,
+									  KeyDerivationFunction.PRF_ALGORITHMS prf,
+									  SecretKey kdk, int keySize, String purpose)
+		throws NoSuchAlgorithmException, InvalidKeyException, EncryptionException
+	{
+		String name = kdfVersion + "/" + prf + "/" + keySize + "/" + purpose;
+		SecretKey key = derived.get(name);
+		if ( key == null ) {
+			key = computeDerivedKey(kdfVersion, prf, kdk, keySize, purpose);
+			derived.put(name, key);
+		}
+		return key;
+	}
+
+	// Part of a batch, from (inclusive) to (exclusive).
+	private interface BatchRange {
+		void run(int from, int to) throws Exception;
+	}
+
+	// Process a batch on this thread, or in slices across the processors if it is large.
+	private static void runBatch(int count, final BatchRange range) throws Exception {
+		int threshold = ESAPI.securityConfiguration().getBatchParallelThreshold();
+		int slices = Math.min(Runtime.getRuntime().availableProcessors(), count);
+		if ( threshold <= 0 || count < threshold || slices < 2 ) {
+			range.run(0, count);
+			return;
+		}
+		ExecutorService executor = getBatchExecutor();
+		List<Future<Void>> futures = new ArrayList<Future<Void>>(slices);
+		for (int i = 0; i < slices; i++) {
+			final int from = (int) ((long) count * i / slices);
+			final int to = (int) ((long) count * (i + 1) / slices);
+			Callable<Void> slice = new Callable<Void>() {
+				public Void call() throws Exception {
+					range.run(from, to);
+					return null;
+				}
+			};
+			try {
+				futures.add(executor.submit(slice));
+			} catch (RejectedExecutionException e) {
+				// The executor is shut down, e.g., the JVM is exiting; do the rest here.
+				FutureTask<Void> inline = new FutureTask<Void>(slice);
+				inline.run();
+				futures.add(inline);
+			}
+		}
+		try {
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (ExecutionException e) {
+			for (Future<Void> future : futures) {
+				future.cancel(false);
+			}
+			Throwable cause = e.getCause();
+			if ( cause instanceof Exception ) {
+				throw (Exception) cause;
+			}
+			throw (Error) cause;
+		}
+	}
+
+	private static ExecutorService getBatchExecutor() {
+		if ( batchExecutor == null ) {
+			synchronized ( JavaEncryptor.class ) {
+				if ( batchExecutor == null ) {
+					batchExecutor = DaemonThreadFactory.newSharedPool("ESAPI-Encryptor");
+				}
+			}
+		}
+		return batchExecutor;
+	}
+
+    // Make a failed decryption take N_SECS in all, so the time it takes does not
+    // reveal why it failed.
+    private static void delayFailure(long start) {
+        // The rest of this code is to try to account for any minute differences
+        // in the time it might take for the various reasons that decryption fails
+        // in order to prevent any other possible timing attacks. Perhaps it is
+        // going overboard. If nothing else, if N_SECS is large enough, it might
+        // deter attempted repeated attacks by making them take much longer.
+        long now = System.nanoTime();
+        long elapsed = now - start;
+        final long NANOSECS_IN_SEC = 1000000000L; // nanosec is 10**-9 sec
+        long nSecs = N_SECS * NANOSECS_IN_SEC;  // N seconds in nano seconds
+        if ( elapsed < nSecs ) {
+            // Want to sleep so total time taken is N seconds.
+            long extraSleep = nSecs - elapsed;
+
+            // 'extraSleep' is in nanoseconds. Need to convert to a millisec
+            // part and nanosec part. Nanosec is 10**-9, millsec is
+            // 10**-3, so divide by (10**-9 / 10**-3), or 10**6 to
+            // convert to from nanoseconds to milliseconds.
+            long millis = extraSleep / 1000000L;
+            long nanos  = (extraSleep - (millis * 1000000L));
+            assert nanos >= 0 && nanos <= Integer.MAX_VALUE :
+                            "Nanosecs out of bounds; nanos = " + nanos;
+            try {
+                Thread.sleep(millis, (int)nanos);
+            } catch(InterruptedException ex) {
+                ;   // Ignore
+            }
+        } // Else ... time already exceeds N_SECS sec, so do not sleep.
+    }
+
     // Handle the actual decryption portion. At this point it is assumed that
     // any MAC has already been validated. (But see "DISCUSS" issue, below.)
     private PlainText handleDecryption(SecretKey key, CipherText ciphertext)
         throws EncryptionException
     {
         int keySize = 0;
+        Cipher decrypter = null;
         try {
-            Cipher decrypter = Cipher.getInstance(ciphertext.getCipherTransformation());
+            decrypter = CryptoPool.getCipher(ciphertext.getCipherTransformation());
             keySize = key.getEncoded().length * 8;  // Convert to # bits
 
             // Using cipher mode that supports *both* confidentiality *and* authenticity? If so, then
@@ -748,6 +1118,8 @@ public final class JavaEncryptor implements Encryptor {
                         "Decryption problem: WARNING: Adversary may have tampered with " +
                         "CipherText object orCipherText object mangled in transit: " + e.getMessage(), e);
             }
+        } finally {
+            CryptoPool.release(decrypter);
         }
     }
 	
@@ -757,12 +1129,14 @@ public final class JavaEncryptor implements Encryptor {
 	public String sign(String data) throws EncryptionException {
 		try {
 			Signature signer = Signature.getInstance(signatureAlgorithm);
-			signer.initSign(privateKey);
+			signer.initSign(getSigningKeys().getPrivate());
 			signer.update(data.getBytes(encoding));
 			byte[] bytes = signer.sign();
 			return ESAPI.encoder().encodeForBase64(bytes, false);
 		} catch (InvalidKeyException ike) {
 			throw new EncryptionException("Encryption failure", "Must install unlimited strength crypto extension from Sun", ike);
+		} catch (EncryptionException e) {
+			throw e;
 		} catch (Exception e) {
 			throw new EncryptionException("Signature failure", "Can't find signature algorithm " + signatureAlgorithm, e);
 		}
@@ -775,7 +1149,7 @@ public final class JavaEncryptor implements Encryptor {
 		try {
 			byte[] bytes = ESAPI.encoder().decodeFromBase64(signature);
 			Signature signer = Signature.getInstance(signatureAlgorithm);
-			signer.initVerify(publicKey);
+			signer.initVerify(getSigningKeys().getPublic());
 			signer.update(data.getBytes(encoding));
 			return signer.verify(bytes);
 		} catch (Exception e) {
@@ -799,6 +1173,9 @@ public final class JavaEncryptor implements Encryptor {
 	    }
 	    
 		try {
+		    if ( ESAPI.securityConfiguration().getSealVersion() >= COMPACT_SEAL_VERSION ) {
+		        return sealCompact(data, expiration);
+		    }
 		    String b64data = null;
             try {
                 b64data = ESAPI.encoder().encodeForBase64(data.getBytes("UTF-8"), false);
@@ -825,6 +1202,9 @@ public final class JavaEncryptor implements Encryptor {
 		PlainText plaintext = null;
 		try {
 		    byte[] encryptedBytes = ESAPI.encoder().decodeFromBase64(seal);
+		    if ( encryptedBytes != null && encryptedBytes.length > 0 && encryptedBytes[0] == COMPACT_SEAL_VERSION ) {
+		        return unsealCompact(encryptedBytes);
+		    }
 		    CipherText cipherText = null;
 		    try {
 		        cipherText = CipherText.fromPortableSerializedBytes(encryptedBytes);
@@ -861,6 +1241,68 @@ public final class JavaEncryptor implements Encryptor {
 		}
 	}
 
+
+	// Seal in the compact format: the version byte, the expiration, the serialized
+	// CipherText of the data, then an HMAC of all of those, base64 encoded once.
+	private String sealCompact(String data, long expiration) throws EncryptionException {
+		CipherText ciphertext = this.encrypt( new PlainText(data) );
+		int length = 1 + 8 + ciphertext.getPortableSerializedLength();
+		ByteBuffer sealed = ByteBuffer.allocate(length + SEAL_TAG_LENGTH);
+		sealed.put(COMPACT_SEAL_VERSION);
+		sealed.putLong(expiration);
+		ciphertext.writePortableSerializedBytes(sealed);
+		sealed.put(computeSealTag(sealed.array(), length));
+		return ESAPI.encoder().encodeForBase64(sealed.array(), false);
+	}
+
+	private String unsealCompact(byte[] sealed) throws EncryptionException {
+		if ( sealed.length < 1 + 8 + SEAL_TAG_LENGTH ) {
+			throw new EncryptionException("Invalid seal", "Seal was not formatted properly.");
+		}
+		int length = sealed.length - SEAL_TAG_LENGTH;
+		byte[] tag = Arrays.copyOfRange(sealed, length, sealed.length);
+		if ( !CryptoHelper.arrayCompare(computeSealTag(sealed, length), tag) ) {
+			throw new EncryptionException("Invalid seal", "Seal integrity check failed");
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(sealed, 1, length - 1);
+		long expiration = buffer.getLong();
+		long now = new Date().getTime();
+		if (now > expiration) {
+			throw new EncryptionException("Invalid seal", "Seal expiration date of " + new Date(expiration) + " has past.");
+		}
+		CipherText cipherText = CipherText.fromPortableSerializedBytes(buffer);
+		if ( buffer.hasRemaining() ) {
+			throw new EncryptionException("Invalid seal", "Seal was not formatted properly.");
+		}
+		return this.decrypt(cipherText).toString();
+	}
+
+	// HMAC of the first length bytes of a compact seal.
+	private byte[] computeSealTag(byte[] sealed, int length) throws EncryptionException {
+		Mac mac = null;
+		try {
+			mac = CryptoPool.getMac(SEAL_MAC_ALGORITHM);
+			mac.init(getSealKey());
+			mac.update(sealed, 0, length);
+			return mac.doFinal();
+		} catch (Exception e) {
+			throw new EncryptionException("Invalid seal", "Unable to compute seal HMAC: " + e.getMessage(), e);
+		} finally {
+			CryptoPool.release(mac);
+		}
+	}
+
+	private SecretKey getSealKey() throws NoSuchAlgorithmException, InvalidKeyException, EncryptionException {
+		SecretKey key = sealKey;
+		if ( key == null ) {
+			// A purpose of its own, so that the key differs from those used for ciphertexts
+			SecretKey derived = new KeyDerivationFunction(KeyDerivationFunction.PRF_ALGORITHMS.HmacSHA256)
+												.computeDerivedKey(secretKeySpec, SEAL_TAG_LENGTH * 8, "seal");
+			key = new SecretKeySpec(derived.getEncoded(), SEAL_MAC_ALGORITHM);
+			sealKey = key;
+		}
+		return key;
+	}
 	
 	/**
 	* {@inheritDoc}
@@ -978,6 +1420,31 @@ public final class JavaEncryptor implements Encryptor {
 		return getPRF(prfName);
     }
     
+    // Same as CryptoHelper.isCipherTextMACvalid(), but with the authenticity key from the cache.
+    private boolean isMACValid(SecretKey key, CipherText ct) {
+    	if ( !CryptoHelper.isMACRequired(ct) ) {
+    		return true;
+    	}
+    	try {
+    		SecretKey authKey = computeDerivedKey(KeyDerivationFunction.kdfVersion,
+    											  KeyDerivationFunction.PRF_ALGORITHMS.HmacSHA1,
+    											  key, ct.getKeySize(), "authenticity");
+    		return ct.validateMAC(authKey);
+    	} catch (Exception ex) {
+    		// Error on side of security. If this fails and can't verify MAC
+    		// assume it is invalid.
+    		logger.warning(Logger.SECURITY_FAILURE, "Unable to validate MAC for ciphertext " + ct, ex);
+    		return false;
+    	}
+    }
+
+    /**
+     * @return The cache of derived keys, or null if Encryptor.KDF.CacheSize is 0.
+     */
+    DerivedKeyCache getDerivedKeyCache() {
+    	return derivedKeys;
+    }
+
     // Private interface to call ESAPI's KDF to get key for encryption or authenticity.
     private SecretKey computeDerivedKey(int kdfVersion, KeyDerivationFunction.PRF_ALGORITHMS prf,
     									SecretKey kdk, int keySize, String purpose)
@@ -999,11 +1466,24 @@ public final class JavaEncryptor implements Encryptor {
     	assert purpose.equals("encryption") || purpose.equals("authenticity") :
     		"Purpose must be \"encryption\" or \"authenticity\".";
 
+    	DerivedKeyCache.CacheKey cacheKey = ( derivedKeys == null ) ? null :
+    		derivedKeys.cacheKey(kdk, kdfVersion, prf, keySize, purpose);
+    	if ( cacheKey != null ) {
+    		SecretKey derived = derivedKeys.get(cacheKey);
+    		if ( derived != null ) {
+    			return derived;
+    		}
+    	}
+
     	KeyDerivationFunction kdf = new KeyDerivationFunction(prf);
     	if ( kdfVersion != 0 ) {
     		kdf.setVersion(kdfVersion);
     	}
-    	return kdf.computeDerivedKey(kdk, keySize, purpose);
+    	SecretKey derived = kdf.computeDerivedKey(kdk, keySize, purpose);
+    	if ( cacheKey != null ) {
+    		derivedKeys.put(cacheKey, derived);
+    	}
+    	return derived;
     }
 
     // Get all the algorithms we will be using from ESAPI.properties.
@@ -1019,32 +1499,51 @@ public final class JavaEncryptor implements Encryptor {
         signatureKeyLength = ESAPI.securityConfiguration().getDigitalSignatureKeyLength();
     }
     
-    // Set up signing key pair using the master password and salt. Called (once)
-    // from the JavaEncryptor CTOR.
-    private static void initKeyPair(SecureRandom prng) throws NoSuchAlgorithmException {
-        String sigAlg = signatureAlgorithm.toLowerCase();
-        if ( sigAlg.endsWith("withdsa") ) {
-            //
-            // Admittedly, this is a kludge. However for Sun JCE, even though
-            // "SHA1withDSA" is a valid signature algorithm name, if one calls
-            //      KeyPairGenerator kpg = KeyPairGenerator.getInstance("SHA1withDSA");
-            // that will throw a NoSuchAlgorithmException with an exception
-            // message of "SHA1withDSA KeyPairGenerator not available". Since
-            // SHA1withDSA and DSA keys should be identical, we use "DSA"
-            // in the case that SHA1withDSA or SHAwithDSA was specified. This is
-            // all just to make these 2 work as expected. Sigh. (Note:
-            // this was tested with JDK 1.6.0_21, but likely fails with earlier
-            // versions of the JDK as well.)
-            //
-            sigAlg = "DSA";
-        } else if ( sigAlg.endsWith("withrsa") ) {
-            // Ditto for RSA.
-            sigAlg = "RSA";
+    /**
+     * Get the key pair used for digital signatures, setting it up on first use.
+     * The key pair is loaded from {@code Encryptor.DigitalSignatureKeyStore}
+     * or {@code Encryptor.DigitalSignatureKeyPairFile}. If neither is set, it
+     * falls back to deriving the key pair from the master key and salt, as
+     * earlier releases did.
+     */
+    private KeyPair getSigningKeys() throws EncryptionException {
+        KeyPair keys = signingKeys;
+        if ( keys == null ) {
+            synchronized(JavaEncryptor.class) {
+                keys = signingKeys;
+                if ( keys == null ) {
+                    keys = SigningKeyPairs.load(ESAPI.securityConfiguration());
+                    if ( keys == null ) {
+                        keys = deriveKeyPair();
+                    }
+                    signingKeys = keys;
+                }
+            }
+        }
+        return keys;
+    }
+
+    // Derive the signing key pair from the master key and salt. Anyone who
+    // knows the algorithm and key length can regenerate it from the master key,
+    // and generating it is slow, so configure a persisted key pair instead.
+    private KeyPair deriveKeyPair() throws EncryptionException {
+        logger.warning(Logger.SECURITY_FAILURE, "No Encryptor.DigitalSignatureKeyStore or " +
+                "Encryptor.DigitalSignatureKeyPairFile configured; deriving the signing key pair " +
+                "from the master key. Use 'JavaEncryptor -genkeypair <file>' to create one.");
+        try {
+            SecureRandom prng = SecureRandom.getInstance(randomAlgorithm);
+
+            // Because hash() is not static (but it could be were in not
+            // for the interface method specification in Encryptor), we
+            // cannot do this initialization in a static method or static
+            // initializer.
+            byte[] skey = secretKeySpec.getEncoded();
+            byte[] salt = ESAPI.securityConfiguration().getMasterSalt();
+            byte[] seed = hash(new String(skey, encoding),new String(salt, encoding)).getBytes(encoding);
+            prng.setSeed(seed);
+            return SigningKeyPairs.generate(signatureAlgorithm, signatureKeyLength, prng);
+        } catch (Exception e) {
+            throw new EncryptionException("Encryption failure", "Error creating signing key pair", e);
         }
-        KeyPairGenerator keyGen = KeyPairGenerator.getInstance(sigAlg);
-        keyGen.initialize(signatureKeyLength, prng);
-        KeyPair pair = keyGen.generateKeyPair();
-        privateKey = pair.getPrivate();
-        publicKey = pair.getPublic();
     }
 }
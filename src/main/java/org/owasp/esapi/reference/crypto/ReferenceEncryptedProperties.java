@@ -17,8 +17,10 @@ package org.owasp.esapi.reference.crypto;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.ObjectInputStream;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.Reader;
@@ -26,6 +28,7 @@ import java.util.Collection;
 import java.util.Enumeration;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.owasp.esapi.ESAPI;
 import org.owasp.esapi.EncryptedProperties;
@@ -45,6 +48,13 @@ import org.owasp.esapi.errors.EncryptionRuntimeException;
  * instance of that class. In order to do so, the {@code getProperty} and
  * {@code setProperty} methods were modified to throw {@code EncryptionRuntimeException}
  * instead of {@code EncryptionException}.
+ * <p>
+ * Each value is decrypted only once, the first time it is read or, if so
+ * constructed, when the properties are loaded. The values and their plaintexts
+ * are kept in a concurrent map next to the table, so {@code getProperty} does
+ * not lock, and a plaintext is only cached while the property still has the
+ * value it was decrypted from. {@link #close()} drops the cached plaintexts,
+ * optionally overwriting them first.
  *
  * @author August Detlefsen (augustd at codemagi dot com)
  *         <a href="http://www.codemagi.com">CodeMagi, Inc.</a>
@@ -53,7 +63,7 @@ import org.owasp.esapi.errors.EncryptionRuntimeException;
  * @see org.owasp.esapi.EncryptedProperties
  * @see org.owasp.esapi.reference.crypto.DefaultEncryptedProperties
  */
-public class ReferenceEncryptedProperties extends java.util.Properties implements EncryptedProperties {
+public class ReferenceEncryptedProperties extends java.util.Properties implements EncryptedProperties, Closeable {
 
 	/**
 	 * serverVersionUID; use format of YYYYMMDD.
@@ -76,15 +86,34 @@ public class ReferenceEncryptedProperties extends java.util.Properties implement
 		": failed to set base64-encoded value as property. Illegal key name?"
 	};
 
+	/** The values in the table, with their plaintexts once decrypted; changed while holding the lock on this. */
+	private transient ConcurrentHashMap<String, CachedProperty> values = new ConcurrentHashMap<String, CachedProperty>();
+
+	private final boolean eagerDecryption;
+	private final boolean zeroizeOnClose;
+
 	/**
 	 * Instantiates a new encrypted properties.
 	 */
 	public ReferenceEncryptedProperties() {
+		this(false, false);
+	}
+
+	/**
+	 * Instantiates a new encrypted properties.
+	 *
+	 * @param eagerDecryption	Decrypt every value when the properties are loaded,
+	 * 							rather than the first time each one is read.
+	 * @param zeroizeOnClose	Overwrite the cached plaintexts when {@link #close()} is called.
+	 */
+	public ReferenceEncryptedProperties(boolean eagerDecryption, boolean zeroizeOnClose) {
 		super();
+		this.eagerDecryption = eagerDecryption;
+		this.zeroizeOnClose = zeroizeOnClose;
 	}
 
 	public ReferenceEncryptedProperties(Properties defaults) {
-		super();
+		this();
 
 		for (Object oKey : defaults.keySet()) {
 			String key		= (oKey instanceof String) ? (String)oKey : oKey.toString();
@@ -100,22 +129,30 @@ public class ReferenceEncryptedProperties extends java.util.Properties implement
 	 * @throws EncryptionRuntimeException Thrown if decryption fails.
 	 */
 	@Override
-	public synchronized String getProperty(String key) throws EncryptionRuntimeException {
+	public String getProperty(String key) throws EncryptionRuntimeException {
 	    int progressMark = 0;
 	    try {
-	        String encryptedValue = super.getProperty(key);
+	        CachedProperty encryptedValue = values.get(key);
 
 	        if(encryptedValue==null)
 	            return null;
 
+	        String cached = encryptedValue.getPlaintext();
+	        if ( cached != null ) {
+	            return cached;
+	        }
+
 	        progressMark = 0;
-	        byte[] serializedCiphertext   = ESAPI.encoder().decodeFromBase64(encryptedValue);
+	        byte[] serializedCiphertext   = ESAPI.encoder().decodeFromBase64(encryptedValue.getCiphertext());
 	        progressMark++;
 	        CipherText restoredCipherText = CipherText.fromPortableSerializedBytes(serializedCiphertext);
 	        progressMark++;
 	        PlainText plaintext           = ESAPI.encryptor().decrypt(restoredCipherText);
 
-	        return plaintext.toString();
+	        String value = plaintext.toString();
+	        plaintext.overwrite();
+	        CachedProperty.cache(values, key, encryptedValue, value);
+	        return value;
 		} catch (Exception e) {
 			throw new EncryptionRuntimeException("Property retrieval failure",
 					                             "Couldn't retrieve encrypted property for property " + key +
@@ -143,7 +180,7 @@ public class ReferenceEncryptedProperties extends java.util.Properties implement
 	 * @throws EncryptionRuntimeException Thrown if encryption fails.
 	 */
 	@Override
-	public synchronized String setProperty(String key, String value) throws EncryptionRuntimeException {
+	public String setProperty(String key, String value) throws EncryptionRuntimeException {
 	    int progressMark = 0;
 	    try {
 	        if ( key == null ) {
@@ -160,7 +197,10 @@ public class ReferenceEncryptedProperties extends java.util.Properties implement
 	        progressMark++;
 	        String b64str = ESAPI.encoder().encodeForBase64(serializedCiphertext, false);
 	        progressMark++;
-	        return (String)super.put(key, b64str);
+	        synchronized ( this ) {
+	            values.put(key, new CachedProperty(b64str, value));
+	            return (String)super.put(key, b64str);
+	        }
 	    } catch (Exception e) {
 	        throw new EncryptionRuntimeException("Property setting failure",
 	                                      "Couldn't set encrypted property " + key +
@@ -176,6 +216,7 @@ public class ReferenceEncryptedProperties extends java.util.Properties implement
 	@Override
 	public void load(InputStream in) throws IOException {
 		super.load(in);
+		decryptIfEager();
 		logger.trace(Logger.SECURITY_SUCCESS, "Encrypted properties loaded successfully");
 	}
 
@@ -207,9 +248,71 @@ public class ReferenceEncryptedProperties extends java.util.Properties implement
 		InputStream is = new ByteArrayInputStream(contents.toString().getBytes());
 
 		super.load(is);
+		decryptIfEager();
 		logger.trace(Logger.SECURITY_SUCCESS, "Encrypted properties loaded successfully");
 	}
 
+	// Decrypt every value now if constructed for eager decryption.
+	private void decryptIfEager() {
+		if ( eagerDecryption ) {
+			for (Object key : keySet().toArray()) {
+				getProperty(key.toString());
+			}
+		}
+	}
+
+	/**
+	 * Drops the cached plaintexts, overwriting them first if this was constructed
+	 * to zeroize on close. Values read afterwards are decrypted again. Call this
+	 * only once no other thread is reading properties.
+	 */
+	public void close() {
+		CachedProperty.drop(values, zeroizeOnClose);
+	}
+
+	// Keep the values in step with a value put in the table, keeping the plaintext if it is unchanged.
+	private void updated(Object key, Object encryptedValue) {
+		if ( values == null ) {
+			return;     // Being deserialized, see readObject
+		}
+		if ( !(key instanceof String && encryptedValue instanceof String) ) {
+			values.remove(key);
+			return;
+		}
+		CachedProperty value = values.get(key);
+		if ( value == null || !value.getCiphertext().equals(encryptedValue) ) {
+			values.put((String)key, new CachedProperty((String)encryptedValue, null));
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized Object remove(Object key) {
+		values.remove(key);
+		return super.remove(key);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void clear() {
+		super.clear();
+		values.clear();
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		synchronized ( this ) {
+			values = new ConcurrentHashMap<String, CachedProperty>();
+			for (Object key : keySet()) {
+				updated(key, super.get(key));
+			}
+		}
+	}
+
 	/**
 	 * This method has been overridden to throw an {@code UnsupportedOperationException}
 	 */
@@ -270,7 +373,11 @@ public class ReferenceEncryptedProperties extends java.util.Properties implement
 		//the superclass (java.util.Hashtable)
 		Throwable t = new Throwable();
 		for (StackTraceElement trace : t.getStackTrace()) {
-			if ("java.util.Properties".equals(trace.getClassName()) ) return super.put(key, value);
+			if ("java.util.Properties".equals(trace.getClassName()) ) {
+				Object old = super.put(key, value);
+				updated(key, value);
+				return old;
+			}
 		}
 
 		//otherwise, if both arguments are Strings, encrypt and store them
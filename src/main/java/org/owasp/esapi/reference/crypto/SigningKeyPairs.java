@@ -0,0 +1,217 @@
+/**
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ *
+ * The ESAPI is published by OWASP under the BSD license. You should read and accept the
+ * LICENSE before you use, modify, and/or redistribute this software.
+ *
+ * @created 2014
+ */
+package org.owasp.esapi.reference.crypto;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.cert.Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Properties;
+
+import org.owasp.esapi.ESAPI;
+import org.owasp.esapi.SecurityConfiguration;
+import org.owasp.esapi.errors.EncryptionException;
+
+/**
+ * Generates, stores and loads the key pair {@link JavaEncryptor} signs with,
+ * so that every node of a cluster, and every restart, can use the same one.
+ * <p>
+ * The key pair comes from a private key entry of a key store, or from a key
+ * pair file. A key pair file is a properties file holding the key algorithm,
+ * the PKCS#8 encoded private key and the X.509 encoded public key, each base64
+ * encoded. {@code JavaEncryptor -genkeypair} writes one, readable only by its
+ * owner where the file system allows.
+ *
+ * @since 2.1.1
+ */
+final class SigningKeyPairs {
+
+    static final String ALGORITHM = "Algorithm";
+    static final String PRIVATE_KEY = "PrivateKey";
+    static final String PUBLIC_KEY = "PublicKey";
+
+    private SigningKeyPairs() {
+    }
+
+    /**
+     * Get the name of the key algorithm for a signature algorithm.
+     */
+    static String keyAlgorithm(String signatureAlgorithm) {
+        String sigAlg = signatureAlgorithm.toLowerCase();
+        if ( sigAlg.endsWith("withdsa") ) {
+            //
+            // Admittedly, this is a kludge. However for Sun JCE, even though
+            // "SHA1withDSA" is a valid signature algorithm name, if one calls
+            //      KeyPairGenerator kpg = KeyPairGenerator.getInstance("SHA1withDSA");
+            // that will throw a NoSuchAlgorithmException with an exception
+            // message of "SHA1withDSA KeyPairGenerator not available". Since
+            // SHA1withDSA and DSA keys should be identical, we use "DSA"
+            // in the case that SHA1withDSA or SHAwithDSA was specified. This is
+            // all just to make these 2 work as expected. Sigh. (Note:
+            // this was tested with JDK 1.6.0_21, but likely fails with earlier
+            // versions of the JDK as well.)
+            //
+            return "DSA";
+        } else if ( sigAlg.endsWith("withrsa") ) {
+            // Ditto for RSA.
+            return "RSA";
+        }
+        return signatureAlgorithm;
+    }
+
+    /**
+     * Generate a key pair for a signature algorithm.
+     */
+    static KeyPair generate(String signatureAlgorithm, int keyLength, SecureRandom prng)
+        throws NoSuchAlgorithmException
+    {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance(keyAlgorithm(signatureAlgorithm));
+        keyGen.initialize(keyLength, prng);
+        return keyGen.generateKeyPair();
+    }
+
+    /**
+     * Load the key pair from the key store or key pair file that is configured.
+     *
+     * @return The key pair, or null if neither is configured.
+     * @throws EncryptionException if the key pair cannot be loaded.
+     */
+    static KeyPair load(SecurityConfiguration config) throws EncryptionException {
+        String keyStore = config.getDigitalSignatureKeyStore();
+        if ( keyStore != null && keyStore.trim().length() > 0 ) {
+            return loadKeyStore(resolve(config, keyStore.trim()), config.getDigitalSignatureKeyStoreType(),
+                                config.getDigitalSignatureKeyStorePassword().toCharArray(),
+                                config.getDigitalSignatureKeyAlias());
+        }
+        String keyPairFile = config.getDigitalSignatureKeyPairFile();
+        if ( keyPairFile != null && keyPairFile.trim().length() > 0 ) {
+            return loadKeyPairFile(resolve(config, keyPairFile.trim()));
+        }
+        return null;
+    }
+
+    /**
+     * Load a key pair from the private key entry of a key store and its certificate.
+     */
+    static KeyPair loadKeyStore(File file, String type, char[] password, String alias)
+        throws EncryptionException
+    {
+        try {
+            KeyStore keyStore = KeyStore.getInstance(type);
+            InputStream in = new FileInputStream(file);
+            try {
+                keyStore.load(in, password);
+            } finally {
+                in.close();
+            }
+            Key key = keyStore.getKey(alias, password);
+            Certificate certificate = keyStore.getCertificate(alias);
+            if ( !(key instanceof PrivateKey) || certificate == null ) {
+                throw new EncryptionException("Signing key unavailable",
+                        "Key store " + file + " has no private key entry with a certificate named " + alias);
+            }
+            return new KeyPair(certificate.getPublicKey(), (PrivateKey) key);
+        } catch (EncryptionException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new EncryptionException("Signing key unavailable",
+                    "Cannot load signing key pair from key store " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Load a key pair from a key pair file.
+     */
+    static KeyPair loadKeyPairFile(File file) throws EncryptionException {
+        try {
+            Properties properties = new Properties();
+            InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+            String algorithm = properties.getProperty(ALGORITHM);
+            String privateKey = properties.getProperty(PRIVATE_KEY);
+            String publicKey = properties.getProperty(PUBLIC_KEY);
+            if ( algorithm == null || privateKey == null || publicKey == null ) {
+                throw new EncryptionException("Signing key unavailable", "Key pair file " + file + " must set " +
+                        ALGORITHM + ", " + PRIVATE_KEY + " and " + PUBLIC_KEY);
+            }
+            KeyFactory factory = KeyFactory.getInstance(algorithm.trim());
+            PrivateKey priv = factory.generatePrivate(
+                    new PKCS8EncodedKeySpec(ESAPI.encoder().decodeFromBase64(privateKey.trim())));
+            PublicKey pub = factory.generatePublic(
+                    new X509EncodedKeySpec(ESAPI.encoder().decodeFromBase64(publicKey.trim())));
+            return new KeyPair(pub, priv);
+        } catch (EncryptionException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new EncryptionException("Signing key unavailable",
+                    "Cannot load signing key pair from " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Write a key pair file, readable only by its owner where the file system allows.
+     */
+    static void writeKeyPairFile(KeyPair pair, File file) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(ALGORITHM, pair.getPrivate().getAlgorithm());
+        properties.setProperty(PRIVATE_KEY, ESAPI.encoder().encodeForBase64(pair.getPrivate().getEncoded(), false));
+        properties.setProperty(PUBLIC_KEY, ESAPI.encoder().encodeForBase64(pair.getPublic().getEncoded(), false));
+
+        // Restrict the file before the private key is written to it
+        if ( !file.exists() && !file.createNewFile() ) {
+            throw new IOException("Cannot create " + file);
+        }
+        file.setReadable(false, false);
+        file.setWritable(false, false);
+        file.setReadable(true, true);
+        file.setWritable(true, true);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, "ESAPI digital signature key pair; keep this file secret");
+        } finally {
+            out.close();
+        }
+    }
+
+    // Relative paths are looked up like the other ESAPI resource files.
+    private static File resolve(SecurityConfiguration config, String path) {
+        File file = new File(path);
+        if ( !file.isAbsolute() ) {
+            File resource = config.getResourceFile(path);
+            if ( resource != null ) {
+                return resource;
+            }
+        }
+        return file;
+    }
+}
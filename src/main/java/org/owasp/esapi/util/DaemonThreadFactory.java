@@ -0,0 +1,88 @@
+/**
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ *
+ * The ESAPI is published by OWASP under the BSD license. You should read and accept the
+ * LICENSE before you use, modify, and/or redistribute this software.
+ *
+ * @created 2014
+ */
+package org.owasp.esapi.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.owasp.esapi.ESAPI;
+
+/**
+ * Creates the daemon threads ESAPI does background work on. A new thread
+ * inherits the current request and user of whichever thread created it, so
+ * they are cleared before the thread runs anything; work done on it must not
+ * depend on them.
+ *
+ * @since 2.1.1
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+
+    private final String prefix;
+    private final AtomicInteger number = new AtomicInteger();
+
+    /**
+     * @param prefix The name of the threads, which are numbered from 1, e.g., "ESAPI-Encryptor".
+     */
+    public DaemonThreadFactory(String prefix) {
+        this.prefix = prefix;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Thread newThread(Runnable r) {
+        return newThread(prefix + "-" + number.incrementAndGet(), r);
+    }
+
+    /**
+     * Create a daemon thread that runs without a current request or user.
+     *
+     * @param name The name of the thread.
+     * @param r    What the thread runs.
+     * @return The thread, not started yet.
+     */
+    public static Thread newThread(String name, final Runnable r) {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                ESAPI.clearCurrent();
+                r.run();
+            }
+        }, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Create a pool with a daemon thread for each processor, to be shared
+     * for the life of the JVM. It is shut down when the JVM shuts down, so
+     * that it accepts no work once the application is going away.
+     *
+     * @param prefix The name of the threads, which are numbered from 1.
+     * @return The pool.
+     */
+    public static ExecutorService newSharedPool(String prefix) {
+        final ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                new DaemonThreadFactory(prefix));
+        Runtime.getRuntime().addShutdownHook(new Thread(prefix + "-shutdown") {
+            @Override
+            public void run() {
+                pool.shutdown();
+            }
+        });
+        return pool;
+    }
+}
@@ -240,7 +240,7 @@ public class ESAPIWebApplicationFirewallFilter implements Filter {
 		for(int i=0;i<rules.size();i++) {
 
 			Rule rule = rules.get(i);
-			logger.debug(Logger.EVENT_SUCCESS,  "  Applying BEFORE rule:  " + rule.getClass().getName() );
+			logger.debug(Logger.EVENT_SUCCESS,  "  Applying BEFORE rule:  {}", rule.getClass().getName() );
 			
 			/*
 			 * The rules execute in check(). The check() method will also log. All we have
@@ -301,7 +301,7 @@ public class ESAPIWebApplicationFirewallFilter implements Filter {
 		for(int i=0;i<rules.size();i++) {
 
 			Rule rule = rules.get(i);
-			logger.debug(Logger.EVENT_SUCCESS,  "  Applying BEFORE CHAIN rule:  " + rule.getClass().getName() );
+			logger.debug(Logger.EVENT_SUCCESS,  "  Applying BEFORE CHAIN rule:  {}", rule.getClass().getName() );
 
 			/*
 			 * The rules execute in check(). The check() method will take care of logging. 
@@ -345,7 +345,7 @@ public class ESAPIWebApplicationFirewallFilter implements Filter {
 		/*
 		 * In between stages 2 and 3 is the application's processing of the input.
 		 */
-		logger.debug(Logger.EVENT_SUCCESS, ">> Calling the FilterChain: " + chain );
+		logger.debug(Logger.EVENT_SUCCESS, ">> Calling the FilterChain: {}", chain );
 		chain.doFilter(request, response != null ? response : httpResponse);
 
 		/*
@@ -358,7 +358,7 @@ public class ESAPIWebApplicationFirewallFilter implements Filter {
 		for(int i=0;i<rules.size();i++) {
 
 			Rule rule = rules.get(i);
-			logger.debug(Logger.EVENT_SUCCESS,  "  Applying AFTER CHAIN rule:  " + rule.getClass().getName() );
+			logger.debug(Logger.EVENT_SUCCESS,  "  Applying AFTER CHAIN rule:  {}", rule.getClass().getName() );
 
 			/*
 			 * The rules execute in check(). The check() method will also log. All we have
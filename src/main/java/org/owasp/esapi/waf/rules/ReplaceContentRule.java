@@ -96,7 +96,7 @@ public class ReplaceContentRule extends Rule {
 				
 				if ( ! s.equals(canary) ) {
 					response.getInterceptingServletOutputStream().setResponseBytes(canary.getBytes(response.getCharacterEncoding()));
-					logger.debug(Logger.SECURITY_SUCCESS, "Successfully replaced pattern '" + pattern.pattern() + "' on response to URL '" + request.getRequestURL() + "'");
+					logger.debug(Logger.SECURITY_SUCCESS, "Successfully replaced pattern '{}' on response to URL '{}'", pattern.pattern(), request.getRequestURL());
 				}
 				
 			} catch (IOException ioe) {
@@ -144,6 +144,15 @@ public class SecurityConfigurationWrapper implements SecurityConfiguration
 	{
 		return wrapped.getHTTPUtilitiesImplementation();
 	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	// @Override
+	public String getCounterStoreImplementation()
+	{
+		return wrapped.getCounterStoreImplementation();
+	}
 	
 	/**
 	 * {@inheritDoc}
@@ -369,6 +378,51 @@ public class SecurityConfigurationWrapper implements SecurityConfiguration
 	{
 		return wrapped.getDigitalSignatureKeyLength();
 	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	// @Override
+	public String getDigitalSignatureKeyStore()
+	{
+		return wrapped.getDigitalSignatureKeyStore();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	// @Override
+	public String getDigitalSignatureKeyStoreType()
+	{
+		return wrapped.getDigitalSignatureKeyStoreType();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	// @Override
+	public String getDigitalSignatureKeyStorePassword()
+	{
+		return wrapped.getDigitalSignatureKeyStorePassword();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	// @Override
+	public String getDigitalSignatureKeyAlias()
+	{
+		return wrapped.getDigitalSignatureKeyAlias();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	// @Override
+	public String getDigitalSignatureKeyPairFile()
+	{
+		return wrapped.getDigitalSignatureKeyPairFile();
+	}
 		   
 	/**
 	 * {@inheritDoc}
@@ -397,6 +451,54 @@ public class SecurityConfigurationWrapper implements SecurityConfiguration
 		return wrapped.getMaxOldPasswordHashes();
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	// @Override
+	public boolean getAuthenticatorJournal() {
+		return wrapped.getAuthenticatorJournal();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	// @Override
+	public int getAuthenticatorJournalCompactionThreshold() {
+		return wrapped.getAuthenticatorJournalCompactionThreshold();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	// @Override
+	public String getAuthenticatorUserStoreFile() {
+		return wrapped.getAuthenticatorUserStoreFile();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	// @Override
+	public int getAuthenticatorUserStoreCacheSize() {
+		return wrapped.getAuthenticatorUserStoreCacheSize();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	// @Override
+	public int getPasswordHashThreads() {
+		return wrapped.getPasswordHashThreads();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	// @Override
+	public int getPasswordHashQueueSize() {
+		return wrapped.getPasswordHashQueueSize();
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -576,6 +678,60 @@ public class SecurityConfigurationWrapper implements SecurityConfiguration
 	 	return wrapped.getMaxLogFileSize();
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	// @Override
+	public boolean getLogAsynchronously()
+	{
+		return wrapped.getLogAsynchronously();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	// @Override
+	public int getLogAsyncBufferSize()
+	{
+		return wrapped.getLogAsyncBufferSize();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	// @Override
+	public String getLogAsyncOverflowPolicy()
+	{
+		return wrapped.getLogAsyncOverflowPolicy();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	// @Override
+	public boolean getLogSuppression()
+	{
+		return wrapped.getLogSuppression();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	// @Override
+	public int getLogSuppressionMaxPerWindow()
+	{
+		return wrapped.getLogSuppressionMaxPerWindow();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	// @Override
+	public int getLogSuppressionWindowSeconds()
+	{
+		return wrapped.getLogSuppressionWindowSeconds();
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -616,6 +772,70 @@ public class SecurityConfigurationWrapper implements SecurityConfiguration
 		return wrapped.getDisableIntrusionDetection();
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	// @Override
+	public String getIntrusionDetectionAnonymousKey() {
+		return wrapped.getIntrusionDetectionAnonymousKey();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	// @Override
+	public int getIntrusionDetectionMaxPrincipals() {
+		return wrapped.getIntrusionDetectionMaxPrincipals();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	// @Override
+	public int getIntrusionDetectionPrincipalIdleSeconds() {
+		return wrapped.getIntrusionDetectionPrincipalIdleSeconds();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	// @Override
+	public boolean getIntrusionDetectionAsynchronously() {
+		return wrapped.getIntrusionDetectionAsynchronously();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	// @Override
+	public int getIntrusionDetectionAsyncQueueSize() {
+		return wrapped.getIntrusionDetectionAsyncQueueSize();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	// @Override
+	public boolean getIntrusionDetectionSharedCounters() {
+		return wrapped.getIntrusionDetectionSharedCounters();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	// @Override
+	public int getCounterStoreSlots() {
+		return wrapped.getCounterStoreSlots();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	// @Override
+	public String getCounterStoreFile() {
+		return wrapped.getCounterStoreFile();
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -624,6 +844,38 @@ public class SecurityConfigurationWrapper implements SecurityConfiguration
 		return wrapped.getKDFPseudoRandomFunction();
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	// @Override
+	public int getKDFCacheSize() {
+		return wrapped.getKDFCacheSize();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	// @Override
+	public int getKDFCacheTTL() {
+		return wrapped.getKDFCacheTTL();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	// @Override
+	public int getBatchParallelThreshold() {
+		return wrapped.getBatchParallelThreshold();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	// @Override
+	public int getSealVersion() {
+		return wrapped.getSealVersion();
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -2,6 +2,11 @@ package org.owasp.esapi.crypto;
 
 import static org.junit.Assert.*;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.IvParameterSpec;
@@ -80,4 +85,74 @@ public class CipherTextSerializerTest {
         }
     }
 
+    @Test
+    public final void testWriteToByteBuffer() throws Exception {
+        System.out.println("CipherTextSerializerTest.testWriteToByteBuffer() ...");
+        CipherText ct = ESAPI.encryptor().encrypt( new PlainText("Hello, buffers") );
+        byte[] serializedBytes = ct.asPortableSerializedByteArray();
+        assertEquals(serializedBytes.length, ct.getPortableSerializedLength());
+
+        // Same bytes, at the buffer's position, whatever the buffer's byte order
+        ByteBuffer buffer = ByteBuffer.allocateDirect(serializedBytes.length + 10).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(3);
+        ct.writePortableSerializedBytes(buffer);
+        assertEquals(3 + serializedBytes.length, buffer.position());
+        assertEquals(ByteOrder.LITTLE_ENDIAN, buffer.order());
+        byte[] written = new byte[serializedBytes.length];
+        buffer.position(3);
+        buffer.get(written);
+        assertTrue(Arrays.equals(serializedBytes, written));
+
+        try {
+            ct.writePortableSerializedBytes(ByteBuffer.allocate(serializedBytes.length - 1));
+            fail("Wrote past the end of the buffer");
+        } catch (BufferOverflowException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public final void testReadFromByteBuffer() throws Exception {
+        System.out.println("CipherTextSerializerTest.testReadFromByteBuffer() ...");
+        CipherText ct1 = ESAPI.encryptor().encrypt( new PlainText("first") );
+        CipherText ct2 = ESAPI.encryptor().encrypt( new PlainText("second") );
+        ByteBuffer buffer = ByteBuffer.allocate(ct1.getPortableSerializedLength() + ct2.getPortableSerializedLength());
+        ct1.writePortableSerializedBytes(buffer);
+        ct2.writePortableSerializedBytes(buffer);
+        buffer.flip();
+
+        CipherText result1 = CipherText.fromPortableSerializedBytes(buffer);
+        assertEquals(ct1.getPortableSerializedLength(), buffer.position());
+        CipherText result2 = CipherText.fromPortableSerializedBytes(buffer.asReadOnlyBuffer());
+        assertEquals(ct1, result1);
+        assertEquals(ct2, result2);
+        assertEquals("first", ESAPI.encryptor().decrypt(result1).toString());
+        assertEquals("second", ESAPI.encryptor().decrypt(result2).toString());
+
+        buffer.rewind();
+        buffer.limit(ct1.getPortableSerializedLength() - 1);
+        try {
+            CipherText.fromPortableSerializedBytes(buffer);
+            fail("Read a truncated serialization");
+        } catch (EncryptionException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public final void testReadOnlyViews() throws Exception {
+        System.out.println("CipherTextSerializerTest.testReadOnlyViews() ...");
+        CipherText ct = ESAPI.encryptor().encrypt( new PlainText("Hello") );
+        ByteBuffer raw = ct.getRawCipherTextBuffer();
+        assertTrue(raw.isReadOnly());
+        byte[] bytes = new byte[raw.remaining()];
+        raw.get(bytes);
+        assertTrue(Arrays.equals(ct.getRawCipherText(), bytes));
+        ByteBuffer iv = ct.getIVBuffer();
+        assertTrue(iv.isReadOnly());
+        assertEquals(ct.getIV().length, iv.remaining());
+        ByteBuffer mac = ct.getSeparateMACBuffer();
+        assertTrue(mac.isReadOnly());
+        assertEquals(ct.getSeparateMAC().length, mac.remaining());
+    }
 }
@@ -0,0 +1,105 @@
+package org.owasp.esapi.crypto;
+
+import static org.junit.Assert.*;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CryptoPoolTest {
+
+    @Before
+    public void setUp() {
+        CryptoPool.clear();
+    }
+
+    @Test
+    public final void testMessageDigestIsReusedAndReset() throws Exception {
+        MessageDigest digest = CryptoPool.getMessageDigest("SHA-256");
+        digest.update("half finished".getBytes("UTF-8"));
+        CryptoPool.release(digest);
+
+        long hits = CryptoPool.getHitCount();
+        MessageDigest reused = CryptoPool.getMessageDigest("SHA-256");
+        assertSame(digest, reused);
+        assertEquals(hits + 1, CryptoPool.getHitCount());
+        byte[] expected = MessageDigest.getInstance("SHA-256").digest("data".getBytes("UTF-8"));
+        assertTrue(Arrays.equals(expected, reused.digest("data".getBytes("UTF-8"))));
+        CryptoPool.release(reused);
+    }
+
+    @Test
+    public final void testPooledByAlgorithm() throws Exception {
+        MessageDigest sha256 = CryptoPool.getMessageDigest("SHA-256");
+        CryptoPool.release(sha256);
+        long misses = CryptoPool.getMissCount();
+        MessageDigest sha512 = CryptoPool.getMessageDigest("SHA-512");
+        assertNotSame(sha256, sha512);
+        assertEquals(misses + 1, CryptoPool.getMissCount());
+        CryptoPool.release(sha512);
+    }
+
+    @Test
+    public final void testMacForgetsKey() throws Exception {
+        SecretKey key = new SecretKeySpec("a secret key".getBytes("UTF-8"), "HmacSHA1");
+        Mac mac = CryptoPool.getMac("HmacSHA1");
+        mac.init(key);
+        byte[] expected = mac.doFinal("data".getBytes("UTF-8"));
+        CryptoPool.release(mac);
+
+        Mac reused = CryptoPool.getMac("HmacSHA1");
+        assertSame(mac, reused);
+        assertFalse(Arrays.equals(expected, reused.doFinal("data".getBytes("UTF-8"))));
+        reused.init(key);
+        assertTrue(Arrays.equals(expected, reused.doFinal("data".getBytes("UTF-8"))));
+        CryptoPool.release(reused);
+    }
+
+    @Test
+    public final void testCipherKeyIsDropped() throws Exception {
+        SecretKey key = CryptoHelper.generateSecretKey("AES", 128);
+        Cipher cipher = CryptoPool.getCipher("AES/ECB/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, key);
+        byte[] expected = cipher.doFinal(new byte[16]);
+        CryptoPool.release(cipher);
+
+        Cipher reused = CryptoPool.getCipher("AES/ECB/NoPadding");
+        assertSame(cipher, reused);
+        // Released with a dummy key, not the caller's
+        assertFalse(Arrays.equals(expected, reused.doFinal(new byte[16])));
+        reused.init(Cipher.ENCRYPT_MODE, key);
+        assertTrue(Arrays.equals(expected, reused.doFinal(new byte[16])));
+        CryptoPool.release(reused);
+
+        // One that can't be given a dummy key is not pooled
+        long discards = CryptoPool.getDiscardCount();
+        CryptoPool.release(Cipher.getInstance("RSA/ECB/PKCS1Padding"));
+        assertEquals(discards + 1, CryptoPool.getDiscardCount());
+    }
+
+    @Test
+    public final void testBounded() throws Exception {
+        MessageDigest[] digests = new MessageDigest[CryptoPool.MAX_IDLE + 2];
+        for (int i = 0; i < digests.length; i++) {
+            digests[i] = CryptoPool.getMessageDigest("SHA-1");
+        }
+        long discards = CryptoPool.getDiscardCount();
+        for (MessageDigest digest : digests) {
+            CryptoPool.release(digest);
+        }
+        assertEquals(discards + 2, CryptoPool.getDiscardCount());
+    }
+
+    @Test(expected = NoSuchAlgorithmException.class)
+    public final void testUnknownAlgorithm() throws Exception {
+        CryptoPool.getMessageDigest("NoSuchAlg");
+    }
+}
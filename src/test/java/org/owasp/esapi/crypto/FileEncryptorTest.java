@@ -0,0 +1,203 @@
+package org.owasp.esapi.crypto;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.crypto.SecretKey;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.owasp.esapi.errors.EncryptionException;
+
+public class FileEncryptorTest {
+
+    private static final int CHUNK = 1000;
+
+    private File plainFile;
+    private File encryptedFile;
+    private File decryptedFile;
+
+    @Before
+    public void setUp() throws Exception {
+        plainFile = File.createTempFile("FileEncryptorTest", ".txt");
+        encryptedFile = File.createTempFile("FileEncryptorTest", ".enc");
+        decryptedFile = File.createTempFile("FileEncryptorTest", ".out");
+    }
+
+    @After
+    public void tearDown() {
+        plainFile.delete();
+        encryptedFile.delete();
+        decryptedFile.delete();
+    }
+
+    private static byte[] random(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] data = new byte[(int) in.length()];
+            in.readFully(data);
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public final void testRoundTrip() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            FileEncryptor encryptor = new FileEncryptor(CryptoHelper.generateSecretKey("AES", 128), CHUNK, executor);
+            for (int length : new int[] { 0, 1, CHUNK - 1, CHUNK, CHUNK + 1, 5 * CHUNK, 5000 * CHUNK + 17 }) {
+                byte[] plain = random(length);
+                write(plainFile, plain);
+                assertEquals(length, encryptor.encrypt(plainFile, encryptedFile));
+                assertEquals(length, encryptor.getPlaintextLength(encryptedFile));
+                assertEquals(length, encryptor.decrypt(encryptedFile, decryptedFile));
+                assertTrue(Arrays.equals(plain, read(decryptedFile)));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public final void testExecutorShutDown() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        executor.shutdown();
+        FileEncryptor encryptor = new FileEncryptor(CryptoHelper.generateSecretKey("AES", 128), CHUNK, executor);
+        byte[] plain = random(5 * CHUNK + 1);
+        write(plainFile, plain);
+        assertEquals(plain.length, encryptor.encrypt(plainFile, encryptedFile));
+        assertEquals(plain.length, encryptor.decrypt(encryptedFile, decryptedFile));
+        assertTrue(Arrays.equals(plain, read(decryptedFile)));
+    }
+
+    @Test
+    public final void testMasterKeyReplacesOutput() throws Exception {
+        FileEncryptor encryptor = new FileEncryptor();
+        byte[] plain = random(3 * FileEncryptor.DEFAULT_CHUNK_SIZE + 5);
+        write(plainFile, plain);
+        write(encryptedFile, random(10 * FileEncryptor.DEFAULT_CHUNK_SIZE));
+        write(decryptedFile, random(10 * FileEncryptor.DEFAULT_CHUNK_SIZE));
+        encryptor.encrypt(plainFile, encryptedFile);
+        new FileEncryptor().decrypt(encryptedFile, decryptedFile);
+        assertTrue(Arrays.equals(plain, read(decryptedFile)));
+    }
+
+    @Test
+    public final void testStreamEncryptorInterop() throws Exception {
+        SecretKey key = CryptoHelper.generateSecretKey("AES", 128);
+        StreamEncryptor streams = new StreamEncryptor(key, CHUNK);
+        FileEncryptor files = new FileEncryptor(key, CHUNK, null);
+        byte[] plain = random(7 * CHUNK + 3);
+
+        write(plainFile, plain);
+        files.encrypt(plainFile, encryptedFile);
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        FileInputStream in = new FileInputStream(encryptedFile);
+        try {
+            streams.decrypt(in, decrypted);
+        } finally {
+            in.close();
+        }
+        assertTrue(Arrays.equals(plain, decrypted.toByteArray()));
+
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        streams.encrypt(new ByteArrayInputStream(plain), encrypted);
+        write(encryptedFile, encrypted.toByteArray());
+        files.decrypt(encryptedFile, decryptedFile);
+        assertTrue(Arrays.equals(plain, read(decryptedFile)));
+    }
+
+    @Test
+    public final void testRangeDecryption() throws Exception {
+        FileEncryptor encryptor = new FileEncryptor(CryptoHelper.generateSecretKey("AES", 128), CHUNK, null);
+        byte[] plain = random(10 * CHUNK + 123);
+        write(plainFile, plain);
+        encryptor.encrypt(plainFile, encryptedFile);
+        int[][] ranges = { { 0, 0 }, { 0, 10 }, { 999, 2 }, { 2500, 3000 }, { 10 * CHUNK, 123 },
+                           { 10 * CHUNK + 100, 23 }, { 0, plain.length } };
+        for (int[] range : ranges) {
+            byte[] part = encryptor.decrypt(encryptedFile, range[0], range[1]);
+            assertTrue(Arrays.equals(Arrays.copyOfRange(plain, range[0], range[0] + range[1]), part));
+        }
+        try {
+            encryptor.decrypt(encryptedFile, plain.length - 1, 2);
+            fail("Read past the end of the plaintext");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public final void testTamperingIsDetected() throws Exception {
+        FileEncryptor encryptor = new FileEncryptor(CryptoHelper.generateSecretKey("AES", 128), CHUNK, null);
+        write(plainFile, random(3 * CHUNK));
+        encryptor.encrypt(plainFile, encryptedFile);
+        byte[] encrypted = read(encryptedFile);
+        for (int position : new int[] { 10, encrypted.length / 2, encrypted.length - 1 }) {
+            byte[] altered = encrypted.clone();
+            altered[position] ^= 1;
+            write(encryptedFile, altered);
+            assertFails(encryptor);
+        }
+    }
+
+    @Test
+    public final void testTruncationIsDetected() throws Exception {
+        FileEncryptor encryptor = new FileEncryptor(CryptoHelper.generateSecretKey("AES", 128), CHUNK, null);
+        write(plainFile, random(3 * CHUNK));
+        encryptor.encrypt(plainFile, encryptedFile);
+        byte[] encrypted = read(encryptedFile);
+        write(plainFile, random(4 * CHUNK));
+        encryptor.encrypt(plainFile, encryptedFile);
+        int frame = read(encryptedFile).length - encrypted.length;
+        for (int length : new int[] { encrypted.length - frame, encrypted.length - 1, 20, encrypted.length + 1 }) {
+            write(encryptedFile, Arrays.copyOf(encrypted, length));
+            assertFails(encryptor);
+        }
+    }
+
+    @Test
+    public final void testWrongKeyIsDetected() throws Exception {
+        write(plainFile, random(10));
+        new FileEncryptor(CryptoHelper.generateSecretKey("AES", 128), CHUNK, null).encrypt(plainFile, encryptedFile);
+        assertFails(new FileEncryptor(CryptoHelper.generateSecretKey("AES", 128)));
+    }
+
+    private void assertFails(FileEncryptor encryptor) throws Exception {
+        try {
+            encryptor.decrypt(encryptedFile, decryptedFile);
+            fail("Decrypted altered data");
+        } catch (EncryptionException e) {
+            // expected
+        }
+    }
+}
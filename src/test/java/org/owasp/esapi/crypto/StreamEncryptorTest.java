@@ -0,0 +1,124 @@
+package org.owasp.esapi.crypto;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.SecretKey;
+
+import org.junit.Test;
+import org.owasp.esapi.errors.EncryptionException;
+
+public class StreamEncryptorTest {
+
+    private static final int CHUNK = 1000;
+
+    private static byte[] random(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] encrypt(StreamEncryptor encryptor, byte[] plain) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(plain.length, encryptor.encrypt(new ByteArrayInputStream(plain), out));
+        return out.toByteArray();
+    }
+
+    private static byte[] decrypt(StreamEncryptor encryptor, byte[] encrypted) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encryptor.decrypt(new ByteArrayInputStream(encrypted), out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public final void testRoundTrip() throws Exception {
+        StreamEncryptor encryptor = new StreamEncryptor(CryptoHelper.generateSecretKey("AES", 128), CHUNK);
+        for (int length : new int[] { 0, 1, CHUNK - 1, CHUNK, CHUNK + 1, 5 * CHUNK, 5 * CHUNK + 17 }) {
+            byte[] plain = random(length);
+            byte[] encrypted = encrypt(encryptor, plain);
+            assertTrue(Arrays.equals(plain, decrypt(encryptor, encrypted)));
+        }
+    }
+
+    @Test
+    public final void testMasterKeyAndChannels() throws Exception {
+        StreamEncryptor encryptor = new StreamEncryptor();
+        byte[] plain = random(3 * StreamEncryptor.DEFAULT_CHUNK_SIZE + 5);
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        encryptor.encrypt(Channels.newChannel(new ByteArrayInputStream(plain)), Channels.newChannel(encrypted));
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        assertEquals(plain.length, new StreamEncryptor().decrypt(
+                Channels.newChannel(new ByteArrayInputStream(encrypted.toByteArray())), Channels.newChannel(decrypted)));
+        assertTrue(Arrays.equals(plain, decrypted.toByteArray()));
+    }
+
+    @Test
+    public final void testEncryptionIsRandomized() throws Exception {
+        StreamEncryptor encryptor = new StreamEncryptor(CryptoHelper.generateSecretKey("AES", 128), CHUNK);
+        byte[] plain = random(100);
+        assertFalse(Arrays.equals(encrypt(encryptor, plain), encrypt(encryptor, plain)));
+    }
+
+    @Test
+    public final void testTamperingIsDetected() throws Exception {
+        StreamEncryptor encryptor = new StreamEncryptor(CryptoHelper.generateSecretKey("AES", 128), CHUNK);
+        byte[] encrypted = encrypt(encryptor, random(3 * CHUNK));
+        for (int position : new int[] { 10, encrypted.length / 2, encrypted.length - 1 }) {
+            byte[] altered = encrypted.clone();
+            altered[position] ^= 1;
+            assertFails(encryptor, altered);
+        }
+    }
+
+    @Test
+    public final void testTruncationIsDetected() throws Exception {
+        StreamEncryptor encryptor = new StreamEncryptor(CryptoHelper.generateSecretKey("AES", 128), CHUNK);
+        byte[] plain = random(3 * CHUNK);
+        byte[] encrypted = encrypt(encryptor, plain);
+        int frame = frameLength(encryptor);
+        // Drop the last chunk, which leaves whole frames only
+        assertFails(encryptor, Arrays.copyOf(encrypted, encrypted.length - frame));
+        assertFails(encryptor, Arrays.copyOf(encrypted, encrypted.length - 1));
+        assertFails(encryptor, Arrays.copyOf(encrypted, 20));
+        // Trailing data
+        assertFails(encryptor, Arrays.copyOf(encrypted, encrypted.length + 1));
+    }
+
+    @Test
+    public final void testReorderingIsDetected() throws Exception {
+        StreamEncryptor encryptor = new StreamEncryptor(CryptoHelper.generateSecretKey("AES", 128), CHUNK);
+        byte[] encrypted = encrypt(encryptor, random(3 * CHUNK));
+        int frame = frameLength(encryptor);
+        int header = encrypted.length - 3 * frame;
+        byte[] swapped = encrypted.clone();
+        System.arraycopy(encrypted, header, swapped, header + frame, frame);
+        System.arraycopy(encrypted, header + frame, swapped, header, frame);
+        assertFails(encryptor, swapped);
+    }
+
+    @Test
+    public final void testWrongKeyIsDetected() throws Exception {
+        SecretKey key = CryptoHelper.generateSecretKey("AES", 128);
+        byte[] encrypted = encrypt(new StreamEncryptor(key, CHUNK), random(10));
+        assertFails(new StreamEncryptor(CryptoHelper.generateSecretKey("AES", 128)), encrypted);
+    }
+
+    // The length of the frame of a whole chunk
+    private static int frameLength(StreamEncryptor encryptor) throws Exception {
+        return encrypt(encryptor, new byte[2 * CHUNK]).length - encrypt(encryptor, new byte[CHUNK]).length;
+    }
+
+    private static void assertFails(StreamEncryptor encryptor, byte[] encrypted) throws Exception {
+        try {
+            decrypt(encryptor, encrypted);
+            fail("Decrypted altered data");
+        } catch (EncryptionException e) {
+            // expected
+        }
+    }
+}
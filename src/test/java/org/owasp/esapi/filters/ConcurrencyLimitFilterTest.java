@@ -0,0 +1,190 @@
+/**
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ *
+ * The ESAPI is published by OWASP under the BSD license. You should read and accept the
+ * LICENSE before you use, modify, and/or redistribute this software.
+ *
+ * @created 2014
+ */
+package org.owasp.esapi.filters;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import junit.framework.TestCase;
+
+import org.owasp.esapi.http.MockFilterChain;
+import org.owasp.esapi.http.MockFilterConfig;
+import org.owasp.esapi.http.MockHttpServletRequest;
+import org.owasp.esapi.http.MockHttpServletResponse;
+
+public class ConcurrencyLimitFilterTest extends TestCase {
+
+    private ConcurrencyLimitFilter filter(Map map) throws ServletException {
+        ConcurrencyLimitFilter filter = new ConcurrencyLimitFilter();
+        filter.init(new MockFilterConfig(map));
+        return filter;
+    }
+
+    private Map params(String... nameValues) {
+        Map map = new HashMap();
+        for (int i = 0; i < nameValues.length; i += 2) {
+            map.put(nameValues[i], nameValues[i + 1]);
+        }
+        return map;
+    }
+
+    public void testShedsByPriority() throws Exception {
+        ConcurrencyLimitFilter filter = filter(params("initialLimit", "4", "priorities", "/login critical; /reports/* low"));
+        assertEquals(ConcurrencyLimitFilter.CRITICAL, filter.getPriority("/login"));
+        assertEquals(ConcurrencyLimitFilter.LOW, filter.getPriority("/reports/daily"));
+        assertEquals(ConcurrencyLimitFilter.NORMAL, filter.getPriority("/index.jsp"));
+
+        // Low priority requests may only use 3 of the 4.
+        for (int i = 0; i < 3; i++) {
+            assertTrue(filter.tryAcquire(ConcurrencyLimitFilter.LOW) >= 0);
+        }
+        assertEquals(-1, filter.tryAcquire(ConcurrencyLimitFilter.LOW));
+        assertTrue(filter.tryAcquire(ConcurrencyLimitFilter.NORMAL) >= 0);
+        assertEquals(-1, filter.tryAcquire(ConcurrencyLimitFilter.NORMAL));
+        // Critical requests may go up to 6.
+        assertTrue(filter.tryAcquire(ConcurrencyLimitFilter.CRITICAL) >= 0);
+        assertTrue(filter.tryAcquire(ConcurrencyLimitFilter.CRITICAL) >= 0);
+        assertEquals(-1, filter.tryAcquire(ConcurrencyLimitFilter.CRITICAL));
+
+        assertEquals(6, filter.getInFlight());
+        assertEquals(6, filter.getPeakInFlight());
+        assertEquals(3, filter.getShedCount());
+        assertEquals(1, filter.getShedCount(ConcurrencyLimitFilter.LOW));
+    }
+
+    public void testPriorityByMappedPath() throws Exception {
+        ConcurrencyLimitFilter filter = filter(params("priorities", "/login critical; /reports/* low"));
+        String[][] requests = {
+            { "/login;x", "/login", null },
+            { "//login", "/login", null },
+            { "/%6cogin", "/login", null },
+            { "/reports;x/daily", "/reports", "/daily" },
+            { "/./reports/daily", "", "/reports/daily" },
+        };
+        int[] expected = { ConcurrencyLimitFilter.CRITICAL, ConcurrencyLimitFilter.CRITICAL, ConcurrencyLimitFilter.CRITICAL,
+                           ConcurrencyLimitFilter.LOW, ConcurrencyLimitFilter.LOW };
+        for (int i = 0; i < requests.length; i++) {
+            MockHttpServletRequest request = new MockHttpServletRequest(requests[i][0], new byte[0]);
+            request.setServletPath(requests[i][1]);
+            request.setPathInfo(requests[i][2]);
+            assertEquals(requests[i][0], expected[i], filter.getPriority(PathPatterns.getPath(request)));
+        }
+    }
+
+    public void testAdditiveIncreaseMultiplicativeDecrease() throws Exception {
+        ConcurrencyLimitFilter filter = filter(params("initialLimit", "10", "maxLimit", "11", "targetLatencyMillis", "100"));
+        long fast = TimeUnit.MILLISECONDS.toNanos(10);
+        long slow = TimeUnit.MILLISECONDS.toNanos(500);
+        long now = filter.nanoTime();
+
+        // An idle server does not raise the limit.
+        for (int i = 0; i < 50; i++) {
+            filter.onComplete(fast, false, 0, now);
+        }
+        assertEquals(10, filter.getLimit());
+
+        // A busy, fast server does, one step per limit's worth of requests, up to the maximum.
+        for (int i = 0; i < 10; i++) {
+            filter.onComplete(fast, false, 8, now);
+        }
+        assertEquals(11, filter.getLimit());
+        for (int i = 0; i < 50; i++) {
+            filter.onComplete(fast, false, 8, now);
+        }
+        assertEquals(11, filter.getLimit());
+
+        // A slow response backs off, but only once per target latency.
+        now += TimeUnit.SECONDS.toNanos(1);
+        filter.onComplete(slow, false, 8, now);
+        assertEquals(9, filter.getLimit());
+        filter.onComplete(slow, false, 8, now);
+        assertEquals(9, filter.getLimit());
+        filter.onComplete(fast, true, 8, now + TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(8, filter.getLimit());
+        assertEquals(3, filter.getSlowCount());
+    }
+
+    public void testNeverBelowMinimum() throws Exception {
+        ConcurrencyLimitFilter filter = filter(params("initialLimit", "2", "minLimit", "2", "targetLatencyMillis", "1"));
+        long now = filter.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        filter.onComplete(TimeUnit.SECONDS.toNanos(1), false, 0, now);
+        assertEquals(2, filter.getLimit());
+    }
+
+    public void testDoFilter() throws Exception {
+        ConcurrencyLimitFilter filter = filter(params("initialLimit", "1", "minLimit", "1"));
+        final CountDownLatch inChain = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ConcurrencyLimitFilter f = filter;
+        Thread busy = new Thread() {
+            public void run() {
+                try {
+                    f.doFilter(new MockHttpServletRequest("/slow", new byte[0]), new MockHttpServletResponse(), new FilterChain() {
+                        public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+                            inChain.countDown();
+                            try {
+                                release.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                    });
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        busy.start();
+        assertTrue(inChain.await(5, TimeUnit.SECONDS));
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest("/index.jsp", new byte[0]), response, new MockFilterChain());
+        assertEquals(503, response.getStatus());
+        assertEquals("1", response.getHeader("Retry-After"));
+
+        release.countDown();
+        busy.join();
+        assertEquals(0, filter.getInFlight());
+        response = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest("/index.jsp", new byte[0]), response, new MockFilterChain());
+        assertEquals(200, response.getStatus());
+        assertEquals(2, filter.getAdmittedCount());
+    }
+
+    public void testInvalidConfiguration() {
+        Map[] invalid = {
+            params("minLimit", "0"),
+            params("initialLimit", "500"),
+            params("backoffRatio", "1.5"),
+            params("priorities", "/login urgent"),
+        };
+        for (Map map : invalid) {
+            try {
+                filter(map);
+                fail(map.toString());
+            } catch (ServletException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * OWASP Enterprise Security API (ESAPI)
+ *
+ * This file is part of the Open Web Application Security Project (OWASP)
+ * Enterprise Security API (ESAPI) project. For details, please see
+ * <a href="http://www.owasp.org/index.php/ESAPI">http://www.owasp.org/index.php/ESAPI</a>.
+ *
+ * Copyright (c) 2014 - The OWASP Foundation
+ *
+ * The ESAPI is published by OWASP under the BSD license. You should read and accept the
+ * LICENSE before you use, modify, and/or redistribute this software.
+ *
+ * @created 2014
+ */
+package org.owasp.esapi.filters;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+
+import junit.framework.TestCase;
+
+import org.owasp.esapi.http.MockFilterChain;
+import org.owasp.esapi.http.MockFilterConfig;
+import org.owasp.esapi.http.MockHttpServletRequest;
+import org.owasp.esapi.http.MockHttpServletResponse;
+
+public class RateLimitFilterTest extends TestCase {
+
+    /** A filter with a clock that only moves when told to. */
+    private static class TestFilter extends RateLimitFilter {
+        long now = TimeUnit.HOURS.toNanos(1);
+
+        long nanoTime() {
+            return now;
+        }
+    }
+
+    private TestFilter filter(String limits) throws ServletException {
+        Map map = new HashMap();
+        map.put("limits", limits);
+        TestFilter filter = new TestFilter();
+        filter.init(new MockFilterConfig(map));
+        return filter;
+    }
+
+    private MockHttpServletResponse request(RateLimitFilter filter, String uri, String ip) throws Exception {
+        return request(filter, uri, uri, null, ip);
+    }
+
+    /** A request the container mapped by the given servlet path and path info. */
+    private MockHttpServletResponse request(RateLimitFilter filter, String uri, String servletPath, String pathInfo, String ip) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest(uri, new byte[0]);
+        request.setServletPath(servletPath);
+        request.setPathInfo(pathInfo);
+        request.setRemoteAddr(ip);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain());
+        return response;
+    }
+
+    public void testBurstThenRate() throws Exception {
+        TestFilter filter = filter("/* ip 5/10s");
+        for (int i = 0; i < 5; i++) {
+            assertEquals(200, request(filter, "/index.jsp", "192.0.2.1").getStatus());
+        }
+        MockHttpServletResponse response = request(filter, "/index.jsp", "192.0.2.1");
+        assertEquals(429, response.getStatus());
+        assertEquals("2", response.getHeader("Retry-After"));
+        // Other clients are not affected.
+        assertEquals(200, request(filter, "/index.jsp", "192.0.2.2").getStatus());
+        // One token is back after one emission interval.
+        filter.now += TimeUnit.SECONDS.toNanos(2);
+        assertEquals(200, request(filter, "/index.jsp", "192.0.2.1").getStatus());
+        assertEquals(429, request(filter, "/index.jsp", "192.0.2.1").getStatus());
+        assertEquals(7, filter.getAllowedCount());
+        assertEquals(2, filter.getRejectedCount());
+    }
+
+    public void testMultipleLimitsPerRoute() throws Exception {
+        TestFilter filter = filter("/login ip 2/1m\n/* ip 100/1s");
+        assertEquals(200, request(filter, "/login", "192.0.2.1").getStatus());
+        assertEquals(200, request(filter, "/login", "192.0.2.1").getStatus());
+        assertEquals(429, request(filter, "/login", "192.0.2.1").getStatus());
+        assertEquals(200, request(filter, "/index.jsp", "192.0.2.1").getStatus());
+    }
+
+    public void testPatterns() throws Exception {
+        TestFilter filter = filter("/api/* ip 1/1h; *.jsp ip 1/1h");
+        assertEquals(200, request(filter, "/api/users", "192.0.2.1").getStatus());
+        assertEquals(429, request(filter, "/api", "192.0.2.1").getStatus());
+        assertEquals(200, request(filter, "/apix", "192.0.2.1").getStatus());
+        assertEquals(200, request(filter, "/a.jsp", "192.0.2.1").getStatus());
+        assertEquals(429, request(filter, "/b.jsp", "192.0.2.1").getStatus());
+    }
+
+    public void testRequestUriVariantsDoNotBypass() throws Exception {
+        TestFilter filter = filter("/login ip 1/1m");
+        assertEquals(200, request(filter, "/login", "192.0.2.1").getStatus());
+        String[] variants = { "/login;x", "//login", "/%6cogin", "/static/../login", "/LOGIN/." };
+        for (String uri : variants) {
+            assertEquals(uri, 429, request(filter, uri, "/login", null, "192.0.2.1").getStatus());
+        }
+    }
+
+    public void testPathInfo() throws Exception {
+        TestFilter filter = filter("/api/users ip 1/1m");
+        assertEquals(200, request(filter, "/api/users", "/api", "/users", "192.0.2.1").getStatus());
+        assertEquals(429, request(filter, "/api;x/%75sers", "/api", "/users", "192.0.2.1").getStatus());
+        assertEquals(200, request(filter, "/api/items", "", "/api/items", "192.0.2.1").getStatus());
+        assertEquals(429, request(filter, "//api//users", "", "/api/users", "192.0.2.1").getStatus());
+    }
+
+    public void testHeaderKeyDoesNotCreateSession() throws Exception {
+        TestFilter filter = filter("/* header:X-API-Key 1/1m");
+        MockHttpServletRequest request = new MockHttpServletRequest("/", new byte[0]);
+        request.addHeader("X-API-Key", "one");
+        filter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+        assertNull(request.getSession(false));
+
+        request = new MockHttpServletRequest("/", new byte[0]);
+        request.addHeader("X-API-Key", "two");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain());
+        assertEquals(200, response.getStatus());
+    }
+
+    public void testBoundedKeys() throws Exception {
+        RateLimitFilter.Limit limit = RateLimitFilter.parseLimits("/* ip 1/1s", 10).get(0);
+        long now = TimeUnit.HOURS.toNanos(1);
+        for (int i = 0; i < 100; i++) {
+            limit.acquire("client" + i, now);
+        }
+        assertTrue(limit.size() <= 10);
+    }
+
+    public void testInvalidLimits() {
+        String[] invalid = { "/* ip", "/* bogus 1/1s", "/* ip 0/1s", "/* ip 1/1x", "/* ip 1/s" };
+        for (String spec : invalid) {
+            try {
+                filter(spec);
+                fail(spec);
+            } catch (ServletException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -78,6 +78,10 @@ public class MockHttpServletRequest implements HttpServletRequest
 
 	private String queryString = "pid=1&qid=test";
 
+	private String servletPath = null;
+
+	private String pathInfo = null;
+
 	private String method = "POST";
 
 	private Map<String,Object> attrs = new HashMap<String,Object>();
@@ -298,8 +302,15 @@ public class MockHttpServletRequest implements HttpServletRequest
 	 * @return
 	 */
 	public String getPathInfo() {
+		return pathInfo;
+	}
 
-		return null;
+	/**
+	 * Set the path info to return.
+	 * @param pathInfo The path info to return.
+	 */
+	public void setPathInfo(String pathInfo) {
+		this.pathInfo = pathInfo;
 	}
 
 	/**
@@ -367,8 +378,15 @@ public class MockHttpServletRequest implements HttpServletRequest
 	 * @return
 	 */
 	public String getServletPath() {
+		return servletPath;
+	}
 
-		return null;
+	/**
+	 * Set the servlet path to return.
+	 * @param servletPath The servlet path to return.
+	 */
+	public void setServletPath(String servletPath) {
+		this.servletPath = servletPath;
 	}
 
 	/**
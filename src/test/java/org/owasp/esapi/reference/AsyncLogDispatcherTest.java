@@ -0,0 +1,173 @@
+package org.owasp.esapi.reference;
+
+import java.io.Flushable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class AsyncLogDispatcherTest {
+
+	private final List<Integer> written = Collections.synchronizedList(new ArrayList<Integer>());
+
+	private class TestEvent extends AsyncLogDispatcher.Event {
+		private final int id;
+
+		TestEvent(int id, boolean discardable) {
+			super(discardable);
+			this.id = id;
+		}
+
+		void write() {
+			written.add(id);
+		}
+	}
+
+	@Test
+	public void testEventsWrittenInOrderAndDrainedOnShutdown() {
+		AsyncLogDispatcher dispatcher = new AsyncLogDispatcher(16, AsyncLogDispatcher.POLICY_BLOCK);
+		dispatcher.start();
+		for (int i = 0; i < 1000; i++) {
+			dispatcher.dispatch(new TestEvent(i, false));
+		}
+		dispatcher.shutdown();
+		Assert.assertEquals(1000, written.size());
+		for (int i = 0; i < 1000; i++) {
+			Assert.assertEquals(i, written.get(i).intValue());
+		}
+		Assert.assertEquals(1000, dispatcher.getWrittenCount());
+		Assert.assertEquals(0, dispatcher.getPendingCount());
+	}
+
+	@Test
+	public void testBufferSizeRoundedUp() {
+		Assert.assertEquals(8, new AsyncLogDispatcher(5, "block").getCapacity());
+		Assert.assertEquals(8, new AsyncLogDispatcher(8, "block").getCapacity());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidPolicy() {
+		new AsyncLogDispatcher(8, "discard-everything");
+	}
+
+	@Test
+	public void testDropDebugWhenFull() {
+		AsyncLogDispatcher dispatcher = new AsyncLogDispatcher(4, AsyncLogDispatcher.POLICY_DROP_DEBUG);
+		// Writer not started yet, so the buffer fills up.
+		for (int i = 0; i < 4; i++) {
+			dispatcher.dispatch(new TestEvent(i, true));
+		}
+		Assert.assertEquals(4, dispatcher.getPendingCount());
+		dispatcher.dispatch(new TestEvent(4, true));
+		dispatcher.dispatch(new TestEvent(5, true));
+		Assert.assertEquals(2, dispatcher.getDiscardedCount());
+
+		dispatcher.start();
+		dispatcher.shutdown();
+		Assert.assertEquals(4, written.size());
+	}
+
+	@Test
+	public void testSampleWhenFull() {
+		AsyncLogDispatcher dispatcher = new AsyncLogDispatcher(2, AsyncLogDispatcher.POLICY_SAMPLE);
+		dispatcher.dispatch(new TestEvent(0, true));
+		dispatcher.dispatch(new TestEvent(1, true));
+		for (int i = 2; i < AsyncLogDispatcher.SAMPLE_RATE + 1; i++) {
+			dispatcher.dispatch(new TestEvent(i, true));
+		}
+		Assert.assertEquals(AsyncLogDispatcher.SAMPLE_RATE - 1, dispatcher.getDiscardedCount());
+
+		// The next one is sampled and waits for room.
+		dispatcher.start();
+		dispatcher.dispatch(new TestEvent(99, true));
+		dispatcher.shutdown();
+		Assert.assertEquals(AsyncLogDispatcher.SAMPLE_RATE - 1, dispatcher.getDiscardedCount());
+		Assert.assertEquals(3, written.size());
+		Assert.assertEquals(99, written.get(2).intValue());
+	}
+
+	@Test
+	public void testWritesSynchronouslyAfterShutdown() {
+		AsyncLogDispatcher dispatcher = new AsyncLogDispatcher(4, AsyncLogDispatcher.POLICY_BLOCK);
+		dispatcher.start();
+		dispatcher.shutdown();
+		dispatcher.dispatch(new TestEvent(7, false));
+		Assert.assertEquals(1, written.size());
+		Assert.assertEquals(0, dispatcher.getWrittenCount());
+	}
+
+	@Test
+	public void testConcurrentProducers() throws Exception {
+		final AsyncLogDispatcher dispatcher = new AsyncLogDispatcher(64, AsyncLogDispatcher.POLICY_BLOCK);
+		dispatcher.start();
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			final int base = t * 10000;
+			threads[t] = new Thread() {
+				public void run() {
+					for (int i = 0; i < 2000; i++) {
+						dispatcher.dispatch(new TestEvent(base + i, false));
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		dispatcher.shutdown();
+		Assert.assertEquals(16000, written.size());
+		Assert.assertEquals(0, dispatcher.getDiscardedCount());
+	}
+
+	@Test
+	public void testFlushedOncePerBatch() {
+		final int[] flushes = new int[1];
+		final Flushable target = new Flushable() {
+			public void flush() {
+				flushes[0]++;
+			}
+		};
+		AsyncLogDispatcher dispatcher = new AsyncLogDispatcher(64, AsyncLogDispatcher.POLICY_BLOCK);
+		// Writer not started yet, so all of them are drained as one batch.
+		for (int i = 0; i < 64; i++) {
+			dispatcher.dispatch(new TestEvent(i, false) {
+				Flushable flushTarget() {
+					return target;
+				}
+			});
+		}
+		dispatcher.start();
+		dispatcher.shutdown();
+		Assert.assertEquals(64, written.size());
+		Assert.assertEquals(1, flushes[0]);
+	}
+
+	@Test
+	public void testNoEventsLostDuringShutdown() throws Exception {
+		for (int round = 0; round < 20; round++) {
+			written.clear();
+			final AsyncLogDispatcher dispatcher = new AsyncLogDispatcher(8, AsyncLogDispatcher.POLICY_BLOCK);
+			dispatcher.start();
+			Thread[] threads = new Thread[4];
+			for (int t = 0; t < threads.length; t++) {
+				threads[t] = new Thread() {
+					public void run() {
+						for (int i = 0; i < 500; i++) {
+							dispatcher.dispatch(new TestEvent(i, false));
+						}
+					}
+				};
+				threads[t].start();
+			}
+			dispatcher.shutdown();
+			for (Thread t : threads) {
+				t.join();
+			}
+			Assert.assertEquals(2000, written.size());
+		}
+	}
+}
@@ -15,6 +15,10 @@
  */
 package org.owasp.esapi.reference;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.util.Date;
 import java.util.Set;
 
@@ -234,6 +238,126 @@ public class AuthenticatorTest extends TestCase {
 		assertNotNull(instance.getUser( accountName ));
 		assertNull(instance.getUser( ESAPI.randomizer().getRandomString(8, EncoderConstants.CHAR_ALPHANUMERICS) ));
 	}
+
+	/**
+	 * Test that users are found by id and by name in any case, and under
+	 * their new name as soon as they are renamed.
+	 *
+	 * @throws Exception
+	 */
+	public void testGetUserIndex() throws Exception {
+		System.out.println("getUserIndex");
+		FileBasedAuthenticator instance = (FileBasedAuthenticator)ESAPI.authenticator();
+		String password = instance.generateStrongPassword();
+		String accountName=ESAPI.randomizer().getRandomString(8, EncoderConstants.CHAR_ALPHANUMERICS);
+		User user = instance.createUser(accountName, password, password);
+		assertSame(user, instance.getUser( accountName.toUpperCase() ));
+		assertSame(user, instance.getUser( accountName.toLowerCase() ));
+		assertSame(user, instance.getUser( user.getAccountId() ));
+
+		String newName=ESAPI.randomizer().getRandomString(8, EncoderConstants.CHAR_ALPHANUMERICS);
+		user.setAccountName(newName);
+		assertNull(instance.getUser( accountName ));
+		assertSame(user, instance.getUser( newName.toUpperCase() ));
+		// the old name is free again
+		User other = instance.createUser(accountName, password, password);
+		assertSame(other, instance.getUser( accountName ));
+		instance.removeUser(accountName);
+		instance.saveUsers();
+		assertSame(user, instance.getUser( newName ));
+		assertTrue(instance.getUserNames().contains(newName.toLowerCase()));
+
+		instance.removeUser(newName);
+		assertNull(instance.getUser( newName ));
+		assertNull(instance.getUser( user.getAccountId() ));
+	}
+
+	/**
+	 * Test that journaled changes leave the user file alone, are recovered
+	 * by a new authenticator, and are compacted into a user file that the
+	 * authenticator reads without a journal.
+	 *
+	 * @throws Exception
+	 */
+	public void testJournal() throws Exception {
+		System.out.println("journal");
+		File db = File.createTempFile("esapi-users", ".txt");
+		try {
+			FileBasedAuthenticator instance = new FileBasedAuthenticator(db, true);
+			String password = instance.generateStrongPassword();
+			String accountName=ESAPI.randomizer().getRandomString(8, EncoderConstants.CHAR_ALPHANUMERICS);
+			instance.createUser(accountName, password, password);
+			long length = db.length();
+			String otherName=ESAPI.randomizer().getRandomString(8, EncoderConstants.CHAR_ALPHANUMERICS);
+			instance.createUser(otherName, password, password);
+			instance.removeUser(otherName);
+			assertEquals(length, db.length());
+
+			FileBasedAuthenticator recovered = new FileBasedAuthenticator(db, true);
+			User user = recovered.getUser(accountName);
+			assertNotNull(user);
+			assertNull(recovered.getUser(otherName));
+			assertTrue(recovered.verifyPassword(user, password));
+			recovered.saveUsers();
+
+			FileBasedAuthenticator plain = new FileBasedAuthenticator(db, false);
+			assertNotNull(plain.getUser(accountName));
+			assertNull(plain.getUser(otherName));
+		} finally {
+			db.delete();
+			new File(db.getPath() + ".journal").delete();
+		}
+	}
+
+	/**
+	 * Test that changes made while a new user file is written are not lost,
+	 * whether or not the journal was started over afterwards.
+	 *
+	 * @throws Exception
+	 */
+	public void testJournalCompaction() throws Exception {
+		System.out.println("journalCompaction");
+		File db = File.createTempFile("esapi-users", ".txt");
+		File journal = new File(db.getPath() + ".journal");
+		try {
+			FileBasedAuthenticator instance = new FileBasedAuthenticator(db, true);
+			String password = instance.generateStrongPassword();
+			String accountName=ESAPI.randomizer().getRandomString(8, EncoderConstants.CHAR_ALPHANUMERICS);
+			instance.createUser(accountName, password, password);
+			instance.saveUsers();
+			String otherName=ESAPI.randomizer().getRandomString(8, EncoderConstants.CHAR_ALPHANUMERICS);
+			instance.createUser(otherName, password, password);
+
+			// Write the next generation as a compaction that started before the last change would, and
+			// leave the journal as a crash before starting it over would
+			StringBuilder written = new StringBuilder();
+			BufferedReader reader = new BufferedReader(new FileReader(db));
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				if (line.startsWith("# generation ")) {
+					written.append("# generation 3\n# journal 2 0\n");
+				} else if (!line.startsWith("# journal ")) {
+					written.append(line).append('\n');
+				}
+			}
+			reader.close();
+			FileWriter writer = new FileWriter(db);
+			writer.write(written.toString());
+			writer.close();
+
+			FileBasedAuthenticator recovered = new FileBasedAuthenticator(db, true);
+			assertNotNull(recovered.getUser(accountName));
+			assertNotNull(recovered.getUser(otherName));
+
+			// The journal was started over for the new generation, with the change still in it
+			reader = new BufferedReader(new FileReader(journal));
+			assertTrue(reader.readLine().endsWith("generation 3"));
+			reader.close();
+			assertNotNull(new FileBasedAuthenticator(db, true).getUser(otherName));
+		} finally {
+			db.delete();
+			journal.delete();
+		}
+	}
 	
     /**
      *
@@ -0,0 +1,110 @@
+package org.owasp.esapi.reference;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.owasp.esapi.ESAPI;
+import org.owasp.esapi.SecurityConfigurationWrapper;
+import org.owasp.esapi.util.FileTestUtils;
+
+public class ConfigurationImageTest {
+
+	private File dir;
+	private File propsFile;
+	private File image;
+	private SecurityConfigurationWrapper config;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = FileTestUtils.createTmpDirectory("ConfigurationImageTest");
+		propsFile = new File(dir, "test.properties");
+		writeFile(propsFile, "Logger.ApplicationName=ImageTest\nValidator.Email=^.+@.+$\n");
+		image = new File(dir, "test.properties" + ConfigurationImage.IMAGE_SUFFIX);
+		config = new SecurityConfigurationWrapper(ESAPI.securityConfiguration()) {
+			@Override
+			public File getResourceFile(String filename) {
+				File f = new File(dir, filename);
+				return f.exists() ? f : null;
+			}
+		};
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileTestUtils.deleteRecursively(dir);
+	}
+
+	private static void writeFile(File f, String contents) throws IOException {
+		FileOutputStream out = new FileOutputStream(f);
+		try {
+			out.write(contents.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	private Properties sampleProperties() {
+		Properties props = new Properties();
+		props.setProperty("Logger.ApplicationName", "ImageTest");
+		props.setProperty("Validator.Email", "^.+@.+$");
+		props.setProperty("Unicode", "é中");
+		return props;
+	}
+
+	private Map<String, File> sources() {
+		Map<String, File> sources = new LinkedHashMap<String, File>();
+		sources.put("test.properties", propsFile);
+		return sources;
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		Properties props = sampleProperties();
+		ConfigurationImage.write(image, props, sources());
+
+		Map<String, File> resolved = new HashMap<String, File>();
+		Properties read = ConfigurationImage.read(image, config, resolved);
+		Assert.assertEquals(props, read);
+		Assert.assertEquals(propsFile, resolved.get("test.properties"));
+	}
+
+	@Test
+	public void testStaleWhenSourceChanges() throws Exception {
+		ConfigurationImage.write(image, sampleProperties(), sources());
+		writeFile(propsFile, "Logger.ApplicationName=Changed\n");
+		Assert.assertNull(ConfigurationImage.read(image, config, null));
+	}
+
+	@Test
+	public void testStaleWhenSourceMissing() throws Exception {
+		ConfigurationImage.write(image, sampleProperties(), sources());
+		Assert.assertTrue(propsFile.delete());
+		Assert.assertNull(ConfigurationImage.read(image, config, null));
+	}
+
+	@Test(expected = IOException.class)
+	public void testCorruptImageRejected() throws Exception {
+		ConfigurationImage.write(image, sampleProperties(), sources());
+		RandomAccessFile raf = new RandomAccessFile(image, "rw");
+		try {
+			raf.seek(20);
+			int b = raf.read();
+			raf.seek(20);
+			raf.write(b ^ 0xFF);
+		} finally {
+			raf.close();
+		}
+		ConfigurationImage.read(image, config, null);
+	}
+}
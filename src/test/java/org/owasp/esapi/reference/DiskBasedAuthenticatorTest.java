@@ -0,0 +1,151 @@
+package org.owasp.esapi.reference;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.owasp.esapi.EncoderConstants;
+import org.owasp.esapi.ESAPI;
+import org.owasp.esapi.User;
+
+public class DiskBasedAuthenticatorTest {
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("esapi-users", ".db");
+		file.delete();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (String suffix : new String[] { "", ".ids", ".names" }) {
+			new File(file.getPath() + suffix).delete();
+		}
+	}
+
+	private static String randomName() {
+		return ESAPI.randomizer().getRandomString(8, EncoderConstants.CHAR_ALPHANUMERICS);
+	}
+
+	@Test
+	public void testCreateVerifyAndRemove() throws Exception {
+		DiskBasedAuthenticator instance = new DiskBasedAuthenticator(file, 100);
+		String accountName = randomName();
+		String password = instance.generateStrongPassword();
+		User user = instance.createUser(accountName, password, password);
+		Assert.assertSame(user, instance.getUser(accountName.toUpperCase()));
+		Assert.assertSame(user, instance.getUser(user.getAccountId()));
+		Assert.assertTrue(instance.verifyPassword(user, password));
+		Assert.assertFalse(instance.verifyPassword(user, password + "x"));
+		Assert.assertTrue(instance.getUserNames().contains(accountName.toLowerCase()));
+
+		String newPassword = instance.generateStrongPassword(user, password);
+		instance.changePassword(user, password, newPassword, newPassword);
+		Assert.assertTrue(instance.verifyPassword(user, newPassword));
+		try {
+			instance.changePassword(user, newPassword, password, password);
+			Assert.fail("Changed back to a recent password");
+		} catch (Exception e) {
+			// expected
+		}
+
+		instance.removeUser(accountName);
+		Assert.assertNull(instance.getUser(accountName));
+		Assert.assertNull(instance.getUser(user.getAccountId()));
+		instance.close();
+	}
+
+	@Test
+	public void testCacheIsBounded() throws Exception {
+		DiskBasedAuthenticator instance = new DiskBasedAuthenticator(file, 2);
+		String password = instance.generateStrongPassword();
+		String[] names = new String[5];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = randomName();
+			instance.createUser(names[i], password, password);
+		}
+		Assert.assertEquals(2, instance.getCachedUserCount());
+
+		// Changes are written back when the user is dropped from the cache
+		User first = instance.getUser(names[0]);
+		Assert.assertNotNull(first);
+		((DefaultUser) first).setFailedLoginCount(2);
+		for (int i = 1; i < names.length; i++) {
+			Assert.assertNotNull(instance.getUser(names[i]));
+		}
+		Assert.assertEquals(2, instance.getCachedUserCount());
+		User reloaded = instance.getUser(names[0]);
+		Assert.assertNotSame(first, reloaded);
+		Assert.assertEquals(2, reloaded.getFailedLoginCount());
+		Assert.assertTrue(instance.verifyPassword(reloaded, password));
+		instance.close();
+	}
+
+	@Test
+	public void testRemovedUserIsNotWrittenBack() throws Exception {
+		DiskBasedAuthenticator instance = new DiskBasedAuthenticator(file, 1);
+		String password = instance.generateStrongPassword();
+		String accountName = randomName();
+		User user = instance.createUser(accountName, password, password);
+		((DefaultUser) user).setFailedLoginCount(1);
+		instance.removeUser(accountName);
+		// Fill the cache past its size, and save whatever is left
+		instance.createUser(randomName(), password, password);
+		instance.createUser(randomName(), password, password);
+		instance.saveUsers();
+		Assert.assertNull(instance.getUser(accountName));
+		Assert.assertNull(instance.getUser(user.getAccountId()));
+		instance.close();
+	}
+
+	@Test
+	public void testUsersSurviveRestart() throws Exception {
+		DiskBasedAuthenticator instance = new DiskBasedAuthenticator(file, 100);
+		String accountName = randomName();
+		String password = instance.generateStrongPassword();
+		User user = instance.createUser(accountName, password, password);
+		user.addRole("admin");
+		instance.close();
+
+		instance = new DiskBasedAuthenticator(file, 100);
+		User restored = instance.getUser(accountName);
+		Assert.assertEquals(user.getAccountId(), restored.getAccountId());
+		Assert.assertTrue(restored.isInRole("admin"));
+		Assert.assertTrue(instance.verifyPassword(restored, password));
+		instance.close();
+	}
+
+	@Test
+	public void testImportUsers() throws Exception {
+		File users = File.createTempFile("esapi-users", ".txt");
+		try {
+			PrintWriter writer = new PrintWriter(new FileWriter(users));
+			writer.println("# accountId | accountName | hashedPassword | ...");
+			writer.println();
+			writer.println("1203123710837 | mitch | 44k/NAzQUlrCq9musTGGkcMNmdzEGJ8w8qZTLzpxLuQ= | admin,user | unlocked | enabled | u10dW4vTo3ZkoM5xP+blayWCz7KdPKyKUojOn9GJobg= | 192.168.1.255 | 1187201000926 | 1187200991568 | 1187200605330 | 2187200605330 | 1");
+			writer.println("1203123710838 | not enough fields");
+			writer.close();
+
+			UserStore store = new UserStore(file);
+			Assert.assertEquals(1, DiskBasedAuthenticator.importUsers(store, users));
+			store.close();
+
+			DiskBasedAuthenticator instance = new DiskBasedAuthenticator(file, 100);
+			User user = instance.getUser("Mitch");
+			Assert.assertNotNull(user);
+			Assert.assertEquals(1203123710837L, user.getAccountId());
+			Assert.assertTrue(user.isInRole("admin"));
+			Assert.assertEquals(1, user.getFailedLoginCount());
+			instance.close();
+		} finally {
+			users.delete();
+		}
+	}
+}
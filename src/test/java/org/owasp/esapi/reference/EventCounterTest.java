@@ -0,0 +1,95 @@
+package org.owasp.esapi.reference;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class EventCounterTest {
+
+	@Test
+	public void testThresholdWithinInterval() {
+		EventCounter counter = new EventCounter("test", 3);
+		Assert.assertFalse(counter.increment(1000, 10000));
+		Assert.assertFalse(counter.increment(2000, 10000));
+		Assert.assertTrue(counter.increment(3000, 10000));
+		Assert.assertTrue(counter.increment(4000, 10000));
+	}
+
+	@Test
+	public void testSlidingWindow() {
+		EventCounter counter = new EventCounter("test", 3);
+		counter.increment(0, 1000);
+		counter.increment(500, 1000);
+		// Third event is exactly one interval after the first, so not within it.
+		Assert.assertFalse(counter.increment(1000, 1000));
+		// The window now starts at 500.
+		Assert.assertTrue(counter.increment(1400, 1000));
+		Assert.assertFalse(counter.increment(5000, 1000));
+	}
+
+	@Test
+	public void testCapacityOfOne() {
+		EventCounter counter = new EventCounter("test", 1);
+		Assert.assertTrue(counter.increment(1000, 1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidCapacity() {
+		new EventCounter("test", 0);
+	}
+
+	@Test
+	public void testConcurrentIncrements() throws Exception {
+		final EventCounter counter = new EventCounter("test", 50);
+		final AtomicInteger exceeded = new AtomicInteger();
+		final long now = System.currentTimeMillis();
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					for (int i = 0; i < 1000; i++) {
+						if (counter.increment(now, 60000)) {
+							exceeded.incrementAndGet();
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		// All but the first 49 events are over the threshold, give or take a few racing ones.
+		Assert.assertTrue(String.valueOf(exceeded.get()), exceeded.get() >= 7900);
+	}
+
+	@Test
+	public void testNoFalsePositivesUnderConcurrency() throws Exception {
+		// Every event has its own time, one tick after the last, so at most 4 of
+		// them can ever be less than 4 ticks apart and the threshold of 5 can
+		// never be exceeded.
+		final EventCounter counter = new EventCounter("test", 5);
+		final AtomicLong clock = new AtomicLong(1000);
+		final AtomicInteger exceeded = new AtomicInteger();
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					for (int i = 0; i < 100000; i++) {
+						if (counter.increment(clock.incrementAndGet(), 4)) {
+							exceeded.incrementAndGet();
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		Assert.assertEquals(0, exceeded.get());
+	}
+}
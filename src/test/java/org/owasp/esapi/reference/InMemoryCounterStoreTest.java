@@ -0,0 +1,118 @@
+package org.owasp.esapi.reference;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class InMemoryCounterStoreTest {
+
+	private static final long MINUTE = 60000;
+	// The start of a window, so that the previous window counts in full.
+	private static final long START = MINUTE * 1000000;
+
+	@Test
+	public void testCountsWithinWindow() {
+		InMemoryCounterStore store = new InMemoryCounterStore(64);
+		Assert.assertEquals(1, store.increment("a", MINUTE, START));
+		Assert.assertEquals(2, store.increment("a", MINUTE, START + 1000));
+		Assert.assertEquals(1, store.increment("b", MINUTE, START + 2000));
+		Assert.assertEquals(2, store.getCount("a", MINUTE, START + 3000));
+		Assert.assertEquals(0, store.getCount("c", MINUTE, START + 3000));
+	}
+
+	@Test
+	public void testSlidingWindow() {
+		InMemoryCounterStore store = new InMemoryCounterStore(64);
+		for (int i = 0; i < 10; i++) {
+			store.increment("a", MINUTE, START + 1000 * i);
+		}
+		// Half way through the next window, half of the previous window's count remains.
+		Assert.assertEquals(5, store.getCount("a", MINUTE, START + MINUTE + MINUTE / 2));
+		Assert.assertEquals(6, store.increment("a", MINUTE, START + MINUTE + MINUTE / 2));
+		// Two windows later, everything has expired.
+		Assert.assertEquals(0, store.getCount("a", MINUTE, START + 3 * MINUTE));
+		Assert.assertEquals(1, store.increment("a", MINUTE, START + 3 * MINUTE));
+	}
+
+	@Test
+	public void testMinimumCount() {
+		InMemoryCounterStore store = new InMemoryCounterStore(64);
+		Assert.assertEquals(0, store.getMinimumCount("a", MINUTE, START));
+		// Events at the end of one window and the start of the next
+		for (int i = 0; i < 9; i++) {
+			store.increment("a", MINUTE, START + MINUTE - 1000 + i);
+		}
+		Assert.assertEquals(9, store.getMinimumCount("a", MINUTE, START + MINUTE - 1));
+		Assert.assertEquals(10, store.increment("a", MINUTE, START + MINUTE));
+		// The estimate counts the previous window in full, but only the current window is certain.
+		Assert.assertEquals(10, store.getCount("a", MINUTE, START + MINUTE));
+		Assert.assertEquals(1, store.getMinimumCount("a", MINUTE, START + MINUTE));
+		Assert.assertTrue(store.getMinimumCount("a", MINUTE, START + MINUTE + 1000) <=
+						  store.getCount("a", MINUTE, START + MINUTE + 1000));
+		Assert.assertEquals(0, store.getMinimumCount("a", MINUTE, START + 2 * MINUTE));
+	}
+
+	/**
+	 * The fingerprints are SipHash-2-4; checked against the reference test vectors.
+	 */
+	@Test
+	public void testSipHash() {
+		long k0 = 0x0706050403020100L;
+		long k1 = 0x0f0e0d0c0b0a0908L;
+		Assert.assertEquals(0x726fdb47dd0e0e31L, SlotCounterStore.sipHash(k0, k1, ""));
+		// The bytes 00 to 07
+		Assert.assertEquals(0x93f5f5799a932462L, SlotCounterStore.sipHash(k0, k1, "\u0100\u0302\u0504\u0706"));
+		Assert.assertFalse(SlotCounterStore.sipHash(k0, k1, "a") == SlotCounterStore.sipHash(k0 + 1, k1, "a"));
+	}
+
+	@Test
+	public void testLeastRecentlyUsedKeysAreReplaced() {
+		InMemoryCounterStore store = new InMemoryCounterStore(8);
+		Assert.assertEquals(8, store.getSlotCount());
+		store.increment("old", MINUTE, START);
+		for (int i = 0; i < 8; i++) {
+			store.increment("key" + i, MINUTE, START + 1000 + i);
+		}
+		Assert.assertEquals(0, store.getCount("old", MINUTE, START + 10000));
+		Assert.assertEquals(1, store.getCount("key7", MINUTE, START + 10000));
+	}
+
+	@Test
+	public void testConcurrentIncrements() throws Exception {
+		final InMemoryCounterStore store = new InMemoryCounterStore(64);
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					for (int i = 0; i < 1000; i++) {
+						store.increment("shared", MINUTE, START);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Assert.assertEquals(8000, store.getCount("shared", MINUTE, START));
+	}
+
+	@Test
+	public void testCountSaturates() {
+		InMemoryCounterStore store = new InMemoryCounterStore(8);
+		for (int i = 0; i < SlotCounterStore.MAX_COUNT + 10; i++) {
+			store.increment("a", MINUTE, START);
+		}
+		Assert.assertEquals(SlotCounterStore.MAX_COUNT, store.getCount("a", MINUTE, START));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testIntervalTooShort() {
+		new InMemoryCounterStore(8).increment("a", 10, START);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidSize() {
+		new InMemoryCounterStore(0);
+	}
+}
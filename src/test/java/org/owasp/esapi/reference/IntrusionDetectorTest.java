@@ -22,6 +22,8 @@ import junit.framework.TestSuite;
 import org.owasp.esapi.Authenticator;
 import org.owasp.esapi.ESAPI;
 import org.owasp.esapi.EncoderConstants;
+import org.owasp.esapi.HTTPUtilities;
+import org.owasp.esapi.SecurityConfigurationWrapper;
 import org.owasp.esapi.User;
 import org.owasp.esapi.errors.AuthenticationException;
 import org.owasp.esapi.errors.IntegrityException;
@@ -29,6 +31,7 @@ import org.owasp.esapi.errors.IntrusionException;
 import org.owasp.esapi.errors.ValidationException;
 import org.owasp.esapi.http.MockHttpServletRequest;
 import org.owasp.esapi.http.MockHttpServletResponse;
+import org.owasp.esapi.http.MockHttpSession;
 
 /**
  * The Class IntrusionDetectorTest.
@@ -128,5 +131,157 @@ public class IntrusionDetectorTest extends TestCase {
         }
         assertFalse( user.isEnabled() );
     }
+
+    /**
+     * Test that events caused by anonymous users are counted against their IP address
+     * when IntrusionDetector.AnonymousKey is set.
+     */
+    public void testAddEventAnonymous() {
+        System.out.println("addEventAnonymous");
+        ESAPI.override(new SecurityConfigurationWrapper(ESAPI.securityConfiguration()) {
+            @Override
+            public String getIntrusionDetectionAnonymousKey() {
+                return "remote-address";
+            }
+        });
+        try {
+            MockHttpServletRequest request = new MockHttpServletRequest();
+            request.setRemoteAddr("192.0.2.33");
+            ESAPI.httpUtilities().setCurrentHTTP(request, new MockHttpServletResponse());
+            ESAPI.authenticator().setCurrentUser(User.ANONYMOUS);
+
+            int count = ESAPI.securityConfiguration().getQuota("event.test").count;
+            for ( int i = 0; i < count - 1; i++ ) {
+                ESAPI.intrusionDetector().addEvent("test", "test message");
+            }
+            // The table holds the same counter, so one more event goes over the threshold.
+            long now = System.currentTimeMillis();
+            EventCounter counter = PrincipalEventTable.getInstance().getCounter("ip:192.0.2.33", "event.test", count, now);
+            assertTrue( counter.increment(now, 10000) );
+        } finally {
+            ESAPI.override(null);
+            ESAPI.clearCurrent();
+        }
+    }
+
+    /**
+     * Test that with IntrusionDetector.SharedCounters events are counted in the CounterStore.
+     * 
+     * @throws Exception
+     */
+    public void testAddEventSharedCounters() throws Exception {
+        System.out.println("addEventSharedCounters");
+        ESAPI.override(new SecurityConfigurationWrapper(ESAPI.securityConfiguration()) {
+            @Override
+            public boolean getIntrusionDetectionSharedCounters() {
+                return true;
+            }
+        });
+        try {
+            String username = ESAPI.randomizer().getRandomString(8, EncoderConstants.CHAR_ALPHANUMERICS);
+            User user = ESAPI.authenticator().createUser(username, "addEventShared", "addEventShared");
+            user.enable();
+            ESAPI.httpUtilities().setCurrentHTTP(new MockHttpServletRequest(), new MockHttpServletResponse());
+            user.loginWithPassword("addEventShared");
+
+            // Only events within one window of the store certainly fall within the interval
+            long intoWindow = System.currentTimeMillis() % 10000;
+            if ( intoWindow > 9000 ) {
+                Thread.sleep( 10000 - intoWindow + 10 );
+            }
+            for ( int i = 0; i < ESAPI.securityConfiguration().getQuota("event.test").count; i++ ) {
+                ESAPI.intrusionDetector().addEvent("test", "test message");
+            }
+            assertFalse( user.isEnabled() );
+            assertTrue( ESAPI.counterStore().getCount("user:" + user.getAccountName() + "\u0000event.test",
+                    10000, System.currentTimeMillis()) > 0 );
+        } finally {
+            ESAPI.override(null);
+            ESAPI.clearCurrent();
+        }
+    }
+
+    /**
+     * Test that with IntrusionDetector.Async the background thread counts events and
+     * disables the user.
+     * 
+     * @throws Exception
+     */
+    public void testAddEventAsync() throws Exception {
+        System.out.println("addEventAsync");
+        ESAPI.override(new SecurityConfigurationWrapper(ESAPI.securityConfiguration()) {
+            @Override
+            public boolean getIntrusionDetectionAsynchronously() {
+                return true;
+            }
+        });
+        try {
+            String username = ESAPI.randomizer().getRandomString(8, EncoderConstants.CHAR_ALPHANUMERICS);
+            User user = ESAPI.authenticator().createUser(username, "addEventAsync", "addEventAsync");
+            user.enable();
+            ESAPI.httpUtilities().setCurrentHTTP(new MockHttpServletRequest(), new MockHttpServletResponse());
+            user.loginWithPassword("addEventAsync");
+
+            IntrusionEventQueue queue = IntrusionEventQueue.getInstance();
+            long processed = queue.getProcessedCount();
+            int count = ESAPI.securityConfiguration().getQuota("event.test").count;
+            for ( int i = 0; i < count; i++ ) {
+                ESAPI.intrusionDetector().addEvent( "test", "test message" );
+            }
+            long deadline = System.currentTimeMillis() + 5000;
+            while ( queue.getProcessedCount() + queue.getRejectedCount() < processed + count &&
+                    System.currentTimeMillis() < deadline ) {
+                Thread.sleep(10);
+            }
+            assertTrue( queue.getProcessedCount() > processed );
+            assertFalse( user.isEnabled() );
+        } finally {
+            ESAPI.override(null);
+            ESAPI.clearCurrent();
+        }
+    }
+
+    /**
+     * Test that with IntrusionDetector.Async events whose actions include logout are
+     * still processed on the request thread, so that the user is fully logged out,
+     * including the remember token cookie.
+     * 
+     * @throws Exception
+     */
+    public void testAsyncLogoutIsInline() throws Exception {
+        System.out.println("asyncLogoutIsInline");
+        ESAPI.override(new SecurityConfigurationWrapper(ESAPI.securityConfiguration()) {
+            @Override
+            public boolean getIntrusionDetectionAsynchronously() {
+                return true;
+            }
+        });
+        try {
+            String username = ESAPI.randomizer().getRandomString(8, EncoderConstants.CHAR_ALPHANUMERICS);
+            User user = ESAPI.authenticator().createUser(username, "asyncLogoutIsInline", "asyncLogoutIsInline");
+            user.enable();
+            MockHttpServletRequest request = new MockHttpServletRequest();
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            ESAPI.httpUtilities().setCurrentHTTP(request, response);
+            user.loginWithPassword("asyncLogoutIsInline");
+            MockHttpSession session = (MockHttpSession) request.getSession(false);
+
+            IntrusionEventQueue queue = IntrusionEventQueue.getInstance();
+            long offered = queue.getAcceptedCount() + queue.getRejectedCount();
+            int count = ESAPI.securityConfiguration().getQuota(IntegrityException.class.getName()).count;
+            for ( int i = 0; i < count; i++ ) {
+                new IntegrityException( "IntegrityException " + i, "IntegrityException " + i );
+            }
+            // no waiting: it all happened before the last exception was constructed
+            assertEquals( offered, queue.getAcceptedCount() + queue.getRejectedCount() );
+            assertFalse( user.isEnabled() );
+            assertFalse( user.isLoggedIn() );
+            assertTrue( session.getInvalidated() );
+            assertEquals( 0, response.getCookie( HTTPUtilities.REMEMBER_TOKEN_COOKIE_NAME ).getMaxAge() );
+        } finally {
+            ESAPI.override(null);
+            ESAPI.clearCurrent();
+        }
+    }
     
 }
@@ -0,0 +1,105 @@
+package org.owasp.esapi.reference;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class IntrusionEventQueueTest {
+
+	private static class CountingEvent extends IntrusionEventQueue.Event {
+		final AtomicInteger count;
+
+		CountingEvent(AtomicInteger count) {
+			this.count = count;
+		}
+
+		void process() {
+			count.incrementAndGet();
+		}
+	}
+
+	private static class BlockingEvent extends IntrusionEventQueue.Event {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		void process() {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	@Test
+	public void testProcessesQueuedEvents() throws Exception {
+		IntrusionEventQueue queue = new IntrusionEventQueue(16);
+		queue.start();
+		AtomicInteger count = new AtomicInteger();
+		for (int i = 0; i < 10; i++) {
+			Assert.assertTrue(queue.offer(new CountingEvent(count)));
+		}
+		queue.shutdown();
+		Assert.assertEquals(10, count.get());
+		Assert.assertEquals(10, queue.getAcceptedCount());
+		Assert.assertEquals(10, queue.getProcessedCount());
+		Assert.assertEquals(0, queue.getPendingCount());
+	}
+
+	@Test
+	public void testRejectsWhenFull() throws Exception {
+		IntrusionEventQueue queue = new IntrusionEventQueue(2);
+		queue.start();
+		BlockingEvent blocker = new BlockingEvent();
+		Assert.assertTrue(queue.offer(blocker));
+		Assert.assertTrue(blocker.started.await(5, TimeUnit.SECONDS));
+
+		AtomicInteger count = new AtomicInteger();
+		Assert.assertTrue(queue.offer(new CountingEvent(count)));
+		Assert.assertTrue(queue.offer(new CountingEvent(count)));
+		// The caller has to process this one itself.
+		Assert.assertFalse(queue.offer(new CountingEvent(count)));
+		Assert.assertEquals(1, queue.getRejectedCount());
+		Assert.assertEquals(2, queue.getPendingCount());
+		Assert.assertEquals(2, queue.getMaxPendingCount());
+
+		blocker.release.countDown();
+		queue.shutdown();
+		Assert.assertEquals(2, count.get());
+		Assert.assertEquals(3, queue.getProcessedCount());
+	}
+
+	@Test
+	public void testRejectsAfterShutdown() {
+		IntrusionEventQueue queue = new IntrusionEventQueue(4);
+		queue.start();
+		queue.shutdown();
+		Assert.assertFalse(queue.offer(new CountingEvent(new AtomicInteger())));
+		Assert.assertEquals(1, queue.getRejectedCount());
+	}
+
+	@Test
+	public void testFailingEventDoesNotStopWorker() {
+		IntrusionEventQueue queue = new IntrusionEventQueue(4);
+		queue.start();
+		AtomicInteger count = new AtomicInteger();
+		queue.offer(new IntrusionEventQueue.Event() {
+			void process() {
+				throw new IllegalStateException("test");
+			}
+		});
+		queue.offer(new CountingEvent(count));
+		queue.shutdown();
+		Assert.assertEquals(1, count.get());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidCapacity() {
+		new IntrusionEventQueue(0);
+	}
+}
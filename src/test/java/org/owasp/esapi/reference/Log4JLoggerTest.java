@@ -460,4 +460,28 @@ public class Log4JLoggerTest extends TestCase {
         }
 	}
 
+    /**
+     * Test of the parameterized and deferred methods, of class org.owasp.esapi.Logger.
+     * The message must not be built when the level is disabled.
+     */
+    public void testParameterizedAndDeferred() {
+        System.out.println("parameterized and deferred");
+        final int[] calls = new int[1];
+        Logger.MessageSupplier supplier = new Logger.MessageSupplier() {
+            public String get() {
+                calls[0]++;
+                return "test message deferred";
+            }
+        };
+        testLogger.setLevel( Logger.INFO );
+        testLogger.debug(Logger.SECURITY_SUCCESS, supplier );
+        testLogger.trace(Logger.SECURITY_SUCCESS, supplier, new RuntimeException("test") );
+        testLogger.debug(Logger.SECURITY_SUCCESS, "test message {} {}", "not", "shown" );
+        assertEquals(0, calls[0]);
+        testLogger.info(Logger.SECURITY_SUCCESS, supplier );
+        testLogger.error(Logger.SECURITY_FAILURE, supplier, new RuntimeException("test") );
+        testLogger.warning(Logger.SECURITY_SUCCESS, "test message {} of {}", 1, 2 );
+        assertEquals(2, calls[0]);
+    }
+
 }
@@ -0,0 +1,98 @@
+package org.owasp.esapi.reference;
+
+import javax.servlet.http.HttpSession;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Test;
+import org.owasp.esapi.ESAPI;
+import org.owasp.esapi.EncoderConstants;
+import org.owasp.esapi.Logger;
+import org.owasp.esapi.User;
+import org.owasp.esapi.http.MockHttpServletRequest;
+import org.owasp.esapi.http.MockHttpServletResponse;
+
+public class LogContextTest {
+
+	@After
+	public void tearDown() {
+		ESAPI.clearCurrent();
+	}
+
+	@Test
+	public void testCachedPerRequest() {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		HttpSession session = request.getSession(true);
+		ESAPI.httpUtilities().setCurrentHTTP(request, new MockHttpServletResponse());
+
+		LogContext context = LogContext.current();
+		Assert.assertSame(context, LogContext.current());
+		Assert.assertEquals("10.1.43.6:80", context.getServerInfo());
+		String sid = (String) session.getAttribute(LogContext.SESSION_ATTRIBUTE);
+		Assert.assertNotNull(sid);
+		Assert.assertTrue(context.getUserInfo(), context.getUserInfo().contains(":" + sid + "@"));
+
+		// Binding another request discards the cached context.
+		ESAPI.httpUtilities().setCurrentHTTP(new MockHttpServletRequest(), new MockHttpServletResponse());
+		Assert.assertNotSame(context, LogContext.current());
+		Assert.assertTrue(LogContext.current().getUserInfo().contains(":null@"));
+	}
+
+	@Test
+	public void testNotCachedUntilSessionExists() {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		ESAPI.httpUtilities().setCurrentHTTP(request, new MockHttpServletResponse());
+		ESAPI.authenticator().setCurrentUser(User.ANONYMOUS);
+		LogContext context = LogContext.current();
+		Assert.assertTrue(context.getUserInfo().contains(":null@"));
+		Assert.assertNotSame(context, LogContext.current());
+
+		// A session created later in the same request shows up in the next log line.
+		HttpSession session = request.getSession(true);
+		context = LogContext.current();
+		String sid = (String) session.getAttribute(LogContext.SESSION_ATTRIBUTE);
+		Assert.assertTrue(context.getUserInfo(), context.getUserInfo().contains(":" + sid + "@"));
+		Assert.assertSame(context, LogContext.current());
+	}
+
+	@Test
+	public void testHostAddressAfterFirstLogin() throws Exception {
+		String accountName = ESAPI.randomizer().getRandomString(8, EncoderConstants.CHAR_ALPHANUMERICS);
+		String password = ESAPI.authenticator().generateStrongPassword();
+		User user = ESAPI.authenticator().createUser(accountName, password, password);
+		try {
+			user.enable();
+			user.unlock();
+			MockHttpServletRequest request = new MockHttpServletRequest();
+			request.getSession(true);
+			ESAPI.httpUtilities().setCurrentHTTP(request, new MockHttpServletResponse());
+			Assert.assertEquals("unknown", user.getLastHostAddress());
+
+			user.loginWithPassword(password);
+			ESAPI.getLogger("LogContextTest").info(Logger.SECURITY_SUCCESS, "after login");
+			Assert.assertEquals(accountName.toLowerCase(), LogContext.current().getUserInfo().split(":")[0]);
+			Assert.assertTrue(LogContext.current().getUserInfo(),
+					LogContext.current().getUserInfo().endsWith("@" + request.getRemoteAddr()));
+		} finally {
+			ESAPI.authenticator().removeUser(accountName);
+		}
+	}
+
+	@Test
+	public void testInvalidatedByUserChangeAndClear() {
+		ESAPI.httpUtilities().setCurrentHTTP(new MockHttpServletRequest(), new MockHttpServletResponse());
+		ESAPI.authenticator().setCurrentUser(User.ANONYMOUS);
+		LogContext context = LogContext.current();
+		Assert.assertTrue(context.getUserInfo().startsWith(User.ANONYMOUS.getAccountName() + ":"));
+
+		ESAPI.authenticator().setCurrentUser(User.ANONYMOUS);
+		LogContext afterUserChange = LogContext.current();
+		Assert.assertNotSame(context, afterUserChange);
+
+		ESAPI.clearCurrent();
+		LogContext afterClear = LogContext.current();
+		Assert.assertNotSame(afterUserChange, afterClear);
+		Assert.assertNull(afterClear.getServerInfo());
+	}
+}
@@ -0,0 +1,27 @@
+package org.owasp.esapi.reference;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class LogMessagesTest {
+
+	@Test
+	public void testSubstitution() {
+		Assert.assertEquals("Encrypting with AES/CBC", LogMessages.format("Encrypting with {}", "AES/CBC", null));
+		Assert.assertEquals("a=1, b=2.", LogMessages.format("a={}, b={}.", 1, new Object[] { 2 }));
+		Assert.assertEquals("null and null", LogMessages.format("{} and {}", null, new Object[] { null }));
+	}
+
+	@Test
+	public void testMismatchedArguments() {
+		Assert.assertEquals("only 1", LogMessages.format("only {}", 1, new Object[] { 2, 3 }));
+		Assert.assertEquals("1 then {}", LogMessages.format("{} then {}", 1, new Object[0]));
+		Assert.assertEquals("no placeholders", LogMessages.format("no placeholders", "x", null));
+	}
+
+	@Test
+	public void testQuotesAreLiteral() {
+		Assert.assertEquals("Can't find 'users.txt'", LogMessages.format("Can't find '{}'", "users.txt", null));
+	}
+}
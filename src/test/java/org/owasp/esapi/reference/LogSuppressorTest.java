@@ -0,0 +1,82 @@
+package org.owasp.esapi.reference;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.owasp.esapi.Logger;
+import org.owasp.esapi.Logger.EventType;
+
+public class LogSuppressorTest {
+
+	private final List<String> summaries = new ArrayList<String>();
+
+	private final LogSuppressor suppressor = new LogSuppressor(3, 1000, new LogSuppressor.SummaryLogger() {
+		public void logSummary(Object level, EventType type, String summary) {
+			summaries.add(level + " " + type + " " + summary);
+		}
+	});
+
+	@Test
+	public void testFirstNPerWindowThenSummary() {
+		long t = System.currentTimeMillis();
+		for (int i = 0; i < 3; i++) {
+			Assert.assertTrue(suppressor.allow("WARN", Logger.SECURITY_FAILURE, "Multiple ({}x) encoding detected in {}", t));
+		}
+		for (int i = 0; i < 5; i++) {
+			Assert.assertFalse(suppressor.allow("WARN", Logger.SECURITY_FAILURE, "Multiple ({}x) encoding detected in {}", t + 10));
+		}
+		Assert.assertEquals(5, suppressor.getPendingSuppressedCount());
+		Assert.assertTrue(summaries.isEmpty());
+
+		// Next window: summary first, then events are let through again.
+		Assert.assertTrue(suppressor.allow("WARN", Logger.SECURITY_FAILURE, "Multiple ({}x) encoding detected in {}", t + 1000));
+		Assert.assertEquals(1, summaries.size());
+		Assert.assertEquals("WARN SECURITY FAILURE Suppressed 5 occurrences of \"Multiple ({}x) encoding detected in {}\" in the last 1 seconds",
+		                    summaries.get(0));
+		Assert.assertEquals(0, suppressor.getPendingSuppressedCount());
+	}
+
+	@Test
+	public void testKeyedByLevelTypeAndTemplate() {
+		long t = System.currentTimeMillis();
+		for (int i = 0; i < 3; i++) {
+			suppressor.allow("WARN", Logger.SECURITY_FAILURE, "a", t);
+		}
+		Assert.assertFalse(suppressor.allow("WARN", Logger.SECURITY_FAILURE, "a", t));
+		Assert.assertTrue(suppressor.allow("ERROR", Logger.SECURITY_FAILURE, "a", t));
+		Assert.assertTrue(suppressor.allow("WARN", Logger.EVENT_FAILURE, "a", t));
+		Assert.assertTrue(suppressor.allow("WARN", Logger.SECURITY_FAILURE, "b", t));
+	}
+
+	@Test
+	public void testSweepReportsIdleWindows() {
+		long t = System.currentTimeMillis();
+		for (int i = 0; i < 10; i++) {
+			suppressor.allow("WARN", Logger.SECURITY_FAILURE, "storm", t);
+		}
+		// A different message, after the window, flushes the summary for "storm" too.
+		suppressor.allow("INFO", Logger.EVENT_SUCCESS, "other", t + 5000);
+		Assert.assertEquals(1, summaries.size());
+		Assert.assertTrue(summaries.get(0), summaries.get(0).contains("Suppressed 7 occurrences of \"storm\""));
+	}
+
+	@Test
+	public void testDistinctMessagesShareOverflowWindow() {
+		long t = System.currentTimeMillis();
+		int allowed = 0;
+		for (int i = 0; i < LogSuppressor.MAX_TEMPLATES + 100; i++) {
+			if (suppressor.allow("WARN", Logger.SECURITY_FAILURE, "attack input " + i, t)) {
+				allowed++;
+			}
+		}
+		Assert.assertEquals(LogSuppressor.MAX_TEMPLATES + 3, allowed);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidLimit() {
+		new LogSuppressor(0, 1000, null);
+	}
+}
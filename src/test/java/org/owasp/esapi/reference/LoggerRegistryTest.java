@@ -0,0 +1,67 @@
+package org.owasp.esapi.reference;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.owasp.esapi.ESAPI;
+import org.owasp.esapi.Logger;
+
+public class LoggerRegistryTest {
+
+	private final AtomicInteger made = new AtomicInteger();
+
+	private final LoggerRegistry registry = new LoggerRegistry(new LoggerRegistry.LoggerMaker() {
+		public Logger makeLogger(String name) {
+			made.incrementAndGet();
+			return JavaLogFactory.getInstance().getLogger(name + "#" + made.get());
+		}
+	});
+
+	@Test
+	public void testSameLoggerReturned() {
+		Logger byClass = registry.getLogger(LoggerRegistryTest.class);
+		Assert.assertSame(byClass, registry.getLogger(LoggerRegistryTest.class));
+		Assert.assertSame(byClass, registry.getLogger(LoggerRegistryTest.class.getName()));
+		Assert.assertNotSame(byClass, registry.getLogger("other"));
+		Assert.assertEquals(2, made.get());
+	}
+
+	@Test
+	public void testConcurrentLookupsAgree() throws Exception {
+		final int nThreads = 16;
+		final Logger[] seen = new Logger[nThreads];
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[nThreads];
+		for (int t = 0; t < nThreads; t++) {
+			final int index = t;
+			threads[t] = new Thread() {
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					seen[index] = registry.getLogger("contended");
+				}
+			};
+			threads[t].start();
+		}
+		start.countDown();
+		for (Thread t : threads) {
+			t.join();
+		}
+		for (int t = 0; t < nThreads; t++) {
+			Assert.assertSame(seen[0], seen[t]);
+		}
+	}
+
+	@Test
+	public void testFactoriesCacheLoggers() {
+		Assert.assertSame(JavaLogFactory.getInstance().getLogger(LoggerRegistryTest.class),
+		                  JavaLogFactory.getInstance().getLogger(LoggerRegistryTest.class));
+		Assert.assertSame(ESAPI.getLogger("LoggerRegistryTest"), ESAPI.getLogger("LoggerRegistryTest"));
+	}
+}
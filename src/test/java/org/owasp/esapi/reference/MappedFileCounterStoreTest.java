@@ -0,0 +1,137 @@
+package org.owasp.esapi.reference;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedFileCounterStoreTest {
+
+	private static final long MINUTE = 60000;
+	private static final long START = MINUTE * 1000000;
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("esapi-counters", ".dat");
+		file.delete();
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void testSharedBetweenInstances() throws IOException {
+		MappedFileCounterStore one = new MappedFileCounterStore(file, 64);
+		// The size is taken from the existing file.
+		MappedFileCounterStore two = new MappedFileCounterStore(file, 1024);
+		try {
+			Assert.assertEquals(64, two.getSlotCount());
+			one.increment("a", MINUTE, START);
+			Assert.assertEquals(2, two.increment("a", MINUTE, START + 1000));
+			Assert.assertEquals(2, one.getCount("a", MINUTE, START + 2000));
+		} finally {
+			one.close();
+			two.close();
+		}
+	}
+
+	@Test
+	public void testSurvivesReopen() throws IOException {
+		MappedFileCounterStore store = new MappedFileCounterStore(file, 64);
+		store.increment("a", MINUTE, START);
+		store.close();
+		store = new MappedFileCounterStore(file, 64);
+		try {
+			Assert.assertEquals(1, store.getCount("a", MINUTE, START));
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testRejectsOtherFiles() throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(new byte[128]);
+		} finally {
+			out.close();
+		}
+		new MappedFileCounterStore(file, 64);
+	}
+
+	/**
+	 * A JVM must not update the file differently from the one that created it.
+	 */
+	@Test(expected = IOException.class)
+	public void testRejectsOtherUpdateMode() throws IOException {
+		new MappedFileCounterStore(file, 64).close();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(32);
+			int mode = raf.readInt();
+			raf.seek(32);
+			raf.writeInt(3 - mode);
+		} finally {
+			raf.close();
+		}
+		new MappedFileCounterStore(file, 64);
+	}
+
+	/**
+	 * Several JVMs incrementing the same counter at once must not lose any events.
+	 */
+	@Test
+	public void testSharedBetweenProcesses() throws Exception {
+		new MappedFileCounterStore(file, 64).close();
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		Process[] processes = new Process[3];
+		for (int i = 0; i < processes.length; i++) {
+			processes[i] = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+					MappedFileCounterStoreTest.class.getName(), file.getPath(), "1000").redirectErrorStream(true).start();
+		}
+		for (Process process : processes) {
+			String output = drain(process.getInputStream());
+			Assert.assertEquals(output, 0, process.waitFor());
+		}
+		MappedFileCounterStore store = new MappedFileCounterStore(file, 64);
+		try {
+			Assert.assertEquals(3000, store.getCount("shared", MINUTE, START));
+		} finally {
+			store.close();
+		}
+	}
+
+	private static String drain(InputStream in) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		int c;
+		while ((c = in.read()) != -1) {
+			sb.append((char) c);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Run by {@link #testSharedBetweenProcesses()} in a separate JVM.
+	 *
+	 * @param args The counter store file and the number of events to count.
+	 */
+	public static void main(String[] args) throws IOException {
+		MappedFileCounterStore store = new MappedFileCounterStore(new File(args[0]), 64);
+		int n = Integer.parseInt(args[1]);
+		for (int i = 0; i < n; i++) {
+			store.increment("shared", MINUTE, START);
+		}
+		store.close();
+	}
+}
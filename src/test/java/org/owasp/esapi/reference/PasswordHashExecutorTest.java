@@ -0,0 +1,120 @@
+package org.owasp.esapi.reference;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.owasp.esapi.ESAPI;
+import org.owasp.esapi.errors.AvailabilityException;
+import org.owasp.esapi.errors.EncryptionException;
+
+public class PasswordHashExecutorTest {
+
+	@Test
+	public void testInline() throws Exception {
+		PasswordHashExecutor executor = new PasswordHashExecutor(0, 0);
+		Assert.assertEquals(0, executor.getThreads());
+		Assert.assertEquals(ESAPI.encryptor().hash("password", "salt"), executor.hash("password", "salt"));
+		Assert.assertEquals(1, executor.getCompletedCount());
+		Assert.assertTrue(executor.getMaxHashMillis() > 0);
+	}
+
+	@Test
+	public void testPooled() throws Exception {
+		PasswordHashExecutor executor = new PasswordHashExecutor(2, 4);
+		try {
+			Assert.assertEquals(2, executor.getThreads());
+			Assert.assertEquals(ESAPI.encryptor().hash("password", "salt"), executor.hash("password", "salt"));
+			Assert.assertFalse(executor.hash("password", "salt").equals(executor.hash("password", "pepper")));
+			Assert.assertEquals(3, executor.getCompletedCount());
+			Assert.assertEquals(0, executor.getRejectedCount());
+			Assert.assertTrue(executor.getAverageHashMillis() > 0);
+			Assert.assertTrue(executor.getMaxHashMillis() >= executor.getAverageHashMillis());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testSaturated() throws Exception {
+		final PasswordHashExecutor executor = new PasswordHashExecutor(1, 1);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Callable<String> blocked = new Callable<String>() {
+			public String call() throws Exception {
+				started.countDown();
+				release.await();
+				return "done";
+			}
+		};
+		List<Thread> callers = new ArrayList<Thread>();
+		try {
+			// One task occupies the thread, the next fills the queue
+			for (int i = 0; i < 2; i++) {
+				Thread caller = new Thread() {
+					public void run() {
+						try {
+							executor.execute(blocked);
+						} catch (EncryptionException e) {
+							// ignore
+						}
+					}
+				};
+				caller.start();
+				callers.add(caller);
+				if (i == 0) {
+					Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+				}
+			}
+			long deadline = System.currentTimeMillis() + 10000;
+			while (executor.getPendingCount() < 1 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			Assert.assertEquals(1, executor.getPendingCount());
+
+			try {
+				executor.hash("password", "salt");
+				Assert.fail("Hashed although saturated");
+			} catch (EncryptionException e) {
+				Assert.assertTrue(e.getCause() instanceof AvailabilityException);
+			}
+			Assert.assertEquals(1, executor.getRejectedCount());
+		} finally {
+			release.countDown();
+			for (Thread caller : callers) {
+				caller.join(10000);
+			}
+			executor.shutdown();
+		}
+		Assert.assertEquals(2, executor.getCompletedCount());
+		Assert.assertTrue(executor.getMaxQueueWaitMillis() > 0);
+	}
+
+	@Test
+	public void testFailureIsRethrown() throws Exception {
+		PasswordHashExecutor executor = new PasswordHashExecutor(1, 1);
+		try {
+			executor.execute(new Callable<String>() {
+				public String call() throws Exception {
+					throw new EncryptionException("failed", "failed");
+				}
+			});
+			Assert.fail();
+		} catch (EncryptionException e) {
+			Assert.assertEquals("failed", e.getLogMessage());
+		} finally {
+			executor.shutdown();
+		}
+		Assert.assertEquals(1, executor.getCompletedCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidQueueSize() {
+		new PasswordHashExecutor(2, 0);
+	}
+}
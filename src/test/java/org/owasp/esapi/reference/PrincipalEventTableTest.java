@@ -0,0 +1,46 @@
+package org.owasp.esapi.reference;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class PrincipalEventTableTest {
+
+	@Test
+	public void testSameCounterPerPrincipalAndEvent() {
+		PrincipalEventTable table = new PrincipalEventTable(1000, 60000);
+		EventCounter counter = table.getCounter("ip:10.0.0.1", "event.test", 3, 0);
+		Assert.assertSame(counter, table.getCounter("ip:10.0.0.1", "event.test", 3, 1));
+		Assert.assertNotSame(counter, table.getCounter("ip:10.0.0.2", "event.test", 3, 1));
+		Assert.assertNotSame(counter, table.getCounter("ip:10.0.0.1", "event.other", 3, 1));
+		// A reconfigured threshold count gets a new counter.
+		Assert.assertNotSame(counter, table.getCounter("ip:10.0.0.1", "event.test", 5, 2));
+		Assert.assertEquals(3, table.size());
+	}
+
+	@Test
+	public void testBounded() {
+		PrincipalEventTable table = new PrincipalEventTable(640, 60000);
+		for (int i = 0; i < 100000; i++) {
+			table.getCounter("ip:" + i, "event.test", 3, 0);
+		}
+		Assert.assertTrue(String.valueOf(table.size()), table.size() <= 640);
+		Assert.assertTrue(String.valueOf(table.size()), table.size() > 320);
+	}
+
+	@Test
+	public void testIdleCountersEvicted() {
+		PrincipalEventTable table = new PrincipalEventTable(100000, 1000);
+		for (int i = 0; i < 1000; i++) {
+			table.getCounter("ip:old" + i, "event.test", 3, 0);
+		}
+		EventCounter active = table.getCounter("ip:active", "event.test", 3, 0);
+		for (int i = 0; i < 1000; i++) {
+			table.getCounter("ip:active", "event.test", 3, 5000 + i);
+			table.getCounter("ip:new" + i, "event.test", 3, 5000 + i);
+		}
+		// Each new counter evicts an idle one from its shard, so the old ones are mostly gone.
+		Assert.assertTrue(String.valueOf(table.size()), table.size() < 1500);
+		Assert.assertSame(active, table.getCounter("ip:active", "event.test", 3, 7000));
+	}
+}
@@ -0,0 +1,199 @@
+package org.owasp.esapi.reference;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UserJournalTest {
+
+	private File file;
+	private UserJournal journal;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("esapi-users", ".journal");
+		journal = new UserJournal(file);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		journal.close();
+		file.delete();
+	}
+
+	@Test
+	public void testRecoverCommittedRecords() throws Exception {
+		Assert.assertTrue(journal.recover(1).isEmpty());
+		journal.commit(journal.append("+ one"));
+		journal.append("- 2");
+		journal.flush();
+		Assert.assertEquals(2, journal.getRecordCount());
+		journal.close();
+
+		journal = new UserJournal(file);
+		List<String> records = journal.recover(1);
+		Assert.assertEquals(2, records.size());
+		Assert.assertEquals("+ one", records.get(0));
+		Assert.assertEquals("- 2", records.get(1));
+	}
+
+	@Test
+	public void testUncommittedRecordsAreLost() throws Exception {
+		journal.recover(1);
+		journal.commit(journal.append("+ one"));
+		journal.append("+ two");
+		journal.close();
+
+		journal = new UserJournal(file);
+		Assert.assertEquals(1, journal.recover(1).size());
+	}
+
+	@Test
+	public void testOtherGenerationIsDiscarded() throws Exception {
+		journal.recover(1);
+		journal.commit(journal.append("+ one"));
+		journal.close();
+
+		journal = new UserJournal(file);
+		Assert.assertTrue(journal.recover(2).isEmpty());
+		journal.close();
+		journal = new UserJournal(file);
+		Assert.assertTrue(journal.recover(1).isEmpty());
+	}
+
+	@Test
+	public void testTornRecordIsDropped() throws Exception {
+		journal.recover(1);
+		journal.commit(journal.append("+ one"));
+		journal.commit(journal.append("+ two"));
+		journal.close();
+
+		// Cut the last record short, as a crash in the middle of a write would
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - 3);
+		raf.close();
+
+		journal = new UserJournal(file);
+		List<String> records = journal.recover(1);
+		Assert.assertEquals(1, records.size());
+		Assert.assertEquals("+ one", records.get(0));
+
+		// New records go after the last good one
+		journal.commit(journal.append("+ three"));
+		journal.close();
+		journal = new UserJournal(file);
+		records = journal.recover(1);
+		Assert.assertEquals(2, records.size());
+		Assert.assertEquals("+ three", records.get(1));
+	}
+
+	@Test
+	public void testCorruptedRecordIsDropped() throws Exception {
+		journal.recover(1);
+		journal.commit(journal.append("+ one"));
+		journal.close();
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.seek(raf.length() - 2);
+		raf.write('X');
+		raf.close();
+
+		journal = new UserJournal(file);
+		Assert.assertTrue(journal.recover(1).isEmpty());
+	}
+
+	@Test
+	public void testReset() throws Exception {
+		journal.recover(1);
+		journal.commit(journal.append("+ one"));
+		long sequence = journal.append("+ two");
+		journal.reset(2);
+		Assert.assertEquals(0, journal.getRecordCount());
+		// Covered by the reset, so nothing to write
+		journal.commit(sequence);
+		journal.close();
+
+		journal = new UserJournal(file);
+		Assert.assertTrue(journal.recover(2).isEmpty());
+	}
+
+	@Test
+	public void testResetKeepsRecordsAfterMark() throws Exception {
+		journal.recover(1);
+		journal.commit(journal.append("+ one"));
+		journal.append("+ two");
+		Assert.assertEquals(2, journal.mark());
+		journal.commit(journal.append("+ three"));
+		long sequence = journal.append("+ four");
+		journal.reset(2);
+		Assert.assertEquals(1, journal.getRecordCount());
+		journal.commit(sequence);
+		Assert.assertEquals(2, journal.getRecordCount());
+		journal.close();
+
+		journal = new UserJournal(file);
+		List<String> records = journal.recover(2);
+		Assert.assertEquals(2, records.size());
+		Assert.assertEquals("+ three", records.get(0));
+		Assert.assertEquals("+ four", records.get(1));
+	}
+
+	@Test
+	public void testRecoverContinuedJournal() throws Exception {
+		journal.recover(1);
+		journal.commit(journal.append("+ one"));
+		int covered = journal.mark();
+		journal.commit(journal.append("+ two"));
+		// The user file of generation 2 was written, but the journal not reset
+		journal.close();
+
+		journal = new UserJournal(file);
+		List<String> records = journal.recover(2, 1, covered);
+		Assert.assertEquals(1, records.size());
+		Assert.assertEquals("+ two", records.get(0));
+		journal.commit(journal.append("+ three"));
+		journal.close();
+
+		journal = new UserJournal(file);
+		Assert.assertEquals(2, journal.recover(2).size());
+	}
+
+	@Test
+	public void testGroupCommit() throws Exception {
+		journal.recover(1);
+		final AtomicInteger failures = new AtomicInteger();
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			final int id = t;
+			threads[t] = new Thread() {
+				public void run() {
+					try {
+						for (int i = 0; i < 50; i++) {
+							journal.commit(journal.append("+ " + id + " " + i));
+						}
+					} catch (Exception e) {
+						failures.incrementAndGet();
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Assert.assertEquals(0, failures.get());
+		Assert.assertEquals(400, journal.getRecordCount());
+		Assert.assertTrue(journal.getCommitCount() <= 400);
+		journal.close();
+
+		journal = new UserJournal(file);
+		Assert.assertEquals(400, journal.recover(1).size());
+	}
+}
@@ -0,0 +1,136 @@
+package org.owasp.esapi.reference;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UserStoreTest {
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("esapi-users", ".db");
+		file.delete();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (String suffix : new String[] { "", ".ids", ".names", ".tmp", ".ids.tmp", ".names.tmp" }) {
+			new File(file.getPath() + suffix).delete();
+		}
+	}
+
+	private static String line(long id, String name, int failed) {
+		return id + " | " + name + " | hash | user | unlocked | enabled |  | null | 0 | 0 | 0 | 0 | " + failed;
+	}
+
+	@Test
+	public void testPutAndGet() throws Exception {
+		UserStore store = new UserStore(file);
+		store.put(line(1, "alice", 0));
+		store.put(line(2, "bob", 0));
+		Assert.assertEquals(line(1, "alice", 0), store.get(1));
+		Assert.assertEquals(line(2, "bob", 0), store.get("BOB"));
+		Assert.assertNull(store.get(3));
+		Assert.assertNull(store.get("carol"));
+		Assert.assertEquals(2, store.size());
+		Assert.assertEquals(2, store.getAccountNames().size());
+
+		store.put(line(1, "alice", 3));
+		Assert.assertEquals(line(1, "alice", 3), store.get("alice"));
+		Assert.assertEquals(2, store.size());
+		store.close();
+	}
+
+	@Test
+	public void testRenameAndRemove() throws Exception {
+		UserStore store = new UserStore(file);
+		store.put(line(1, "alice", 0));
+		store.put(line(1, "alicia", 0));
+		Assert.assertNull(store.get("alice"));
+		Assert.assertEquals(line(1, "alicia", 0), store.get("alicia"));
+
+		Assert.assertTrue(store.remove(1));
+		Assert.assertFalse(store.remove(1));
+		Assert.assertNull(store.get(1));
+		Assert.assertNull(store.get("alicia"));
+		Assert.assertEquals(0, store.size());
+		store.close();
+	}
+
+	@Test
+	public void testDuplicateNameIsRejected() throws Exception {
+		UserStore store = new UserStore(file);
+		store.put(line(1, "alice", 0));
+		try {
+			store.put(line(2, "Alice", 0));
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		Assert.assertEquals(1, store.size());
+		store.close();
+	}
+
+	@Test
+	public void testReopen() throws Exception {
+		UserStore store = new UserStore(file);
+		for (int i = 1; i <= 2000; i++) {
+			store.put(line(i, "user" + i, 0));
+		}
+		store.remove(7);
+		store.close();
+
+		store = new UserStore(file);
+		Assert.assertEquals(1999, store.size());
+		Assert.assertEquals(line(1234, "user1234", 0), store.get("user1234"));
+		Assert.assertNull(store.get(7));
+		store.close();
+	}
+
+	@Test
+	public void testRecoveryAfterCrash() throws Exception {
+		UserStore store = new UserStore(file);
+		store.put(line(1, "alice", 0));
+		store.put(line(2, "bob", 0));
+		store.remove(2);
+		store.put(line(1, "alice", 5));
+		// Not closed, and with a record torn by the crash
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.seek(raf.length());
+		raf.writeInt(100);
+		raf.write(new byte[10]);
+		raf.close();
+
+		UserStore recovered = new UserStore(file);
+		Assert.assertEquals(1, recovered.size());
+		Assert.assertEquals(line(1, "alice", 5), recovered.get("alice"));
+		Assert.assertNull(recovered.get("bob"));
+		recovered.put(line(3, "carol", 0));
+		Assert.assertEquals(line(3, "carol", 0), recovered.get(3));
+		recovered.close();
+		store.close();
+	}
+
+	@Test
+	public void testCompact() throws Exception {
+		UserStore store = new UserStore(file);
+		for (int i = 0; i < 100; i++) {
+			store.put(line(1, "alice", i));
+		}
+		store.put(line(2, "bob", 0));
+		long length = file.length();
+		store.compact();
+		Assert.assertTrue(file.length() < length / 10);
+		Assert.assertEquals(line(1, "alice", 99), store.get("alice"));
+		Assert.assertEquals(line(2, "bob", 0), store.get(2));
+		Assert.assertEquals(2, store.size());
+		store.close();
+	}
+}
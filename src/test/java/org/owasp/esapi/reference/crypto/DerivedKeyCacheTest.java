@@ -0,0 +1,117 @@
+package org.owasp.esapi.reference.crypto;
+
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.owasp.esapi.ESAPI;
+import org.owasp.esapi.crypto.CipherText;
+import org.owasp.esapi.crypto.CryptoHelper;
+import org.owasp.esapi.crypto.KeyDerivationFunction;
+import org.owasp.esapi.crypto.PlainText;
+
+public class DerivedKeyCacheTest {
+
+	private static final KeyDerivationFunction.PRF_ALGORITHMS PRF = KeyDerivationFunction.PRF_ALGORITHMS.HmacSHA256;
+
+	private static SecretKey derive(SecretKey kdk, String purpose) throws Exception {
+		return new KeyDerivationFunction(PRF).computeDerivedKey(kdk, 128, purpose);
+	}
+
+	@Test
+	public void testGetAndPut() throws Exception {
+		DerivedKeyCache cache = new DerivedKeyCache(10, 0);
+		SecretKey kdk = CryptoHelper.generateSecretKey("AES", 128);
+		DerivedKeyCache.CacheKey encryption = cache.cacheKey(kdk, KeyDerivationFunction.kdfVersion, PRF, 128, "encryption");
+		DerivedKeyCache.CacheKey authenticity = cache.cacheKey(kdk, KeyDerivationFunction.kdfVersion, PRF, 128, "authenticity");
+		Assert.assertFalse(encryption.equals(authenticity));
+		Assert.assertEquals(encryption, cache.cacheKey(kdk, 0, PRF, 128, "encryption"));
+		Assert.assertEquals(encryption, cache.cacheKey(new SecretKeySpec(kdk.getEncoded(), "AES"),
+				KeyDerivationFunction.kdfVersion, PRF, 128, "encryption"));
+
+		Assert.assertNull(cache.get(encryption));
+		SecretKey derived = derive(kdk, "encryption");
+		cache.put(encryption, derived);
+		SecretKey cached = cache.get(encryption);
+		Assert.assertNotSame(derived, cached);
+		Assert.assertTrue(Arrays.equals(derived.getEncoded(), cached.getEncoded()));
+		Assert.assertEquals(derived.getAlgorithm(), cached.getAlgorithm());
+		Assert.assertNull(cache.get(authenticity));
+		Assert.assertEquals(1, cache.getHitCount());
+		Assert.assertEquals(2, cache.getMissCount());
+	}
+
+	@Test
+	public void testFingerprintDependsOnKeyAndCache() throws Exception {
+		DerivedKeyCache cache = new DerivedKeyCache(10, 0);
+		SecretKey kdk = CryptoHelper.generateSecretKey("AES", 128);
+		SecretKey other = CryptoHelper.generateSecretKey("AES", 128);
+		DerivedKeyCache.CacheKey name = cache.cacheKey(kdk, 0, PRF, 128, "encryption");
+		Assert.assertFalse(name.equals(cache.cacheKey(other, 0, PRF, 128, "encryption")));
+		Assert.assertFalse(name.equals(cache.cacheKey(kdk, 0, PRF, 256, "encryption")));
+		Assert.assertFalse(name.equals(cache.cacheKey(kdk, 0, KeyDerivationFunction.PRF_ALGORITHMS.HmacSHA1, 128, "encryption")));
+		// Salted per cache
+		Assert.assertFalse(name.equals(new DerivedKeyCache(10, 0).cacheKey(kdk, 0, PRF, 128, "encryption")));
+	}
+
+	@Test
+	public void testBoundedAndWipedOnEviction() throws Exception {
+		DerivedKeyCache cache = new DerivedKeyCache(5, 0);
+		DerivedKeyCache.CacheKey[] names = new DerivedKeyCache.CacheKey[20];
+		for (int i = 0; i < names.length; i++) {
+			SecretKey kdk = CryptoHelper.generateSecretKey("AES", 128);
+			names[i] = cache.cacheKey(kdk, 0, PRF, 128, "encryption");
+			cache.put(names[i], derive(kdk, "encryption"));
+			Assert.assertTrue(cache.size() <= 5);
+		}
+		Assert.assertEquals(5, cache.size());
+		// The least recently used keys were evicted
+		for (int i = 0; i < names.length; i++) {
+			Assert.assertEquals(i >= names.length - 5, cache.get(names[i]) != null);
+		}
+
+		cache.clear();
+		Assert.assertEquals(0, cache.size());
+		for (DerivedKeyCache.CacheKey name : names) {
+			Assert.assertNull(cache.get(name));
+		}
+	}
+
+	@Test
+	public void testExpiry() throws Exception {
+		DerivedKeyCache cache = new DerivedKeyCache(10, 50);
+		SecretKey kdk = CryptoHelper.generateSecretKey("AES", 128);
+		DerivedKeyCache.CacheKey name = cache.cacheKey(kdk, 0, PRF, 128, "encryption");
+		cache.put(name, derive(kdk, "encryption"));
+		Assert.assertNotNull(cache.get(name));
+		Thread.sleep(100);
+		Assert.assertNull(cache.get(name));
+		Assert.assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testUnencodableKeyIsNotCached() throws Exception {
+		DerivedKeyCache cache = new DerivedKeyCache(10, 0);
+		SecretKey kdk = new SecretKey() {
+			private static final long serialVersionUID = 1L;
+			public String getAlgorithm() { return "AES"; }
+			public String getFormat() { return null; }
+			public byte[] getEncoded() { return null; }
+		};
+		Assert.assertNull(cache.cacheKey(kdk, 0, PRF, 128, "encryption"));
+	}
+
+	@Test
+	public void testEncryptorRoundTrip() throws Exception {
+		// Encrypting twice with the same key reuses the derived keys
+		SecretKey key = CryptoHelper.generateSecretKey("AES", 128);
+		for (int i = 0; i < 3; i++) {
+			CipherText ct = ESAPI.encryptor().encrypt(key, new PlainText("value " + i));
+			Assert.assertEquals("value " + i, ESAPI.encryptor().decrypt(key, ct).toString());
+		}
+	}
+}
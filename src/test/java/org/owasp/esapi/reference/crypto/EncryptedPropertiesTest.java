@@ -229,4 +229,64 @@ public class EncryptedPropertiesTest extends TestCase {
 		assertTrue("Key one was never seen", sawOne);
 		assertTrue("Key two was never seen", sawTwo);
 	}
+
+	/**
+	 * Test that decrypted values are cached, replaced and dropped correctly.
+	 */
+	public void testCachedDecryption() throws Exception
+	{
+		DefaultEncryptedProperties toStore = new DefaultEncryptedProperties();
+		toStore.setProperty("one", "two");
+		toStore.setProperty("two", "three");
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		toStore.store(baos, "testCachedDecryption");
+
+		DefaultEncryptedProperties props = new DefaultEncryptedProperties(true, true);
+		props.load(new ByteArrayInputStream(baos.toByteArray()));
+		assertEquals("two", props.getProperty("one"));
+		assertEquals("two", props.getProperty("one"));
+		props.setProperty("one", "four");
+		assertEquals("four", props.getProperty("one"));
+		props.close();
+		assertEquals("four", props.getProperty("one"));
+		assertEquals("three", props.getProperty("two"));
+		props.close();
+
+		// Loading replaces values that were already read
+		props.load(new ByteArrayInputStream(baos.toByteArray()));
+		assertEquals("two", props.getProperty("one"));
+
+		// Eager decryption reports a value that cannot be decrypted when loading
+		try {
+			new DefaultEncryptedProperties(true, false).load(new ByteArrayInputStream("one=bm90IGVuY3J5cHRlZA==".getBytes("UTF-8")));
+			fail("Loaded a value that cannot be decrypted");
+		} catch (java.io.IOException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Test that a plaintext decrypted while the property was set to another
+	 * value is not cached.
+	 */
+	public void testStalePlaintextIsNotCached() throws Exception
+	{
+		java.util.concurrent.ConcurrentHashMap<String, CachedProperty> values = new java.util.concurrent.ConcurrentHashMap<String, CachedProperty>();
+		CachedProperty read = new CachedProperty("old", null);
+		values.put("one", read);
+		CachedProperty.cache(values, "one", read, "two");
+		assertEquals("two", values.get("one").getPlaintext());
+
+		read = values.get("one");
+		CachedProperty replaced = new CachedProperty("new", null);
+		values.put("one", replaced);
+		CachedProperty.cache(values, "one", read, "two");
+		assertSame(replaced, values.get("one"));
+		assertNull(values.get("one").getPlaintext());
+
+		CachedProperty.cache(values, "one", replaced, "three");
+		CachedProperty.drop(values, true);
+		assertEquals("new", values.get("one").getCiphertext());
+		assertNull(values.get("one").getPlaintext());
+	}
 }
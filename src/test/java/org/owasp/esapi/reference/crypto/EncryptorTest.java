@@ -16,6 +16,9 @@
 package org.owasp.esapi.reference.crypto;
 
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import javax.crypto.SecretKey;
 
@@ -26,6 +29,7 @@ import junit.framework.TestSuite;
 import org.owasp.esapi.ESAPI;
 import org.owasp.esapi.EncoderConstants;
 import org.owasp.esapi.Encryptor;
+import org.owasp.esapi.SecurityConfigurationWrapper;
 import org.owasp.esapi.crypto.CipherText;
 import org.owasp.esapi.crypto.CryptoHelper;
 import org.owasp.esapi.crypto.PlainText;
@@ -431,6 +435,47 @@ public class EncryptorTest extends TestCase {
         }
     }
 
+    /**
+     * Test of the compact seal format (Encryptor.Seal.Version=2), and that
+     * seals of either format are accepted whichever is configured.
+     * @throws Exception
+     */
+    public void testCompactSeal() throws Exception {
+        System.out.println("testCompactSeal()");
+        Encryptor instance = ESAPI.encryptor();
+        String legacy = instance.seal("legacy", instance.getTimeStamp() + 1000*60);
+        ESAPI.override(new SecurityConfigurationWrapper(ESAPI.securityConfiguration()) {
+            @Override
+            public int getSealVersion() {
+                return 2;
+            }
+        });
+        String compact;
+        try {
+            String plaintext = "compact \u00e9:" + ESAPI.randomizer().getRandomString( 32, EncoderConstants.CHAR_ALPHANUMERICS );
+            compact = instance.seal( plaintext, instance.getTimeStamp() + 1000*60 );
+            assertEquals(2, ESAPI.encoder().decodeFromBase64(compact)[0]);
+            assertEquals(plaintext, instance.unseal(compact));
+            assertEquals("", instance.unseal(instance.seal("", instance.getTimeStamp() + 1000*60)));
+            assertFalse(compact.equals(instance.seal( plaintext, instance.getTimeStamp() + 1000*60 )));
+            assertEquals("legacy", instance.unseal(legacy));
+            assertTrue(compact.length() < legacy.length());
+
+            byte[] bytes = ESAPI.encoder().decodeFromBase64(compact);
+            for (int position : new int[] { 3, 20, bytes.length - 1 }) {
+                byte[] altered = bytes.clone();
+                altered[position] ^= 1;
+                assertFalse(instance.verifySeal(ESAPI.encoder().encodeForBase64(altered, false)));
+            }
+            assertFalse(instance.verifySeal(ESAPI.encoder().encodeForBase64(Arrays.copyOf(bytes, 40), false)));
+            assertFalse(instance.verifySeal(instance.seal("expired", instance.getTimeStamp() - 1000)));
+        } finally {
+            ESAPI.override(null);
+        }
+        assertEquals("legacy", instance.unseal(legacy));
+        assertTrue(instance.verifySeal(compact));
+    }
+
     /**
 	 * Test of verifySeal method, of class org.owasp.esapi.Encryptor.
 	 * 
@@ -507,6 +552,89 @@ public class EncryptorTest extends TestCase {
         assertTrue( secretMsg.equals( plainText.toString() ) );
     }
     
+    /**
+     * Test of encryptAll and decryptAll, of class JavaEncryptor, on a small
+     * batch and on one large enough to be processed in parallel.
+     * @throws Exception
+     */
+    public void testEncryptAllDecryptAll() throws Exception {
+        System.out.println("testEncryptAllDecryptAll()");
+        JavaEncryptor instance = (JavaEncryptor) ESAPI.encryptor();
+        SecretKey key = CryptoHelper.generateSecretKey("AES", 128);
+        int threshold = ESAPI.securityConfiguration().getBatchParallelThreshold();
+        for (int count : new int[] { 0, 1, 17, threshold + 1 }) {
+            List<PlainText> plaintexts = new ArrayList<PlainText>();
+            for (int i = 0; i < count; i++) {
+                plaintexts.add(new PlainText("value " + i));
+            }
+            List<CipherText> ciphertexts = instance.encryptAll(key, plaintexts);
+            assertEquals(count, ciphertexts.size());
+            List<PlainText> decrypted = instance.decryptAll(key, ciphertexts);
+            for (int i = 0; i < count; i++) {
+                assertEquals("value " + i, decrypted.get(i).toString());
+                // Interchangeable with single encryption and decryption
+                assertEquals("value " + i, instance.decrypt(key, ciphertexts.get(i)).toString());
+            }
+        }
+
+        List<CipherText> single = new ArrayList<CipherText>();
+        single.add(instance.encrypt(new PlainText("one")));
+        single.add(instance.encrypt(new PlainText("one")));
+        assertEquals("one", instance.decryptAll(single).get(1).toString());
+        List<PlainText> same = new ArrayList<PlainText>();
+        same.add(new PlainText("same"));
+        same.add(new PlainText("same"));
+        List<CipherText> batch = instance.encryptAll(same);
+        assertFalse(Arrays.equals(batch.get(0).getIV(), batch.get(1).getIV()));
+        assertFalse(Arrays.equals(batch.get(0).getRawCipherText(), batch.get(1).getRawCipherText()));
+    }
+
+    /**
+     * Test that decrypting the same key again takes the derived keys, including
+     * the authenticity key the MAC is checked with, from the cache.
+     * @throws Exception
+     */
+    public void testDecryptUsesDerivedKeyCache() throws Exception {
+        System.out.println("testDecryptUsesDerivedKeyCache()");
+        JavaEncryptor instance = (JavaEncryptor) ESAPI.encryptor();
+        DerivedKeyCache cache = instance.getDerivedKeyCache();
+        assertNotNull(cache);
+        SecretKey key = CryptoHelper.generateSecretKey("AES", 128);
+        CipherText ciphertext = instance.encrypt(key, new PlainText("cached"));
+        assertEquals("cached", instance.decrypt(key, ciphertext).toString());
+
+        long hits = cache.getHitCount();
+        long misses = cache.getMissCount();
+        assertEquals("cached", instance.decrypt(key, ciphertext).toString());
+        assertEquals(misses, cache.getMissCount());
+        // the authenticity key for the MAC and the encryption key
+        assertEquals(hits + 2, cache.getHitCount());
+    }
+
+    /**
+     * Test that decryptAll rejects a batch with an altered ciphertext.
+     * @throws Exception
+     */
+    public void testDecryptAllDetectsTampering() throws Exception {
+        System.out.println("testDecryptAllDetectsTampering()");
+        JavaEncryptor instance = (JavaEncryptor) ESAPI.encryptor();
+        SecretKey key = CryptoHelper.generateSecretKey("AES", 128);
+        List<PlainText> plaintexts = new ArrayList<PlainText>();
+        for (int i = 0; i < 5; i++) {
+            plaintexts.add(new PlainText("value " + i));
+        }
+        List<CipherText> ciphertexts = new ArrayList<CipherText>(instance.encryptAll(key, plaintexts));
+        byte[] serialized = ciphertexts.get(3).asPortableSerializedByteArray();
+        serialized[serialized.length - 1] ^= 1;
+        ciphertexts.set(3, CipherText.fromPortableSerializedBytes(serialized));
+        try {
+            instance.decryptAll(key, ciphertexts);
+            fail("Decrypted a batch with an altered ciphertext");
+        } catch (EncryptionException e) {
+            // expected
+        }
+    }
+
     /**
      * Test of main method, of class org.owasp.esapi.Encryptor. Must be done by
      * visual inspection for now. (Needs improvement.)
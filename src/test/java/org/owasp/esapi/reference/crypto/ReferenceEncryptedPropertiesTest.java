@@ -532,4 +532,71 @@ public class ReferenceEncryptedPropertiesTest extends TestCase {
         f.delete();
 	}
 
+	/**
+	 * Test that decrypted values are cached, replaced and dropped correctly.
+	 */
+	public void testCachedDecryption() throws Exception {
+		DefaultEncryptedProperties toStore = new DefaultEncryptedProperties();
+		toStore.setProperty("one", "two");
+		toStore.setProperty("two", "three");
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		toStore.store(baos, "testCachedDecryption");
+
+		ReferenceEncryptedProperties props = new ReferenceEncryptedProperties(true, true);
+		props.load(new ByteArrayInputStream(baos.toByteArray()));
+		assertEquals("two", props.getProperty("one"));
+		assertEquals("two", props.getProperty("one"));
+		props.setProperty("one", "four");
+		assertEquals("four", props.getProperty("one"));
+		props.close();
+		assertEquals("four", props.getProperty("one"));
+
+		// Loading, removing and clearing replace values that were already read
+		props.load(new ByteArrayInputStream(baos.toByteArray()));
+		assertEquals("two", props.getProperty("one"));
+		props.remove("one");
+		assertNull(props.getProperty("one"));
+		props.clear();
+		assertNull(props.getProperty("two"));
+
+		// Eager decryption reports a value that cannot be decrypted when loading
+		try {
+			new ReferenceEncryptedProperties(true, false).load(new ByteArrayInputStream("one=bm90IGVuY3J5cHRlZA==".getBytes("UTF-8")));
+			fail("Loaded a value that cannot be decrypted");
+		} catch (EncryptionRuntimeException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Test reading the same properties from several threads at once.
+	 */
+	public void testConcurrentGetProperty() throws Exception {
+		final ReferenceEncryptedProperties props = new ReferenceEncryptedProperties();
+		for (int i = 0; i < 20; i++) {
+			props.setProperty("key" + i, "value" + i);
+		}
+		final Throwable[] failure = new Throwable[1];
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					try {
+						for (int n = 0; n < 500; n++) {
+							int i = n % 20;
+							assertEquals("value" + i, props.getProperty("key" + i));
+						}
+					} catch (Throwable e) {
+						failure[0] = e;
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertNull(String.valueOf(failure[0]), failure[0]);
+	}
+
 }
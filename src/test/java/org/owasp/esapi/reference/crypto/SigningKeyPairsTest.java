@@ -0,0 +1,113 @@
+package org.owasp.esapi.reference.crypto;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.security.KeyPair;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.owasp.esapi.ESAPI;
+import org.owasp.esapi.SecurityConfigurationWrapper;
+import org.owasp.esapi.errors.EncryptionException;
+
+public class SigningKeyPairsTest {
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("SigningKeyPairsTest", ".properties");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+		ESAPI.override(null);
+	}
+
+	@Test
+	public void testKeyAlgorithm() {
+		Assert.assertEquals("DSA", SigningKeyPairs.keyAlgorithm("SHA1withDSA"));
+		Assert.assertEquals("RSA", SigningKeyPairs.keyAlgorithm("SHA256withRSA"));
+		Assert.assertEquals("EC", SigningKeyPairs.keyAlgorithm("EC"));
+	}
+
+	@Test
+	public void testKeyPairFileRoundTrip() throws Exception {
+		for (String algorithm : new String[] { "SHA1withDSA", "SHA256withRSA" }) {
+			KeyPair pair = SigningKeyPairs.generate(algorithm, 1024, new SecureRandom());
+			SigningKeyPairs.writeKeyPairFile(pair, file);
+			KeyPair loaded = SigningKeyPairs.loadKeyPairFile(file);
+			Assert.assertTrue(Arrays.equals(pair.getPrivate().getEncoded(), loaded.getPrivate().getEncoded()));
+			Assert.assertTrue(Arrays.equals(pair.getPublic().getEncoded(), loaded.getPublic().getEncoded()));
+
+			Signature signer = Signature.getInstance(algorithm);
+			signer.initSign(pair.getPrivate());
+			signer.update("data".getBytes("UTF-8"));
+			byte[] signature = signer.sign();
+			signer.initVerify(loaded.getPublic());
+			signer.update("data".getBytes("UTF-8"));
+			Assert.assertTrue(signer.verify(signature));
+		}
+	}
+
+	@Test
+	public void testLoadFromConfiguration() throws Exception {
+		Assert.assertNull(SigningKeyPairs.load(ESAPI.securityConfiguration()));
+
+		KeyPair pair = SigningKeyPairs.generate("SHA1withDSA", 1024, new SecureRandom());
+		SigningKeyPairs.writeKeyPairFile(pair, file);
+		ESAPI.override(new SecurityConfigurationWrapper(ESAPI.securityConfiguration()) {
+			@Override
+			public String getDigitalSignatureKeyPairFile() {
+				return file.getAbsolutePath();
+			}
+		});
+		KeyPair loaded = SigningKeyPairs.load(ESAPI.securityConfiguration());
+		Assert.assertTrue(Arrays.equals(pair.getPublic().getEncoded(), loaded.getPublic().getEncoded()));
+	}
+
+	@Test
+	public void testMissingKeyPairFile() throws Exception {
+		file.delete();
+		try {
+			SigningKeyPairs.loadKeyPairFile(file);
+			Assert.fail("Loaded a missing key pair file");
+		} catch (EncryptionException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testIncompleteKeyPairFile() throws Exception {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write("Algorithm=DSA\n".getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		try {
+			SigningKeyPairs.loadKeyPairFile(file);
+			Assert.fail("Loaded an incomplete key pair file");
+		} catch (EncryptionException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testMissingKeyStore() throws Exception {
+		file.delete();
+		try {
+			SigningKeyPairs.loadKeyStore(file, "JKS", "changeit".toCharArray(), "esapi-signing");
+			Assert.fail("Loaded a missing key store");
+		} catch (EncryptionException e) {
+			// expected
+		}
+	}
+}